@@ -0,0 +1,190 @@
+package coffeemaker.bench;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal throughput harness for the coffee maker benchmarks.
+ *
+ * Every workload runs at each configured thread count, with
+ * warmup iterations that are discarded and measured iterations
+ * that are reported as operations per second. Results are
+ * printed as a table and can be written as JSON.
+ */
+public class BenchmarkRunner {
+
+    private final int[] threadCounts;
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationMillis;
+    private final Pattern filter;
+    private final List<Result> results = new ArrayList<>();
+    /** Results of the operations folded together, so that none is dead code */
+    private volatile long sink;
+
+    public BenchmarkRunner(int[] threadCounts, int warmupIterations, int measurementIterations,
+                           long iterationMillis, String filter) {
+        this.threadCounts = threadCounts;
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationMillis = iterationMillis;
+        this.filter = Pattern.compile(filter);
+    }
+
+    /**
+     * Runs the workload at every thread count, unless its name
+     * does not match the filter.
+     * @param name
+     * @param workload
+     * @throws Exception
+     */
+    public void run(String name, Workload workload) throws Exception {
+        if (!filter.matcher(name).find()) {
+            return;
+        }
+        for (int threads : threadCounts) {
+            for (int i = 0; i < warmupIterations; i++) {
+                iteration(workload, threads);
+            }
+            double[] scores = new double[measurementIterations];
+            for (int i = 0; i < measurementIterations; i++) {
+                scores[i] = iteration(workload, threads);
+            }
+            Result result = new Result(name, threads, scores);
+            results.add(result);
+            System.out.printf(Locale.ROOT, "%-50s %3d threads %,18.0f ops/s  +- %,.0f%n",
+                    name, threads, result.mean(), result.error());
+        }
+    }
+
+    private double iteration(Workload workload, int threads) throws Exception {
+        workload.setUp();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        long[] counts = new long[threads];
+        Throwable[] failure = new Throwable[1];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            final SplittableRandom random = new SplittableRandom(31L * t + 17);
+            workers[t] = new Thread(() -> {
+                long count = 0;
+                long consumed = 0;
+                try {
+                    start.await();
+                    while (running.get()) {
+                        consumed += workload.operation(random);
+                        count++;
+                    }
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+                sink ^= consumed;
+                counts[index] = count;
+            }, "bench-" + t);
+            workers[t].start();
+        }
+        start.await();
+        long begin = System.nanoTime();
+        Thread.sleep(iterationMillis);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new IllegalStateException("Benchmark operation failed", failure[0]);
+            }
+        }
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total * 1e9 / elapsed;
+    }
+
+    /**
+     * Writes the results as a JSON array, one object per
+     * workload and thread count.
+     * @param file
+     * @param properties extra top level properties, e.g. the release
+     * @throws IOException
+     */
+    public void writeJson(Path file, String... properties) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("{");
+            for (int i = 0; i + 1 < properties.length; i += 2) {
+                out.printf("  \"%s\": \"%s\",%n", escape(properties[i]), escape(properties[i + 1]));
+            }
+            out.printf(Locale.ROOT, "  \"warmupIterations\": %d,%n", warmupIterations);
+            out.printf(Locale.ROOT, "  \"measurementIterations\": %d,%n", measurementIterations);
+            out.printf(Locale.ROOT, "  \"iterationMillis\": %d,%n", iterationMillis);
+            out.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                StringBuilder raw = new StringBuilder();
+                for (int j = 0; j < r.scores.length; j++) {
+                    raw.append(j == 0 ? "" : ", ").append(String.format(Locale.ROOT, "%.1f", r.scores[j]));
+                }
+                out.printf(Locale.ROOT,
+                        "    {\"benchmark\": \"%s\", \"threads\": %d, \"unit\": \"ops/s\", \"score\": %.1f, \"error\": %.1f, \"raw\": [%s]}%s%n",
+                        escape(r.name), r.threads, r.mean(), r.error(), raw, i + 1 < results.size() ? "," : "");
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Measured scores of one workload at one thread count.
+     */
+    private static final class Result {
+        private final String name;
+        private final int threads;
+        private final double[] scores;
+
+        Result(String name, int threads, double[] scores) {
+            this.name = name;
+            this.threads = threads;
+            this.scores = scores;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (double score : scores) {
+                sum += score;
+            }
+            return sum / scores.length;
+        }
+
+        /** Standard deviation of the measured iterations */
+        double error() {
+            if (scores.length < 2) {
+                return 0;
+            }
+            double mean = mean();
+            double sum = 0;
+            for (double score : scores) {
+                sum += (score - mean) * (score - mean);
+            }
+            return Math.sqrt(sum / (scores.length - 1));
+        }
+    }
+}
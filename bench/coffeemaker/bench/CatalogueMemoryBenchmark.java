@@ -0,0 +1,73 @@
+package coffeemaker.bench;
+
+import coffeemaker.CatalogueRecipeBook;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.RecipeCatalogue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Heap retained by the recipe books of a fleet of machines that
+ * mostly offer the same recipes, with one RecipeBook per machine
+ * and with CatalogueRecipeBooks over a shared RecipeCatalogue.
+ * One machine in twenty overrides the price of its last recipe.
+ *
+ * Usage: CatalogueMemoryBenchmark [machines]
+ */
+public class CatalogueMemoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int machines = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        long before = usedHeap(memory);
+        RecipeBook[] books = new RecipeBook[machines];
+        for (int i = 0; i < machines; i++) {
+            books[i] = new RecipeBook();
+            fill(books[i], i);
+        }
+        long ownBytes = usedHeap(memory) - before;
+
+        before = usedHeap(memory);
+        RecipeCatalogue catalogue = new RecipeCatalogue();
+        RecipeBook[] shared = new RecipeBook[machines];
+        for (int i = 0; i < machines; i++) {
+            shared[i] = new CatalogueRecipeBook(catalogue);
+            fill(shared[i], i);
+        }
+        long sharedBytes = usedHeap(memory) - before;
+
+        System.out.printf("%,d machines, 3 recipes each%n", machines);
+        System.out.printf("%-20s %,14d bytes %8.1f bytes/machine%n", "RecipeBook", ownBytes, (double) ownBytes / machines);
+        System.out.printf("%-20s %,14d bytes %8.1f bytes/machine%n", "CatalogueRecipeBook", sharedBytes,
+                (double) sharedBytes / machines);
+        System.out.printf("catalogue holds %d recipes%n", catalogue.size());
+
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            catalogue.reprice(p -> p + 5);
+            if (round == 1) {
+                System.out.printf("fleet-wide reprice  %.1f us%n", (System.nanoTime() - start) / 1e3);
+            }
+        }
+        if (books[0].getRecipes().size() != shared[0].getRecipes().size()) {
+            throw new AssertionError();
+        }
+    }
+
+    private static void fill(RecipeBook book, int machine) throws Exception {
+        book.addRecipe(new Recipe("Coffee", 50, 3, 0, 1, 0));
+        book.addRecipe(new Recipe("Latte", 75, 2, 3, 1, 0));
+        book.addRecipe(new Recipe("Hot Chocolate", machine % 20 == 0 ? 70 : 65, 0, 3, 1, 3));
+    }
+
+    private static long usedHeap(MemoryMXBean memory) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,489 @@
+package coffeemaker.bench;
+
+import coffeemaker.AtomicInventory;
+import coffeemaker.Backpressure;
+import coffeemaker.CoffeeMaker;
+import coffeemaker.CoffeeMakerFleet;
+import coffeemaker.DispenseResult;
+import coffeemaker.DispenseStatus;
+import coffeemaker.Inventory;
+import coffeemaker.OrderPipeline;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.StripedInventory;
+import coffeemaker.exceptions.*;
+import coffeemaker.metrics.CoffeeMakerMetrics;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Benchmark suite for CoffeeMaker, Inventory and RecipeBook.
+ *
+ * Usage: CoffeeMakerBenchmarks [--threads 1,4,N] [--warmup 3]
+ * [--iterations 5] [--time-ms 1000] [--filter regex]
+ * [--json results.json] [--release name]
+ *
+ * N in the thread list stands for the number of processors.
+ */
+public class CoffeeMakerBenchmarks {
+
+    /** Number of recipes of the large recipe book */
+    private static final int MENU_SIZE = 1000;
+    /** Number of recipes that read/write workloads add and delete */
+    private static final int EXTRA_RECIPES = 100;
+
+    /** Inventory implementations, see newInventory */
+    private static final String[] INVENTORIES = {"monitor", "atomic", "striped"};
+
+    private static Recipe[] menu;
+    private static Recipe[] extras;
+
+    public static void main(String[] args) throws Exception {
+        String threads = "1,4,N";
+        int warmup = 3;
+        int iterations = 5;
+        long millis = 1000;
+        String filter = "";
+        String json = null;
+        String release = "dev";
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--threads": threads = args[i + 1]; break;
+                case "--warmup": warmup = Integer.parseInt(args[i + 1]); break;
+                case "--iterations": iterations = Integer.parseInt(args[i + 1]); break;
+                case "--time-ms": millis = Long.parseLong(args[i + 1]); break;
+                case "--filter": filter = args[i + 1]; break;
+                case "--json": json = args[i + 1]; break;
+                case "--release": release = args[i + 1]; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        menu = new Recipe[MENU_SIZE];
+        for (int i = 0; i < MENU_SIZE; i++) {
+            menu[i] = new Recipe("Recipe" + i, 50 + i % 50, i % 100, i / 100, 1, 0);
+        }
+        extras = new Recipe[EXTRA_RECIPES];
+        for (int i = 0; i < EXTRA_RECIPES; i++) {
+            extras[i] = new Recipe("Extra" + i, 75, i, 0, 0, 1);
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(parseThreads(threads), warmup, iterations, millis, filter);
+        for (String kind : INVENTORIES) {
+            coffeeMakerWorkloads(runner, kind);
+        }
+        for (String kind : INVENTORIES) {
+            inventoryWorkloads(runner, kind);
+        }
+        recipeBookWorkloads(runner);
+        fleetWorkloads(runner);
+        pipelineWorkloads(runner);
+        if (json != null) {
+            runner.writeJson(Paths.get(json), "release", release,
+                    "jvm", System.getProperty("java.vm.name") + " " + System.getProperty("java.version"),
+                    "processors", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        }
+    }
+
+    private static int[] parseThreads(String list) {
+        return Arrays.stream(list.split(","))
+                .map(String::trim)
+                .mapToInt(t -> t.equals("N") ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(t))
+                .distinct()
+                .toArray();
+    }
+
+    private static Inventory newInventory(String kind) throws InvalidValueException {
+        switch (kind) {
+            case "atomic": return new AtomicInventory();
+            case "striped": return new StripedInventory();
+            default: return new Inventory();
+        }
+    }
+
+    private static void fill(Inventory inventory) throws InvalidValueException {
+        inventory.setCoffee(100);
+        inventory.setMilk(100);
+        inventory.setSugar(100);
+        inventory.setChocolate(100);
+    }
+
+    private static void coffeeMakerWorkloads(BenchmarkRunner runner, String kind) throws Exception {
+        String suffix = "[" + kind + "]";
+        Recipe latte = new Recipe("Latte", 75, 3, 1, 1, 0);
+
+        runner.run("coffeeMaker.makeCoffee.success" + suffix, new Workload() {
+            private volatile Inventory inventory;
+            private volatile CoffeeMaker coffeeMaker;
+
+            public void setUp() throws Exception {
+                inventory = newInventory(kind);
+                coffeeMaker = new CoffeeMaker(inventory);
+                coffeeMaker.addRecipe(latte);
+            }
+
+            public long operation(SplittableRandom random) throws Exception {
+                try {
+                    return coffeeMaker.makeCoffee("Latte", 100);
+                } catch (InventoryException e) {
+                    fill(inventory);
+                    return 0;
+                }
+            }
+        });
+
+        runner.run("coffeeMaker.makeCoffee.metrics" + suffix, new Workload() {
+            private volatile Inventory inventory;
+            private volatile CoffeeMaker coffeeMaker;
+
+            public void setUp() throws Exception {
+                inventory = newInventory(kind);
+                coffeeMaker = new CoffeeMaker(inventory);
+                coffeeMaker.addRecipe(latte);
+                coffeeMaker.setMetrics(new CoffeeMakerMetrics());
+            }
+
+            public long operation(SplittableRandom random) throws Exception {
+                try {
+                    return coffeeMaker.makeCoffee("Latte", 100);
+                } catch (InventoryException e) {
+                    fill(inventory);
+                    return 0;
+                }
+            }
+        });
+
+        runner.run("coffeeMaker.makeCoffee.unknownRecipe" + suffix, new Workload() {
+            private volatile CoffeeMaker coffeeMaker;
+
+            public void setUp() throws Exception {
+                coffeeMaker = new CoffeeMaker(newInventory(kind));
+                coffeeMaker.addRecipe(latte);
+            }
+
+            public long operation(SplittableRandom random) throws Exception {
+                try {
+                    return coffeeMaker.makeCoffee("Mocha", 100);
+                } catch (RecipeException expected) {
+                    // the measured path
+                    return expected.hashCode();
+                }
+            }
+        });
+
+        runner.run("coffeeMaker.makeCoffee.insufficientMoney" + suffix, new Workload() {
+            private volatile CoffeeMaker coffeeMaker;
+
+            public void setUp() throws Exception {
+                coffeeMaker = new CoffeeMaker(newInventory(kind));
+                coffeeMaker.addRecipe(latte);
+            }
+
+            public long operation(SplittableRandom random) throws Exception {
+                try {
+                    return coffeeMaker.makeCoffee("Latte", 10);
+                } catch (InsufficientAmountOfMoneyException expected) {
+                    // the measured path
+                    return expected.hashCode();
+                }
+            }
+        });
+
+        runner.run("coffeeMaker.makeCoffee.outOfStock" + suffix, new Workload() {
+            private volatile CoffeeMaker coffeeMaker;
+
+            public void setUp() throws Exception {
+                Inventory inventory = newInventory(kind);
+                inventory.setCoffee(0);
+                coffeeMaker = new CoffeeMaker(inventory);
+                coffeeMaker.addRecipe(latte);
+            }
+
+            public long operation(SplittableRandom random) throws Exception {
+                try {
+                    return coffeeMaker.makeCoffee("Latte", 100);
+                } catch (InventoryException expected) {
+                    // the measured path
+                    return expected.hashCode();
+                }
+            }
+        });
+
+        runner.run("coffeeMaker.tryMakeCoffee.outOfStock" + suffix, new Workload() {
+            private volatile CoffeeMaker coffeeMaker;
+
+            public void setUp() throws Exception {
+                Inventory inventory = newInventory(kind);
+                inventory.setCoffee(0);
+                coffeeMaker = new CoffeeMaker(inventory);
+                coffeeMaker.addRecipe(latte);
+            }
+
+            public long operation(SplittableRandom random) {
+                return coffeeMaker.tryMakeCoffee("Latte", 100);
+            }
+        });
+
+        // one query in 16 follows a brew and misses the cache
+        runner.run("coffeeMaker.availableRecipes" + suffix, new Workload() {
+            private volatile Inventory inventory;
+            private volatile CoffeeMaker coffeeMaker;
+
+            public void setUp() throws Exception {
+                inventory = newInventory(kind);
+                coffeeMaker = new CoffeeMaker(inventory);
+                coffeeMaker.addRecipe(latte);
+                coffeeMaker.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+                coffeeMaker.addRecipe(new Recipe("Hot Chocolate", 75, 0, 3, 1, 3));
+            }
+
+            public long operation(SplittableRandom random) throws Exception {
+                if (random.nextInt(16) == 0 && !DispenseResult.isOk(coffeeMaker.tryMakeCoffee("Latte", 100))) {
+                    fill(inventory);
+                }
+                return coffeeMaker.availableRecipes().hashCode();
+            }
+        });
+
+        for (int brewPercent : new int[] {90, 50}) {
+            runner.run("coffeeMaker.mixed[brew=" + brewPercent + "%]" + suffix, new Workload() {
+                private volatile CoffeeMaker coffeeMaker;
+
+                public void setUp() throws Exception {
+                    coffeeMaker = new CoffeeMaker(newInventory(kind));
+                    coffeeMaker.addRecipe(latte);
+                }
+
+                public long operation(SplittableRandom random) {
+                    if (random.nextInt(100) < brewPercent) {
+                        return coffeeMaker.tryMakeCoffee("Latte", 100);
+                    }
+                    try {
+                        switch (random.nextInt(3)) {
+                            case 0: coffeeMaker.addCoffeeInventory(3); break;
+                            case 1: coffeeMaker.addMilkInventory(1); break;
+                            default: coffeeMaker.addSugarInventory(1); break;
+                        }
+                    } catch (InvalidValueException full) {
+                        // inventory already at capacity
+                    }
+                    return 0;
+                }
+            });
+        }
+    }
+
+    private static void inventoryWorkloads(BenchmarkRunner runner, String kind) throws Exception {
+        String suffix = "[" + kind + "]";
+        Recipe latte = new Recipe("Latte", 75, 3, 1, 1, 0);
+
+        runner.run("inventory.useIngredients" + suffix, new Workload() {
+            private volatile Inventory inventory;
+
+            public void setUp() throws Exception {
+                inventory = newInventory(kind);
+            }
+
+            public long operation(SplittableRandom random) throws Exception {
+                if (!inventory.useIngredients(latte)) {
+                    fill(inventory);
+                    return 0;
+                }
+                return 1;
+            }
+        });
+
+        runner.run("inventory.addCoffee" + suffix, new Workload() {
+            private volatile Inventory inventory;
+
+            public void setUp() throws Exception {
+                inventory = newInventory(kind);
+            }
+
+            public long operation(SplittableRandom random) throws Exception {
+                try {
+                    inventory.addCoffee(1);
+                } catch (InvalidValueException full) {
+                    inventory.setCoffee(0);
+                }
+                return 0;
+            }
+        });
+
+        // half of the operations brew a coffee-only recipe, the other half refill milk
+        Recipe espresso = new Recipe("Espresso", 60, 2, 0, 0, 0);
+        runner.run("inventory.refillWhileBrewing" + suffix, new Workload() {
+            private volatile Inventory inventory;
+
+            public void setUp() throws Exception {
+                inventory = newInventory(kind);
+            }
+
+            public long operation(SplittableRandom random) throws Exception {
+                if (random.nextBoolean()) {
+                    if (inventory.useIngredients(espresso)) {
+                        return 1;
+                    }
+                    inventory.setCoffee(100);
+                } else {
+                    try {
+                        inventory.addMilk(1);
+                    } catch (InvalidValueException full) {
+                        inventory.setMilk(0);
+                    }
+                }
+                return 0;
+            }
+        });
+    }
+
+    private static RecipeBook newMenu() throws Exception {
+        RecipeBook book = new RecipeBook(MENU_SIZE + EXTRA_RECIPES);
+        for (Recipe recipe : menu) {
+            book.addRecipe(recipe);
+        }
+        return book;
+    }
+
+    /**
+     * Adds the extra recipe if it is missing and deletes it
+     * otherwise; races with other threads are ignored.
+     * @return 1 if the recipe was toggled, 0 if another thread did first
+     */
+    private static long toggle(RecipeBook book, Recipe extra) throws AmountOfRecipeException {
+        try {
+            if (book.getRecipe(extra.getName()) == null) {
+                return book.addRecipe(extra) ? 1 : 0;
+            }
+            return book.deleteRecipe(extra.getName()) ? 1 : 0;
+        } catch (DuplicatedRecipeException | RecipeException raced) {
+            // another thread toggled the same recipe first
+            return 0;
+        }
+    }
+
+    private static void recipeBookWorkloads(BenchmarkRunner runner) throws Exception {
+        runner.run("recipeBook.getRecipe", new Workload() {
+            private volatile RecipeBook book;
+
+            public void setUp() throws Exception {
+                book = newMenu();
+            }
+
+            public long operation(SplittableRandom random) {
+                return book.getRecipe(menu[random.nextInt(MENU_SIZE)].getName()).getPrice();
+            }
+        });
+
+        runner.run("recipeBook.getRecipes", new Workload() {
+            private volatile RecipeBook book;
+
+            public void setUp() throws Exception {
+                book = newMenu();
+            }
+
+            public long operation(SplittableRandom random) {
+                return book.getRecipes().size();
+            }
+        });
+
+        runner.run("recipeBook.addDeleteRecipe", new Workload() {
+            private volatile RecipeBook book;
+
+            public void setUp() throws Exception {
+                book = newMenu();
+            }
+
+            public long operation(SplittableRandom random) throws Exception {
+                return toggle(book, extras[random.nextInt(EXTRA_RECIPES)]);
+            }
+        });
+
+        for (int readPercent : new int[] {99, 90, 50}) {
+            runner.run("recipeBook.mixed[read=" + readPercent + "%]", new Workload() {
+                private volatile RecipeBook book;
+
+                public void setUp() throws Exception {
+                    book = newMenu();
+                }
+
+                public long operation(SplittableRandom random) throws Exception {
+                    if (random.nextInt(100) < readPercent) {
+                        return book.getRecipe(menu[random.nextInt(MENU_SIZE)].getName()).getPrice();
+                    }
+                    return toggle(book, extras[random.nextInt(EXTRA_RECIPES)]);
+                }
+            });
+        }
+    }
+
+    /**
+     * Tops every ingredient of the machine up to capacity; races
+     * with other refills are ignored.
+     */
+    private static void topUp(CoffeeMaker machine) {
+        try {
+            machine.addCoffeeInventory(100 - machine.checkCoffeeInventory());
+            machine.addMilkInventory(100 - machine.checkMilkInventory());
+            machine.addSugarInventory(100 - machine.checkSugarInventory());
+        } catch (InvalidValueException raced) {
+            // another thread refilled first
+        }
+    }
+
+    private static void fleetWorkloads(BenchmarkRunner runner) throws Exception {
+        Recipe latte = new Recipe("Latte", 75, 3, 1, 1, 0);
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int size : IntStream.of(1, processors).distinct().toArray()) {
+            runner.run("fleet.makeCoffee[machines=" + size + "]", new Workload() {
+                private volatile CoffeeMakerFleet fleet;
+
+                public void setUp() throws Exception {
+                    if (fleet != null) {
+                        fleet.close();
+                    }
+                    fleet = new CoffeeMakerFleet(size);
+                    fleet.addRecipe(latte);
+                }
+
+                public long operation(SplittableRandom random) {
+                    long result = fleet.makeCoffee("Latte", 100).join();
+                    if (DispenseResult.status(result) == DispenseStatus.OUT_OF_STOCK) {
+                        for (int i = 0; i < fleet.size(); i++) {
+                            topUp(fleet.getMachine(i));
+                        }
+                    }
+                    return result;
+                }
+            });
+        }
+    }
+
+    private static void pipelineWorkloads(BenchmarkRunner runner) throws Exception {
+        Recipe latte = new Recipe("Latte", 75, 3, 1, 1, 0);
+        runner.run("pipeline.submit", new Workload() {
+            private volatile CoffeeMaker coffeeMaker;
+            private volatile OrderPipeline pipeline;
+
+            public void setUp() throws Exception {
+                if (pipeline != null) {
+                    pipeline.close();
+                }
+                coffeeMaker = new CoffeeMaker();
+                coffeeMaker.addRecipe(latte);
+                pipeline = new OrderPipeline(coffeeMaker, 1024, Backpressure.BLOCK);
+            }
+
+            public long operation(SplittableRandom random) {
+                long result = pipeline.submit("Latte", 100).join();
+                if (DispenseResult.status(result) == DispenseStatus.OUT_OF_STOCK) {
+                    topUp(coffeeMaker);
+                }
+                return result;
+            }
+        });
+    }
+}
@@ -0,0 +1,95 @@
+package coffeemaker.bench;
+
+import coffeemaker.AtomicInventory;
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.StripedInventory;
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.replay.CommandLog;
+import coffeemaker.replay.EventSourcedCoffeeMaker;
+import coffeemaker.replay.ReplayEngine;
+import coffeemaker.replay.ReplayMode;
+import coffeemaker.replay.ReplayReport;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+/**
+ * Replays a command log against each inventory implementation and
+ * prints throughput, latency and divergences. Without a log file
+ * a synthetic day of orders is recorded first.
+ *
+ * Usage: CommandReplay [log file] [--real-time]
+ */
+public class CommandReplay {
+
+    private static final String[] RECIPES = {"Coffee", "Latte", "Mocha", "Tea"};
+
+    public static void main(String[] args) throws Exception {
+        Path log = null;
+        ReplayMode mode = ReplayMode.MAX_SPEED;
+        for (String arg : args) {
+            if (arg.equals("--real-time")) {
+                mode = ReplayMode.REAL_TIME;
+            } else {
+                log = Paths.get(arg);
+            }
+        }
+        if (log == null) {
+            log = Files.createTempFile("coffee-maker-commands", ".log");
+            log.toFile().deleteOnExit();
+            record(log, 1_000_000);
+            System.out.printf("recorded 1,000,000 orders, %,d bytes%n", Files.size(log));
+        }
+
+        CommandLog.Recording recording = CommandLog.read(log);
+        ReplayEngine engine = new ReplayEngine(recording);
+        for (String kind : new String[] {"monitor", "atomic", "striped"}) {
+            // the first run warms up the JIT
+            engine.run(newInventory(kind), mode);
+            ReplayReport report = engine.run(newInventory(kind), mode);
+            System.out.printf("%-8s %s%n", kind, report);
+            for (ReplayReport.Divergence d : report.getDivergences().subList(0, Math.min(5, report.getDivergences().size()))) {
+                System.out.println("         " + d);
+            }
+        }
+    }
+
+    private static void record(Path log, int orders) throws Exception {
+        RecipeBook recipeBook = new RecipeBook();
+        recipeBook.addRecipe(new Recipe("Coffee", 50, 3, 0, 1, 0));
+        recipeBook.addRecipe(new Recipe("Latte", 75, 2, 3, 1, 0));
+        recipeBook.addRecipe(new Recipe("Mocha", 80, 2, 1, 1, 2));
+        SplittableRandom random = new SplittableRandom(42);
+        try (EventSourcedCoffeeMaker CM = new EventSourcedCoffeeMaker(recipeBook, new Inventory(), log)) {
+            for (int i = 0; i < orders; i++) {
+                CM.tryMakeCoffee(RECIPES[random.nextInt(RECIPES.length)], 25 + random.nextInt(100));
+                if (i % 20 == 19) {
+                    refill(CM);
+                }
+            }
+        }
+    }
+
+    private static void refill(EventSourcedCoffeeMaker CM) {
+        try {
+            CM.addCoffeeInventory(100 - CM.checkCoffeeInventory());
+            CM.addMilkInventory(100 - CM.checkMilkInventory());
+            CM.addSugarInventory(100 - CM.checkSugarInventory());
+            CM.addChocolateInventory(100 - CM.checkChocolateInventory());
+        } catch (InvalidValueException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Inventory newInventory(String kind) throws InvalidValueException {
+        switch (kind) {
+            case "atomic": return new AtomicInventory();
+            case "striped": return new StripedInventory();
+            default: return new Inventory();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package coffeemaker.bench;
+
+import coffeemaker.AtomicInventory;
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import coffeemaker.StripedInventory;
+import coffeemaker.exceptions.InvalidValueException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention benchmark comparing the monitor based {@link Inventory}
+ * with the lock-free {@link AtomicInventory} and the per-ingredient
+ * locks of {@link StripedInventory}.
+ *
+ * Every thread brews a recipe and refills the inventory when it
+ * runs out. Usage: InventoryContentionBenchmark [threads] [seconds]
+ */
+public class InventoryContentionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Recipe recipe = new Recipe("Latte", 75, 3, 1, 1, 0);
+        // warm up both implementations before measuring
+        run(new Inventory(), recipe, threads, 1);
+        run(new AtomicInventory(), recipe, threads, 1);
+        run(new StripedInventory(), recipe, threads, 1);
+
+        long monitor = run(new Inventory(), recipe, threads, seconds);
+        long atomic = run(new AtomicInventory(), recipe, threads, seconds);
+        long striped = run(new StripedInventory(), recipe, threads, seconds);
+        System.out.printf("threads=%d seconds=%d%n", threads, seconds);
+        System.out.printf("Inventory        %,15d ops/s%n", monitor / seconds);
+        System.out.printf("AtomicInventory  %,15d ops/s%n", atomic / seconds);
+        System.out.printf("StripedInventory %,15d ops/s%n", striped / seconds);
+    }
+
+    static long run(Inventory inventory, Recipe recipe, int threads, int seconds) throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                long count = 0;
+                while (running.get()) {
+                    if (!inventory.useIngredients(recipe)) {
+                        refill(inventory, recipe);
+                    }
+                    count++;
+                }
+                ops.add(count);
+                done.countDown();
+            });
+            worker.setDaemon(true);
+            worker.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        done.await();
+        return ops.sum();
+    }
+
+    private static void refill(Inventory inventory, Recipe recipe) {
+        try {
+            inventory.addCoffee(recipe.getAmtCoffee());
+        } catch (InvalidValueException e) {
+            // full enough, another thread refilled first
+        }
+        try {
+            inventory.addMilk(recipe.getAmtMilk());
+        } catch (InvalidValueException e) {
+            // full enough, another thread refilled first
+        }
+        try {
+            inventory.addSugar(recipe.getAmtSugar());
+        } catch (InvalidValueException e) {
+            // full enough, another thread refilled first
+        }
+        try {
+            inventory.addChocolate(recipe.getAmtChocolate());
+        } catch (InvalidValueException e) {
+            // full enough, another thread refilled first
+        }
+    }
+}
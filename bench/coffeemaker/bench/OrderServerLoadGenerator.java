@@ -0,0 +1,125 @@
+package coffeemaker.bench;
+
+import coffeemaker.CoffeeMaker;
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.server.OrderServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load generator for the {@link OrderServer}.
+ *
+ * Opens many idle connections, then runs a few active clients
+ * that place orders and refill the machine while the idle
+ * connections stay open, and reports the heap used per idle
+ * connection and the order throughput.
+ *
+ * Usage: OrderServerLoadGenerator [idle connections] [active clients] [seconds] [host:port]
+ * Without host:port a server is started in this JVM.
+ */
+public class OrderServerLoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        int idle = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int active = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        OrderServer server = null;
+        InetSocketAddress address;
+        if (args.length > 3) {
+            String[] hostPort = args[3].split(":");
+            address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        } else {
+            CoffeeMaker coffeeMaker = new CoffeeMaker(new RecipeBook(), new Inventory());
+            coffeeMaker.addRecipe(new Recipe("Latte", 75, 3, 1, 1, 0));
+            server = new OrderServer(coffeeMaker, 0);
+            address = new InetSocketAddress("127.0.0.1", server.getPort());
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapBefore = usedHeap(memory);
+        List<SocketChannel> idleConnections = new ArrayList<>(idle);
+        long start = System.nanoTime();
+        for (int i = 0; i < idle; i++) {
+            idleConnections.add(SocketChannel.open(address));
+        }
+        long openMillis = (System.nanoTime() - start) / 1_000_000;
+        if (server != null) {
+            while (server.getOpenConnections() < idle) {
+                Thread.sleep(10);
+            }
+        }
+        long heapAfter = usedHeap(memory);
+        System.out.printf("idle connections   %,d opened in %,d ms%n", idle, openMillis);
+        System.out.printf("heap used          %,d KB before, %,d KB after, %,d bytes per connection%n",
+                heapBefore / 1024, heapAfter / 1024, idle == 0 ? 0 : (heapAfter - heapBefore) / idle);
+        System.out.printf("threads            %,d live platform threads%n", Thread.activeCount());
+
+        LongAdder orders = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < active; i++) {
+            Thread client = new Thread(() -> runClient(address, running, orders), "order-client-" + i);
+            clients.add(client);
+            client.start();
+        }
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread client : clients) {
+            client.join();
+        }
+        System.out.printf("orders             %,d requests/s with %d active clients%n", orders.sum() / seconds, active);
+
+        for (SocketChannel channel : idleConnections) {
+            channel.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private static void runClient(InetSocketAddress address, AtomicBoolean running, LongAdder orders) {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            while (running.get()) {
+                out.write("MAKE_COFFEE 100 Latte\n".getBytes(StandardCharsets.UTF_8));
+                if (in.readLine().startsWith("ERR OUT_OF_STOCK")) {
+                    out.write("ADD_INVENTORY coffee 30\nADD_INVENTORY milk 10\nADD_INVENTORY sugar 10\n"
+                            .getBytes(StandardCharsets.UTF_8));
+                    in.readLine();
+                    in.readLine();
+                    in.readLine();
+                }
+                orders.increment();
+            }
+            out.write("QUIT\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long usedHeap(MemoryMXBean memory) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
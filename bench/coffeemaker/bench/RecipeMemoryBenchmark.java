@@ -0,0 +1,98 @@
+package coffeemaker.bench;
+
+import coffeemaker.Inventory;
+import coffeemaker.PackedRecipeBook;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Heap retained by a RecipeBook and by a PackedRecipeBook holding
+ * the same recipes, and the time to look up a recipe and deduct
+ * its ingredients with each.
+ *
+ * Usage: RecipeMemoryBenchmark [recipes]
+ */
+public class RecipeMemoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int recipes = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        // the names are shared by both books and not counted
+        String[] names = new String[recipes];
+        for (int i = 0; i < recipes; i++) {
+            names[i] = "Recipe" + i;
+        }
+
+        long before = usedHeap(memory);
+        RecipeBook objects = new RecipeBook(recipes);
+        List<Recipe> batch = new ArrayList<>(recipes);
+        for (int i = 0; i < recipes; i++) {
+            batch.add(recipe(names[i], i));
+        }
+        objects.addRecipes(batch);
+        batch = null;
+        long objectBytes = usedHeap(memory) - before;
+
+        before = usedHeap(memory);
+        PackedRecipeBook packed = new PackedRecipeBook(recipes);
+        for (int i = 0; i < recipes; i++) {
+            packed.addRecipe(recipe(names[i], i));
+        }
+        long packedBytes = usedHeap(memory) - before;
+
+        System.out.printf("%,d recipes, names excluded%n", recipes);
+        System.out.printf("%-18s %,14d bytes %8.1f bytes/recipe%n", "RecipeBook", objectBytes, (double) objectBytes / recipes);
+        System.out.printf("%-18s %,14d bytes %8.1f bytes/recipe%n", "PackedRecipeBook", packedBytes, (double) packedBytes / recipes);
+        System.out.printf("%-18s %,14d bytes per 100k recipes%n", "saved",
+                (objectBytes - packedBytes) * 100_000L / recipes);
+
+        Inventory inventory = new Inventory();
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 10_000_000; i++) {
+                Recipe r = objects.getRecipe(names[i % recipes]);
+                if (!inventory.useIngredients(r)) {
+                    refill(inventory);
+                }
+            }
+            long objectNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < 10_000_000; i++) {
+                int handle = packed.getHandle(names[i % recipes]);
+                if (!inventory.useIngredients(packed, handle)) {
+                    refill(inventory);
+                }
+            }
+            long packedNanos = System.nanoTime() - start;
+            if (round == 1) {
+                System.out.printf("lookup + deduct    RecipeBook %.1f ns, PackedRecipeBook %.1f ns%n",
+                        objectNanos / 1e7, packedNanos / 1e7);
+            }
+        }
+    }
+
+    private static Recipe recipe(String name, int i) throws Exception {
+        return new Recipe(name, 50 + i % 50, i % 100, i / 100 % 100, i / 10_000, 1);
+    }
+
+    private static void refill(Inventory inventory) throws Exception {
+        inventory.setCoffee(100);
+        inventory.setMilk(100);
+        inventory.setSugar(100);
+        inventory.setChocolate(100);
+    }
+
+    private static long usedHeap(MemoryMXBean memory) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,79 @@
+package coffeemaker.bench;
+
+import coffeemaker.ledger.HourlyRevenue;
+import coffeemaker.ledger.RecipeSales;
+import coffeemaker.ledger.SalesLedger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Fills a sales ledger spilling to memory-mapped chunk files with
+ * a month of sales and times the appends and the revenue per
+ * recipe per hour and top sellers queries over all of them.
+ *
+ * Usage: SalesLedgerBenchmark [sales] [recipes] [iterations]
+ */
+public class SalesLedgerBenchmark {
+
+    private static final long DAY = 24 * HourlyRevenue.HOUR;
+
+    public static void main(String[] args) throws Exception {
+        int sales = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int recipes = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        String[] names = new String[recipes];
+        for (int i = 0; i < recipes; i++) {
+            names[i] = "Recipe " + i;
+        }
+        Path directory = Files.createTempDirectory("coffee-maker-ledger-bench");
+        long end = 30 * DAY;
+        try (SalesLedger ledger = SalesLedger.open(directory, SalesLedger.CHUNK_SALES, () -> end)) {
+            Random random = new Random(24);
+            long start = System.nanoTime();
+            for (int i = 0; i < sales; i++) {
+                int recipe = Math.min(recipes - 1, (int) Math.abs(random.nextGaussian() * recipes / 3));
+                ledger.record(i * end / sales, names[recipe], 50 + recipe, 100, 50 - recipe);
+            }
+            long append = System.nanoTime() - start;
+            System.out.printf("%,d sales of %d recipes, %,.0f appends/s%n", sales, recipes, sales / (append / 1e9));
+
+            System.out.printf("%-24s %12s %14s%n", "query", "ms", "sales/s");
+            for (int round = 0; round < 2; round++) {
+                // the first round warms up, the second is reported
+                long hourly = 0, top = 0;
+                long check = 0;
+                for (int i = 0; i < iterations; i++) {
+                    start = System.nanoTime();
+                    HourlyRevenue revenue = ledger.revenuePerRecipePerHour(0, end);
+                    hourly += System.nanoTime() - start;
+                    check += revenue.getRevenue(0);
+
+                    start = System.nanoTime();
+                    List<RecipeSales> best = ledger.topSellers(10, end - 7 * DAY, end);
+                    top += System.nanoTime() - start;
+                    check += best.get(0).getCount();
+                }
+                if (round == 1) {
+                    report("revenue per recipe/hour", hourly, sales, iterations);
+                    report("top sellers last 7 days", top, sales, iterations);
+                    System.out.println("(checksum " + check + ")");
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static void report(String query, long nanos, int sales, int iterations) {
+        double seconds = nanos / 1e9 / iterations;
+        System.out.printf("%-24s %12.1f %,14.0f%n", query, seconds * 1000, sales / seconds);
+    }
+}
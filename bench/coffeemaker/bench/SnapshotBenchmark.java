@@ -0,0 +1,150 @@
+package coffeemaker.bench;
+
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.journal.MappedSnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the memory-mapped snapshot with Java serialization of
+ * the same state: time to write a snapshot durably, time to load
+ * it back into a recipe book and inventory, and file size.
+ *
+ * Usage: SnapshotBenchmark [recipes] [iterations]
+ */
+public class SnapshotBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int recipes = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        RecipeBook recipeBook = new RecipeBook(recipes);
+        for (int i = 0; i < recipes; i++) {
+            recipeBook.addRecipe(new Recipe("Recipe " + i, 50 + i % 100, i % 100, i / 100, 1, 0));
+        }
+        Inventory inventory = new Inventory();
+        Path directory = Files.createTempDirectory("coffee-maker-snapshot-bench");
+        Path mapped = directory.resolve("snapshot.bin");
+        Path serialized = directory.resolve("snapshot.ser");
+        try {
+            System.out.printf("%,d recipes, %d iterations%n", recipes, iterations);
+            System.out.printf("%-14s %12s %12s %12s%n", "format", "write us", "load us", "bytes");
+            for (int round = 0; round < 2; round++) {
+                // the first round warms up, the second is reported
+                long mappedWrite = 0, mappedLoad = 0, serialWrite = 0, serialLoad = 0;
+                for (int i = 0; i < iterations; i++) {
+                    long start = System.nanoTime();
+                    MappedSnapshot.write(mapped, i, inventory, recipeBook.getRecipes());
+                    mappedWrite += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    MappedSnapshot.open(mapped).restore(new RecipeBook(recipes), emptyInventory());
+                    mappedLoad += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    writeSerialized(serialized, i, inventory, recipeBook.getRecipes());
+                    serialWrite += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    readSerialized(serialized, new RecipeBook(recipes), emptyInventory());
+                    serialLoad += System.nanoTime() - start;
+                }
+                if (round == 1) {
+                    report("mapped", mappedWrite, mappedLoad, Files.size(mapped), iterations);
+                    report("serialization", serialWrite, serialLoad, Files.size(serialized), iterations);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(mapped);
+            Files.deleteIfExists(serialized);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void report(String format, long write, long load, long bytes, int iterations) {
+        System.out.printf("%-14s %,12d %,12d %,12d%n", format,
+                write / iterations / 1000, load / iterations / 1000, bytes);
+    }
+
+    private static Inventory emptyInventory() throws Exception {
+        Inventory inventory = new Inventory();
+        inventory.setCoffee(0);
+        inventory.setMilk(0);
+        inventory.setSugar(0);
+        inventory.setChocolate(0);
+        return inventory;
+    }
+
+    /**
+     * Writes the state with ObjectOutputStream, made durable the
+     * same way as the mapped snapshot: fsync and atomic rename.
+     */
+    private static void writeSerialized(Path file, long nextSegment, Inventory inventory, List<Recipe> recipes)
+            throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp);
+             ObjectOutputStream objects = new ObjectOutputStream(new BufferedOutputStream(out))) {
+            objects.writeObject(new SerializedState(nextSegment, inventory, recipes));
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void readSerialized(Path file, RecipeBook recipeBook, Inventory inventory) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            SerializedState state = (SerializedState) in.readObject();
+            inventory.setCoffee(state.coffee);
+            inventory.setMilk(state.milk);
+            inventory.setSugar(state.sugar);
+            inventory.setChocolate(state.chocolate);
+            List<Recipe> recipes = new ArrayList<>(state.names.length);
+            for (int i = 0; i < state.names.length; i++) {
+                int[] r = state.amounts[i];
+                recipes.add(new Recipe(state.names[i], r[0], r[1], r[2], r[3], r[4]));
+            }
+            recipeBook.addRecipes(recipes);
+        }
+    }
+
+    /** Recipe is not Serializable, so its fields are copied into plain arrays */
+    private static final class SerializedState implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final long nextSegment;
+        final int coffee, milk, sugar, chocolate;
+        final String[] names;
+        final int[][] amounts;
+
+        SerializedState(long nextSegment, Inventory inventory, List<Recipe> recipes) {
+            this.nextSegment = nextSegment;
+            this.coffee = inventory.getCoffee();
+            this.milk = inventory.getMilk();
+            this.sugar = inventory.getSugar();
+            this.chocolate = inventory.getChocolate();
+            this.names = new String[recipes.size()];
+            this.amounts = new int[recipes.size()][];
+            for (int i = 0; i < names.length; i++) {
+                Recipe r = recipes.get(i);
+                names[i] = r.getName();
+                amounts[i] = new int[] {r.getPrice(), r.getAmtCoffee(), r.getAmtMilk(), r.getAmtSugar(), r.getAmtChocolate()};
+            }
+        }
+    }
+}
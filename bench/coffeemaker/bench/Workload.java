@@ -0,0 +1,28 @@
+package coffeemaker.bench;
+
+import java.util.SplittableRandom;
+
+/**
+ * A benchmarked operation. The harness calls setUp once per
+ * measured iteration and then operation repeatedly on every
+ * thread until the iteration time is over.
+ */
+public interface Workload {
+
+    /**
+     * Builds fresh state for an iteration.
+     * @throws Exception
+     */
+    void setUp() throws Exception;
+
+    /**
+     * Runs one operation. Each thread gets its own random. The
+     * result of the measured call is returned so that the harness
+     * consumes it and the JIT cannot drop the call as dead code;
+     * an operation without a result returns 0.
+     * @param random
+     * @return long
+     * @throws Exception
+     */
+    long operation(SplittableRandom random) throws Exception;
+}
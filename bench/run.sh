@@ -0,0 +1,25 @@
+#!/bin/sh
+# Compiles the coffee maker and its benchmarks with the jars in lib/
+# and runs the benchmark suite headless.
+#
+#   bench/run.sh [main class] [options]
+#
+# The main class defaults to coffeemaker.bench.CoffeeMakerBenchmarks;
+# options are passed through, e.g.
+#
+#   bench/run.sh --threads 1,4,N --json bench-results.json --release 1.2
+set -e
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+OUT="$ROOT/out/bench"
+CP="$ROOT/lib/*"
+
+MAIN=coffeemaker.bench.CoffeeMakerBenchmarks
+case "$1" in
+	coffeemaker.*) MAIN=$1; shift ;;
+esac
+
+rm -rf "$OUT"
+mkdir -p "$OUT"
+javac -nowarn -d "$OUT" -cp "$CP" $(find "$ROOT/src" "$ROOT/bench" -name '*.java')
+exec java ${BENCH_JVM_OPTS:--Xms1g -Xmx1g} -cp "$OUT:$CP" "$MAIN" "$@"
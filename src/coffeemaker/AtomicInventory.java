@@ -0,0 +1,169 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.metrics.CoffeeMakerMetrics;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free inventory for the coffee maker.
+ *
+ * The four standard ingredients are packed into a single 64 bit
+ * word, 16 bits each, so checking and deducting a whole recipe is
+ * one compare-and-set instead of a monitor. A recipe using any
+ * other ingredient can never be made from it.
+ */
+public class AtomicInventory extends Inventory {
+
+    private static final int COFFEE = 0;
+    private static final int MILK = 16;
+    private static final int SUGAR = 32;
+    private static final int CHOCOLATE = 48;
+    private static final long LANE = 0xFFFFL;
+    private static final int MAX_UNITS = 100;
+
+    /** Packed units of coffee, milk, sugar and chocolate */
+    private final AtomicLong units = new AtomicLong();
+
+    /**
+     * Creates a lock-free inventory object and fills
+     * each item in the inventory with 20 units.
+     * @throws InvalidValueException
+     */
+    public AtomicInventory() throws InvalidValueException {
+        super(false);
+        units.set(pack(20, 20, 20, 20));
+    }
+
+    private static long pack(int coffee, int milk, int sugar, int chocolate) {
+        return ((long) coffee << COFFEE) | ((long) milk << MILK)
+                | ((long) sugar << SUGAR) | ((long) chocolate << CHOCOLATE);
+    }
+
+    private static int unpack(long word, int lane) {
+        return (int) ((word >>> lane) & LANE);
+    }
+
+    private static int lane(int ingredient) {
+        return Objects.checkIndex(ingredient, 4) * 16;
+    }
+
+    @Override
+    public int getUnits(int ingredient) {
+        return unpack(units.get(), lane(ingredient));
+    }
+
+    @Override
+    public void setUnits(int ingredient, int amount) throws InvalidValueException {
+        if (amount < 0 || amount > MAX_UNITS) {
+            throw new InvalidValueException(invalidAmount(ingredient));
+        }
+        int lane = lane(ingredient);
+        long current;
+        do {
+            current = units.get();
+        } while (!units.compareAndSet(current, (current & ~(LANE << lane)) | ((long) amount << lane)));
+    }
+
+    @Override
+    public void addUnits(int ingredient, int amount) throws InvalidValueException {
+        if (amount < 0) {
+            throw new InvalidValueException(invalidUnits(ingredient));
+        }
+        int lane = lane(ingredient);
+        while (true) {
+            long current = units.get();
+            if (amount > MAX_UNITS - unpack(current, lane)) {
+                throw new InvalidValueException(invalidUnits(ingredient));
+            }
+            if (units.compareAndSet(current, current + ((long) amount << lane))) {
+                return;
+            }
+        }
+    }
+
+    private static boolean enough(long word, int amtCoffee, int amtMilk, int amtSugar, int amtChocolate) {
+        return unpack(word, COFFEE) >= amtCoffee
+                && unpack(word, MILK) >= amtMilk
+                && unpack(word, SUGAR) >= amtSugar
+                && unpack(word, CHOCOLATE) >= amtChocolate;
+    }
+
+    /**
+     * Returns true if the amounts use an ingredient past the
+     * four standard ones, which this inventory never holds.
+     */
+    private static boolean usesOtherIngredients(int[] amounts) {
+        for (int i = 4; i < amounts.length; i++) {
+            if (amounts[i] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int amount(int[] amounts, int ingredient) {
+        return ingredient < amounts.length ? amounts[ingredient] : 0;
+    }
+
+    @Override
+    public int[] getLevels() {
+        long word = units.get();
+        return new int[] { unpack(word, COFFEE), unpack(word, MILK), unpack(word, SUGAR), unpack(word, CHOCOLATE) };
+    }
+
+    /**
+     * Returns the packed units themselves: equal words are equal
+     * levels.
+     * @return long
+     */
+    @Override
+    public long getVersion() {
+        return units.get();
+    }
+
+    @Override
+    protected boolean enoughIngredients(int[] amounts) {
+        return !usesOtherIngredients(amounts) && enough(units.get(), amount(amounts, 0), amount(amounts, 1),
+                amount(amounts, 2), amount(amounts, 3));
+    }
+
+    /**
+     * Removes the given units if all four are available, in a
+     * single compare-and-set.
+     * @param amounts
+     * @return boolean
+     */
+    @Override
+    public boolean useIngredients(int[] amounts) {
+        if (usesOtherIngredients(amounts)) {
+            return false;
+        }
+        return useIngredients(amount(amounts, 0), amount(amounts, 1), amount(amounts, 2), amount(amounts, 3));
+    }
+
+    @Override
+    public boolean useIngredients(int amtCoffee, int amtMilk, int amtSugar, int amtChocolate) {
+        if (amtCoffee < 0 || amtMilk < 0 || amtSugar < 0 || amtChocolate < 0) {
+            return false;
+        }
+        CoffeeMakerMetrics metrics = timedMetrics();
+        long start = metrics == null ? 0 : System.nanoTime();
+        long attempt = start;
+        while (true) {
+            long current = units.get();
+            boolean used = enough(current, amtCoffee, amtMilk, amtSugar, amtChocolate);
+            if (!used || units.compareAndSet(current, current - pack(amtCoffee, amtMilk, amtSugar, amtChocolate))) {
+                if (metrics != null) {
+                    // time lost to failed compare-and-set rounds counts as waiting
+                    metrics.recordUseIngredients(attempt - start, System.nanoTime() - attempt);
+                }
+                return used;
+            }
+            if (metrics != null) {
+                attempt = System.nanoTime();
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package coffeemaker;
+
+/**
+ * What an {@link OrderPipeline} does with an order submitted
+ * while its queue is full.
+ */
+public enum Backpressure {
+	/** The new order fails at once */
+	REJECT,
+	/** The caller waits until there is room */
+	BLOCK,
+	/** The oldest queued order fails to make room for the new one */
+	DROP_OLDEST
+}
@@ -0,0 +1,12 @@
+package coffeemaker;
+
+/**
+ * How a batch order is dispensed when some of its
+ * lines cannot be made.
+ */
+public enum BatchMode {
+	/** Either every line is made or none is */
+	ALL_OR_NOTHING,
+	/** Every line that can be made is made, in order */
+	BEST_EFFORT
+}
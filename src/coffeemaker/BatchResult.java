@@ -0,0 +1,68 @@
+package coffeemaker;
+
+/**
+ * Result of a batch order, with the status and the
+ * change of every line in the order they were given.
+ */
+public class BatchResult {
+	private final DispenseStatus[] status;
+	private final int[] change;
+	
+	BatchResult(DispenseStatus[] status, int[] change) {
+		this.status = status;
+		this.change = change;
+	}
+	
+	/**
+	 * Returns the number of lines in the order.
+	 * @return int
+	 */
+	public int size() {
+		return status.length;
+	}
+	
+	/**
+	 * Returns the status of the given line.
+	 * @param line
+	 * @return DispenseStatus
+	 */
+	public DispenseStatus getStatus(int line) {
+		return status[line];
+	}
+	
+	/**
+	 * Returns the change of the given line, which is the
+	 * whole payment if the beverage was not made.
+	 * @param line
+	 * @return int
+	 */
+	public int getChange(int line) {
+		return change[line];
+	}
+	
+	/**
+	 * Returns the number of beverages made.
+	 * @return int
+	 */
+	public int getMadeCount() {
+		int made = 0;
+		for (DispenseStatus s : status) {
+			if (s == DispenseStatus.OK) {
+				made++;
+			}
+		}
+		return made;
+	}
+	
+	/**
+	 * Returns the change of the whole order.
+	 * @return int
+	 */
+	public int getTotalChange() {
+		int total = 0;
+		for (int c : change) {
+			total += c;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,304 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.InvalidValueException;
+
+import java.util.Arrays;
+
+/**
+ * Coins and notes a coffee maker gives change from, by
+ * denomination.
+ *
+ * The fewest coins that make each amount of change up to the
+ * largest valid payment are kept in a table with one layer per
+ * denomination, largest first: layer k holds the fewest coins of
+ * the first k + 1 denominations, within the count of each, that
+ * make every amount, or UNREACHABLE. A layer is computed from the
+ * previous one with a sliding window minimum over the amounts of
+ * each residue modulo the denomination, so a layer costs one pass
+ * over the amounts whatever the counts. A change of the count of
+ * a denomination only makes its own layer and the later ones
+ * stale, and those are rebuilt on the next lookup; the small
+ * coins, which change most often, come last.
+ *
+ * The coins of a payment are taken to be the fewest that make
+ * it, however many of each the box holds, and go into the box
+ * once the sale is made, after its change is paid out.
+ *
+ * Every method is synchronized on the cash box. A coffee maker
+ * holds the cash box monitor from the change check to the payout
+ * so that no sale succeeds without its change, see
+ * {@link CoffeeMaker#setCashBox(CashBox)}.
+ */
+public class CashBox {
+
+	/** Returned by minCoins when the change cannot be made */
+	public static final int NO_CHANGE = -1;
+	/** Largest change the table covers */
+	public static final int MAX_CHANGE = CoffeeMaker.MAX_PAYMENT;
+
+	private static final int UNREACHABLE = Integer.MAX_VALUE;
+	/** Layer before the first: only 0 can be made, with no coins */
+	private static final int[] NOTHING = new int[MAX_CHANGE + 1];
+
+	static {
+		Arrays.fill(NOTHING, 1, NOTHING.length, UNREACHABLE);
+	}
+
+	/** Denominations, largest first */
+	private final int[] denominations;
+	private final int[] counts;
+	private final int[][] layers;
+	/** First stale layer, or the number of denominations if none */
+	private int stale;
+	/** Sliding window of the layer being built */
+	private final int[] window = new int[MAX_CHANGE + 1];
+	/** Index of the denomination of one of the fewest coins making each payment, or -1 if none do */
+	private final int[] paymentCoin = new int[CoffeeMaker.MAX_PAYMENT + 1];
+
+	/**
+	 * Creates an empty cash box of the given denominations, e.g.
+	 * 5, 10, 25, 50 and 100 cents.
+	 * @param denominations positive and distinct
+	 */
+	public CashBox(int... denominations) {
+		int[] sorted = denominations.clone();
+		Arrays.sort(sorted);
+		for (int i = 0; i < sorted.length; i++) {
+			if (sorted[i] <= 0 || (i > 0 && sorted[i] == sorted[i - 1])) {
+				throw new IllegalArgumentException("Denominations must be positive and distinct");
+			}
+		}
+		this.denominations = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			this.denominations[i] = sorted[sorted.length - 1 - i];
+		}
+		this.counts = new int[sorted.length];
+		this.layers = new int[sorted.length][MAX_CHANGE + 1];
+		int[] fewest = new int[paymentCoin.length];
+		for (int a = 1; a < fewest.length; a++) {
+			fewest[a] = UNREACHABLE;
+			paymentCoin[a] = -1;
+			for (int k = 0; k < this.denominations.length; k++) {
+				int v = this.denominations[k];
+				if (v <= a && fewest[a - v] != UNREACHABLE && fewest[a - v] + 1 < fewest[a]) {
+					fewest[a] = fewest[a - v] + 1;
+					paymentCoin[a] = k;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the denominations, largest first; the counts
+	 * returned by makeChange are in the same order.
+	 * @return int[]
+	 */
+	public int[] getDenominations() {
+		return denominations.clone();
+	}
+
+	/**
+	 * Returns the number of coins of the denomination.
+	 * @param denomination
+	 * @return int
+	 */
+	public synchronized int getCount(int denomination) {
+		return counts[indexOf(denomination)];
+	}
+
+	/**
+	 * Returns the value of every coin in the cash box.
+	 * @return long
+	 */
+	public synchronized long getTotal() {
+		long total = 0;
+		for (int k = 0; k < counts.length; k++) {
+			total += (long) counts[k] * denominations[k];
+		}
+		return total;
+	}
+
+	/**
+	 * Adds coins of the denomination, e.g. those of a payment
+	 * or a refill.
+	 * @param denomination
+	 * @param count
+	 * @throws InvalidValueException
+	 */
+	public synchronized void addCoins(int denomination, int count) throws InvalidValueException {
+		int k = indexOf(denomination);
+		if (count < 0 || count > Integer.MAX_VALUE - counts[k]) {
+			throw new InvalidValueException("Number of coins must be a positive integer");
+		}
+		setCount(k, counts[k] + count);
+	}
+
+	/**
+	 * Removes coins of the denomination, e.g. when the cash
+	 * box is emptied.
+	 * @param denomination
+	 * @param count
+	 * @throws InvalidValueException
+	 */
+	public synchronized void removeCoins(int denomination, int count) throws InvalidValueException {
+		int k = indexOf(denomination);
+		if (count < 0 || count > counts[k]) {
+			throw new InvalidValueException("Number of coins must be a positive integer and less equal than "
+					+ counts[k]);
+		}
+		setCount(k, counts[k] - count);
+	}
+
+	/**
+	 * Returns the fewest coins that make the amount, or
+	 * NO_CHANGE if it cannot be made from the coins in the box.
+	 * @param amount
+	 * @return int
+	 */
+	public synchronized int minCoins(int amount) {
+		if (amount < 0 || amount > MAX_CHANGE) {
+			return NO_CHANGE;
+		}
+		if (denominations.length == 0) {
+			return amount == 0 ? 0 : NO_CHANGE;
+		}
+		refresh();
+		int coins = layers[layers.length - 1][amount];
+		return coins == UNREACHABLE ? NO_CHANGE : coins;
+	}
+
+	/**
+	 * Returns true if the amount can be paid out from the coins
+	 * in the box.
+	 * @param amount
+	 * @return boolean
+	 */
+	public boolean canMakeChange(int amount) {
+		return minCoins(amount) != NO_CHANGE;
+	}
+
+	/**
+	 * Takes the fewest coins that make the amount out of the
+	 * box and returns the number of each denomination, in the
+	 * order of getDenominations, or null, taking nothing, if
+	 * the amount cannot be made.
+	 * @param amount
+	 * @return int[]
+	 */
+	public synchronized int[] makeChange(int amount) {
+		if (minCoins(amount) == NO_CHANGE) {
+			return null;
+		}
+		int[] coins = new int[denominations.length];
+		int left = amount;
+		for (int k = denominations.length - 1; k >= 0 && left > 0; k--) {
+			int[] previous = k == 0 ? NOTHING : layers[k - 1];
+			int best = layers[k][left];
+			int v = denominations[k];
+			// the fewest coins of denomination k that the earlier layers complete
+			int c = 0;
+			while (c * v > left || previous[left - c * v] == UNREACHABLE || previous[left - c * v] + c != best) {
+				c++;
+			}
+			coins[k] = c;
+			left -= c * v;
+		}
+		int first = denominations.length;
+		for (int k = 0; k < coins.length; k++) {
+			if (coins[k] > 0) {
+				counts[k] -= coins[k];
+				first = Math.min(first, k);
+			}
+		}
+		stale = Math.min(stale, first);
+		return coins;
+	}
+
+	/**
+	 * Returns true if a payment of the amount can be made of
+	 * coins of the denominations of the box.
+	 * @param amount
+	 * @return boolean
+	 */
+	public boolean isPayable(int amount) {
+		return amount >= 0 && amount < paymentCoin.length && (amount == 0 || paymentCoin[amount] >= 0);
+	}
+
+	/**
+	 * Adds the fewest coins that make the payment of a sale
+	 * made. The caller checked that the amount is payable.
+	 */
+	synchronized void takePayment(int amount) {
+		for (int left = amount; left > 0; left -= denominations[paymentCoin[left]]) {
+			int k = paymentCoin[left];
+			setCount(k, counts[k] + 1);
+		}
+	}
+
+	/**
+	 * Puts back the coins returned by makeChange, for a sale
+	 * that failed after its change was taken.
+	 */
+	synchronized void putBack(int[] coins) {
+		for (int k = 0; k < coins.length; k++) {
+			if (coins[k] > 0) {
+				setCount(k, counts[k] + coins[k]);
+			}
+		}
+	}
+
+	private int indexOf(int denomination) {
+		for (int k = 0; k < denominations.length; k++) {
+			if (denominations[k] == denomination) {
+				return k;
+			}
+		}
+		throw new IllegalArgumentException("Unknown denomination " + denomination);
+	}
+
+	private void setCount(int k, int count) {
+		counts[k] = count;
+		stale = Math.min(stale, k);
+	}
+
+	/**
+	 * Rebuilds the stale layers.
+	 */
+	private void refresh() {
+		for (int k = stale; k < layers.length; k++) {
+			build(k);
+		}
+		stale = layers.length;
+	}
+
+	/**
+	 * Computes layer k from the previous one. Along the amounts
+	 * r, r + v, r + 2v, ... of one residue r, taking j coins of
+	 * value v costs previous[r + (i - j) v] + j, so the best of
+	 * the at most count + 1 choices is the window minimum of
+	 * previous[r + i v] - i plus the position.
+	 */
+	private void build(int k) {
+		int[] previous = k == 0 ? NOTHING : layers[k - 1];
+		int[] layer = layers[k];
+		int v = denominations[k];
+		int count = counts[k];
+		for (int r = 0; r < v && r <= MAX_CHANGE; r++) {
+			int head = 0;
+			int tail = 0;
+			for (int i = 0, a = r; a <= MAX_CHANGE; i++, a += v) {
+				if (previous[a] != UNREACHABLE) {
+					int cost = previous[a] - i;
+					while (tail > head && previous[r + window[tail - 1] * v] - window[tail - 1] >= cost) {
+						tail--;
+					}
+					window[tail++] = i;
+				}
+				while (tail > head && i - window[head] > count) {
+					head++;
+				}
+				layer[a] = tail > head ? previous[r + window[head] * v] - window[head] + i : UNREACHABLE;
+			}
+		}
+	}
+}
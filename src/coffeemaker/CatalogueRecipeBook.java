@@ -0,0 +1,287 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.RecipeException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Recipe book of one machine that refers to the recipes of a
+ * shared {@link RecipeCatalogue} by id instead of holding its own
+ * copies.
+ *
+ * The book itself is an overlay: the ids of the catalogue recipes
+ * the machine offers, in the order they were added, and for each
+ * an optional override with the machine's own price or
+ * ingredients. Adding a recipe interns it in the catalogue, so a
+ * recipe first added by one machine is shared by the next;
+ * deleting a recipe only drops its id from the overlay. A change
+ * to the catalogue, e.g. {@link RecipeCatalogue#reprice}, is seen
+ * at once by every machine that does not override the recipe.
+ *
+ * Lookups scan the overlay, which is meant for the few recipes of
+ * a machine; use a {@link RecipeBook} for large machine-specific
+ * menus. Changes are serialized on the book monitor; adding and
+ * overriding a recipe also hold the catalogue monitor, so that
+ * they cannot race with a {@link RecipeCatalogue#update}.
+ */
+public class CatalogueRecipeBook extends RecipeBook {
+
+	private static final Overlay EMPTY = new Overlay(new int[0], null);
+
+	private final RecipeCatalogue catalogue;
+	private volatile Overlay overlay = EMPTY;
+	/** Recipes last listed, reused while neither the catalogue nor the overlay change */
+	private volatile Listing listing;
+
+	/**
+	 * Creates a recipe book over the catalogue with the default
+	 * number of recipes.
+	 * @param catalogue
+	 */
+	public CatalogueRecipeBook(RecipeCatalogue catalogue) {
+		this(catalogue, NUM_RECIPES);
+	}
+
+	/**
+	 * Creates a recipe book over the catalogue holding up to
+	 * maxRecipes recipes.
+	 * @param catalogue
+	 * @param maxRecipes
+	 */
+	public CatalogueRecipeBook(RecipeCatalogue catalogue, int maxRecipes) {
+		super(maxRecipes);
+		this.catalogue = catalogue;
+		catalogue.attach(this);
+	}
+
+	/**
+	 * Returns the recipes of the machine as an unmodifiable list.
+	 * The same list is returned until the overlay or the catalogue
+	 * changes.
+	 * @return List
+	 */
+	@Override
+	public List<Recipe> getRecipes() {
+		// the overlay is read first so that the catalogue holds all its ids
+		Overlay current = overlay;
+		RecipeCatalogue.Snapshot recipes = catalogue.snapshot();
+		Listing last = listing;
+		if (last == null || last.recipes != recipes || last.overlay != current) {
+			last = new Listing(recipes, current, Collections.unmodifiableList(current.resolveAll(recipes)));
+			listing = last;
+		}
+		return last.list;
+	}
+
+	/**
+	 * Returns a number that changes whenever the overlay or the
+	 * catalogue changes.
+	 * @return long
+	 */
+	@Override
+	public long getVersion() {
+		// both counts only grow, so an equal sum means neither changed
+		return super.getVersion() + catalogue.getVersion();
+	}
+
+	@Override
+	public Recipe getRecipe(String recipeName) {
+		Overlay current = overlay;
+		RecipeCatalogue.Snapshot recipes = catalogue.snapshot();
+		Integer id = recipes.ids.get(recipeName);
+		if (id == null) {
+			return null;
+		}
+		int i = current.indexOf(id);
+		return i < 0 ? null : current.resolve(recipes, i);
+	}
+
+	@Override
+	public synchronized boolean addRecipe(Recipe r) throws DuplicatedRecipeException, AmountOfRecipeException {
+		return addRecipes(Collections.singletonList(r));
+	}
+
+	@Override
+	public synchronized boolean addRecipes(List<Recipe> recipes) throws DuplicatedRecipeException, AmountOfRecipeException {
+		synchronized (catalogue) {
+			return add(recipes);
+		}
+	}
+
+	private boolean add(List<Recipe> recipes) throws DuplicatedRecipeException, AmountOfRecipeException {
+		Overlay current = overlay;
+		if (current.ids.length + recipes.size() > getMaxRecipes()) {
+			throw new AmountOfRecipeException("Number of recipes exceeded");
+		}
+		List<Recipe> all = current.resolveAll(catalogue.snapshot());
+		for (Recipe r : recipes) {
+			if (conflicts(all, r, null)) {
+				throw new DuplicatedRecipeException("Recipe already exists");
+			}
+			all.add(r);
+		}
+		int[] ids = Arrays.copyOf(current.ids, current.ids.length + recipes.size());
+		Recipe[] overrides = current.overrides == null ? null : Arrays.copyOf(current.overrides, ids.length);
+		int n = current.ids.length;
+		for (Recipe r : recipes) {
+			int id = catalogue.intern(r);
+			if (id == RecipeCatalogue.NO_RECIPE) {
+				id = catalogue.getId(r.getName());
+				if (overrides == null) {
+					overrides = new Recipe[ids.length];
+				}
+				overrides[n] = r.frozenCopy();
+			}
+			ids[n++] = id;
+		}
+		overlay = new Overlay(ids, overrides);
+		changed();
+		return true;
+	}
+
+	/**
+	 * Returns true if r has the name or the ingredient amounts of
+	 * a recipe in the list other than the one named except.
+	 */
+	private static boolean conflicts(List<Recipe> recipes, Recipe r, String except) {
+		for (Recipe other : recipes) {
+			if (other.getName().equals(except)) {
+				continue;
+			}
+			if (other.getName().equals(r.getName()) || other.hasSameAmounts(r)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public synchronized boolean deleteRecipe(String recipeName) throws RecipeException {
+		Overlay current = overlay;
+		int i = current.indexOf(catalogue.getId(recipeName));
+		if (i < 0) {
+			throw new RecipeException("Unkown Recipe");
+		}
+		int[] ids = new int[current.ids.length - 1];
+		System.arraycopy(current.ids, 0, ids, 0, i);
+		System.arraycopy(current.ids, i + 1, ids, i, ids.length - i);
+		Recipe[] overrides = null;
+		if (current.overrides != null) {
+			overrides = new Recipe[ids.length];
+			System.arraycopy(current.overrides, 0, overrides, 0, i);
+			System.arraycopy(current.overrides, i + 1, overrides, i, ids.length - i);
+		}
+		overlay = new Overlay(ids, overrides);
+		changed();
+		return true;
+	}
+
+	/**
+	 * Gives a recipe of the machine its own price or ingredients,
+	 * or drops the override if r matches the catalogue recipe.
+	 * @param r
+	 * @throws RecipeException if the machine has no recipe of that name
+	 * @throws DuplicatedRecipeException if another recipe has the same ingredients
+	 */
+	public synchronized void overrideRecipe(Recipe r) throws RecipeException, DuplicatedRecipeException {
+		synchronized (catalogue) {
+			override(r);
+		}
+	}
+
+	private void override(Recipe r) throws RecipeException, DuplicatedRecipeException {
+		Overlay current = overlay;
+		int id = catalogue.getId(r.getName());
+		int i = current.indexOf(id);
+		if (i < 0) {
+			throw new RecipeException("Unkown Recipe");
+		}
+		if (conflicts(current.resolveAll(catalogue.snapshot()), r, r.getName())) {
+			throw new DuplicatedRecipeException("Recipe already exists");
+		}
+		Recipe[] overrides = current.overrides == null ? new Recipe[current.ids.length] : current.overrides.clone();
+		overrides[i] = RecipeCatalogue.sameValues(catalogue.getRecipe(id), r) ? null : r.frozenCopy();
+		overlay = new Overlay(current.ids, overrides);
+		changed();
+	}
+
+	/**
+	 * Returns true if two recipes of the machine would have the
+	 * same ingredients with the given catalogue recipes.
+	 */
+	boolean hasSameAmounts(RecipeCatalogue.Snapshot recipes) {
+		List<Recipe> all = overlay.resolveAll(recipes);
+		for (int i = 0; i < all.size(); i++) {
+			for (int j = i + 1; j < all.size(); j++) {
+				if (all.get(i).hasSameAmounts(all.get(j))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the named recipe has a machine override.
+	 * @param recipeName
+	 * @return boolean
+	 */
+	public boolean isOverridden(String recipeName) {
+		Overlay current = overlay;
+		int i = current.indexOf(catalogue.getId(recipeName));
+		return i >= 0 && current.overrides != null && current.overrides[i] != null;
+	}
+
+	/**
+	 * Catalogue ids of the machine's recipes in the order they
+	 * were added, and the override of each or null; overrides is
+	 * null if there are none. Immutable.
+	 */
+	private static final class Overlay {
+		final int[] ids;
+		final Recipe[] overrides;
+
+		Overlay(int[] ids, Recipe[] overrides) {
+			this.ids = ids;
+			this.overrides = overrides;
+		}
+
+		int indexOf(int id) {
+			for (int i = 0; i < ids.length; i++) {
+				if (ids[i] == id) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		Recipe resolve(RecipeCatalogue.Snapshot recipes, int i) {
+			return overrides != null && overrides[i] != null ? overrides[i] : recipes.recipes[ids[i]];
+		}
+
+		List<Recipe> resolveAll(RecipeCatalogue.Snapshot recipes) {
+			List<Recipe> list = new ArrayList<Recipe>(ids.length);
+			for (int i = 0; i < ids.length; i++) {
+				list.add(resolve(recipes, i));
+			}
+			return list;
+		}
+	}
+
+	private static final class Listing {
+		final RecipeCatalogue.Snapshot recipes;
+		final Overlay overlay;
+		final List<Recipe> list;
+
+		Listing(RecipeCatalogue.Snapshot recipes, Overlay overlay, List<Recipe> list) {
+			this.recipes = recipes;
+			this.overlay = overlay;
+			this.list = list;
+		}
+	}
+}
@@ -1,17 +1,31 @@
 package coffeemaker;
 
 import coffeemaker.exceptions.*;
+import coffeemaker.ledger.SalesLedger;
+import coffeemaker.metrics.CoffeeMakerMetrics;
 
-import java.util.Vector;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * @author Sarah Heckman
  */
 public class CoffeeMaker {
+	/** Largest payment accepted, in cents */
+	public static final int MAX_PAYMENT = 500;
 	/** Array of recipes in coffee maker */
 	private  RecipeBook recipeBook;
 	/** Inventory of the coffee maker */
     private Inventory inventory;
+	/** Metrics of the coffee maker, or null if they are off */
+	private volatile CoffeeMakerMetrics metrics;
+	/** Cash box change is paid from, or null to assume unlimited change */
+	private volatile CashBox cashBox;
+	/** Ledger every sale is recorded in, or null */
+	private volatile SalesLedger salesLedger;
+	/** Last result of availableRecipes(), reused until the recipes or the levels change */
+	private volatile RecipeAvailability availability;
 	
     /**
      * Constructor for the coffee maker
@@ -27,6 +41,27 @@ public class CoffeeMaker {
 		}
 	}
 	
+	/**
+	 * Constructor for a coffee maker using the given
+	 * inventory, e.g. an {@link AtomicInventory}.
+	 * @param inventory
+	 */
+	public CoffeeMaker(Inventory inventory) {
+		this(new RecipeBook(), inventory);
+	}
+	
+	/**
+	 * Constructor for a coffee maker using the given
+	 * recipe book and inventory, e.g. a recipe book
+	 * sized for a large menu.
+	 * @param recipeBook
+	 * @param inventory
+	 */
+	public CoffeeMaker(RecipeBook recipeBook, Inventory inventory) {
+		this.recipeBook = recipeBook;
+		this.inventory = inventory;
+	}
+	
 	/**
 	 * Returns true if the recipe is added to the
 	 * list of recipes in the CoffeeMaker and false
@@ -35,7 +70,16 @@ public class CoffeeMaker {
 	 * @return boolean
 	 */
 	public boolean addRecipe(Recipe r) throws AmountOfRecipeException, DuplicatedRecipeException {
-		return recipeBook.addRecipe(r);
+		CoffeeMakerMetrics m = metrics;
+		if (m == null) {
+			return recipeBook.addRecipe(r);
+		}
+		long start = System.nanoTime();
+		try {
+			return recipeBook.addRecipe(r);
+		} finally {
+			m.recordAddRecipe(System.nanoTime() - start);
+		}
 	}		
 	
 	/*
@@ -68,78 +112,581 @@ public class CoffeeMaker {
 	}*/
     
     /**
-     * Returns true if inventory was successfully added
-
+     * Returns true if inventory was successfully added.
+     * The inventory guards its own units, so the inventory
+     * methods below do not take the coffee maker monitor.
      */
 	
-	public synchronized void addCoffeeInventory(int amtCoffee) throws InvalidValueException {
-		inventory.addCoffee(amtCoffee);
+	public void addCoffeeInventory(int amtCoffee) throws InvalidValueException {
+		addInventory(IngredientRegistry.COFFEE, amtCoffee);
 	}
 	
-	public synchronized void addMilkInventory(int amtMilk) throws InvalidValueException {
-		inventory.addMilk(amtMilk);
+	public void addMilkInventory(int amtMilk) throws InvalidValueException {
+		addInventory(IngredientRegistry.MILK, amtMilk);
 	}
 	
-	public synchronized void addSugarInventory(int amtSugar) throws InvalidValueException {
-		inventory.addSugar(amtSugar);
+	public void addSugarInventory(int amtSugar) throws InvalidValueException {
+		addInventory(IngredientRegistry.SUGAR, amtSugar);
 	}
 	
-	public synchronized void addChocolateInventory(int amtChocolate) throws InvalidValueException {
-		inventory.addChocolate(amtChocolate);
+	public void addChocolateInventory(int amtChocolate) throws InvalidValueException {
+		addInventory(IngredientRegistry.CHOCOLATE, amtChocolate);
 	}
     
-    public synchronized int checkCoffeeInventory(){
+    public int checkCoffeeInventory(){
     	return inventory.getCoffee();
     }
     
-    public synchronized int checkMilkInventory(){
+    public int checkMilkInventory(){
     	return inventory.getMilk();
     }
     
-    public synchronized int checkSugarInventory(){
+    public int checkSugarInventory(){
     	return inventory.getSugar();
     }
     
-    public synchronized int checkChocolateInventory(){
+    public int checkChocolateInventory(){
     	return inventory.getChocolate();
     }
+
+	/**
+	 * Returns the ingredients of the inventory.
+	 * @return IngredientRegistry
+	 */
+	public IngredientRegistry getIngredients() {
+		return inventory.getIngredients();
+	}
+
+	/**
+	 * Returns the units of the ingredient at the registry index.
+	 * @param ingredient
+	 * @return int
+	 */
+	public int checkInventory(int ingredient) {
+		return inventory.getUnits(ingredient);
+	}
+
+	/**
+	 * Adds units of the ingredient at the registry index. Every
+	 * add, addXInventory included, goes through this method, so a
+	 * subclass that overrides it sees them all.
+	 * @param ingredient
+	 * @param units
+	 * @throws InvalidValueException
+	 */
+	public void addInventory(int ingredient, int units) throws InvalidValueException {
+		inventory.addUnits(ingredient, units);
+	}
     
     
     /**
      * Returns the change of a user's beverage purchase, or
-     * the user's money if the beverage cannot be made
-
+     * the user's money if the beverage cannot be made.
+     * Thin wrapper over tryMakeCoffee that reports every
+     * failure as an exception.
      */
-    public synchronized int makeCoffee(String recipeName, int amtPaid) throws InvalidValueException,InsufficientAmountOfMoneyException, RecipeException, InventoryException {
-		if (amtPaid < 0 && amtPaid > 500) {
-			throw new InvalidValueException("Payment must be positive or less than 500 cents");
-		} else {
-			int change = 0;
-			Recipe recipe = recipeBook.getRecipe(recipeName);
-			if (recipe == null) {
-				change = amtPaid;
+    public int makeCoffee(String recipeName, int amtPaid) throws InvalidValueException,InsufficientAmountOfMoneyException, RecipeException, InventoryException {
+		long result = tryMakeCoffee(recipeName, amtPaid);
+		switch (DispenseResult.status(result)) {
+			case INVALID_PAYMENT:
+				throw new InvalidValueException("Payment must be positive or less than 500 cents");
+			case UNKNOWN_RECIPE:
 				throw new RecipeException("Unknown Recipe");
-			} else if (recipe.getPrice() <= amtPaid) {
-				if (inventory.useIngredients(recipe)) {
-					change = amtPaid - recipe.getPrice();
-				} else {
-					change = amtPaid;
-					throw new InventoryException("Insuficcient amount of coffee, choco, milk or sugar");
-				}
-			} else {
-				change = amtPaid;
+			case INSUFFICIENT_MONEY:
 				throw new InsufficientAmountOfMoneyException("Insufficient money");
+			case OUT_OF_STOCK:
+				throw new InventoryException("Insuficcient amount of coffee, choco, milk or sugar");
+			case NO_CHANGE:
+				throw new NoChangeException("Cannot give change, please pay the exact amount");
+			default:
+				return DispenseResult.change(result);
+		}
+    }
+    
+    /**
+     * Makes a beverage without throwing on the normal failure
+     * outcomes. Returns the status and the change encoded in a
+     * long, see {@link DispenseResult}; the change is the whole
+     * payment if the beverage cannot be made. Allocates nothing.
+     * @param recipeName
+     * @param amtPaid
+     * @return long
+     */
+    public long tryMakeCoffee(String recipeName, int amtPaid) {
+		CoffeeMakerMetrics m = metrics;
+		boolean timed = m != null && m.sample();
+		long start = timed ? System.nanoTime() : 0;
+		Recipe recipe = recipeBook.getRecipe(recipeName);
+		DispenseStatus status = dispense(recipe, amtPaid);
+		if (timed) {
+			m.recordMakeCoffee(recipe, status, System.nanoTime() - start);
+		} else if (m != null) {
+			m.recordOutcome(recipe, status);
+		}
+		return DispenseResult.encode(status, status == DispenseStatus.OK ? amtPaid - recipe.getPrice() : amtPaid);
+    }
+    
+    /**
+     * Makes a beverage of a recipe already looked up, e.g. by
+     * a caller making many beverages of the same recipe.
+     * Subclasses that observe every beverage override both
+     * tryMakeCoffee methods.
+     * @param recipe the recipe, null if it does not exist
+     * @param amtPaid
+     * @return long encoded as by tryMakeCoffee
+     */
+    protected long tryMakeCoffee(Recipe recipe, int amtPaid) {
+		DispenseStatus status = dispense(recipe, amtPaid);
+		CoffeeMakerMetrics m = metrics;
+		if (m != null) {
+			m.recordOutcome(recipe, status);
+		}
+		return DispenseResult.encode(status, status == DispenseStatus.OK ? amtPaid - recipe.getPrice() : amtPaid);
+    }
+    
+    private DispenseStatus dispense(Recipe recipe, int amtPaid) {
+		CashBox box = cashBox;
+		if (invalidPayment(amtPaid, box)) {
+			return DispenseStatus.INVALID_PAYMENT;
+		} else if (recipe == null) {
+			return DispenseStatus.UNKNOWN_RECIPE;
+		} else if (recipe.getPrice() > amtPaid) {
+			return DispenseStatus.INSUFFICIENT_MONEY;
+		}
+		if (box == null) {
+			if (!inventory.useIngredients(recipe)) {
+				return DispenseStatus.OUT_OF_STOCK;
 			}
+		} else {
+			int change = amtPaid - recipe.getPrice();
+			synchronized (box) {
+				if (!box.canMakeChange(change)) {
+					return DispenseStatus.NO_CHANGE;
+				} else if (!inventory.useIngredients(recipe)) {
+					return DispenseStatus.OUT_OF_STOCK;
+				}
+				box.makeChange(change);
+				box.takePayment(amtPaid);
+			}
+		}
+		recordSale(recipe, amtPaid);
+		return DispenseStatus.OK;
+    }
+    
+    /**
+     * Records a beverage made in the sales ledger, if there is one.
+     */
+    void recordSale(Recipe recipe, int amtPaid) {
+		SalesLedger ledger = salesLedger;
+		if (ledger != null) {
+			ledger.record(recipe.getName(), recipe.getPrice(), amtPaid, amtPaid - recipe.getPrice());
+		}
+    }
 
-			return change;
+    /**
+     * Makes every beverage of an order with a single inventory
+     * deduction and returns the status and change of each line.
+     * With ALL_OR_NOTHING no beverage is made unless all of them
+     * can be; with BEST_EFFORT the lines that can be made are made
+     * in order and the others get their money back.
+     * @param order
+     * @param mode
+     * @return BatchResult
+     */
+    public BatchResult makeCoffeeBatch(List<OrderLine> order, BatchMode mode) {
+		int lines = order.size();
+		DispenseStatus[] status = new DispenseStatus[lines];
+		int[] change = new int[lines];
+		Recipe[] recipes = new Recipe[lines];
+		CashBox box = cashBox;
+		boolean failed = false;
+		for (int i = 0; i < lines; i++) {
+			OrderLine line = order.get(i);
+			change[i] = line.getAmtPaid();
+			if (invalidPayment(line.getAmtPaid(), box)) {
+				status[i] = DispenseStatus.INVALID_PAYMENT;
+			} else {
+				Recipe recipe = recipeBook.getRecipe(line.getRecipeName());
+				if (recipe == null) {
+					status[i] = DispenseStatus.UNKNOWN_RECIPE;
+				} else if (recipe.getPrice() > line.getAmtPaid()) {
+					status[i] = DispenseStatus.INSUFFICIENT_MONEY;
+				} else {
+					recipes[i] = recipe;
+				}
+			}
+			failed |= status[i] != null;
+		}
+		
+		if (mode == BatchMode.ALL_OR_NOTHING) {
+			DispenseStatus outcome = failed ? DispenseStatus.ORDER_REJECTED : sell(box, order, recipes, status, false);
+			finish(order, recipes, status, change, outcome);
+		} else {
+			Recipe[] accepted = new Recipe[lines];
+			do {
+				for (int i = 0; i < lines; i++) {
+					if (status[i] != null) {
+						// lines left without change by the previous try
+						recipes[i] = null;
+					}
+				}
+				planBestEffort(recipes, accepted);
+			} while (sell(box, order, accepted, status, true) != DispenseStatus.OK);
+			for (int i = 0; i < lines; i++) {
+				if (status[i] == null && recipes[i] != null && accepted[i] == null) {
+					status[i] = DispenseStatus.OUT_OF_STOCK;
+				}
+			}
+			finish(order, accepted, status, change, DispenseStatus.OK);
+		}
+		CoffeeMakerMetrics m = metrics;
+		if (m != null) {
+			for (int i = 0; i < lines; i++) {
+				Recipe recipe = recipes[i] != null ? recipes[i] : recipeBook.getRecipe(order.get(i).getRecipeName());
+				m.recordOutcome(recipe, status[i]);
+			}
+		}
+		return new BatchResult(status, change);
+    }
+    
+    /**
+     * Makes every beverage of an order in one all or nothing
+     * inventory deduction.
+     * @param order
+     * @return BatchResult
+     */
+    public BatchResult makeCoffeeBatch(List<OrderLine> order) {
+    	return makeCoffeeBatch(order, BatchMode.ALL_OR_NOTHING);
+    }
+    
+    /**
+     * Chooses, in order, the recipes that fit in the current
+     * inventory levels.
+     */
+    private void planBestEffort(Recipe[] recipes, Recipe[] accepted) {
+		int[] levels = inventory.getLevels();
+		for (int i = 0; i < recipes.length; i++) {
+			Recipe r = recipes[i];
+			accepted[i] = null;
+			if (r != null && Inventory.enough(levels, r.amounts())) {
+				int[] amounts = r.amounts();
+				for (int j = 0; j < amounts.length; j++) {
+					levels[j] -= amounts[j];
+				}
+				accepted[i] = r;
+			}
+		}
+    }
+    
+    /**
+     * Removes the ingredients of the given recipes and pays the
+     * change of their lines from the cash box, taking their
+     * payments, or does neither. With dropUnpaid the lines whose
+     * change cannot be paid are left out and marked NO_CHANGE
+     * instead of failing the order.
+     */
+    private DispenseStatus sell(CashBox box, List<OrderLine> order, Recipe[] recipes, DispenseStatus[] status,
+    		boolean dropUnpaid) {
+		if (box == null) {
+			return useIngredients(recipes) ? DispenseStatus.OK : DispenseStatus.OUT_OF_STOCK;
+		}
+		synchronized (box) {
+			int[][] coins = new int[recipes.length][];
+			for (int i = 0; i < recipes.length; i++) {
+				if (recipes[i] == null) {
+					continue;
+				}
+				coins[i] = box.makeChange(order.get(i).getAmtPaid() - recipes[i].getPrice());
+				if (coins[i] == null) {
+					if (!dropUnpaid) {
+						putBack(box, coins);
+						return DispenseStatus.NO_CHANGE;
+					}
+					recipes[i] = null;
+					status[i] = DispenseStatus.NO_CHANGE;
+				}
+			}
+			if (!useIngredients(recipes)) {
+				putBack(box, coins);
+				return DispenseStatus.OUT_OF_STOCK;
+			}
+			for (int i = 0; i < recipes.length; i++) {
+				if (recipes[i] != null) {
+					box.takePayment(order.get(i).getAmtPaid());
+				}
+			}
+		}
+		return DispenseStatus.OK;
+    }
+    
+    private static void putBack(CashBox box, int[][] coins) {
+		for (int[] c : coins) {
+			if (c != null) {
+				box.putBack(c);
+			}
+		}
+    }
+    
+    /**
+     * Removes the total ingredients of the given recipes from
+     * the inventory in one step. Null entries are skipped.
+     */
+    private boolean useIngredients(Recipe[] recipes) {
+		long[] total = new long[inventory.getIngredients().size()];
+		for (int i = 0; i < recipes.length; i++) {
+			Recipe r = recipes[i];
+			if (r != null) {
+				int[] amounts = r.amounts();
+				if (amounts.length > total.length) {
+					total = Arrays.copyOf(total, amounts.length);
+				}
+				for (int j = 0; j < amounts.length; j++) {
+					total[j] += amounts[j];
+				}
+			}
+		}
+		int[] amounts = new int[total.length];
+		for (int j = 0; j < total.length; j++) {
+			if (total[j] > Integer.MAX_VALUE) {
+				return false;
+			}
+			amounts[j] = (int) total[j];
+		}
+		return inventory.useIngredients(amounts);
+    }
+    
+    /**
+     * Sets the status of the lines still pending and the change
+     * of the lines that were made.
+     */
+    private void finish(List<OrderLine> order, Recipe[] made, DispenseStatus[] status,
+    		int[] change, DispenseStatus outcome) {
+		for (int i = 0; i < status.length; i++) {
+			if (status[i] == null) {
+				status[i] = outcome;
+				if (outcome == DispenseStatus.OK) {
+					change[i] = order.get(i).getAmtPaid() - made[i].getPrice();
+					recordSale(made[i], order.get(i).getAmtPaid());
+				}
+			}
 		}
     }
+    
+    static boolean invalidPayment(int amtPaid) {
+		return amtPaid < 0 || amtPaid > MAX_PAYMENT;
+    }
+
+    /**
+     * Returns true if the payment is out of range or, with a
+     * cash box, cannot be made of its coins.
+     */
+    static boolean invalidPayment(int amtPaid, CashBox box) {
+		return invalidPayment(amtPaid) || (box != null && !box.isPayable(amtPaid));
+    }
+
+	/**
+	 * Pays the change of every sale from the given cash box, or
+	 * assumes unlimited change with null. A sale whose change
+	 * the cash box cannot pay fails with NO_CHANGE and uses no
+	 * ingredients: the check, the deduction and the payout are
+	 * made under the cash box monitor. The coins of the payment of
+	 * every sale made go into the cash box; a payment its coins
+	 * cannot make is an INVALID_PAYMENT.
+	 * @param cashBox
+	 */
+	public void setCashBox(CashBox cashBox) {
+		this.cashBox = cashBox;
+	}
+
+	/**
+	 * Returns the cash box change is paid from, or null.
+	 * @return CashBox
+	 */
+	public CashBox getCashBox() {
+		return cashBox;
+	}
+
+	/**
+	 * Adds coins of the denomination to the cash box, e.g. for
+	 * a refill.
+	 * @param denomination
+	 * @param count
+	 * @throws InvalidValueException if there is no cash box or it
+	 * refuses the coins
+	 */
+	public void addCoins(int denomination, int count) throws InvalidValueException {
+		cashBoxOrThrow().addCoins(denomination, count);
+	}
+
+	/**
+	 * Takes coins of the denomination out of the cash box, e.g.
+	 * when it is emptied.
+	 * @param denomination
+	 * @param count
+	 * @throws InvalidValueException if there is no cash box or it
+	 * holds fewer coins
+	 */
+	public void removeCoins(int denomination, int count) throws InvalidValueException {
+		cashBoxOrThrow().removeCoins(denomination, count);
+	}
+
+	private CashBox cashBoxOrThrow() throws InvalidValueException {
+		CashBox box = cashBox;
+		if (box == null) {
+			throw new InvalidValueException("No cash box");
+		}
+		return box;
+	}
+
+	/**
+	 * Pays the change of a sale made by the caller, e.g. the
+	 * commit of a hold, and takes its payment. The sale is made
+	 * by calling commit once the change is known to be in the
+	 * cash box, under its monitor; the coins move only if commit
+	 * returns OK. Returns NO_CHANGE without calling commit if the
+	 * change cannot be paid, otherwise what commit returns.
+	 * @param amtPaid a valid payment
+	 * @param change
+	 * @param commit
+	 * @return DispenseStatus
+	 */
+	public DispenseStatus settle(int amtPaid, int change, Supplier<DispenseStatus> commit) {
+		CashBox box = cashBox;
+		if (box == null) {
+			return commit.get();
+		}
+		synchronized (box) {
+			if (!box.canMakeChange(change)) {
+				return DispenseStatus.NO_CHANGE;
+			}
+			DispenseStatus status = commit.get();
+			if (status == DispenseStatus.OK) {
+				box.makeChange(change);
+				box.takePayment(amtPaid);
+			}
+			return status;
+		}
+	}
+
+	/**
+	 * Records every beverage made from now on in the given
+	 * ledger, or stops recording with null.
+	 * @param salesLedger
+	 */
+	public void setSalesLedger(SalesLedger salesLedger) {
+		this.salesLedger = salesLedger;
+	}
+
+	/**
+	 * Returns the ledger sales are recorded in, or null.
+	 * @return SalesLedger
+	 */
+	public SalesLedger getSalesLedger() {
+		return salesLedger;
+	}
+
+	/**
+	 * Turns the metrics on, or off with null. The inventory
+	 * reports its deductions to the same metrics, which must
+	 * count every ingredient of the inventory.
+	 * @param metrics
+	 */
+	public void setMetrics(CoffeeMakerMetrics metrics) {
+		if (metrics != null && metrics.getIngredients().size() < inventory.getIngredients().size()) {
+			throw new IllegalArgumentException("Metrics count " + metrics.getIngredients().size() + " ingredients, the inventory has "
+					+ inventory.getIngredients().size());
+		}
+		this.metrics = metrics;
+		inventory.setMetrics(metrics);
+	}
+	
+	/**
+	 * Returns the metrics of the coffee maker, or null
+	 * if they are off.
+	 * @return CoffeeMakerMetrics
+	 */
+	public CoffeeMakerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Takes the given units of every ingredient, by registry
+	 * index, without making a beverage, e.g. to set a beverage
+	 * aside while it is paid for. Returns false and takes nothing
+	 * if an ingredient is short.
+	 * @param amounts
+	 * @return boolean
+	 */
+	public boolean holdIngredients(int[] amounts) {
+		return inventory.useIngredients(amounts);
+	}
+
+	/**
+	 * Puts back units taken by holdIngredients, by registry index.
+	 * Returns, by index, the units that no longer fit because the
+	 * ingredient was refilled in the meantime; those are not put
+	 * back.
+	 * @param amounts
+	 * @return int[]
+	 */
+	public int[] returnIngredients(int[] amounts) {
+		return inventory.returnIngredients(amounts);
+	}
+
+	/**
+	 * Returns the inventory, for schedulers that read its levels.
+	 */
+	Inventory inventory() {
+		return inventory;
+	}
+
+	/**
+	 * Returns the recipe with the given name, or null
+	 * if there is none.
+	 * @param recipeName
+	 * @return Recipe
+	 */
+	public Recipe getRecipe(String recipeName) {
+		return recipeBook.getRecipe(recipeName);
+	}
+	
+	/**
+	 * Returns true if the inventory holds enough ingredients
+	 * to make the recipe right now.
+	 * @param r
+	 * @return boolean
+	 */
+	public boolean hasIngredientsFor(Recipe r) {
+		return inventory.enoughIngredients(r);
+	}
+
+	/**
+	 * Returns which recipes can be made right now and how many
+	 * cups of each, evaluated against one consistent read of the
+	 * inventory levels. The result is cached and recomputed only
+	 * when the version of the recipes or of the inventory has
+	 * changed, so an unchanged coffee maker answers without
+	 * reading either.
+	 * @return RecipeAvailability
+	 */
+	public RecipeAvailability availableRecipes() {
+		// the versions are read first, so a change made meanwhile is seen by the next call
+		long recipesVersion = recipeBook.getVersion();
+		long levelsVersion = inventory.getVersion();
+		RecipeAvailability cached = availability;
+		if (cached == null || !cached.isFor(recipesVersion, levelsVersion)) {
+			cached = RecipeAvailability.of(recipeBook.getRecipes(), recipesVersion,
+					inventory.getLevels(), levelsVersion, cached);
+			availability = cached;
+		}
+		return cached;
+	}
 
 	/**
-	 * Returns the list of Recipes in the RecipeBook.
-	 * @return Recipe []
+	 * Returns an unmodifiable list of the Recipes in the RecipeBook.
+	 * @return List
 	 */
-	public synchronized Vector<Recipe> getRecipes() {
+	public List<Recipe> getRecipes() {
 		return recipeBook.getRecipes();
 	}
 }
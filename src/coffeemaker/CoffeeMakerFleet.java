@@ -0,0 +1,202 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.exceptions.RecipeException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fleet of coffee makers run from one JVM.
+ *
+ * Every machine has its own recipe book and inventory and is
+ * driven by its own single thread, so machines share no state
+ * and orders on different machines never contend. Orders are
+ * routed to a machine that has the ingredients for the recipe.
+ */
+public class CoffeeMakerFleet implements AutoCloseable {
+
+	private final CoffeeMaker[] machines;
+	private final ExecutorService[] executors;
+	/** Machine the next routing scan starts from */
+	private final AtomicInteger nextMachine = new AtomicInteger();
+
+	/**
+	 * Creates a fleet of coffee makers, each holding up to
+	 * maxRecipes recipes.
+	 * @param size
+	 * @param maxRecipes
+	 * @throws InvalidValueException
+	 */
+	public CoffeeMakerFleet(int size, int maxRecipes) throws InvalidValueException {
+		if (size <= 0) {
+			throw new InvalidValueException("A fleet needs at least one machine");
+		}
+		machines = new CoffeeMaker[size];
+		executors = new ExecutorService[size];
+		for (int i = 0; i < size; i++) {
+			machines[i] = new CoffeeMaker(new RecipeBook(maxRecipes), new Inventory());
+			final int machine = i;
+			executors[i] = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "coffee-maker-" + machine);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Creates a fleet of coffee makers with the default
+	 * number of recipes.
+	 * @param size
+	 * @throws InvalidValueException
+	 */
+	public CoffeeMakerFleet(int size) throws InvalidValueException {
+		this(size, RecipeBook.NUM_RECIPES);
+	}
+
+	/**
+	 * Returns the number of machines in the fleet.
+	 * @return int
+	 */
+	public int size() {
+		return machines.length;
+	}
+
+	/**
+	 * Returns the given machine, e.g. to refill it.
+	 * @param machine
+	 * @return CoffeeMaker
+	 */
+	public CoffeeMaker getMachine(int machine) {
+		return machines[machine];
+	}
+
+	/**
+	 * Adds the recipe to every machine of the fleet. If a machine
+	 * refuses it, e.g. because its recipe book is full, it is
+	 * deleted again from the machines that took it before this
+	 * throws, so every machine keeps the same recipes.
+	 * @param r
+	 * @return boolean
+	 */
+	public synchronized boolean addRecipe(Recipe r) throws AmountOfRecipeException, DuplicatedRecipeException {
+		int added = 0;
+		try {
+			for (; added < machines.length; added++) {
+				machines[added].addRecipe(r);
+			}
+		} catch (AmountOfRecipeException | DuplicatedRecipeException | RuntimeException e) {
+			for (int i = added - 1; i >= 0; i--) {
+				try {
+					machines[i].deleteRecipe(r.getName());
+				} catch (RecipeException undo) {
+					throw new IllegalStateException("Cannot undo adding " + r.getName() + " to machine " + i, undo);
+				}
+			}
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes the recipe from every machine of the fleet. If a
+	 * machine does not have it, it is added back to the machines
+	 * it was deleted from before this throws.
+	 * @param recipeName
+	 * @return boolean
+	 */
+	public synchronized boolean deleteRecipe(String recipeName) throws RecipeException {
+		Recipe[] deleted = new Recipe[machines.length];
+		int done = 0;
+		try {
+			for (; done < machines.length; done++) {
+				deleted[done] = machines[done].getRecipe(recipeName);
+				machines[done].deleteRecipe(recipeName);
+			}
+		} catch (RecipeException | RuntimeException e) {
+			for (int i = done - 1; i >= 0; i--) {
+				try {
+					machines[i].addRecipe(deleted[i]);
+				} catch (AmountOfRecipeException | DuplicatedRecipeException undo) {
+					throw new IllegalStateException("Cannot undo deleting " + recipeName + " from machine " + i, undo);
+				}
+			}
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the machine an order for the recipe is sent to:
+	 * the first machine, starting from a rotating position,
+	 * whose inventory holds the ingredients for the recipe, or
+	 * the starting machine if none does.
+	 * @param recipeName
+	 * @return int
+	 */
+	public int route(String recipeName) {
+		int start = Math.floorMod(nextMachine.getAndIncrement(), machines.length);
+		for (int i = 0; i < machines.length; i++) {
+			int machine = (start + i) % machines.length;
+			Recipe recipe = machines[machine].getRecipe(recipeName);
+			if (recipe != null && machines[machine].hasIngredientsFor(recipe)) {
+				return machine;
+			}
+		}
+		return start;
+	}
+
+	/**
+	 * Routes the order to a machine and makes the beverage on
+	 * that machine's thread. The future completes with the
+	 * result of {@link CoffeeMaker#tryMakeCoffee(String, int)}.
+	 * If the machine ran out before the order reached it, the
+	 * order is routed once more.
+	 * @param recipeName
+	 * @param amtPaid
+	 * @return CompletableFuture
+	 */
+	public CompletableFuture<Long> makeCoffee(String recipeName, int amtPaid) {
+		int machine = route(recipeName);
+		return submit(machine, recipeName, amtPaid).thenCompose(result -> {
+			if (DispenseResult.status(result) != DispenseStatus.OUT_OF_STOCK) {
+				return CompletableFuture.completedFuture(result);
+			}
+			int retry = route(recipeName);
+			return retry == machine ? CompletableFuture.completedFuture(result) : submit(retry, recipeName, amtPaid);
+		});
+	}
+
+	private CompletableFuture<Long> submit(int machine, String recipeName, int amtPaid) {
+		return CompletableFuture.supplyAsync(() -> machines[machine].tryMakeCoffee(recipeName, amtPaid), executors[machine]);
+	}
+
+	/**
+	 * Stops the machine threads after the orders already
+	 * submitted are made. If the calling thread is interrupted
+	 * while waiting, the orders not yet started are dropped and
+	 * the interrupt flag is set again.
+	 */
+	@Override
+	public void close() {
+		for (ExecutorService executor : executors) {
+			executor.shutdown();
+		}
+		try {
+			for (ExecutorService executor : executors) {
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			}
+		} catch (InterruptedException e) {
+			for (ExecutorService executor : executors) {
+				executor.shutdownNow();
+			}
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package coffeemaker;
+
+/**
+ * Decodes the primitive result of {@link CoffeeMaker#tryMakeCoffee(String, int)}.
+ *
+ * The status is kept in the high 32 bits of the result and the
+ * change in the low 32 bits, so no object is created per call.
+ */
+public final class DispenseResult {
+	
+	/** Cached because DispenseStatus.values() copies the array */
+	private static final DispenseStatus[] STATUSES = DispenseStatus.values();
+	
+	private DispenseResult() {
+	}
+	
+	/**
+	 * Returns the result of the given status and change.
+	 * @param status
+	 * @param change
+	 * @return long
+	 */
+	public static long encode(DispenseStatus status, int change) {
+		return ((long) status.ordinal() << 32) | (change & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Returns the status of the given result.
+	 * @param result
+	 * @return DispenseStatus
+	 */
+	public static DispenseStatus status(long result) {
+		return STATUSES[(int) (result >>> 32)];
+	}
+	
+	/**
+	 * Returns the change of the given result, which is the
+	 * whole payment if the beverage was not made.
+	 * @param result
+	 * @return int
+	 */
+	public static int change(long result) {
+		return (int) result;
+	}
+	
+	/**
+	 * Returns true if the beverage of the given result was made.
+	 * @param result
+	 * @return boolean
+	 */
+	public static boolean isOk(long result) {
+		return (result >>> 32) == DispenseStatus.OK.ordinal();
+	}
+}
@@ -0,0 +1,23 @@
+package coffeemaker;
+
+/**
+ * Outcome of dispensing a beverage.
+ */
+public enum DispenseStatus {
+	/** The beverage was made */
+	OK,
+	/** The payment is not a valid amount of money */
+	INVALID_PAYMENT,
+	/** There is no recipe with the given name */
+	UNKNOWN_RECIPE,
+	/** The payment is less than the price of the recipe */
+	INSUFFICIENT_MONEY,
+	/** There are not enough ingredients to make the recipe */
+	OUT_OF_STOCK,
+	/** The line was fine, but another line made the whole order fail */
+	ORDER_REJECTED,
+	/** The hold was already committed, released or expired */
+	NO_HOLD,
+	/** The cash box cannot pay out the change */
+	NO_CHANGE
+}
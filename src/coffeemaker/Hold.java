@@ -0,0 +1,81 @@
+package coffeemaker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Token for the ingredients of one beverage set aside by
+ * {@link HoldManager#reserve(String)} until it is committed,
+ * released or expires. The recipe, and so the price, is the one
+ * of the moment the hold was taken.
+ */
+public final class Hold {
+
+	static final int OPEN = 0;
+	static final int COMMITTED = 1;
+	static final int RELEASED = 2;
+	static final int EXPIRED = 3;
+
+	private final HoldManager owner;
+	private final long id;
+	private final Recipe recipe;
+	private final long deadline;
+	private final AtomicInteger state = new AtomicInteger(OPEN);
+
+	Hold(HoldManager owner, long id, Recipe recipe, long deadline) {
+		this.owner = owner;
+		this.id = id;
+		this.recipe = recipe;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Returns the id of the hold, unique within its manager.
+	 * @return long
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the recipe held.
+	 * @return Recipe
+	 */
+	public Recipe getRecipe() {
+		return recipe;
+	}
+
+	/**
+	 * Returns the time of the manager's clock, in nanoseconds,
+	 * at which the hold expires.
+	 * @return long
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Returns true if the hold is neither committed, released
+	 * nor expired.
+	 * @return boolean
+	 */
+	public boolean isOpen() {
+		return state.get() == OPEN;
+	}
+
+	HoldManager owner() {
+		return owner;
+	}
+
+	/**
+	 * Moves the hold from open to the given state; only one
+	 * caller succeeds.
+	 */
+	boolean close(int to) {
+		return state.compareAndSet(OPEN, to);
+	}
+
+	@Override
+	public String toString() {
+		return "Hold " + id + " of " + recipe.getName();
+	}
+}
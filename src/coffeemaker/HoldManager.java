@@ -0,0 +1,405 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.InventoryException;
+import coffeemaker.exceptions.RecipeException;
+import coffeemaker.metrics.CoffeeMakerMetrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Sets the ingredients of a beverage aside while the customer
+ * pays, so that a slow payment neither holds a lock nor loses the
+ * last cup to another order.
+ *
+ * {@link #reserve(String)} deducts the ingredients from the
+ * inventory at once and returns a {@link Hold}; {@link #commit}
+ * takes the payment and makes the beverage, {@link #release}
+ * gives the ingredients back. A hold that is neither committed
+ * nor released by its deadline expires and its ingredients are
+ * given back as well. Ingredients are taken and given back
+ * through {@link CoffeeMaker#holdIngredients} and
+ * {@link CoffeeMaker#returnIngredients}, so a coffee maker that
+ * records its commands records holds too. Units that no longer
+ * fit because the inventory was refilled in the meantime are kept
+ * as surplus and put back by later ticks as room frees up.
+ *
+ * Deadlines are kept in a hashed timer wheel: each slot covers
+ * one tick of the resolution and holds the holds due in it, in
+ * any round. {@link #tick()} sweeps the slots passed since the
+ * previous tick. Committed and released holds stay in their slot
+ * until it is swept. The state of each hold changes with a single
+ * compare and set, so a commit racing the expiry of the same hold
+ * either makes the beverage or gives the ingredients back, never
+ * both. Neither the coffee maker nor the inventory is locked
+ * between reserve and commit.
+ *
+ * The clock is pluggable as for the restock scheduler: a
+ * simulated clock with tick() called by hand gives deterministic
+ * runs, {@link #start(long, TimeUnit)} ticks on a background
+ * thread with the system clock.
+ */
+public class HoldManager implements AutoCloseable {
+
+	/** Number of slots of the timer wheel, a power of two */
+	private static final int SLOTS = 512;
+	/** Ticks of the resolution in the default time to live */
+	private static final int TICKS_PER_TTL = 64;
+
+	private final CoffeeMaker coffeeMaker;
+	private final LongSupplier clock;
+	private final long ttlNanos;
+	private final long resolutionNanos;
+	/** Clock reading of tick 0 */
+	private final long origin;
+	private final AtomicLong ids = new AtomicLong();
+	private final AtomicInteger open = new AtomicInteger();
+	private final AtomicLong expired = new AtomicLong();
+	/** Units given back that did not fit, by registry index, guarded by their own monitor */
+	private final int[] surplus;
+
+	/** Holds by the slot of their deadline, guarded by the wheel monitor */
+	private final List<List<Hold>> wheel = new ArrayList<>(SLOTS);
+	/** Last tick swept, guarded by the wheel monitor */
+	private long swept;
+	private boolean closed;
+	private ScheduledExecutorService timer;
+
+	/**
+	 * Creates a hold manager for the coffee maker on the system
+	 * clock.
+	 * @param coffeeMaker
+	 * @param ttl how long a hold lasts unless given otherwise
+	 * @param unit
+	 */
+	public HoldManager(CoffeeMaker coffeeMaker, long ttl, TimeUnit unit) {
+		this(coffeeMaker, System::nanoTime, unit.toNanos(ttl), Math.max(1, unit.toNanos(ttl) / TICKS_PER_TTL),
+				TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Creates a hold manager for the coffee maker on the given
+	 * nanosecond clock, e.g. a simulated clock.
+	 * @param coffeeMaker
+	 * @param clock
+	 * @param ttl how long a hold lasts unless given otherwise
+	 * @param resolution how late past its deadline a hold may expire
+	 * @param unit
+	 */
+	public HoldManager(CoffeeMaker coffeeMaker, LongSupplier clock, long ttl, long resolution, TimeUnit unit) {
+		if (ttl <= 0 || resolution <= 0) {
+			throw new IllegalArgumentException("Time to live and resolution must be positive");
+		}
+		this.coffeeMaker = coffeeMaker;
+		this.clock = clock;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.resolutionNanos = unit.toNanos(resolution);
+		this.origin = clock.getAsLong();
+		this.surplus = new int[coffeeMaker.inventory().getIngredients().size()];
+		for (int i = 0; i < SLOTS; i++) {
+			wheel.add(new ArrayList<Hold>());
+		}
+	}
+
+	/**
+	 * Sets the ingredients of the named recipe aside for the
+	 * default time to live.
+	 * @param recipeName
+	 * @return Hold
+	 * @throws RecipeException if there is no such recipe
+	 * @throws InventoryException if there are not enough ingredients
+	 */
+	public Hold reserve(String recipeName) throws RecipeException, InventoryException {
+		return reserve(recipeName, ttlNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Sets the ingredients of the named recipe aside for the
+	 * given time.
+	 * @param recipeName
+	 * @param ttl
+	 * @param unit
+	 * @return Hold
+	 * @throws RecipeException if there is no such recipe
+	 * @throws InventoryException if there are not enough ingredients
+	 */
+	public Hold reserve(String recipeName, long ttl, TimeUnit unit) throws RecipeException, InventoryException {
+		if (ttl <= 0) {
+			throw new IllegalArgumentException("Time to live must be positive");
+		}
+		Recipe recipe = coffeeMaker.getRecipe(recipeName);
+		if (recipe == null) {
+			throw new RecipeException("Unknown Recipe");
+		}
+		recipe = recipe.frozenCopy();
+		if (!coffeeMaker.holdIngredients(recipe.amounts())) {
+			throw new InventoryException("Insuficcient amount of coffee, choco, milk or sugar");
+		}
+		Hold hold = new Hold(this, ids.incrementAndGet(), recipe, clock.getAsLong() + unit.toNanos(ttl));
+		open.incrementAndGet();
+		synchronized (wheel) {
+			if (!closed) {
+				long tick = Math.max(swept + 1, ceilTick(hold.getDeadline()));
+				wheel.get((int) (tick & (SLOTS - 1))).add(hold);
+				return hold;
+			}
+		}
+		giveBack(hold, Hold.RELEASED);
+		throw new IllegalStateException("Hold manager closed");
+	}
+
+	/**
+	 * Takes the payment for the hold and makes the beverage.
+	 * Returns the status and the change encoded as by
+	 * {@link CoffeeMaker#tryMakeCoffee(String, int)}. If the
+	 * payment is too low, or its change cannot be paid from the
+	 * cash box, the hold stays open for another try;
+	 * a hold already committed, released or past its deadline
+	 * gives NO_HOLD and the payment back.
+	 * @param hold
+	 * @param amtPaid
+	 * @return long
+	 */
+	public long commit(Hold hold, int amtPaid) {
+		checkOwner(hold);
+		Recipe recipe = hold.getRecipe();
+		DispenseStatus status;
+		if (CoffeeMaker.invalidPayment(amtPaid, coffeeMaker.getCashBox())) {
+			status = DispenseStatus.INVALID_PAYMENT;
+		} else if (recipe.getPrice() > amtPaid) {
+			status = DispenseStatus.INSUFFICIENT_MONEY;
+		} else if (clock.getAsLong() - hold.getDeadline() >= 0) {
+			giveBack(hold, Hold.EXPIRED);
+			status = DispenseStatus.NO_HOLD;
+		} else {
+			status = close(hold, amtPaid, amtPaid - recipe.getPrice());
+			if (status == DispenseStatus.OK) {
+				coffeeMaker.recordSale(recipe, amtPaid);
+			}
+		}
+		CoffeeMakerMetrics m = coffeeMaker.getMetrics();
+		if (m != null) {
+			m.recordOutcome(recipe, status);
+		}
+		return DispenseResult.encode(status, status == DispenseStatus.OK ? amtPaid - recipe.getPrice() : amtPaid);
+	}
+
+	/**
+	 * Commits the hold, pays the change from the cash box of
+	 * the coffee maker, if it has one, and takes the payment in
+	 * one step.
+	 */
+	private DispenseStatus close(Hold hold, int amtPaid, int change) {
+		DispenseStatus status = coffeeMaker.settle(amtPaid, change, () -> committed(hold));
+		return status == DispenseStatus.NO_CHANGE && !hold.isOpen() ? DispenseStatus.NO_HOLD : status;
+	}
+
+	private DispenseStatus committed(Hold hold) {
+		if (!hold.close(Hold.COMMITTED)) {
+			return DispenseStatus.NO_HOLD;
+		}
+		open.decrementAndGet();
+		return DispenseStatus.OK;
+	}
+
+	/**
+	 * Gives the ingredients of the hold back. Returns false if
+	 * the hold was already committed, released or expired.
+	 * @param hold
+	 * @return boolean
+	 */
+	public boolean release(Hold hold) {
+		checkOwner(hold);
+		return giveBack(hold, Hold.RELEASED);
+	}
+
+	private void checkOwner(Hold hold) {
+		if (hold.owner() != this) {
+			throw new IllegalArgumentException("Hold of another manager");
+		}
+	}
+
+	/**
+	 * Closes the hold in the given state and returns its
+	 * ingredients to the inventory, unless it was closed already.
+	 */
+	private boolean giveBack(Hold hold, int state) {
+		if (!hold.close(state)) {
+			return false;
+		}
+		open.decrementAndGet();
+		if (state == Hold.EXPIRED) {
+			expired.incrementAndGet();
+		}
+		putBack(hold.getRecipe().amounts());
+		return true;
+	}
+
+	/**
+	 * Gives the units back to the coffee maker and adds those
+	 * that do not fit to the surplus.
+	 */
+	private void putBack(int[] amounts) {
+		int[] left = coffeeMaker.returnIngredients(amounts);
+		synchronized (surplus) {
+			for (int i = 0; i < Math.min(left.length, surplus.length); i++) {
+				surplus[i] += left[i];
+			}
+		}
+	}
+
+	/**
+	 * Tries to give the surplus back, keeping what still does
+	 * not fit.
+	 */
+	private void returnSurplus() {
+		int[] units;
+		synchronized (surplus) {
+			units = surplus.clone();
+			Arrays.fill(surplus, 0);
+		}
+		for (int u : units) {
+			if (u > 0) {
+				putBack(units);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the first tick at or after the clock reading.
+	 */
+	private long ceilTick(long time) {
+		long elapsed = time - origin;
+		return elapsed <= 0 ? 0 : (elapsed - 1) / resolutionNanos + 1;
+	}
+
+	/**
+	 * Expires the holds past their deadline in the slots passed
+	 * since the previous tick, after trying to give the surplus
+	 * back. Returns the number expired.
+	 * @return int
+	 */
+	public int tick() {
+		returnSurplus();
+		long now = clock.getAsLong();
+		List<Hold> due = new ArrayList<>();
+		synchronized (wheel) {
+			long current = Math.max(0, now - origin) / resolutionNanos;
+			// after a long pause each slot is swept once
+			long first = Math.max(swept + 1, current - SLOTS + 1);
+			for (long tick = first; tick <= current; tick++) {
+				List<Hold> slot = wheel.get((int) (tick & (SLOTS - 1)));
+				int kept = 0;
+				for (int i = 0; i < slot.size(); i++) {
+					Hold hold = slot.get(i);
+					if (!hold.isOpen()) {
+						continue;
+					}
+					if (now - hold.getDeadline() >= 0) {
+						due.add(hold);
+					} else {
+						// due in a later round
+						slot.set(kept++, hold);
+					}
+				}
+				slot.subList(kept, slot.size()).clear();
+			}
+			swept = Math.max(swept, current);
+		}
+		int count = 0;
+		for (Hold hold : due) {
+			if (giveBack(hold, Hold.EXPIRED)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of holds neither committed, released
+	 * nor expired.
+	 * @return int
+	 */
+	public int getOpenHolds() {
+		return open.get();
+	}
+
+	/**
+	 * Returns the number of holds that expired.
+	 * @return long
+	 */
+	public long getExpiredHolds() {
+		return expired.get();
+	}
+
+	/**
+	 * Returns the units of the ingredient at the registry index
+	 * given back by released and expired holds that did not fit
+	 * in the inventory and wait for a later tick.
+	 * @param ingredient
+	 * @return int
+	 */
+	public int getSurplusUnits(int ingredient) {
+		synchronized (surplus) {
+			return surplus[ingredient];
+		}
+	}
+
+	/**
+	 * Ticks every period on a background thread.
+	 * @param period
+	 * @param unit
+	 */
+	public synchronized void start(long period, TimeUnit unit) {
+		if (timer != null) {
+			throw new IllegalStateException("Hold manager already started");
+		}
+		timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "hold-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.scheduleAtFixedRate(() -> {
+			try {
+				tick();
+			} catch (RuntimeException e) {
+				// a failing inventory must not stop later ticks
+				e.printStackTrace();
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stops the background ticks and releases every hold still
+	 * open; units that do not fit stay in the surplus. Later
+	 * reserves throw IllegalStateException.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (timer != null) {
+				timer.shutdownNow();
+				timer = null;
+			}
+		}
+		List<Hold> left = new ArrayList<>();
+		synchronized (wheel) {
+			closed = true;
+			for (List<Hold> slot : wheel) {
+				left.addAll(slot);
+				slot.clear();
+			}
+		}
+		for (Hold hold : left) {
+			giveBack(hold, Hold.RELEASED);
+		}
+	}
+}
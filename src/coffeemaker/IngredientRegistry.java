@@ -0,0 +1,110 @@
+package coffeemaker;
+
+import java.util.Arrays;
+
+/**
+ * The ingredients a coffee maker carries, each with an index and
+ * a capacity in units.
+ *
+ * Inventories keep the units and recipes the amounts of every
+ * ingredient in int arrays indexed by the registry, so checking
+ * or deducting a recipe is a loop over primitive arrays whatever
+ * the number of ingredients. The four standard ingredients always
+ * come first, at COFFEE, MILK, SUGAR and CHOCOLATE, so the named
+ * methods of {@link Inventory} and {@link Recipe} work with every
+ * registry. Instances are immutable; {@link #with} returns a new
+ * registry with one more ingredient.
+ */
+public final class IngredientRegistry {
+
+	public static final int COFFEE = 0;
+	public static final int MILK = 1;
+	public static final int SUGAR = 2;
+	public static final int CHOCOLATE = 3;
+	/** Index returned for a name that is not registered */
+	public static final int NO_INGREDIENT = -1;
+	/** Capacity of each standard ingredient */
+	public static final int STANDARD_CAPACITY = 100;
+
+	/** Coffee, milk, sugar and chocolate, 100 units each */
+	public static final IngredientRegistry STANDARD = new IngredientRegistry(
+			new String[] {"coffee", "milk", "sugar", "chocolate"},
+			new int[] {STANDARD_CAPACITY, STANDARD_CAPACITY, STANDARD_CAPACITY, STANDARD_CAPACITY});
+
+	private final String[] names;
+	private final int[] capacities;
+
+	private IngredientRegistry(String[] names, int[] capacities) {
+		this.names = names;
+		this.capacities = capacities;
+	}
+
+	/**
+	 * Returns a registry with the ingredients of this one and
+	 * the given ingredient at the next index.
+	 * @param name
+	 * @param capacity largest number of units an inventory holds
+	 * @return IngredientRegistry
+	 */
+	public IngredientRegistry with(String name, int capacity) {
+		if (name == null || name.isEmpty() || indexOf(name) != NO_INGREDIENT) {
+			throw new IllegalArgumentException("Ingredient name missing or taken: " + name);
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be a positive integer");
+		}
+		String[] moreNames = Arrays.copyOf(names, names.length + 1);
+		int[] moreCapacities = Arrays.copyOf(capacities, capacities.length + 1);
+		moreNames[names.length] = name;
+		moreCapacities[capacities.length] = capacity;
+		return new IngredientRegistry(moreNames, moreCapacities);
+	}
+
+	/**
+	 * Returns the number of ingredients.
+	 * @return int
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Returns the index of the named ingredient, or NO_INGREDIENT.
+	 * @param name
+	 * @return int
+	 */
+	public int indexOf(String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return NO_INGREDIENT;
+	}
+
+	/**
+	 * Returns the name of the ingredient at the index.
+	 * @param ingredient
+	 * @return String
+	 */
+	public String getName(int ingredient) {
+		return names[ingredient];
+	}
+
+	/**
+	 * Returns the capacity of the ingredient at the index.
+	 * @param ingredient
+	 * @return int
+	 */
+	public int getCapacity(int ingredient) {
+		return capacities[ingredient];
+	}
+
+	/**
+	 * Returns the capacities by index; the caller must not
+	 * change the array.
+	 */
+	int[] capacities() {
+		return capacities;
+	}
+}
@@ -1,211 +1,449 @@
 package coffeemaker;
 
 import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.metrics.CoffeeMakerMetrics;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 
 /**
  * @author Sarah Heckman
  *
  * Inventory for the coffee maker
+ *
+ * The units of every ingredient of an {@link IngredientRegistry}
+ * are kept in one int array indexed by the registry, changed under
+ * the inventory monitor and read without it. Checking and
+ * deducting a recipe is a loop over that array and the recipe's
+ * amounts. The coffee, milk, sugar and chocolate methods are a
+ * facade over the indexed ones; subclasses keeping the units in
+ * their own representation override getUnits, setUnits, addUnits,
+ * getLevels, getVersion, enoughIngredients(int[]) and
+ * useIngredients(int[]).
  */
 public class Inventory {
-    
-    private int coffee;
-    private int milk;
-    private int sugar;
-    private int chocolate;
-    
+
+    private static final VarHandle UNITS = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final int INITIAL_UNITS = 20;
+
+    private final IngredientRegistry ingredients;
+    private final int[] capacities;
+    /** Units by ingredient index, written under the monitor with release stores */
+    private final int[] units;
+    /** Number of changes of the units, written under the monitor */
+    private volatile long version;
+    /** Metrics of the coffee maker using the inventory, or null */
+    private volatile CoffeeMakerMetrics metrics;
+
     /**
      * Creates a coffee maker inventory object and
-     * fills each item in the inventory with 15 units.
+     * fills each item in the inventory with 20 units.
      * @throws InvalidValueException
      */
     public Inventory() throws InvalidValueException {
-    	setCoffee(20);
-    	setMilk(20);
-    	setSugar(20);
-    	setChocolate(20);
+    	this(IngredientRegistry.STANDARD, true);
+    }
+
+    /**
+     * Creates an inventory of the given ingredients and fills
+     * each with 20 units, or its capacity if that is less.
+     * @param ingredients
+     * @throws InvalidValueException
+     */
+    public Inventory(IngredientRegistry ingredients) throws InvalidValueException {
+    	this(ingredients, true);
+    }
+
+    /**
+     * Creates a coffee maker inventory object, filling it
+     * with 20 units of each item only if fill is true.
+     * Subclasses that keep the units in their own
+     * representation pass false and fill themselves.
+     * @param fill
+     * @throws InvalidValueException
+     */
+    protected Inventory(boolean fill) throws InvalidValueException {
+    	this(IngredientRegistry.STANDARD, fill);
+    }
+
+    /**
+     * Creates an inventory of the given ingredients, filling it
+     * only if fill is true.
+     * @param ingredients
+     * @param fill
+     * @throws InvalidValueException
+     */
+    protected Inventory(IngredientRegistry ingredients, boolean fill) throws InvalidValueException {
+    	this.ingredients = ingredients;
+    	this.capacities = ingredients.capacities();
+    	this.units = new int[ingredients.size()];
+    	if (fill) {
+    		for (int i = 0; i < units.length; i++) {
+    			setUnits(i, Math.min(INITIAL_UNITS, capacities[i]));
+    		}
+    	}
+    }
+
+    /**
+     * Returns the ingredients the inventory holds.
+     * @return IngredientRegistry
+     */
+    public IngredientRegistry getIngredients() {
+    	return ingredients;
+    }
+
+    /**
+     * Returns the current units of the ingredient at the
+     * registry index.
+     * @param ingredient
+     * @return int
+     */
+    public int getUnits(int ingredient) {
+    	return (int) UNITS.getAcquire(units, ingredient);
     }
-    
+
     /**
-     * Returns the current number of chocolate units in 
+     * Sets the units of the ingredient at the registry index.
+     * @param ingredient
+     * @param amount between 0 and the capacity of the ingredient
+     * @throws InvalidValueException
+     */
+    public synchronized void setUnits(int ingredient, int amount) throws InvalidValueException {
+    	if (amount >= 0 && amount <= capacities[ingredient]) {
+    		UNITS.setRelease(units, ingredient, amount);
+    		version++;
+    	} else {
+    		throw new InvalidValueException(invalidAmount(ingredient));
+    	}
+    }
+
+    /**
+     * Adds units of the ingredient at the registry index.
+     * @param ingredient
+     * @param amount at least 0, and no more than fits
+     * @throws InvalidValueException
+     */
+    public synchronized void addUnits(int ingredient, int amount) throws InvalidValueException {
+    	if (amount >= 0 && amount <= capacities[ingredient] - units[ingredient]) {
+    		UNITS.setRelease(units, ingredient, units[ingredient] + amount);
+    		version++;
+    	} else {
+    		throw new InvalidValueException(invalidUnits(ingredient));
+    	}
+    }
+
+    /**
+     * Returns the message of a set to an invalid amount.
+     * @param ingredient
+     * @return String
+     */
+    protected String invalidAmount(int ingredient) {
+    	return "Invalid amount of " + ingredients.getName(ingredient);
+    }
+
+    /**
+     * Returns the message of an add of invalid units.
+     * @param ingredient
+     * @return String
+     */
+    protected String invalidUnits(int ingredient) {
+    	return "Units of " + ingredients.getName(ingredient) + " must be a positive integer and less equal than "
+    			+ capacities[ingredient];
+    }
+
+    /**
+     * Returns the current number of chocolate units in
      * the inventory.
      * @return int
      */
     public int getChocolate() {
-        return chocolate;
+        return getUnits(IngredientRegistry.CHOCOLATE);
     }
-    
+
     /**
      * Sets the number of chocolate units in the inventory
      * to the specified amount.
      * @param chocolate
      */
-    public synchronized void setChocolate(int chocolate) throws InvalidValueException{
-    	if(chocolate >= 0 && chocolate<=100) {
-    		this.chocolate = chocolate;
-    	}
-    	else
-    		throw new InvalidValueException("Invalid amount of chocolate");
-        
+    public void setChocolate(int chocolate) throws InvalidValueException{
+    	setUnits(IngredientRegistry.CHOCOLATE, chocolate);
     }
-    
+
     /**
-     * Add the number of chocolate units in the inventory 
+     * Add the number of chocolate units in the inventory
      * to the current amount of chocolate units.
      *
 
      */
-    public synchronized void addChocolate(int amtChocolate) throws InvalidValueException{    	    	
-		if (amtChocolate >= 0 && amtChocolate+this.chocolate<=100) {
-			this.chocolate += amtChocolate;
-		} else {
-			throw new InvalidValueException("Units of chocolate must be a positive integer and less equal than 100");
-		}
+    public void addChocolate(int amtChocolate) throws InvalidValueException{
+    	addUnits(IngredientRegistry.CHOCOLATE, amtChocolate);
     }
-    
+
     /**
      * Returns the current number of coffee units in
      * the inventory.
      * @return int
      */
     public int getCoffee() {
-        return coffee;
+        return getUnits(IngredientRegistry.COFFEE);
     }
-    
+
     /**
-     * Sets the number of coffee units in the inventory 
+     * Sets the number of coffee units in the inventory
      * to the specified amount.
      * @param coffee
      */
-    public synchronized void setCoffee(int coffee)throws InvalidValueException{ 
-    	if(coffee >= 0 && coffee<=100) {
-    		this.coffee = coffee;
-    	}
-    	else
-    		throw new InvalidValueException("Invalid amount of coffee");
+    public void setCoffee(int coffee)throws InvalidValueException{
+    	setUnits(IngredientRegistry.COFFEE, coffee);
     }
-    
+
     /**
-     * Add the number of coffee units in the inventory 
+     * Add the number of coffee units in the inventory
      * to the current amount of coffee units.
      */
-    public synchronized void addCoffee(int amtCoffee) throws InvalidValueException{    	
-		if (amtCoffee >= 0 && amtCoffee+this.coffee<=100) {
-			this.coffee += amtCoffee;
-		} else {
-			throw new InvalidValueException("Units of coffee must be a positive integer and less equal than 100");
-		}
+    public void addCoffee(int amtCoffee) throws InvalidValueException{
+    	addUnits(IngredientRegistry.COFFEE, amtCoffee);
     }
-    
+
     /**
      * Returns the current number of milk units in
      * the inventory.
      * @return int
      */
     public int getMilk() {
-        return milk;
+        return getUnits(IngredientRegistry.MILK);
     }
-    
+
     /**
      * Sets the number of milk units in the inventory
      * to the specified amount.
      * @param milk
      */
-    public synchronized void setMilk(int milk) throws InvalidValueException{
-    	if(milk >= 0 && milk<=100) {
-    		this.milk = milk;
-    	} else {
-			throw new InvalidValueException("Invalid amount of milk");
-		}
+    public void setMilk(int milk) throws InvalidValueException{
+    	setUnits(IngredientRegistry.MILK, milk);
     }
-    
+
     /**
-     * Add the number of milk units in the inventory 
+     * Add the number of milk units in the inventory
      * to the current amount of milk units.
      */
-    public synchronized void addMilk(int amtMilk) throws InvalidValueException{    	
-		if (amtMilk >= 0 && amtMilk + this.milk<=100) {
-			this.milk += amtMilk;
-		} else {
-			throw new InvalidValueException("Units of milk must be a positive integer and less equal than 100");
-		}
+    public void addMilk(int amtMilk) throws InvalidValueException{
+    	addUnits(IngredientRegistry.MILK, amtMilk);
     }
-    
+
     /**
-     * Returns the current number of sugar units in 
+     * Returns the current number of sugar units in
      * the inventory.
      * @return int
      */
     public int getSugar() {
-        return sugar;
+        return getUnits(IngredientRegistry.SUGAR);
     }
-    
+
     /**
      * Sets the number of sugar units in the inventory
      * to the specified amount.
      * @param sugar
      */
-    public synchronized void setSugar(int sugar) throws InvalidValueException{
-    	if(sugar >= 0 && sugar<=100) {
-    		this.sugar = sugar;
-    	}else {
-			throw new InvalidValueException("Invalid amount of sugar");
-		}
+    public void setSugar(int sugar) throws InvalidValueException{
+    	setUnits(IngredientRegistry.SUGAR, sugar);
     }
-    
+
     /**
-     * Add the number of sugar units in the inventory 
+     * Add the number of sugar units in the inventory
      * to the current amount of sugar units.
      */
-    public synchronized void addSugar(int amtSugar) throws InvalidValueException {    	
-		if (amtSugar >= 0 && amtSugar+this.sugar<=100) {
-			this.sugar += amtSugar;
-		} else {
-			throw new InvalidValueException("Units of sugar must be a positive integer");
-		}
+    public void addSugar(int amtSugar) throws InvalidValueException {
+    	addUnits(IngredientRegistry.SUGAR, amtSugar);
+    }
+
+    /**
+     * Returns the units of every ingredient by registry index,
+     * coffee, milk, sugar and chocolate first, read together so
+     * that no deduction or refill happens in between.
+     * @return int[]
+     */
+    public synchronized int[] getLevels() {
+    	return units.clone();
     }
-    
+
+    /**
+     * Returns a number that changes whenever the units change, so
+     * that two calls returning the same number saw the same
+     * levels. Reading it before getLevels tells whether a result
+     * computed from earlier levels is still current.
+     * @return long
+     */
+    public long getVersion() {
+    	return version;
+    }
+
     /**
      * Returns true if there are enough ingredients to make
      * the beverage.
      * @param r
      * @return boolean
      */
-    protected synchronized boolean enoughIngredients(Recipe r) {
-        boolean isEnough = true;
-        if(this.coffee < r.getAmtCoffee()) {
-            isEnough = false;
-        }
-        if(this.milk < r.getAmtMilk()) {
-            isEnough = false;
-        }
-        if(this.sugar < r.getAmtSugar()) {
-            isEnough = false;
-        }
-        if(this.chocolate < r.getAmtChocolate()) {
-            isEnough = false;
-        }
-        return isEnough;
-    }
-    
-    /**
-     * Removes the ingredients used to make the specified 
+    protected boolean enoughIngredients(Recipe r) {
+        return enoughIngredients(r.amounts());
+    }
+
+    /**
+     * Returns true if there are at least the given units of
+     * every ingredient, by registry index.
+     * @param amounts
+     * @return boolean
+     */
+    protected synchronized boolean enoughIngredients(int[] amounts) {
+    	return enough(units, amounts);
+    }
+
+    /**
+     * Returns true if the levels cover every amount; an
+     * ingredient the levels do not have covers only zero units.
+     * @param levels
+     * @param amounts
+     * @return boolean
+     */
+    protected static boolean enough(int[] levels, int[] amounts) {
+    	int n = Math.min(levels.length, amounts.length);
+    	for (int i = n; i < amounts.length; i++) {
+    		if (amounts[i] != 0) {
+    			return false;
+    		}
+    	}
+    	for (int i = 0; i < n; i++) {
+    		if (amounts[i] < 0 || levels[i] < amounts[i]) {
+    			return false;
+    		}
+    	}
+    	return true;
+    }
+
+    /**
+     * Removes the ingredients used to make the specified
      * recipe.  Assumes that the user has checked that there
-     * are enough ingredients to make 
+     * are enough ingredients to make
      * @param r
      */
-    public synchronized boolean useIngredients(Recipe r) {
-    	if (enoughIngredients(r)) {
-    		this.coffee -= r.getAmtCoffee();
-    		this.milk -= r.getAmtMilk();
-    		this.sugar -= r.getAmtSugar();
-    		this.chocolate -= r.getAmtChocolate();
-	    	return true;
-    	} else {
+    public boolean useIngredients(Recipe r) {
+    	return useIngredients(r.amounts());
+    }
+
+    /**
+     * Removes the ingredients of the recipe with the given
+     * handle in a {@link PackedRecipeBook}, without looking
+     * up a Recipe object.
+     * @param recipes
+     * @param handle
+     * @return boolean
+     */
+    public boolean useIngredients(PackedRecipeBook recipes, int handle) {
+    	return recipes.useIngredients(this, handle);
+    }
+
+    /**
+     * Removes the given units of every ingredient at once,
+     * e.g. the total of a whole order. Returns false and
+     * removes nothing if any ingredient is short.
+     * @param amtCoffee
+     * @param amtMilk
+     * @param amtSugar
+     * @param amtChocolate
+     * @return boolean
+     */
+    public boolean useIngredients(int amtCoffee, int amtMilk, int amtSugar, int amtChocolate) {
+    	return useIngredients(new int[] { amtCoffee, amtMilk, amtSugar, amtChocolate });
+    }
+
+    /**
+     * Removes the given units of every ingredient, by registry
+     * index, at once. Returns false and removes nothing if any
+     * ingredient is short or an amount is negative.
+     * @param amounts
+     * @return boolean
+     */
+    public boolean useIngredients(int[] amounts) {
+    	CoffeeMakerMetrics metrics = timedMetrics();
+    	if (metrics == null) {
+    		synchronized (this) {
+    			return take(amounts);
+    		}
+    	}
+    	long start = System.nanoTime();
+    	long acquired;
+    	boolean used;
+    	synchronized (this) {
+    		acquired = System.nanoTime();
+    		used = take(amounts);
+    	}
+    	metrics.recordUseIngredients(acquired - start, System.nanoTime() - acquired);
+    	return used;
+    }
+
+    /**
+     * Removes the given units if there are enough of all of
+     * them. The caller holds the inventory monitor.
+     */
+    private boolean take(int[] amounts) {
+    	if (!enough(units, amounts)) {
     		return false;
     	}
+    	int n = Math.min(units.length, amounts.length);
+    	for (int i = 0; i < n; i++) {
+    		UNITS.setRelease(units, i, units[i] - amounts[i]);
+    	}
+    	version++;
+    	return true;
+    }
+
+    /**
+     * Puts back units taken by useIngredients, by registry index,
+     * e.g. those of a reservation that was given up. Units that
+     * no longer fit because the ingredient was refilled in the
+     * meantime are not put back; they are returned, by index, for
+     * the caller to keep or to try again later.
+     * @param amounts
+     * @return int[]
+     */
+    public int[] returnIngredients(int[] amounts) {
+    	int[] left = new int[amounts.length];
+    	for (int i = 0; i < amounts.length; i++) {
+    		left[i] = Math.max(0, amounts[i]);
+    		while (i < ingredients.size() && left[i] > 0) {
+    			int room = ingredients.getCapacity(i) - getUnits(i);
+    			if (room <= 0) {
+    				break;
+    			}
+    			int put = Math.min(left[i], room);
+    			try {
+    				addUnits(i, put);
+    				left[i] -= put;
+    			} catch (InvalidValueException e) {
+    				// refilled since the units were read; retry with the room left
+    			}
+    		}
+    	}
+    	return left;
     }
-    
 
+    /**
+     * Sets the metrics that inventory deductions report their
+     * lock wait and service time to; null stops reporting.
+     * @param metrics
+     */
+    public void setMetrics(CoffeeMakerMetrics metrics) {
+    	this.metrics = metrics;
+    }
+
+    /**
+     * Returns the metrics if the current deduction is one of
+     * the sampled ones to time, or null.
+     * @return CoffeeMakerMetrics
+     */
+    protected CoffeeMakerMetrics timedMetrics() {
+    	CoffeeMakerMetrics metrics = this.metrics;
+    	return metrics != null && metrics.sample() ? metrics : null;
+    }
 }
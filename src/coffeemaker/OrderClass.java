@@ -0,0 +1,94 @@
+package coffeemaker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A class of orders of a {@link PriorityScheduler}, e.g. staff,
+ * mobile pre-orders or walk-ins.
+ *
+ * The weight is the share of the machine the class gets while
+ * other classes also have orders waiting. The priority decides who
+ * gets the last units of an ingredient: an order is only made if
+ * it leaves enough for the orders of higher priority classes
+ * already waiting. The deadline is how long an order may wait
+ * before it is made; orders close to their deadline go first.
+ */
+public final class OrderClass {
+
+	/** Deadline of a class whose orders may wait any time */
+	public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	/** Staff orders: first to get scarce ingredients */
+	public static final OrderClass STAFF = new OrderClass("staff", 0, 2);
+	/** Mobile pre-orders, promised within two minutes */
+	public static final OrderClass MOBILE = new OrderClass("mobile", 1, 4, 2, TimeUnit.MINUTES);
+	/** Orders made at the machine */
+	public static final OrderClass WALK_IN = new OrderClass("walk-in", 2, 1);
+
+	private final String name;
+	private final int priority;
+	private final int weight;
+	private final long deadlineNanos;
+
+	/**
+	 * Creates a class whose orders have no deadline.
+	 * @param name
+	 * @param priority 0 is the highest
+	 * @param weight share of the machine, at least 1
+	 */
+	public OrderClass(String name, int priority, int weight) {
+		this(name, priority, weight, NO_DEADLINE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Creates a class whose orders should be made within the
+	 * deadline.
+	 * @param name
+	 * @param priority 0 is the highest
+	 * @param weight share of the machine, at least 1
+	 * @param deadline
+	 * @param unit
+	 */
+	public OrderClass(String name, int priority, int weight, long deadline, TimeUnit unit) {
+		if (priority < 0 || weight <= 0 || deadline <= 0) {
+			throw new IllegalArgumentException("Priority must not be negative, weight and deadline must be positive");
+		}
+		this.name = name;
+		this.priority = priority;
+		this.weight = weight;
+		this.deadlineNanos = deadline == NO_DEADLINE ? NO_DEADLINE : unit.toNanos(deadline);
+	}
+
+	/**
+	 * @return   Returns the name of the class.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return   Returns the priority, 0 being the highest.
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @return   Returns the weight of the class.
+	 */
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return   Returns the deadline in nanoseconds, or NO_DEADLINE.
+	 */
+	public long getDeadlineNanos() {
+		return deadlineNanos;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,29 @@
+package coffeemaker;
+
+/**
+ * One beverage of a batch order: the recipe to make
+ * and the money paid for it.
+ */
+public class OrderLine {
+	private final String recipeName;
+	private final int amtPaid;
+	
+	public OrderLine(String recipeName, int amtPaid) {
+		this.recipeName = recipeName;
+		this.amtPaid = amtPaid;
+	}
+	
+	/**
+	 * @return   Returns the recipeName.
+	 */
+	public String getRecipeName() {
+		return recipeName;
+	}
+	
+	/**
+	 * @return   Returns the amtPaid.
+	 */
+	public int getAmtPaid() {
+		return amtPaid;
+	}
+}
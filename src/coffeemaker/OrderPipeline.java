@@ -0,0 +1,273 @@
+package coffeemaker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous front end of a coffee maker.
+ *
+ * Orders are queued in a bounded ring buffer and made by a single
+ * consumer thread, so the inventory is only shared with refills
+ * and its monitor is rarely contended. The consumer drains
+ * the queue in batches and groups each batch by recipe, looking
+ * every recipe up once per batch; orders of the same recipe are
+ * made in submission order.
+ *
+ * Each order completes with the status and change encoded as by
+ * {@link CoffeeMaker#tryMakeCoffee(String, int)}, or fails with a
+ * RejectedExecutionException if it was shed by the backpressure
+ * policy or submitted after close. Dependent stages added without
+ * an executor run on the consumer thread and should be short.
+ */
+public class OrderPipeline implements AutoCloseable {
+
+	/** Default number of orders the consumer takes from the queue at once */
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	private final CoffeeMaker coffeeMaker;
+	private final Backpressure backpressure;
+	private final Order[] ring;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final Thread consumer;
+	/** Index of the oldest queued order */
+	private int head;
+	private int count;
+	private long rejected;
+	private long dropped;
+	private boolean closed;
+
+	// used by the consumer thread only
+	private final Order[] batch;
+	private final int[] next;
+	private final int[] tail;
+	private final Map<String, Integer> groups = new LinkedHashMap<>();
+
+	/**
+	 * Creates a pipeline in front of the coffee maker with the
+	 * default batch size.
+	 * @param coffeeMaker
+	 * @param capacity most orders waiting in the queue
+	 * @param backpressure
+	 */
+	public OrderPipeline(CoffeeMaker coffeeMaker, int capacity, Backpressure backpressure) {
+		this(coffeeMaker, capacity, backpressure, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Creates a pipeline in front of the coffee maker.
+	 * @param coffeeMaker
+	 * @param capacity most orders waiting in the queue
+	 * @param backpressure
+	 * @param batchSize most orders made per batch
+	 */
+	public OrderPipeline(CoffeeMaker coffeeMaker, int capacity, Backpressure backpressure, int batchSize) {
+		if (capacity <= 0 || batchSize <= 0) {
+			throw new IllegalArgumentException("Capacity and batch size must be positive");
+		}
+		this.coffeeMaker = coffeeMaker;
+		this.backpressure = backpressure;
+		this.ring = new Order[capacity];
+		this.batch = new Order[Math.min(batchSize, capacity)];
+		this.next = new int[batch.length];
+		this.tail = new int[batch.length];
+		this.consumer = new Thread(this::consumeLoop, "order-pipeline");
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	/**
+	 * Queues an order for a beverage.
+	 * @param recipeName
+	 * @param amtPaid
+	 * @return CompletableFuture of the encoded status and change, see {@link DispenseResult}
+	 */
+	public CompletableFuture<Long> submit(String recipeName, int amtPaid) {
+		Order order = new Order(recipeName, amtPaid);
+		Order oldest = null;
+		lock.lock();
+		try {
+			while (!closed && count == ring.length) {
+				if (backpressure == Backpressure.REJECT) {
+					rejected++;
+					return failed(order, "Order queue is full");
+				} else if (backpressure == Backpressure.DROP_OLDEST) {
+					oldest = ring[head];
+					ring[head] = null;
+					head = (head + 1) % ring.length;
+					count--;
+					dropped++;
+				} else {
+					try {
+						notFull.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return failed(order, "Interrupted waiting for room in the order queue");
+					}
+				}
+			}
+			if (closed) {
+				return failed(order, "Order pipeline is closed");
+			}
+			ring[(head + count) % ring.length] = order;
+			count++;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+		if (oldest != null) {
+			oldest.future.completeExceptionally(new RejectedExecutionException("Order dropped to make room for newer orders"));
+		}
+		return order.future;
+	}
+
+	private static CompletableFuture<Long> failed(Order order, String message) {
+		order.future.completeExceptionally(new RejectedExecutionException(message));
+		return order.future;
+	}
+
+	/**
+	 * Returns the number of orders waiting in the queue.
+	 * @return int
+	 */
+	public int getQueuedOrders() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of orders rejected because the queue was full.
+	 * @return long
+	 */
+	public long getRejectedOrders() {
+		lock.lock();
+		try {
+			return rejected;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of queued orders dropped for newer ones.
+	 * @return long
+	 */
+	public long getDroppedOrders() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void consumeLoop() {
+		while (true) {
+			int n;
+			lock.lock();
+			try {
+				while (count == 0 && !closed) {
+					notEmpty.awaitUninterruptibly();
+				}
+				if (count == 0) {
+					return;
+				}
+				n = Math.min(count, batch.length);
+				for (int i = 0; i < n; i++) {
+					batch[i] = ring[head];
+					ring[head] = null;
+					head = (head + 1) % ring.length;
+				}
+				count -= n;
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			makeBatch(n);
+		}
+	}
+
+	/**
+	 * Makes the first n orders of the batch, one recipe at a time.
+	 */
+	private void makeBatch(int n) {
+		// chain the orders of each recipe from its first order
+		groups.clear();
+		for (int i = 0; i < n; i++) {
+			next[i] = -1;
+			Integer first = groups.putIfAbsent(batch[i].recipeName, i);
+			if (first == null) {
+				tail[i] = i;
+			} else {
+				next[tail[first]] = i;
+				tail[first] = i;
+			}
+		}
+		for (Map.Entry<String, Integer> group : groups.entrySet()) {
+			Recipe recipe = null;
+			Throwable failure = null;
+			try {
+				recipe = coffeeMaker.getRecipe(group.getKey());
+			} catch (Throwable e) {
+				failure = e;
+			}
+			for (int i = group.getValue(); i >= 0; i = next[i]) {
+				Order order = batch[i];
+				batch[i] = null;
+				if (failure != null) {
+					order.future.completeExceptionally(failure);
+					continue;
+				}
+				// whatever an order throws, the consumer goes on with the next one
+				try {
+					order.future.complete(coffeeMaker.tryMakeCoffee(recipe, order.amtPaid));
+				} catch (Throwable e) {
+					order.future.completeExceptionally(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops taking orders, makes the ones already queued and
+	 * waits for the consumer thread to finish. If the calling
+	 * thread is interrupted it stops waiting and the interrupt
+	 * flag is set again; the queued orders are still made.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			consumer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class Order {
+		final String recipeName;
+		final int amtPaid;
+		final CompletableFuture<Long> future = new CompletableFuture<>();
+
+		Order(String recipeName, int amtPaid) {
+			this.recipeName = recipeName;
+			this.amtPaid = amtPaid;
+		}
+	}
+}
@@ -0,0 +1,504 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.exceptions.RecipeException;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Recipe book for large catalogues that keeps recipes in parallel
+ * int arrays instead of Recipe objects.
+ *
+ * Every recipe is an int handle: its index in the price and
+ * ingredient arrays and in the table of interned names. Names are
+ * found through an open addressing hash table of handles, so the
+ * book holds no per-recipe object besides the name String.
+ * {@link Inventory#useIngredients(PackedRecipeBook, int)} makes a
+ * beverage straight from a handle. Used as a {@link RecipeBook},
+ * e.g. by a coffee maker, the book builds a Recipe on every
+ * getRecipe and lists its recipes in handle order.
+ *
+ * The handle of a deleted recipe is given to the next recipe
+ * added, so the arrays never hold more slots than the most
+ * recipes the book held at once. Each handle has a stamp, odd
+ * while the handle is deleted, that is written last on every
+ * change; readers take no lock, check the stamp before and after
+ * reading the values of a handle and reject a deleted one. A
+ * handle kept past the delete of its recipe may thus name a
+ * later recipe. Like {@link RecipeBook}, a recipe whose name or
+ * ingredient amounts are taken is a duplicate. Changes are
+ * serialized on the book monitor.
+ */
+public class PackedRecipeBook extends RecipeBook {
+
+	/** Handle returned for a name with no recipe */
+	public static final int NO_RECIPE = -1;
+
+	private static final int EMPTY = 0;
+	private static final int REMOVED = -1;
+	private static final VarHandle STAMPS = MethodHandles.arrayElementVarHandle(int[].class);
+
+	/** Number of handles given out; a handle below size has its values set */
+	private volatile int size;
+	private volatile Columns columns;
+	private int live;
+	/** Handles of deleted recipes, to be given out again */
+	private int[] free = new int[8];
+	private int freeCount;
+
+	/**
+	 * Creates a recipe book with the default number of recipes.
+	 */
+	public PackedRecipeBook() {
+		this(RecipeBook.NUM_RECIPES);
+	}
+
+	/**
+	 * Creates a recipe book holding up to maxRecipes recipes.
+	 * @param maxRecipes
+	 */
+	public PackedRecipeBook(int maxRecipes) {
+		super(maxRecipes);
+		this.columns = new Columns(Math.max(4, Math.min(maxRecipes, 1024)));
+	}
+
+	/**
+	 * Adds the recipe; {@link #getHandle(String)} returns its
+	 * handle. The columns hold the four standard ingredients only.
+	 * @param r
+	 * @return boolean
+	 * @throws IllegalArgumentException if the recipe uses another ingredient
+	 */
+	@Override
+	public synchronized boolean addRecipe(Recipe r) throws DuplicatedRecipeException, AmountOfRecipeException {
+		add(r);
+		return true;
+	}
+
+	/**
+	 * Adds all the recipes. Either every recipe is added or, if
+	 * one of them is a duplicate or the recipe book would
+	 * overflow, none is; readers may see some of them while the
+	 * call runs.
+	 * @param recipes
+	 * @return boolean
+	 */
+	@Override
+	public synchronized boolean addRecipes(List<Recipe> recipes) throws DuplicatedRecipeException, AmountOfRecipeException {
+		if (live + recipes.size() > getMaxRecipes()) {
+			throw new AmountOfRecipeException("Number of recipes exceeded");
+		}
+		int added = 0;
+		try {
+			for (Recipe r : recipes) {
+				add(r);
+				added++;
+			}
+		} catch (DuplicatedRecipeException | RuntimeException e) {
+			while (--added >= 0) {
+				remove(find(columns, size, recipes.get(added).getName()));
+			}
+			throw e;
+		}
+		return true;
+	}
+
+	private int add(Recipe r) throws DuplicatedRecipeException, AmountOfRecipeException {
+		if (r.amounts().length > 4) {
+			throw new IllegalArgumentException("Packed recipes hold coffee, milk, sugar and chocolate only");
+		}
+		if (live >= getMaxRecipes()) {
+			throw new AmountOfRecipeException("Number of recipes exceeded");
+		}
+		Columns c = columns;
+		int n = size;
+		if (find(c, n, r.getName()) != NO_RECIPE
+				|| findSignature(c, n, r.getAmtCoffee(), r.getAmtMilk(), r.getAmtSugar(), r.getAmtChocolate()) != NO_RECIPE) {
+			throw new DuplicatedRecipeException("Recipe already exists");
+		}
+		int handle = freeCount > 0 ? free[--freeCount] : n;
+		if (handle == c.price.length) {
+			c = c.copy(2 * c.price.length, n);
+			columns = c;
+		} else if (c.fullTables()) {
+			// removed entries left too few empty slots, drop them
+			c = c.copy(c.price.length, n);
+			columns = c;
+		}
+		if (handle < n) {
+			// the stamp is odd since the delete; readers retry until it turns even
+			VarHandle.storeStoreFence();
+		}
+		c.names[handle] = r.getName();
+		c.price[handle] = r.getPrice();
+		c.coffee[handle] = r.getAmtCoffee();
+		c.milk[handle] = r.getAmtMilk();
+		c.sugar[handle] = r.getAmtSugar();
+		c.chocolate[handle] = r.getAmtChocolate();
+		c.insert(handle);
+		live++;
+		if (handle < n) {
+			STAMPS.setRelease(c.stamps, handle, c.stamps[handle] + 1);
+		} else {
+			// publishes the values of the new handle to readers that see the new size
+			size = n + 1;
+		}
+		changed();
+		return handle;
+	}
+
+	/**
+	 * Returns true if the recipe with the given name was deleted.
+	 * @param recipeName
+	 * @return boolean
+	 */
+	@Override
+	public synchronized boolean deleteRecipe(String recipeName) throws RecipeException {
+		int handle = find(columns, size, recipeName);
+		if (handle == NO_RECIPE) {
+			throw new RecipeException("Unkown Recipe");
+		}
+		remove(handle);
+		return true;
+	}
+
+	private void remove(int handle) {
+		Columns c = columns;
+		STAMPS.setRelease(c.stamps, handle, c.stamps[handle] + 1);
+		c.remove(handle);
+		live--;
+		if (freeCount == free.length) {
+			free = Arrays.copyOf(free, 2 * free.length);
+		}
+		free[freeCount++] = handle;
+		changed();
+	}
+
+	/**
+	 * Returns the handle of the recipe with the given name,
+	 * or NO_RECIPE if there is none.
+	 * @param recipeName
+	 * @return int
+	 */
+	public int getHandle(String recipeName) {
+		int n = size;
+		return find(columns, n, recipeName);
+	}
+
+	private static int find(Columns c, int n, String name) {
+		if (name == null) {
+			return NO_RECIPE;
+		}
+		int[] table = c.byName;
+		int mask = table.length - 1;
+		for (int i = spread(name.hashCode()) & mask; ; i = (i + 1) & mask) {
+			int entry = table[i];
+			if (entry == EMPTY) {
+				return NO_RECIPE;
+			}
+			int handle = entry - 1;
+			if (entry != REMOVED && handle < n && live(c, handle) && name.equals(c.names[handle])) {
+				return handle;
+			}
+		}
+	}
+
+	private static int findSignature(Columns c, int n, int coffee, int milk, int sugar, int chocolate) {
+		int[] table = c.bySignature;
+		int mask = table.length - 1;
+		for (int i = spread(signature(coffee, milk, sugar, chocolate)) & mask; ; i = (i + 1) & mask) {
+			int entry = table[i];
+			if (entry == EMPTY) {
+				return NO_RECIPE;
+			}
+			int handle = entry - 1;
+			if (entry != REMOVED && handle < n && live(c, handle) && c.coffee[handle] == coffee
+					&& c.milk[handle] == milk && c.sugar[handle] == sugar && c.chocolate[handle] == chocolate) {
+				return handle;
+			}
+		}
+	}
+
+	private static boolean live(Columns c, int handle) {
+		return ((int) STAMPS.getAcquire(c.stamps, handle) & 1) == 0;
+	}
+
+	private static int signature(int coffee, int milk, int sugar, int chocolate) {
+		return ((coffee * 31 + milk) * 31 + sugar) * 31 + chocolate;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Returns the number of recipes in the book.
+	 * @return int
+	 */
+	public synchronized int getRecipeCount() {
+		return live;
+	}
+
+	/**
+	 * Returns true if the handle has no recipe, its recipe was
+	 * deleted and no other took the handle since.
+	 * @param handle
+	 * @return boolean
+	 */
+	public boolean isDeleted(int handle) {
+		return !live(columns(handle), handle);
+	}
+
+	public String getName(int handle) {
+		return liveColumns(handle).names[handle];
+	}
+
+	public int getPrice(int handle) {
+		return liveColumns(handle).price[handle];
+	}
+
+	public int getAmtCoffee(int handle) {
+		return liveColumns(handle).coffee[handle];
+	}
+
+	public int getAmtMilk(int handle) {
+		return liveColumns(handle).milk[handle];
+	}
+
+	public int getAmtSugar(int handle) {
+		return liveColumns(handle).sugar[handle];
+	}
+
+	public int getAmtChocolate(int handle) {
+		return liveColumns(handle).chocolate[handle];
+	}
+
+	/**
+	 * Removes the ingredients of the recipe of the handle from
+	 * the inventory, reading the arrays once.
+	 * @throws IllegalArgumentException if the handle has no recipe
+	 */
+	boolean useIngredients(Inventory inventory, int handle) {
+		Columns c = columns(handle);
+		while (true) {
+			int stamp = (int) STAMPS.getAcquire(c.stamps, handle);
+			if ((stamp & 1) != 0) {
+				throw deleted(handle);
+			}
+			int coffee = c.coffee[handle];
+			int milk = c.milk[handle];
+			int sugar = c.sugar[handle];
+			int chocolate = c.chocolate[handle];
+			VarHandle.acquireFence();
+			if ((int) STAMPS.getAcquire(c.stamps, handle) == stamp) {
+				return inventory.useIngredients(coffee, milk, sugar, chocolate);
+			}
+		}
+	}
+
+	/**
+	 * Returns the arrays holding the handle, checking that the
+	 * handle was given out. Reading size before columns makes the
+	 * values of every handle below size visible.
+	 */
+	private Columns columns(int handle) {
+		if (handle < 0 || handle >= size) {
+			throw new IllegalArgumentException("Unknown recipe handle " + handle);
+		}
+		return columns;
+	}
+
+	/** Returns the arrays holding the handle, checking that its recipe is not deleted */
+	private Columns liveColumns(int handle) {
+		Columns c = columns(handle);
+		if (!live(c, handle)) {
+			throw deleted(handle);
+		}
+		return c;
+	}
+
+	private static IllegalArgumentException deleted(int handle) {
+		return new IllegalArgumentException("Recipe of handle " + handle + " was deleted");
+	}
+
+	/**
+	 * Returns the recipe of the handle as a Recipe object.
+	 * @param handle
+	 * @return Recipe
+	 * @throws IllegalArgumentException if the handle has no recipe
+	 */
+	public Recipe getRecipe(int handle) {
+		Recipe r = read(columns(handle), handle);
+		if (r == null) {
+			throw deleted(handle);
+		}
+		return r;
+	}
+
+	/** Returns the recipe of the handle, or null if it is deleted */
+	private static Recipe read(Columns c, int handle) {
+		while (true) {
+			int stamp = (int) STAMPS.getAcquire(c.stamps, handle);
+			if ((stamp & 1) != 0) {
+				return null;
+			}
+			String name = c.names[handle];
+			int price = c.price[handle];
+			int coffee = c.coffee[handle];
+			int milk = c.milk[handle];
+			int sugar = c.sugar[handle];
+			int chocolate = c.chocolate[handle];
+			VarHandle.acquireFence();
+			if ((int) STAMPS.getAcquire(c.stamps, handle) == stamp) {
+				try {
+					return new Recipe(name, price, coffee, milk, sugar, chocolate).frozenCopy();
+				} catch (InvalidValueException e) {
+					throw new IllegalStateException("Recipe book holds an invalid recipe", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the recipe with the given name, built from its
+	 * handle, or null if there is none.
+	 * @param recipeName
+	 * @return Recipe
+	 */
+	@Override
+	public Recipe getRecipe(String recipeName) {
+		int n = size;
+		Columns c = columns;
+		int handle = find(c, n, recipeName);
+		return handle == NO_RECIPE ? null : read(c, handle);
+	}
+
+	/**
+	 * Returns the recipes in handle order as an unmodifiable list.
+	 * @return List
+	 */
+	@Override
+	public List<Recipe> getRecipes() {
+		int n = size;
+		Columns c = columns;
+		List<Recipe> recipes = new ArrayList<Recipe>();
+		for (int handle = 0; handle < n; handle++) {
+			Recipe r = read(c, handle);
+			if (r != null) {
+				recipes.add(r);
+			}
+		}
+		return Collections.unmodifiableList(recipes);
+	}
+
+	/**
+	 * Parallel arrays indexed by handle plus the two hash tables
+	 * of handle + 1, at least twice as long as the arrays. Arrays
+	 * are only replaced when they grow or the tables fill up with
+	 * removed entries; a slot below size is only written again
+	 * while its stamp is odd.
+	 */
+	private static final class Columns {
+		final String[] names;
+		final int[] price;
+		final int[] coffee;
+		final int[] milk;
+		final int[] sugar;
+		final int[] chocolate;
+		/** Odd while the handle is deleted, read and written through STAMPS */
+		final int[] stamps;
+		final int[] byName;
+		final int[] bySignature;
+		/** Slots of each table that are not EMPTY */
+		private int usedByName;
+		private int usedBySignature;
+
+		Columns(int capacity) {
+			names = new String[capacity];
+			price = new int[capacity];
+			coffee = new int[capacity];
+			milk = new int[capacity];
+			sugar = new int[capacity];
+			chocolate = new int[capacity];
+			stamps = new int[capacity];
+			int tableSize = Integer.highestOneBit(capacity * 2 - 1) * 2;
+			byName = new int[tableSize];
+			bySignature = new int[tableSize];
+		}
+
+		private Columns(Columns old, int capacity, int n) {
+			names = Arrays.copyOf(old.names, capacity);
+			price = Arrays.copyOf(old.price, capacity);
+			coffee = Arrays.copyOf(old.coffee, capacity);
+			milk = Arrays.copyOf(old.milk, capacity);
+			sugar = Arrays.copyOf(old.sugar, capacity);
+			chocolate = Arrays.copyOf(old.chocolate, capacity);
+			stamps = Arrays.copyOf(old.stamps, capacity);
+			int tableSize = Integer.highestOneBit(capacity * 2 - 1) * 2;
+			byName = new int[tableSize];
+			bySignature = new int[tableSize];
+			for (int h = 0; h < n; h++) {
+				if ((stamps[h] & 1) == 0) {
+					insert(h);
+				}
+			}
+		}
+
+		/**
+		 * Returns arrays of the given capacity holding the first
+		 * n handles, with the deleted ones dropped from the hash
+		 * tables.
+		 */
+		Columns copy(int capacity, int n) {
+			return new Columns(this, capacity, n);
+		}
+
+		/** Returns true if one more entry would leave less than half of a table empty */
+		boolean fullTables() {
+			return 2 * (Math.max(usedByName, usedBySignature) + 1) > byName.length;
+		}
+
+		void insert(int handle) {
+			if (put(byName, spread(names[handle].hashCode()), handle)) {
+				usedByName++;
+			}
+			if (put(bySignature, spread(signature(coffee[handle], milk[handle], sugar[handle], chocolate[handle])), handle)) {
+				usedBySignature++;
+			}
+		}
+
+		void remove(int handle) {
+			clear(byName, spread(names[handle].hashCode()), handle);
+			clear(bySignature, spread(signature(coffee[handle], milk[handle], sugar[handle], chocolate[handle])), handle);
+		}
+
+		/** Returns true if the entry took an EMPTY slot */
+		private static boolean put(int[] table, int hash, int handle) {
+			int mask = table.length - 1;
+			int i = hash & mask;
+			while (table[i] != EMPTY && table[i] != REMOVED) {
+				i = (i + 1) & mask;
+			}
+			boolean empty = table[i] == EMPTY;
+			table[i] = handle + 1;
+			return empty;
+		}
+
+		private static void clear(int[] table, int hash, int handle) {
+			int mask = table.length - 1;
+			for (int i = hash & mask; table[i] != EMPTY; i = (i + 1) & mask) {
+				if (table[i] == handle + 1) {
+					table[i] = REMOVED;
+					return;
+				}
+			}
+		}
+	}
+}
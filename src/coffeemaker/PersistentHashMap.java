@@ -0,0 +1,264 @@
+package coffeemaker;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash map whose put and remove return a new map sharing
+ * all but one path with the old one, so that a recipe book can
+ * publish a new snapshot per change without copying its index.
+ *
+ * A hash array mapped trie: each node holds up to 32 entries or
+ * children, picked by 5 bits of the hash, in an array compacted by
+ * a bitmap. Keys whose whole hash is equal share a collision node
+ * below the last level. Lookups, puts and removes visit at most 7
+ * nodes whatever the size of the map. Null values are not
+ * allowed; a null key is never found.
+ */
+final class PersistentHashMap<K, V> {
+
+	private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<Object, Object>(null, 0);
+
+	private final Node root;
+	private final int size;
+
+	private PersistentHashMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Returns the empty map.
+	 * @return PersistentHashMap
+	 */
+	@SuppressWarnings("unchecked")
+	static <K, V> PersistentHashMap<K, V> empty() {
+		return (PersistentHashMap<K, V>) EMPTY;
+	}
+
+	/**
+	 * @return   Returns the number of entries.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the value of the key, or null if there is none.
+	 * @param key
+	 * @return V
+	 */
+	@SuppressWarnings("unchecked")
+	V get(Object key) {
+		if (key == null) {
+			return null;
+		}
+		int hash = hash(key);
+		Node node = root;
+		int shift = 0;
+		while (node != null) {
+			Object[] array = node.array;
+			if (shift >= 32) {
+				for (int i = 0; i < array.length; i += 2) {
+					if (key.equals(array[i])) {
+						return (V) array[i + 1];
+					}
+				}
+				return null;
+			}
+			int bit = 1 << ((hash >>> shift) & 31);
+			if ((node.bitmap & bit) == 0) {
+				return null;
+			}
+			int i = 2 * Integer.bitCount(node.bitmap & (bit - 1));
+			if (array[i] != null) {
+				return key.equals(array[i]) ? (V) array[i + 1] : null;
+			}
+			node = (Node) array[i + 1];
+			shift += 5;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if the map has the key.
+	 * @param key
+	 * @return boolean
+	 */
+	boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Returns a map with the key mapped to the value.
+	 * @param key
+	 * @param value
+	 * @return PersistentHashMap
+	 */
+	PersistentHashMap<K, V> put(K key, V value) {
+		if (root == null) {
+			return new PersistentHashMap<K, V>(Node.pair(0, key, hash(key), value, null, 0, null), 1);
+		}
+		boolean[] added = new boolean[1];
+		Node node = put(root, 0, hash(key), key, value, added);
+		return node == root ? this : new PersistentHashMap<K, V>(node, added[0] ? size + 1 : size);
+	}
+
+	/**
+	 * Returns a map without the key.
+	 * @param key
+	 * @return PersistentHashMap
+	 */
+	PersistentHashMap<K, V> remove(Object key) {
+		if (root == null || key == null) {
+			return this;
+		}
+		Node node = remove(root, 0, hash(key), key);
+		return node == root ? this : new PersistentHashMap<K, V>(node, size - 1);
+	}
+
+	/**
+	 * Calls the action with every entry, in no particular order.
+	 * @param action
+	 */
+	@SuppressWarnings("unchecked")
+	void forEach(BiConsumer<? super K, ? super V> action) {
+		if (root != null) {
+			forEach(root, (BiConsumer<Object, Object>) action);
+		}
+	}
+
+	private static void forEach(Node node, BiConsumer<Object, Object> action) {
+		Object[] array = node.array;
+		for (int i = 0; i < array.length; i += 2) {
+			if (array[i] != null) {
+				action.accept(array[i], array[i + 1]);
+			} else {
+				forEach((Node) array[i + 1], action);
+			}
+		}
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static Node put(Node node, int shift, int hash, Object key, Object value, boolean[] added) {
+		Object[] array = node.array;
+		if (shift >= 32) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i])) {
+					return array[i + 1] == value ? node : node.with(i + 1, value);
+				}
+			}
+			added[0] = true;
+			Object[] more = Arrays.copyOf(array, array.length + 2);
+			more[array.length] = key;
+			more[array.length + 1] = value;
+			return new Node(0, more);
+		}
+		int bit = 1 << ((hash >>> shift) & 31);
+		int i = 2 * Integer.bitCount(node.bitmap & (bit - 1));
+		if ((node.bitmap & bit) == 0) {
+			added[0] = true;
+			Object[] more = new Object[array.length + 2];
+			System.arraycopy(array, 0, more, 0, i);
+			more[i] = key;
+			more[i + 1] = value;
+			System.arraycopy(array, i, more, i + 2, array.length - i);
+			return new Node(node.bitmap | bit, more);
+		}
+		Object k = array[i];
+		Object v = array[i + 1];
+		if (k == null) {
+			Node child = put((Node) v, shift + 5, hash, key, value, added);
+			return child == v ? node : node.with(i + 1, child);
+		}
+		if (key.equals(k)) {
+			return v == value ? node : node.with(i + 1, value);
+		}
+		added[0] = true;
+		Node child = Node.pair(shift + 5, k, hash(k), v, key, hash, value);
+		Object[] copy = array.clone();
+		copy[i] = null;
+		copy[i + 1] = child;
+		return new Node(node.bitmap, copy);
+	}
+
+	/** Returns the node without the key, null if it is left empty */
+	private static Node remove(Node node, int shift, int hash, Object key) {
+		Object[] array = node.array;
+		if (shift >= 32) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i])) {
+					return array.length == 2 ? null : new Node(0, without(array, i));
+				}
+			}
+			return node;
+		}
+		int bit = 1 << ((hash >>> shift) & 31);
+		if ((node.bitmap & bit) == 0) {
+			return node;
+		}
+		int i = 2 * Integer.bitCount(node.bitmap & (bit - 1));
+		Object k = array[i];
+		if (k == null) {
+			Node child = remove((Node) array[i + 1], shift + 5, hash, key);
+			if (child == array[i + 1]) {
+				return node;
+			} else if (child != null) {
+				return node.with(i + 1, child);
+			}
+		} else if (!key.equals(k)) {
+			return node;
+		}
+		return node.bitmap == bit ? null : new Node(node.bitmap & ~bit, without(array, i));
+	}
+
+	private static Object[] without(Object[] array, int i) {
+		Object[] less = new Object[array.length - 2];
+		System.arraycopy(array, 0, less, 0, i);
+		System.arraycopy(array, i + 2, less, i, less.length - i);
+		return less;
+	}
+
+	/**
+	 * A node of the trie. Entry j is array[2j], the key, and
+	 * array[2j+1], the value, or a null key and the child node.
+	 * Below the last level the bitmap is unused and every pair
+	 * is an entry.
+	 */
+	private static final class Node {
+		final int bitmap;
+		final Object[] array;
+
+		Node(int bitmap, Object[] array) {
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+
+		Node with(int i, Object value) {
+			Object[] copy = array.clone();
+			copy[i] = value;
+			return new Node(bitmap, copy);
+		}
+
+		/** Returns a node holding one or, if k2 is not null, two entries */
+		static Node pair(int shift, Object k1, int h1, Object v1, Object k2, int h2, Object v2) {
+			if (k2 == null) {
+				return new Node(1 << ((h1 >>> shift) & 31), new Object[] {k1, v1});
+			}
+			if (shift >= 32) {
+				return new Node(0, new Object[] {k1, v1, k2, v2});
+			}
+			int b1 = (h1 >>> shift) & 31;
+			int b2 = (h2 >>> shift) & 31;
+			if (b1 == b2) {
+				return new Node(1 << b1, new Object[] {null, pair(shift + 5, k1, h1, v1, k2, h2, v2)});
+			}
+			Object[] array = b1 < b2 ? new Object[] {k1, v1, k2, v2} : new Object[] {k2, v2, k1, v1};
+			return new Node((1 << b1) | (1 << b2), array);
+		}
+	}
+}
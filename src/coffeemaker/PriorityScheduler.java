@@ -0,0 +1,472 @@
+package coffeemaker;
+
+import coffeemaker.metrics.HistogramSnapshot;
+import coffeemaker.metrics.LatencyHistogram;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Front end of a coffee maker that makes the orders of several
+ * {@link OrderClass}es in the order of their priority, weight and
+ * deadline instead of the arbitrary order in which blocked callers
+ * get a monitor.
+ *
+ * Orders wait in one queue per class and are made one at a time by
+ * a single consumer thread. The next order is chosen by start-time
+ * fair queuing: each order is tagged with a virtual start time, the
+ * later of the scheduler's virtual time and the finish tag of the
+ * previous order of its class, and a finish tag one unit of service
+ * divided by the class weight later; the head with the smallest
+ * finish tag goes next. A class with twice the weight thus gets
+ * twice the orders made while both have orders waiting, and an
+ * idle class builds up no credit. A head that would miss its
+ * deadline if it waited for one more order, by the running average
+ * of the time to make one, goes first instead, earliest deadline
+ * first.
+ *
+ * The ingredients wanted by the waiting orders of each class are
+ * kept as a running total. An order is made only if the inventory
+ * left after it still covers the orders waiting in every class of
+ * higher priority; otherwise it completes OUT_OF_STOCK, so the last
+ * units go to the higher priority orders. Only the ingredients the
+ * order uses are checked, and when the totals are short the waiting
+ * orders are gone through one by one, highest priority first, so
+ * that an order the inventory could not make anyway reserves
+ * nothing.
+ *
+ * Each order completes with the status and change encoded as by
+ * {@link CoffeeMaker#tryMakeCoffee(String, int)}, or fails with a
+ * RejectedExecutionException if the queue is full or the scheduler
+ * is closed. The time from submit to completion is recorded per
+ * class.
+ */
+public class PriorityScheduler implements AutoCloseable {
+
+	/** Virtual time of one order of a class of weight 1 */
+	private static final long SERVICE = 1L << 20;
+
+	private final CoffeeMaker coffeeMaker;
+	private final LongSupplier clock;
+	private final OrderClass[] classes;
+	/** Indexes of the classes, highest priority first */
+	private final int[] byPriority;
+	private final int capacity;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Thread consumer;
+
+	// guarded by lock
+	private final List<ArrayDeque<Order>> queues;
+	/** Finish tag of the last order of each class */
+	private final long[] lastFinish;
+	/** Units wanted by the waiting orders of each class, by ingredient */
+	private final long[][] demand;
+	private long virtualTime;
+	private int count;
+	private long rejected;
+	private boolean closed;
+
+	private final LatencyHistogram[] latency;
+	private final long[] made;
+	private final long[] missed;
+	/** Running average of the time to make an order, used by the consumer only */
+	private long serviceNanos;
+
+	/**
+	 * Creates a scheduler for the given classes in front of the
+	 * coffee maker, on the system clock.
+	 * @param coffeeMaker
+	 * @param classes
+	 * @param capacity most orders waiting in all queues
+	 */
+	public PriorityScheduler(CoffeeMaker coffeeMaker, List<OrderClass> classes, int capacity) {
+		this(coffeeMaker, classes, capacity, System::nanoTime);
+	}
+
+	/**
+	 * Creates a scheduler for the given classes in front of the
+	 * coffee maker, on the given nanosecond clock.
+	 * @param coffeeMaker
+	 * @param classes
+	 * @param capacity most orders waiting in all queues
+	 * @param clock
+	 */
+	public PriorityScheduler(CoffeeMaker coffeeMaker, List<OrderClass> classes, int capacity, LongSupplier clock) {
+		if (classes.isEmpty() || capacity <= 0) {
+			throw new IllegalArgumentException("Classes and capacity are required");
+		}
+		this.coffeeMaker = coffeeMaker;
+		this.clock = clock;
+		this.classes = classes.toArray(new OrderClass[0]);
+		this.capacity = capacity;
+		int n = this.classes.length;
+		this.byPriority = new int[n];
+		this.queues = new ArrayList<>(n);
+		this.demand = new long[n][coffeeMaker.inventory().getIngredients().size()];
+		this.lastFinish = new long[n];
+		this.latency = new LatencyHistogram[n];
+		this.made = new long[n];
+		this.missed = new long[n];
+		for (int c = 0; c < n; c++) {
+			queues.add(new ArrayDeque<>());
+			latency[c] = new LatencyHistogram();
+			int j = c;
+			while (j > 0 && this.classes[byPriority[j - 1]].getPriority() > this.classes[c].getPriority()) {
+				byPriority[j] = byPriority[j - 1];
+				j--;
+			}
+			byPriority[j] = c;
+		}
+		this.consumer = new Thread(this::consumeLoop, "priority-scheduler");
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	/**
+	 * Queues an order of the given class.
+	 * @param orderClass one of the classes of the scheduler
+	 * @param recipeName
+	 * @param amtPaid
+	 * @return CompletableFuture of the encoded status and change, see {@link DispenseResult}
+	 */
+	public CompletableFuture<Long> submit(OrderClass orderClass, String recipeName, int amtPaid) {
+		int c = indexOf(orderClass);
+		Recipe recipe = coffeeMaker.getRecipe(recipeName);
+		long now = clock.getAsLong();
+		long deadline = orderClass.getDeadlineNanos() == OrderClass.NO_DEADLINE ? OrderClass.NO_DEADLINE
+				: now + orderClass.getDeadlineNanos();
+		Order order = new Order(c, recipeName, recipe == null ? null : recipe.amounts(), amtPaid, now, deadline);
+		lock.lock();
+		try {
+			if (closed) {
+				return failed(order, "Priority scheduler is closed");
+			}
+			if (count == capacity) {
+				rejected++;
+				return failed(order, "Order queue is full");
+			}
+			order.finish = Math.max(virtualTime, lastFinish[c]) + SERVICE / orderClass.getWeight();
+			lastFinish[c] = order.finish;
+			addDemand(order, 1);
+			queues.get(c).addLast(order);
+			count++;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+		return order.future;
+	}
+
+	private int indexOf(OrderClass orderClass) {
+		for (int c = 0; c < classes.length; c++) {
+			if (classes[c] == orderClass) {
+				return c;
+			}
+		}
+		throw new IllegalArgumentException("Not a class of this scheduler: " + orderClass);
+	}
+
+	private static CompletableFuture<Long> failed(Order order, String message) {
+		order.future.completeExceptionally(new RejectedExecutionException(message));
+		return order.future;
+	}
+
+	private void addDemand(Order order, int sign) {
+		if (order.amounts != null) {
+			long[] wanted = demand[order.orderClass];
+			int n = Math.min(wanted.length, order.amounts.length);
+			for (int i = 0; i < n; i++) {
+				wanted[i] += sign * order.amounts[i];
+			}
+		}
+	}
+
+	private void consumeLoop() {
+		while (true) {
+			Order order;
+			long[] reserved;
+			lock.lock();
+			try {
+				while (count == 0 && !closed) {
+					notEmpty.awaitUninterruptibly();
+				}
+				if (count == 0) {
+					return;
+				}
+				order = next(clock.getAsLong());
+				count--;
+				addDemand(order, -1);
+				reserved = reservedFor(classes[order.orderClass].getPriority());
+			} finally {
+				lock.unlock();
+			}
+			make(order, reserved);
+		}
+	}
+
+	/**
+	 * Takes the next order off its queue: the head most at risk of
+	 * missing its deadline, or else the head with the smallest
+	 * finish tag.
+	 */
+	private Order next(long now) {
+		int urgent = -1;
+		int fair = -1;
+		for (int c = 0; c < queues.size(); c++) {
+			Order head = queues.get(c).peekFirst();
+			if (head == null) {
+				continue;
+			}
+			if (head.deadline != OrderClass.NO_DEADLINE && head.deadline - now <= serviceNanos
+					&& (urgent < 0 || head.deadline - queues.get(urgent).peekFirst().deadline < 0)) {
+				urgent = c;
+			}
+			if (fair < 0 || before(head, c, queues.get(fair).peekFirst(), fair)) {
+				fair = c;
+			}
+		}
+		Order order = queues.get(urgent >= 0 ? urgent : fair).pollFirst();
+		virtualTime = Math.max(virtualTime, order.finish - SERVICE / classes[order.orderClass].getWeight());
+		return order;
+	}
+
+	/**
+	 * Returns true if order a of class ca goes before order b of
+	 * class cb: the smaller finish tag, then the higher priority.
+	 */
+	private boolean before(Order a, int ca, Order b, int cb) {
+		if (a.finish != b.finish) {
+			return a.finish < b.finish;
+		}
+		return classes[ca].getPriority() < classes[cb].getPriority();
+	}
+
+	/**
+	 * Returns the units wanted by the waiting orders of every class
+	 * of higher priority than the given one, or null if none.
+	 */
+	private long[] reservedFor(int priority) {
+		long[] reserved = null;
+		for (int c = 0; c < classes.length; c++) {
+			if (classes[c].getPriority() < priority && !queues.get(c).isEmpty()) {
+				if (reserved == null) {
+					reserved = new long[demand[c].length];
+				}
+				for (int i = 0; i < reserved.length; i++) {
+					reserved[i] += demand[c][i];
+				}
+			}
+		}
+		return reserved;
+	}
+
+	/**
+	 * Returns the units the waiting orders of every class of higher
+	 * priority than the given one would take out of the levels,
+	 * going through them highest priority first and in queue order
+	 * and skipping those the units left do not cover.
+	 */
+	private long[] servableFor(int priority, int[] levels) {
+		long[] reserved = new long[levels.length];
+		lock.lock();
+		try {
+			for (int c : byPriority) {
+				if (classes[c].getPriority() >= priority) {
+					break;
+				}
+				for (Order waiting : queues.get(c)) {
+					if (waiting.amounts != null && covers(levels, reserved, waiting.amounts)) {
+						for (int i = 0; i < waiting.amounts.length; i++) {
+							if (waiting.amounts[i] > 0) {
+								reserved[i] += waiting.amounts[i];
+							}
+						}
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		return reserved;
+	}
+
+	private void make(Order order, long[] reserved) {
+		long start = clock.getAsLong();
+		long result;
+		// whatever an order throws, the consumer goes on with the next one
+		try {
+			Recipe recipe = coffeeMaker.getRecipe(order.recipeName);
+			if (recipe != null && reserved != null
+					&& !leavesEnough(recipe.amounts(), classes[order.orderClass].getPriority(), reserved)) {
+				result = DispenseResult.encode(DispenseStatus.OUT_OF_STOCK, order.amtPaid);
+			} else {
+				result = coffeeMaker.tryMakeCoffee(recipe, order.amtPaid);
+			}
+		} catch (Throwable e) {
+			order.future.completeExceptionally(e);
+			return;
+		}
+		long end = clock.getAsLong();
+		serviceNanos += (end - start - serviceNanos) / 8;
+		int c = order.orderClass;
+		latency[c].record(end - order.submitted);
+		synchronized (made) {
+			made[c]++;
+			if (order.deadline != OrderClass.NO_DEADLINE && end - order.deadline > 0) {
+				missed[c]++;
+			}
+		}
+		order.future.complete(result);
+	}
+
+	/**
+	 * Returns true if the inventory covers the amounts and still
+	 * holds the units reserved for the higher priority orders it
+	 * could make afterwards.
+	 */
+	private boolean leavesEnough(int[] amounts, int priority, long[] reserved) {
+		int[] levels = coffeeMaker.inventory().getLevels();
+		return covers(levels, reserved, amounts) || covers(levels, servableFor(priority, levels), amounts);
+	}
+
+	/** Returns true if the levels less the reserved units cover every amount used */
+	private static boolean covers(int[] levels, long[] reserved, int[] amounts) {
+		for (int i = 0; i < amounts.length; i++) {
+			if (amounts[i] > 0 && (i >= levels.length || levels[i] - reserved[i] < amounts[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the time from submit to completion of the orders of
+	 * the class made so far, in nanoseconds.
+	 * @param orderClass
+	 * @return HistogramSnapshot
+	 */
+	public HistogramSnapshot getLatency(OrderClass orderClass) {
+		return latency[indexOf(orderClass)].snapshot();
+	}
+
+	/**
+	 * Returns the number of orders of the class completed after
+	 * their deadline.
+	 * @param orderClass
+	 * @return long
+	 */
+	public long getMissedDeadlines(OrderClass orderClass) {
+		int c = indexOf(orderClass);
+		synchronized (made) {
+			return missed[c];
+		}
+	}
+
+	/**
+	 * Returns the number of orders of the class completed.
+	 * @param orderClass
+	 * @return long
+	 */
+	public long getCompletedOrders(OrderClass orderClass) {
+		int c = indexOf(orderClass);
+		synchronized (made) {
+			return made[c];
+		}
+	}
+
+	/**
+	 * Returns the number of orders of the class waiting.
+	 * @param orderClass
+	 * @return int
+	 */
+	public int getQueuedOrders(OrderClass orderClass) {
+		int c = indexOf(orderClass);
+		lock.lock();
+		try {
+			return queues.get(c).size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of orders rejected because the queue was full.
+	 * @return long
+	 */
+	public long getRejectedOrders() {
+		lock.lock();
+		try {
+			return rejected;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns one line per class with the orders completed, the
+	 * deadlines missed and the tail latency in microseconds.
+	 * @return String
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder(String.format("%-10s %10s %8s %10s %10s %10s %10s%n",
+				"class", "orders", "missed", "p50 us", "p99 us", "p99.9 us", "max us"));
+		for (OrderClass orderClass : classes) {
+			HistogramSnapshot snapshot = getLatency(orderClass);
+			report.append(String.format("%-10s %10d %8d %10d %10d %10d %10d%n", orderClass.getName(),
+					getCompletedOrders(orderClass), getMissedDeadlines(orderClass),
+					snapshot.getValueAtPercentile(50) / 1000, snapshot.getValueAtPercentile(99) / 1000,
+					snapshot.getValueAtPercentile(99.9) / 1000, snapshot.getMax() / 1000));
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Stops taking orders, makes the ones already queued and
+	 * waits for the consumer thread to finish. If the calling
+	 * thread is interrupted it stops waiting and the interrupt
+	 * flag is set again; the queued orders are still made.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			consumer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class Order {
+		final int orderClass;
+		final String recipeName;
+		/** Amounts of the recipe when the order was submitted, or null */
+		final int[] amounts;
+		final int amtPaid;
+		final long submitted;
+		final long deadline;
+		final CompletableFuture<Long> future = new CompletableFuture<>();
+		long finish;
+
+		Order(int orderClass, String recipeName, int[] amounts, int amtPaid, long submitted, long deadline) {
+			this.orderClass = orderClass;
+			this.recipeName = recipeName;
+			this.amounts = amounts;
+			this.amtPaid = amtPaid;
+			this.submitted = submitted;
+			this.deadline = deadline;
+		}
+	}
+}
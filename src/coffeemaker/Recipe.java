@@ -2,20 +2,35 @@ package coffeemaker;
 
 import coffeemaker.exceptions.InvalidValueException;
 
+import java.util.Arrays;
+
 /**
  * @author   Sarah Heckman
+ *
+ * A recipe added to a RecipeBook is stored as a frozen copy
+ * whose setters throw IllegalStateException, so registered
+ * recipes can be shared between threads without locking.
+ *
+ * The ingredient amounts are a dense vector indexed by
+ * {@link IngredientRegistry}; the four standard ingredients are
+ * always present and amounts past them are kept only up to the
+ * last one that is not zero, so two recipes with the same
+ * amounts have equal vectors.
  */
 public class Recipe {
+    private static final int STANDARD_INGREDIENTS = 4;
+
     private String name;
     private int price;
-    private int amtCoffee;
-    private int amtMilk;
-    private int amtSugar;
-    private int amtChocolate;
+    /** Units of each ingredient by registry index */
+    private int[] amounts = new int[STANDARD_INGREDIENTS];
+    /** True if the recipe belongs to a recipe book */
+    private final boolean frozen;
     
     public Recipe(String name, int price, int amtCoffee, int amtMilk,
 			int amtSugar, int amtChocolate) throws InvalidValueException {
 		super();
+		this.frozen = false;
 		setName(name);
 		if (amtCoffee+amtMilk+amtSugar+amtChocolate==0)
 			throw new InvalidValueException("Zero ingredients");
@@ -25,71 +40,177 @@ public class Recipe {
 		setAmtSugar(amtSugar);
 		setAmtChocolate(amtChocolate);
 	}
+    
+    /**
+     * Creates a recipe from the units of each ingredient, by
+     * {@link IngredientRegistry} index.
+     * @param name
+     * @param price
+     * @param amounts
+     * @throws InvalidValueException
+     */
+    public Recipe(String name, int price, int[] amounts) throws InvalidValueException {
+		this.frozen = false;
+		setName(name);
+		int total = 0;
+		for (int amount : amounts) {
+			total += amount;
+		}
+		if (total == 0)
+			throw new InvalidValueException("Zero ingredients");
+		setPrice(price);
+		for (int i = amounts.length - 1; i >= 0; i--) {
+			setAmount(i, amounts[i]);
+		}
+	}
+    
+    /**
+     * Copies the given recipe into a frozen recipe.
+     * @param r
+     */
+    private Recipe(Recipe r) {
+    	this.frozen = true;
+    	this.name = r.name;
+    	this.price = r.price;
+    	this.amounts = r.amounts.clone();
+    }
+    
+    /**
+     * Returns a copy of this recipe that cannot be changed,
+     * or this recipe if it is already frozen.
+     * @return Recipe
+     */
+    Recipe frozenCopy() {
+    	return frozen ? this : new Recipe(this);
+    }
+    
+    /**
+     * @return   Returns true if the recipe cannot be changed.
+     */
+    public boolean isFrozen() {
+    	return frozen;
+    }
+    
+    private void checkNotFrozen() {
+    	if (frozen) {
+    		throw new IllegalStateException("Recipe belongs to a recipe book and cannot be changed");
+    	}
+    }
 
+    /**
+     * Returns the units of the ingredient at the registry index.
+     * @param ingredient
+     * @return int
+     */
+    public int getAmount(int ingredient) {
+    	return ingredient < amounts.length ? amounts[ingredient] : 0;
+    }
+    
+    /**
+     * Sets the units of the ingredient at the registry index.
+     * @param ingredient
+     * @param amount
+     * @throws InvalidValueException
+     */
+    public void setAmount(int ingredient, int amount) throws InvalidValueException {
+    	setAmount(ingredient, amount, "Units of ingredient " + ingredient + " must be a positive integer");
+    }
+    
+    private void setAmount(int ingredient, int amount, String message) throws InvalidValueException {
+		checkNotFrozen();
+		if (amount < 0) {
+			throw new InvalidValueException(message);
+		}
+		if (ingredient >= amounts.length) {
+			if (amount == 0) {
+				return;
+			}
+			amounts = Arrays.copyOf(amounts, ingredient + 1);
+		}
+		amounts[ingredient] = amount;
+		int length = amounts.length;
+		while (length > STANDARD_INGREDIENTS && amounts[length - 1] == 0) {
+			length--;
+		}
+		if (length < amounts.length) {
+			amounts = Arrays.copyOf(amounts, length);
+		}
+    }
+    
+    /**
+     * Returns the units of every ingredient by registry index,
+     * at least the four standard ones.
+     * @return int[]
+     */
+    public int[] getAmounts() {
+    	return amounts.clone();
+    }
+    
+    /**
+     * Returns the amounts without copying them; the caller must
+     * not change the array.
+     */
+    int[] amounts() {
+    	return amounts;
+    }
     
+    /**
+     * Returns true if the recipe uses the same units of every
+     * ingredient as the other one.
+     * @param other
+     * @return boolean
+     */
+    public boolean hasSameAmounts(Recipe other) {
+    	return Arrays.equals(amounts, other.amounts);
+    }
+
     /**
 	 * @return   Returns the amtChocolate.
 	 */
     public int getAmtChocolate() {
-		return amtChocolate;
+		return amounts[IngredientRegistry.CHOCOLATE];
 	}
     /**
 	 * @param amtChocolate   The amtChocolate to set.
 	 */
     public void setAmtChocolate(int amtChocolate) throws InvalidValueException {
-		if (amtChocolate >= 0) {
-			this.amtChocolate = amtChocolate;
-		} else {
-			throw new InvalidValueException("Units of chocolate must be a positive integer");
-		}
+		setAmount(IngredientRegistry.CHOCOLATE, amtChocolate, "Units of chocolate must be a positive integer");
 	}
     /**
 	 * @return   Returns the amtCoffee.
 	 */
     public int getAmtCoffee() {
-		return amtCoffee;
+		return amounts[IngredientRegistry.COFFEE];
 	}
     /**
 	 * @param amtCoffee   The amtCoffee to set.
 	 */
     public void setAmtCoffee(int amtCoffee) throws InvalidValueException {
-    	if (amtCoffee >= 0) {
-			this.amtCoffee = amtCoffee;
-		} else {
-			throw new InvalidValueException("Units of coffee must be a positive integer");
-		}
+		setAmount(IngredientRegistry.COFFEE, amtCoffee, "Units of coffee must be a positive integer");
 	}
     /**
 	 * @return   Returns the amtMilk.
 	 */
     public int getAmtMilk() {
-		return amtMilk;
+		return amounts[IngredientRegistry.MILK];
 	}
     /**
 	 * @param amtMilk   The amtMilk to set.
 	 */
     public void setAmtMilk(int amtMilk) throws InvalidValueException {
-		if (amtMilk >= 0) {
-			this.amtMilk = amtMilk;
-		} else {
-			throw new InvalidValueException("Units of milk must be a positive integer");
-		}
+		setAmount(IngredientRegistry.MILK, amtMilk, "Units of milk must be a positive integer");
 	}
     /**
 	 * @return   Returns the amtSugar.
 	 */
     public int getAmtSugar() {
-		return amtSugar;
+		return amounts[IngredientRegistry.SUGAR];
 	}
     /**
 	 * @param amtSugar   The amtSugar to set.
 	 */
     public void setAmtSugar(int amtSugar) throws InvalidValueException {
-		if (amtSugar >= 0) {
-			this.amtSugar = amtSugar;
-		} else {
-			throw new InvalidValueException("Units of sugar must be a positive integer");
-		}
+		setAmount(IngredientRegistry.SUGAR, amtSugar, "Units of sugar must be a positive integer");
 	}
     /**
 	 * @return   Returns the name.
@@ -102,6 +223,7 @@ public class Recipe {
      * @throws InvalidValueException
 	 */
     public void setName(String name) throws InvalidValueException {
+		checkNotFrozen();
     	if(name != null && !name.equals("")) {
     		this.name = name;
     	}
@@ -118,6 +240,7 @@ public class Recipe {
 	 * @param price   The price to set.
 	 */
     public void setPrice(int price) throws InvalidValueException {
+		checkNotFrozen();
 		if (price > 0) {
 			this.price = price;
 		} else {
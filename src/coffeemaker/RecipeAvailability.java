@@ -0,0 +1,169 @@
+package coffeemaker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Which recipes of a coffee maker can be made, and how many cups
+ * of each, for one snapshot of the recipes and of the inventory
+ * levels.
+ *
+ * The ingredient amounts of the recipes are kept in one int array
+ * per ingredient, built once per recipe snapshot, and the cups of
+ * every recipe are found in a single loop over those arrays with
+ * no per-recipe object access. Instances are immutable.
+ */
+public final class RecipeAvailability {
+
+	private final List<Recipe> recipes;
+	private final int[] levels;
+	private final long recipesVersion;
+	private final long levelsVersion;
+	private final Amounts amounts;
+	private final int[] cups;
+
+	private RecipeAvailability(List<Recipe> recipes, long recipesVersion, int[] levels, long levelsVersion, Amounts amounts) {
+		this.recipes = recipes;
+		this.levels = levels;
+		this.recipesVersion = recipesVersion;
+		this.levelsVersion = levelsVersion;
+		this.amounts = amounts;
+		this.cups = amounts.cups(levels);
+	}
+
+	/**
+	 * Evaluates the recipes against the levels, reusing the
+	 * ingredient arrays of the previous result if it was for
+	 * the same recipe snapshot.
+	 * @param recipes from {@link RecipeBook#getRecipes()}
+	 * @param recipesVersion from {@link RecipeBook#getVersion()}, read before the recipes
+	 * @param levels from {@link Inventory#getLevels()}
+	 * @param levelsVersion from {@link Inventory#getVersion()}, read before the levels
+	 * @param previous earlier result, or null
+	 * @return RecipeAvailability
+	 */
+	static RecipeAvailability of(List<Recipe> recipes, long recipesVersion, int[] levels, long levelsVersion,
+			RecipeAvailability previous) {
+		Amounts amounts = previous != null && previous.recipes == recipes ? previous.amounts : new Amounts(recipes);
+		return new RecipeAvailability(recipes, recipesVersion, levels, levelsVersion, amounts);
+	}
+
+	/**
+	 * Returns true if this result was computed for these versions
+	 * of the recipes and of the levels.
+	 */
+	boolean isFor(long recipesVersion, long levelsVersion) {
+		return this.recipesVersion == recipesVersion && this.levelsVersion == levelsVersion;
+	}
+
+	/**
+	 * Returns every recipe evaluated, in recipe book order.
+	 * Index i of this list is index i of {@link #getCups(int)}.
+	 * @return List
+	 */
+	public List<Recipe> getRecipes() {
+		return recipes;
+	}
+
+	/**
+	 * Returns the recipes that can be made at least once.
+	 * @return List
+	 */
+	public List<Recipe> getAvailableRecipes() {
+		List<Recipe> available = new ArrayList<Recipe>();
+		for (int i = 0; i < cups.length; i++) {
+			if (cups[i] > 0) {
+				available.add(recipes.get(i));
+			}
+		}
+		return Collections.unmodifiableList(available);
+	}
+
+	/**
+	 * Returns how many cups of the recipe at the index can be made.
+	 * @param index
+	 * @return int
+	 */
+	public int getCups(int index) {
+		return cups[index];
+	}
+
+	/**
+	 * Returns how many cups of the named recipe can be made,
+	 * or 0 if there is no such recipe.
+	 * @param recipeName
+	 * @return int
+	 */
+	public int getCups(String recipeName) {
+		for (int i = 0; i < cups.length; i++) {
+			if (recipes.get(i).getName().equals(recipeName)) {
+				return cups[i];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns true if the named recipe can be made at least once.
+	 * @param recipeName
+	 * @return boolean
+	 */
+	public boolean isAvailable(String recipeName) {
+		return getCups(recipeName) > 0;
+	}
+
+	/**
+	 * Returns the inventory levels the result was computed for,
+	 * by ingredient index: coffee, milk, sugar, chocolate first.
+	 * @return int[]
+	 */
+	public int[] getLevels() {
+		return levels.clone();
+	}
+
+	/**
+	 * Ingredient amounts of a recipe snapshot, one array per
+	 * ingredient.
+	 */
+	private static final class Amounts {
+		/** Amount of ingredient j in recipe i at [j][i] */
+		final int[][] byIngredient;
+		final int recipes;
+
+		Amounts(List<Recipe> recipes) {
+			int n = recipes.size();
+			int ingredients = 0;
+			for (Recipe r : recipes) {
+				ingredients = Math.max(ingredients, r.amounts().length);
+			}
+			this.recipes = n;
+			byIngredient = new int[ingredients][n];
+			for (int i = 0; i < n; i++) {
+				int[] amounts = recipes.get(i).amounts();
+				for (int j = 0; j < amounts.length; j++) {
+					byIngredient[j][i] = amounts[j];
+				}
+			}
+		}
+
+		int[] cups(int[] levels) {
+			int[] cups = new int[recipes];
+			Arrays.fill(cups, Integer.MAX_VALUE);
+			for (int j = 0; j < byIngredient.length; j++) {
+				int level = j < levels.length ? levels[j] : 0;
+				int[] amounts = byIngredient[j];
+				for (int i = 0; i < cups.length; i++) {
+					cups[i] = Math.min(cups[i], cups(level, amounts[i]));
+				}
+			}
+			return cups;
+		}
+
+		/** An ingredient the recipe does not use never limits it */
+		private static int cups(int level, int amount) {
+			return amount == 0 ? Integer.MAX_VALUE : level / amount;
+		}
+	}
+}
@@ -4,84 +4,164 @@ import coffeemaker.exceptions.AmountOfRecipeException;
 import coffeemaker.exceptions.DuplicatedRecipeException;
 import coffeemaker.exceptions.RecipeException;
 
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 
+/**
+ * Recipes of the coffee maker.
+ *
+ * The recipes are published as an immutable snapshot that is
+ * replaced on every add or delete, so reading a recipe never
+ * takes a lock. Changes are serialized on the recipe book monitor.
+ * The snapshot indexes are {@link PersistentHashMap}s, so a new
+ * snapshot shares all but one path of each index with the old one
+ * and adding or deleting a recipe takes constant time whatever the
+ * size of the menu.
+ */
 public class RecipeBook {
 	
-	/** Array of recipes in coffee maker*/
-	private Vector<Recipe> recipeArray;
-	//private Recipe [] recipeArray;
-	/** Number of recipes in coffee maker */
-	private final int NUM_RECIPES = 4; 
+	/** Snapshot of an empty recipe book, shared since snapshots never change */
+	private static final Snapshot EMPTY = new Snapshot(PersistentHashMap.<String, Entry>empty(),
+			PersistentHashMap.<Signature, Recipe>empty(), 0);
+	/** Current snapshot of the recipes in coffee maker */
+	private volatile Snapshot snapshot;
+	/** Default number of recipes in coffee maker */
+	public static final int NUM_RECIPES = 3;
+	/** Maximum number of recipes in this recipe book */
+	private final int maxRecipes;
+	/** Number of changes of the recipes, written under the monitor */
+	private volatile long version;
 	
 	/**
 	 * Default constructor for a RecipeBook.
 	 */
 	public RecipeBook() {
-		recipeArray = new Vector<Recipe>();
+		this(NUM_RECIPES);
 	}
 	
 	/**
-	 * Returns the recipe array.
-	 * @param r
-	 * @return Recipe[]
+	 * Constructor for a RecipeBook holding up to
+	 * maxRecipes recipes.
+	 * @param maxRecipes
 	 */
-	public synchronized Vector<Recipe> getRecipes() {
-		return recipeArray;
+	public RecipeBook(int maxRecipes) {
+		this.maxRecipes = maxRecipes;
+		snapshot = EMPTY;
 	}
 	
-	private boolean recipeExists(Recipe r){
-		for (Recipe recipe: recipeArray){
-			if ((recipe.getAmtChocolate()==r.getAmtChocolate() && 
-					recipe.getAmtCoffee()==r.getAmtCoffee() &&
-					recipe.getAmtMilk()==r.getAmtMilk() &&
-					recipe.getAmtSugar()==r.getAmtSugar()) || recipe.getName().equals(r.getName()))
-				return true;
-		}
-		return false;
+	/**
+	 * Returns an unmodifiable list of the recipes at the time
+	 * of the call. Later changes to the recipe book do not
+	 * affect the returned list.
+	 * @return List
+	 */
+	public List<Recipe> getRecipes() {
+		return snapshot.recipes();
+	}
+	
+	/**
+	 * Returns a number that changes whenever a recipe is added or
+	 * deleted, so that two calls returning the same number saw the
+	 * same recipes. Reading it before getRecipes tells whether a
+	 * result computed from earlier recipes is still current.
+	 * @return long
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Counts a change of the recipes once it is published.
+	 * Subclasses keeping their own recipes call it, holding the
+	 * book monitor, after every change.
+	 */
+	protected void changed() {
+		version++;
+	}
+
+	/**
+	 * Returns the maximum number of recipes in this recipe book.
+	 * @return int
+	 */
+	public int getMaxRecipes() {
+		return maxRecipes;
 	}
 	
+	private boolean recipeExists(Snapshot current, Recipe r){
+		return current.recipesByName.containsKey(r.getName())
+				|| current.recipesBySignature.containsKey(new Signature(r));
+	}
+	
+	/**
+	 * Adds a frozen copy of the recipe to the recipe book.
+	 * Changing r afterwards does not change the recipe book.
+	 * @param r
+	 * @return boolean
+	 */
 	public synchronized boolean addRecipe(Recipe r) throws DuplicatedRecipeException, AmountOfRecipeException {
-		
-		if (recipeArray.size()==3){
+		Snapshot current = snapshot;
+		if (current.recipesByName.size() >= maxRecipes){
 			throw new AmountOfRecipeException("Number of recipes exceeded");
 		}
-		//Assume recipe doesn't exist in the array until 
-		//find out otherwise
-		boolean exists = recipeExists(r);
-		
-		//Assume recipe cannot be added until find an empty
-		//spot
-		boolean added = false;
-		//Check for first empty spot in array
-		if (!exists) {
-			recipeArray.add(r);
-			added=true;
-		}
-		else
-		{
+		//A recipe is a duplicate if either its name or
+		//its ingredient amounts are already taken
+		if (recipeExists(current, r)) {
 			throw new DuplicatedRecipeException("Recipe already exists");
 		}
-		return added;
+		Recipe frozen = r.frozenCopy();
+		snapshot = new Snapshot(current.recipesByName.put(frozen.getName(), new Entry(frozen, current.nextSeq)),
+				current.recipesBySignature.put(new Signature(frozen), frozen), current.nextSeq + 1);
+		changed();
+		return true;
 	}
 
 	/**
-	 * Returns the name of the recipe deleted at the position specified
-	 * and null if the recipe does not exist.
+	 * Adds frozen copies of all the recipes at once, publishing a
+	 * single new snapshot. Either every recipe is added or, if one
+	 * of them is a duplicate or the recipe book would overflow,
+	 * none is.
+	 * @param recipes
+	 * @return boolean
+	 */
+	public synchronized boolean addRecipes(List<Recipe> recipes) throws DuplicatedRecipeException, AmountOfRecipeException {
+		Snapshot current = snapshot;
+		if (current.recipesByName.size() + recipes.size() > maxRecipes){
+			throw new AmountOfRecipeException("Number of recipes exceeded");
+		}
+		PersistentHashMap<String, Entry> byName = current.recipesByName;
+		PersistentHashMap<Signature, Recipe> bySignature = current.recipesBySignature;
+		long seq = current.nextSeq;
+		for (Recipe r : recipes) {
+			Recipe frozen = r.frozenCopy();
+			Signature signature = new Signature(frozen);
+			if (byName.containsKey(frozen.getName()) || bySignature.containsKey(signature)) {
+				throw new DuplicatedRecipeException("Recipe already exists");
+			}
+			byName = byName.put(frozen.getName(), new Entry(frozen, seq++));
+			bySignature = bySignature.put(signature, frozen);
+		}
+		snapshot = new Snapshot(byName, bySignature, seq);
+		changed();
+		return true;
+	}
+
+	/**
+	 * Returns true if the recipe with the given name was
+	 * deleted.
 	 *
-	 * @return String
+	 * @return boolean
 	 */
 	public synchronized boolean deleteRecipe(String recipeName) throws RecipeException {
-		int recipeToDelete = -1;
-		for (int i=0; i< recipeArray.size(); i++){
-			if (recipeArray.get(i).getName().equals(recipeName)){
-				recipeToDelete=i;				
-			}				
-		}
-		
-		if (recipeToDelete>=0){
-			recipeArray.remove(recipeToDelete);
+		Snapshot current = snapshot;
+		Entry deleted = current.recipesByName.get(recipeName);
+		if (deleted != null){
+			snapshot = new Snapshot(current.recipesByName.remove(recipeName),
+					current.recipesBySignature.remove(new Signature(deleted.recipe)), current.nextSeq);
+			changed();
 			return true;
 		}
 		else {
@@ -91,11 +171,90 @@ public class RecipeBook {
 	}
 	
 	
-	public synchronized Recipe getRecipe(String recipeName){		
-		for (Recipe recipe: recipeArray)
-			if (recipeName.equals(recipe.getName()))
-				return recipe;
-		return null;
+	/**
+	 * Returns the recipe with the given name, or null if
+	 * there is none. The returned recipe cannot be changed.
+	 * @param recipeName
+	 * @return Recipe
+	 */
+	public Recipe getRecipe(String recipeName){		
+		Entry entry = snapshot.recipesByName.get(recipeName);
+		return entry == null ? null : entry.recipe;
+	}
+	
+	/**
+	 * Immutable state of the recipe book. The list of recipes is
+	 * built on first use, in the order they were added, and then
+	 * kept with the snapshot.
+	 */
+	private static final class Snapshot {
+		private final PersistentHashMap<String, Entry> recipesByName;
+		private final PersistentHashMap<Signature, Recipe> recipesBySignature;
+		/** Sequence number of the next recipe added */
+		private final long nextSeq;
+		private volatile List<Recipe> recipes;
+		
+		Snapshot(PersistentHashMap<String, Entry> recipesByName, PersistentHashMap<Signature, Recipe> recipesBySignature,
+				long nextSeq) {
+			this.recipesByName = recipesByName;
+			this.recipesBySignature = recipesBySignature;
+			this.nextSeq = nextSeq;
+		}
+		
+		List<Recipe> recipes() {
+			List<Recipe> list = recipes;
+			if (list == null) {
+				List<Entry> entries = new ArrayList<Entry>(recipesByName.size());
+				recipesByName.forEach((name, entry) -> entries.add(entry));
+				entries.sort(Comparator.comparingLong(entry -> entry.seq));
+				List<Recipe> all = new ArrayList<Recipe>(entries.size());
+				for (Entry entry : entries) {
+					all.add(entry.recipe);
+				}
+				list = Collections.unmodifiableList(all);
+				recipes = list;
+			}
+			return list;
+		}
+	}
+	
+	/**
+	 * A recipe of the book and when it was added, to list the
+	 * recipes in that order.
+	 */
+	private static final class Entry {
+		private final Recipe recipe;
+		private final long seq;
+		
+		Entry(Recipe recipe, long seq) {
+			this.recipe = recipe;
+			this.seq = seq;
+		}
+	}
+	
+	/**
+	 * Ingredient amounts of a recipe, used as the key of
+	 * the duplicate index.
+	 */
+	private static final class Signature {
+		private final int[] amounts;
+		
+		Signature(Recipe r) {
+			amounts = r.amounts();
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Signature)) {
+				return false;
+			}
+			return Arrays.equals(amounts, ((Signature) o).amounts);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(amounts);
+		}
 	}
 	
 	
@@ -0,0 +1,179 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.exceptions.RecipeException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Recipes shared by many coffee makers, each stored once.
+ *
+ * Every distinct recipe name gets an int id for the life of the
+ * catalogue, and the frozen Recipe under each id is shared by
+ * every {@link CatalogueRecipeBook} that links it. The recipes are
+ * published as an immutable snapshot replaced on every change, so
+ * lookups take no lock and an update of many recipes, e.g. a
+ * price change across the catalogue, is seen by every machine at
+ * once. Changes are serialized on the catalogue monitor, which
+ * the recipe books over the catalogue also hold while they add or
+ * override a recipe, so that an update never gives two recipes of
+ * one machine the same ingredients.
+ */
+public class RecipeCatalogue {
+
+	/** Id returned for a name that is not in the catalogue */
+	public static final int NO_RECIPE = -1;
+
+	private volatile Snapshot snapshot = new Snapshot(new Recipe[0], new HashMap<String, Integer>());
+	/** Number of snapshots published, written under the monitor */
+	private volatile long version;
+	/** Recipe books over the catalogue, held weakly so a machine dropped is collected; under the monitor */
+	private final Set<CatalogueRecipeBook> books = Collections.newSetFromMap(new WeakHashMap<CatalogueRecipeBook, Boolean>());
+
+	/**
+	 * Returns the id of the recipe, adding a frozen copy of it
+	 * if its name is new. Returns NO_RECIPE if the catalogue holds
+	 * a recipe of that name with other values; a machine then
+	 * keeps the recipe as an override.
+	 * @param r
+	 * @return int
+	 */
+	public synchronized int intern(Recipe r) {
+		Snapshot current = snapshot;
+		Integer id = current.ids.get(r.getName());
+		if (id != null) {
+			return sameValues(current.recipes[id], r) ? id : NO_RECIPE;
+		}
+		Recipe[] recipes = Arrays.copyOf(current.recipes, current.recipes.length + 1);
+		recipes[recipes.length - 1] = r.frozenCopy();
+		Map<String, Integer> ids = new HashMap<String, Integer>(current.ids);
+		ids.put(r.getName(), recipes.length - 1);
+		snapshot = new Snapshot(recipes, ids);
+		version++;
+		return recipes.length - 1;
+	}
+
+	/**
+	 * Replaces the price and ingredients of every given recipe,
+	 * found by name, in one step.
+	 * @param recipes
+	 * @throws RecipeException if a name is not in the catalogue; nothing is changed
+	 * @throws DuplicatedRecipeException if a machine would be left with two recipes
+	 * of the same ingredients; nothing is changed
+	 */
+	public synchronized void update(List<Recipe> recipes) throws RecipeException, DuplicatedRecipeException {
+		Snapshot current = snapshot;
+		Recipe[] updated = current.recipes.clone();
+		for (Recipe r : recipes) {
+			Integer id = current.ids.get(r.getName());
+			if (id == null) {
+				throw new RecipeException("Unkown Recipe");
+			}
+			updated[id] = r.frozenCopy();
+		}
+		Snapshot next = new Snapshot(updated, current.ids);
+		for (CatalogueRecipeBook book : books) {
+			if (book.hasSameAmounts(next)) {
+				throw new DuplicatedRecipeException("Recipe already exists");
+			}
+		}
+		snapshot = next;
+		version++;
+	}
+
+	/**
+	 * Sets the price of every recipe to the given function of its
+	 * current price in one step, e.g. p -> p + 10.
+	 * @param price
+	 * @throws InvalidValueException if a new price is invalid; nothing is changed
+	 */
+	public synchronized void reprice(IntUnaryOperator price) throws InvalidValueException {
+		Snapshot current = snapshot;
+		Recipe[] updated = new Recipe[current.recipes.length];
+		for (int id = 0; id < updated.length; id++) {
+			Recipe r = current.recipes[id];
+			updated[id] = new Recipe(r.getName(), price.applyAsInt(r.getPrice()), r.amounts()).frozenCopy();
+		}
+		snapshot = new Snapshot(updated, current.ids);
+		version++;
+	}
+
+	/**
+	 * Returns the id of the named recipe, or NO_RECIPE.
+	 * @param recipeName
+	 * @return int
+	 */
+	public int getId(String recipeName) {
+		Integer id = snapshot.ids.get(recipeName);
+		return id == null ? NO_RECIPE : id;
+	}
+
+	/**
+	 * Returns the current recipe of the id.
+	 * @param id
+	 * @return Recipe
+	 */
+	public Recipe getRecipe(int id) {
+		return snapshot.recipes[id];
+	}
+
+	/**
+	 * Returns the number of recipes in the catalogue.
+	 * @return int
+	 */
+	public int size() {
+		return snapshot.recipes.length;
+	}
+
+	/**
+	 * Returns a number that changes whenever a recipe is added
+	 * or changed, counted after the change is published.
+	 * @return long
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Registers a recipe book over the catalogue, to be checked
+	 * by update.
+	 * @param book
+	 */
+	synchronized void attach(CatalogueRecipeBook book) {
+		books.add(book);
+	}
+
+	/**
+	 * Returns the current snapshot; a new one is published on
+	 * every change.
+	 */
+	Snapshot snapshot() {
+		return snapshot;
+	}
+
+	static boolean sameValues(Recipe a, Recipe b) {
+		return a.getName().equals(b.getName()) && a.getPrice() == b.getPrice() && a.hasSameAmounts(b);
+	}
+
+	/**
+	 * Immutable state of the catalogue: the recipe of each id and
+	 * the id of each name. Ids are never removed or reused.
+	 */
+	static final class Snapshot {
+		final Recipe[] recipes;
+		final Map<String, Integer> ids;
+
+		Snapshot(Recipe[] recipes, Map<String, Integer> ids) {
+			this.recipes = recipes;
+			this.ids = ids;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.metrics.CoffeeMakerMetrics;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Inventory for the coffee maker with one lock per ingredient.
+ *
+ * A refill locks only its own ingredient and making a recipe
+ * locks only the ingredients the recipe uses, always in the
+ * order of the ingredient indexes so that two recipes can never
+ * deadlock. A milk refill therefore does not wait for a
+ * coffee-only brew.
+ */
+public class StripedInventory extends Inventory {
+
+    private final int[] capacities;
+    /** Units of each ingredient, changed only under its lock */
+    private final AtomicIntegerArray units;
+    /** Number of changes of each ingredient, counted under its lock */
+    private final AtomicLongArray versions;
+    private final ReentrantLock[] locks;
+
+    /**
+     * Creates a striped inventory object and fills
+     * each item in the inventory with 20 units.
+     * @throws InvalidValueException
+     */
+    public StripedInventory() throws InvalidValueException {
+        this(IngredientRegistry.STANDARD);
+    }
+
+    /**
+     * Creates a striped inventory of the given ingredients and
+     * fills each with 20 units, or its capacity if that is less.
+     * @param ingredients
+     * @throws InvalidValueException
+     */
+    public StripedInventory(IngredientRegistry ingredients) throws InvalidValueException {
+        super(ingredients, false);
+        int n = ingredients.size();
+        capacities = new int[n];
+        units = new AtomicIntegerArray(n);
+        versions = new AtomicLongArray(n);
+        locks = new ReentrantLock[n];
+        for (int i = 0; i < n; i++) {
+            capacities[i] = ingredients.getCapacity(i);
+            units.set(i, Math.min(20, capacities[i]));
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public int getUnits(int ingredient) {
+        return units.get(ingredient);
+    }
+
+    @Override
+    public void setUnits(int ingredient, int amount) throws InvalidValueException {
+        if (amount < 0 || amount > capacities[ingredient]) {
+            throw new InvalidValueException(invalidAmount(ingredient));
+        }
+        locks[ingredient].lock();
+        try {
+            units.set(ingredient, amount);
+            versions.set(ingredient, versions.get(ingredient) + 1);
+        } finally {
+            locks[ingredient].unlock();
+        }
+    }
+
+    @Override
+    public void addUnits(int ingredient, int amount) throws InvalidValueException {
+        if (amount < 0) {
+            throw new InvalidValueException(invalidUnits(ingredient));
+        }
+        locks[ingredient].lock();
+        try {
+            int current = units.get(ingredient);
+            if (amount > capacities[ingredient] - current) {
+                throw new InvalidValueException(invalidUnits(ingredient));
+            }
+            units.set(ingredient, current + amount);
+            versions.set(ingredient, versions.get(ingredient) + 1);
+        } finally {
+            locks[ingredient].unlock();
+        }
+    }
+
+    @Override
+    public int[] getLevels() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            int[] levels = new int[locks.length];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = units.get(i);
+            }
+            return levels;
+        } finally {
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the change counts of all ingredients,
+     * read without locking; since no count ever goes down, an
+     * equal sum means no ingredient changed.
+     * @return long
+     */
+    @Override
+    public long getVersion() {
+        long version = 0;
+        for (int i = 0; i < locks.length; i++) {
+            version += versions.get(i);
+        }
+        return version;
+    }
+
+    @Override
+    protected boolean enoughIngredients(int[] amounts) {
+        for (int i = 0; i < amounts.length; i++) {
+            if (amounts[i] < 0 || amounts[i] > (i < locks.length ? units.get(i) : 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the given units, locking only the ingredients
+     * they use.
+     * @param amounts
+     * @return boolean
+     */
+    @Override
+    public boolean useIngredients(int[] amounts) {
+        int n = amounts.length;
+        for (int i = 0; i < n; i++) {
+            if (amounts[i] < 0 || (i >= locks.length && amounts[i] > 0)) {
+                return false;
+            }
+        }
+        // amounts past the last ingredient are all zero
+        int m = Math.min(n, locks.length);
+        CoffeeMakerMetrics metrics = timedMetrics();
+        long start = metrics == null ? 0 : System.nanoTime();
+        long acquired = start;
+        int locked = 0;
+        try {
+            for (; locked < m; locked++) {
+                if (amounts[locked] > 0) {
+                    locks[locked].lock();
+                }
+            }
+            if (metrics != null) {
+                acquired = System.nanoTime();
+            }
+            for (int i = 0; i < m; i++) {
+                if (units.get(i) < amounts[i]) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < m; i++) {
+                if (amounts[i] > 0) {
+                    units.set(i, units.get(i) - amounts[i]);
+                    versions.set(i, versions.get(i) + 1);
+                }
+            }
+            return true;
+        } finally {
+            while (--locked >= 0) {
+                if (amounts[locked] > 0) {
+                    locks[locked].unlock();
+                }
+            }
+            if (metrics != null) {
+                metrics.recordUseIngredients(acquired - start, System.nanoTime() - acquired);
+            }
+        }
+    }
+}
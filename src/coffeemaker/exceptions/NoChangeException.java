@@ -0,0 +1,14 @@
+package coffeemaker.exceptions;
+
+/**
+ * Thrown when the cash box cannot pay out the change of a sale.
+ */
+public class NoChangeException extends InventoryException {
+
+	private static final long serialVersionUID = 1L;
+	
+	public NoChangeException(String msg) {
+		super(msg);
+	}
+
+}
@@ -0,0 +1,270 @@
+package coffeemaker.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log file with group commit.
+ *
+ * Records are appended to an in-memory buffer and a single
+ * flusher thread writes and fsyncs whatever has accumulated, so
+ * many concurrent appends share one fsync. A record is durable
+ * once {@link #awaitDurable(long)} returns for its position.
+ *
+ * Each record is stored as its length, its body and the CRC32 of
+ * the body, so a record torn by a crash is detected on reading.
+ */
+class Journal implements Closeable {
+
+	private final FileChannel channel;
+	private final Object lock = new Object();
+	private final Thread flusher;
+	/** Records appended but not yet handed to the flusher */
+	private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+	/** Buffer the flusher is writing, swapped with pending */
+	private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+	/** End position of the last appended record */
+	private long appended;
+	/** End position of the last record on disk */
+	private long durable;
+	private IOException failure;
+	private boolean closed;
+
+	/**
+	 * Opens the journal file for appending after its first
+	 * validLength bytes; anything after them is discarded.
+	 * @param file
+	 * @param validLength
+	 * @throws IOException
+	 */
+	Journal(Path file, long validLength) throws IOException {
+		this(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE), file.getFileName().toString(),
+				validLength);
+	}
+
+	/**
+	 * Opens the journal on a channel of its file, named for the
+	 * flusher thread.
+	 * @param channel
+	 * @param name
+	 * @param validLength
+	 * @throws IOException
+	 */
+	Journal(FileChannel channel, String name, long validLength) throws IOException {
+		this.channel = channel;
+		channel.truncate(validLength);
+		channel.position(validLength);
+		channel.force(true);
+		appended = validLength;
+		durable = validLength;
+		flusher = new Thread(this::flushLoop, "journal-flusher-" + name);
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Appends a record and returns the position that
+	 * {@link #awaitDurable(long)} must reach for it to be on disk.
+	 * @param body
+	 * @return Position
+	 */
+	Position append(byte[] body) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		synchronized (lock) {
+			if (failure != null) {
+				throw failure;
+			}
+			if (closed) {
+				throw new IOException("Journal is closed");
+			}
+			int size = body.length + 8;
+			if (pending.remaining() < size) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+				pending.flip();
+				larger.put(pending);
+				pending = larger;
+			}
+			pending.putInt(body.length).put(body).putInt((int) crc.getValue());
+			appended += size;
+			lock.notifyAll();
+			return new Position(this, appended);
+		}
+	}
+
+	/**
+	 * Waits until every record up to the given position
+	 * has been written and fsynced.
+	 * @param position
+	 */
+	void awaitDurable(long position) throws IOException {
+		synchronized (lock) {
+			while (durable < position) {
+				if (failure != null) {
+					throw failure;
+				}
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for the journal");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the size of the journal including records
+	 * not yet on disk.
+	 * @return long
+	 */
+	long size() {
+		synchronized (lock) {
+			return appended;
+		}
+	}
+
+	private void flushLoop() {
+		while (true) {
+			long target;
+			synchronized (lock) {
+				while (pending.position() == 0 && !closed) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (pending.position() == 0) {
+					return;
+				}
+				ByteBuffer full = pending;
+				pending = writing;
+				writing = full;
+				target = appended;
+			}
+			try {
+				writing.flip();
+				while (writing.hasRemaining()) {
+					channel.write(writing);
+				}
+				writing.clear();
+				channel.force(false);
+				synchronized (lock) {
+					durable = target;
+					lock.notifyAll();
+				}
+			} catch (IOException e) {
+				synchronized (lock) {
+					failure = e;
+					lock.notifyAll();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes the remaining records and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		synchronized (lock) {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * Reads the records of a journal file in order, stopping at
+	 * the end of the file or at the first torn or corrupt record.
+	 * Returns the length of the valid part of the file.
+	 * @param file
+	 * @param visitor
+	 * @return long
+	 */
+	static long read(Path file, RecordVisitor visitor) throws IOException {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer data = ByteBuffer.allocate((int) in.size());
+			while (data.hasRemaining() && in.read(data) >= 0) {
+				// read the whole file
+			}
+			data.flip();
+			long valid = 0;
+			CRC32 crc = new CRC32();
+			while (data.remaining() >= 8) {
+				int length = data.getInt(data.position());
+				if (length < 0 || length > data.remaining() - 8) {
+					break;
+				}
+				byte[] body = new byte[length];
+				data.position(data.position() + 4);
+				data.get(body);
+				crc.reset();
+				crc.update(body);
+				if (data.getInt() != (int) crc.getValue()) {
+					break;
+				}
+				visitor.visit(ByteBuffer.wrap(body));
+				valid = data.position();
+			}
+			return valid;
+		}
+	}
+
+	/**
+	 * End of an appended record in a given journal file. The
+	 * journal may have been replaced by a newer file by the time
+	 * the writer waits for the record to be durable.
+	 */
+	static final class Position {
+		private final Journal journal;
+		private final long offset;
+
+		Position(Journal journal, long offset) {
+			this.journal = journal;
+			this.offset = offset;
+		}
+
+		/**
+		 * Waits until the record is on disk.
+		 */
+		void awaitDurable() throws IOException {
+			journal.awaitDurable(offset);
+		}
+
+		/**
+		 * Returns true if the record is on disk once the given
+		 * position is: it is in the same journal and not after it.
+		 * @param durable
+		 * @return boolean
+		 */
+		boolean isCoveredBy(Position durable) {
+			return journal == durable.journal && offset <= durable.offset;
+		}
+	}
+
+	/**
+	 * Receives the body of every valid record of a journal.
+	 */
+	interface RecordVisitor {
+		void visit(ByteBuffer body) throws IOException;
+	}
+}
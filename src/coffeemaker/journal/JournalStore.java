@@ -0,0 +1,519 @@
+package coffeemaker.journal;
+
+import coffeemaker.CoffeeMaker;
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.exceptions.RecipeException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Durable state of a coffee maker: a snapshot of the inventory
+ * and the recipes plus a write-ahead journal of every change
+ * made after the snapshot.
+ *
+ * The inventory and recipe book handed out by the store log each
+ * successful change to the journal and return once it is on disk.
+ * Changes are applied and logged under one store lock so the
+ * journal order is the order in which they happened; the fsync is
+ * waited for outside the lock and shared by concurrent changes.
+ * When the journal grows past the checkpoint size a new snapshot
+ * is written and the journal restarts, so recovery never replays
+ * more than one checkpoint's worth of changes.
+ *
+ * Every change applied but not yet on disk keeps the undo that
+ * reverts it. If its record cannot be appended or written, the
+ * journal has failed: every such change is undone, newest first,
+ * so memory is back to what is on disk, and the change is reported
+ * to its caller as failed. Later changes fail at once until a
+ * checkpoint succeeds and starts a new journal.
+ */
+public class JournalStore implements AutoCloseable {
+
+	/** Default journal size that triggers a checkpoint */
+	public static final long DEFAULT_CHECKPOINT_BYTES = 4 * 1024 * 1024;
+
+	static final byte SET = 1;
+	static final byte ADD = 2;
+	static final byte USE = 3;
+	static final byte ADD_RECIPE = 4;
+	static final byte DELETE_RECIPE = 5;
+
+	/** Ingredients whose amounts every use and recipe record holds */
+	private static final int STANDARD_INGREDIENTS = 4;
+
+	private static final String SNAPSHOT = "snapshot.bin";
+	private static final String JOURNAL_PREFIX = "journal-";
+	private static final String JOURNAL_SUFFIX = ".log";
+
+	private final Path directory;
+	private final long checkpointBytes;
+	private final Object lock = new Object();
+	private final AtomicBoolean checkpointing = new AtomicBoolean();
+	private final Inventory inventory;
+	private final RecipeBook recipeBook;
+	private final JournaledInventory journaledInventory;
+	private final JournaledRecipeBook journaledRecipeBook;
+	private final CoffeeMaker coffeeMaker;
+	// guarded by lock
+	private Journal journal;
+	private long segment;
+	/** Changes applied and logged but not yet on disk, oldest first */
+	private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+	private IOException failure;
+	private long checkpointFailures;
+
+	JournalStore(Path directory, RecipeBook recipeBook, Inventory inventory, long checkpointBytes) {
+		this.directory = directory;
+		this.checkpointBytes = checkpointBytes;
+		this.recipeBook = recipeBook;
+		this.inventory = inventory;
+		try {
+			this.journaledInventory = new JournaledInventory(inventory, this);
+		} catch (InvalidValueException e) {
+			throw new IllegalStateException(e);
+		}
+		this.journaledRecipeBook = new JournaledRecipeBook(recipeBook, this);
+		this.coffeeMaker = new CoffeeMaker(journaledRecipeBook, journaledInventory);
+	}
+
+	/**
+	 * Opens the store in the given directory, recovering the
+	 * latest snapshot and replaying the journal into the given
+	 * recipe book and inventory. A new store starts from the
+	 * current contents of the inventory.
+	 * @param directory
+	 * @param recipeBook an empty recipe book
+	 * @param inventory
+	 * @param checkpointBytes
+	 * @return JournalStore
+	 * @throws IOException
+	 */
+	public static JournalStore open(Path directory, RecipeBook recipeBook, Inventory inventory,
+			long checkpointBytes) throws IOException {
+		Files.createDirectories(directory);
+		JournalStore store = new JournalStore(directory, recipeBook, inventory, checkpointBytes);
+		store.recover();
+		return store;
+	}
+
+	/**
+	 * Opens the store in the given directory with a default
+	 * recipe book and inventory.
+	 * @param directory
+	 * @return JournalStore
+	 * @throws IOException
+	 */
+	public static JournalStore open(Path directory) throws IOException {
+		try {
+			return open(directory, new RecipeBook(), new Inventory(), DEFAULT_CHECKPOINT_BYTES);
+		} catch (InvalidValueException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the coffee maker whose changes are journaled.
+	 * @return CoffeeMaker
+	 */
+	public CoffeeMaker getCoffeeMaker() {
+		return coffeeMaker;
+	}
+
+	/**
+	 * Returns the inventory whose changes are journaled.
+	 * @return Inventory
+	 */
+	public Inventory getInventory() {
+		return journaledInventory;
+	}
+
+	/**
+	 * Returns the recipe book whose changes are journaled.
+	 * @return RecipeBook
+	 */
+	public RecipeBook getRecipeBook() {
+		return journaledRecipeBook;
+	}
+
+	/**
+	 * Returns the failure of the journal that changes are
+	 * reported as failed for, or null if the journal works.
+	 * @return IOException
+	 */
+	public IOException getFailure() {
+		synchronized (lock) {
+			return failure;
+		}
+	}
+
+	/**
+	 * Returns the number of checkpoints that failed; the journal
+	 * then keeps growing until one succeeds.
+	 * @return long
+	 */
+	public long getCheckpointFailures() {
+		synchronized (lock) {
+			return checkpointFailures;
+		}
+	}
+
+	/** Lock under which changes are applied and logged */
+	Object lock() {
+		return lock;
+	}
+
+	/**
+	 * Appends the records of a change; must be called holding the
+	 * store lock right after the change was applied. If they
+	 * cannot be appended the change is undone before this throws.
+	 * @param undo reverts the change
+	 * @param records
+	 * @return Pending to commit, or null if there are no records
+	 */
+	Pending log(Undo undo, byte[]... records) throws IOException {
+		Journal.Position position = null;
+		try {
+			if (failure != null) {
+				throw failure;
+			}
+			for (byte[] record : records) {
+				position = journal.append(record);
+			}
+		} catch (IOException e) {
+			failure = e;
+			undo(undo);
+			rollBack(e);
+			throw e;
+		}
+		if (position == null) {
+			return null;
+		}
+		Pending change = new Pending(position, undo);
+		pending.addLast(change);
+		return change;
+	}
+
+	/**
+	 * Waits until the change is on disk, then checkpoints if the
+	 * journal has grown too large. If the journal failed first,
+	 * every change not on disk is undone before this throws; a
+	 * change another commit already undid throws the failure it
+	 * was undone for.
+	 * @param change as returned by log, or null
+	 */
+	void commit(Pending change) throws IOException {
+		if (change == null) {
+			return;
+		}
+		try {
+			change.position.awaitDurable();
+		} catch (IOException e) {
+			synchronized (lock) {
+				if (change.undone != null) {
+					throw change.undone;
+				}
+				if (!change.covered) {
+					failure = e;
+					rollBack(e);
+					throw e;
+				}
+				// a checkpoint wrote the change to the snapshot meanwhile
+			}
+		}
+		synchronized (lock) {
+			while (!pending.isEmpty() && pending.peekFirst().position.isCoveredBy(change.position)) {
+				pending.pollFirst();
+			}
+		}
+		if (journalSize() > checkpointBytes && checkpointing.compareAndSet(false, true)) {
+			try {
+				checkpoint();
+			} catch (IOException e) {
+				// the change is on disk; the next commit tries again
+				synchronized (lock) {
+					checkpointFailures++;
+				}
+				e.printStackTrace();
+			} finally {
+				checkpointing.set(false);
+			}
+		}
+	}
+
+	/** Undoes every change not on disk, newest first, for the failure; holds the lock */
+	private void rollBack(IOException cause) {
+		Pending change;
+		while ((change = pending.pollLast()) != null) {
+			undo(change.undo);
+			change.undone = cause;
+		}
+	}
+
+	private static void undo(Undo undo) {
+		try {
+			undo.undo();
+		} catch (Exception e) {
+			// the state undone to was valid, so this is a bug
+			throw new IllegalStateException("Cannot undo a journaled change", e);
+		}
+	}
+
+	private long journalSize() {
+		synchronized (lock) {
+			return journal.size();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the current state and starts an
+	 * empty journal. Changes wait while the snapshot is written.
+	 * The new journal file is created before the snapshot that
+	 * points to it, and the old segments are deleted only once
+	 * the snapshot and its directory entry are on disk. A
+	 * successful checkpoint clears a failure of the old journal.
+	 * @throws IOException
+	 */
+	public void checkpoint() throws IOException {
+		synchronized (lock) {
+			long next = segment + 1;
+			Journal fresh = openJournal(journalFile(next), 0);
+			try {
+				writeSnapshot(next);
+			} catch (IOException e) {
+				fresh.close();
+				Files.deleteIfExists(journalFile(next));
+				throw e;
+			}
+			// every change applied so far is in the snapshot
+			for (Pending change : pending) {
+				change.covered = true;
+			}
+			pending.clear();
+			failure = null;
+			Journal old = journal;
+			journal = fresh;
+			segment = next;
+			if (old != null) {
+				try {
+					old.close();
+				} catch (IOException e) {
+					// its records are in the snapshot
+				}
+			}
+			deleteSegmentsBefore(next);
+		}
+	}
+
+	/**
+	 * Writes the remaining journal records and closes the journal.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			journal.close();
+		}
+	}
+
+	void recover() throws IOException {
+		Path snapshot = directory.resolve(SNAPSHOT);
+		if (!Files.exists(snapshot)) {
+			// a new store: the current state becomes the first snapshot
+			segment = -1;
+			checkpoint();
+			return;
+		}
+		long first = readSnapshot(snapshot);
+		segment = first;
+		long valid = 0;
+		for (long s : segments()) {
+			if (s >= first) {
+				valid = Journal.read(journalFile(s), this::replay);
+				segment = s;
+			}
+		}
+		deleteSegmentsBefore(first);
+		journal = openJournal(journalFile(segment), valid);
+	}
+
+	/** Opens a journal file for appending after its first validLength bytes */
+	Journal openJournal(Path file, long validLength) throws IOException {
+		return new Journal(file, validLength);
+	}
+
+	private Path journalFile(long s) {
+		return directory.resolve(JOURNAL_PREFIX + s + JOURNAL_SUFFIX);
+	}
+
+	private List<Long> segments() throws IOException {
+		List<Long> segments = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, JOURNAL_PREFIX + "*" + JOURNAL_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				segments.add(Long.parseLong(name.substring(JOURNAL_PREFIX.length(), name.length() - JOURNAL_SUFFIX.length())));
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+
+	private void deleteSegmentsBefore(long s) throws IOException {
+		for (long old : segments()) {
+			if (old < s) {
+				Files.deleteIfExists(journalFile(old));
+			}
+		}
+	}
+
+	private void writeSnapshot(long nextSegment) throws IOException {
+		MappedSnapshot.write(directory.resolve(SNAPSHOT), nextSegment, inventory, recipeBook.getRecipes());
+	}
+
+	private long readSnapshot(Path snapshot) throws IOException {
+		MappedSnapshot mapped = MappedSnapshot.open(snapshot);
+		mapped.restore(recipeBook, inventory);
+		return mapped.getNextSegment();
+	}
+
+	private void replay(ByteBuffer record) throws IOException {
+		try {
+			byte type = record.get();
+			switch (type) {
+				case SET:
+					set(inventory, record.get(), record.getInt());
+					break;
+				case ADD:
+					add(inventory, record.get(), record.getInt());
+					break;
+				case USE:
+					if (!inventory.useIngredients(readAmounts(record))) {
+						throw new IOException("Journal uses more ingredients than the inventory holds");
+					}
+					break;
+				case ADD_RECIPE:
+					String name = readName(record);
+					recipeBook.addRecipe(new Recipe(name, record.getInt(), readAmounts(record)));
+					break;
+				case DELETE_RECIPE:
+					recipeBook.deleteRecipe(readName(record));
+					break;
+				default:
+					throw new IOException("Unknown journal record " + type);
+			}
+		} catch (InvalidValueException | AmountOfRecipeException | DuplicatedRecipeException | RecipeException e) {
+			throw new IOException("Journal does not match the snapshot", e);
+		}
+	}
+
+	static void set(Inventory inventory, int ingredient, int amount) throws InvalidValueException {
+		inventory.setUnits(ingredient, amount);
+	}
+
+	static void add(Inventory inventory, int ingredient, int amount) throws InvalidValueException {
+		inventory.addUnits(ingredient, amount);
+	}
+
+	/**
+	 * Reads the amounts of a use or recipe record: the four
+	 * standard ingredients, then, only if the record goes on, the
+	 * number of further ingredients and their amounts.
+	 */
+	private static int[] readAmounts(ByteBuffer record) {
+		int[] amounts = new int[STANDARD_INGREDIENTS];
+		for (int i = 0; i < STANDARD_INGREDIENTS; i++) {
+			amounts[i] = record.getInt();
+		}
+		if (record.hasRemaining()) {
+			amounts = Arrays.copyOf(amounts, STANDARD_INGREDIENTS + (record.get() & 0xFF));
+			for (int i = STANDARD_INGREDIENTS; i < amounts.length; i++) {
+				amounts[i] = record.getInt();
+			}
+		}
+		return amounts;
+	}
+
+	private static int amountsBytes(int[] amounts) {
+		return amounts.length > STANDARD_INGREDIENTS ? 4 * amounts.length + 1 : 4 * STANDARD_INGREDIENTS;
+	}
+
+	private static ByteBuffer putAmounts(ByteBuffer out, int[] amounts) {
+		for (int i = 0; i < STANDARD_INGREDIENTS; i++) {
+			out.putInt(i < amounts.length ? amounts[i] : 0);
+		}
+		if (amounts.length > STANDARD_INGREDIENTS) {
+			out.put((byte) (amounts.length - STANDARD_INGREDIENTS));
+			for (int i = STANDARD_INGREDIENTS; i < amounts.length; i++) {
+				out.putInt(amounts[i]);
+			}
+		}
+		return out;
+	}
+
+	static byte[] inventoryRecord(byte type, int ingredient, int amount) {
+		return ByteBuffer.allocate(6).put(type).put((byte) ingredient).putInt(amount).array();
+	}
+
+	static byte[] useRecord(int[] amounts) {
+		return putAmounts(ByteBuffer.allocate(1 + amountsBytes(amounts)).put(USE), amounts).array();
+	}
+
+	static byte[] addRecipeRecord(Recipe r) {
+		byte[] name = r.getName().getBytes(StandardCharsets.UTF_8);
+		int[] amounts = r.getAmounts();
+		ByteBuffer out = ByteBuffer.allocate(1 + 4 + name.length + 4 + amountsBytes(amounts))
+				.put(ADD_RECIPE).putInt(name.length).put(name).putInt(r.getPrice());
+		return putAmounts(out, amounts).array();
+	}
+
+	static byte[] deleteRecipeRecord(String recipeName) {
+		byte[] name = recipeName.getBytes(StandardCharsets.UTF_8);
+		return ByteBuffer.allocate(1 + 4 + name.length).put(DELETE_RECIPE).putInt(name.length).put(name).array();
+	}
+
+	private static String readName(ByteBuffer record) {
+		byte[] name = new byte[record.getInt()];
+		record.get(name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reverts a change applied to the wrapped inventory or recipe
+	 * book, called holding the store lock.
+	 */
+	interface Undo {
+		void undo() throws Exception;
+	}
+
+	/**
+	 * A change logged but not yet known to be on disk.
+	 */
+	static final class Pending {
+		final Journal.Position position;
+		final Undo undo;
+		// guarded by the store lock
+		/** Failure the change was undone for, null unless undone */
+		IOException undone;
+		/** True once a checkpoint wrote the change to the snapshot */
+		boolean covered;
+
+		Pending(Journal.Position position, Undo undo) {
+			this.position = position;
+			this.undo = undo;
+		}
+	}
+}
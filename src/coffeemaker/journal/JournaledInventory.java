@@ -0,0 +1,155 @@
+package coffeemaker.journal;
+
+import coffeemaker.Inventory;
+import coffeemaker.exceptions.InvalidValueException;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Inventory that logs every successful change of the wrapped
+ * inventory to the journal of its {@link JournalStore}.
+ *
+ * A change whose record cannot be written is undone and reported
+ * the way the inventory reports a change it refuses: set and add
+ * throw InvalidValueException and useIngredients returns false, so
+ * a beverage is not made and its payment is returned.
+ */
+class JournaledInventory extends Inventory {
+
+	private final Inventory delegate;
+	private final JournalStore store;
+
+	JournaledInventory(Inventory delegate, JournalStore store) throws InvalidValueException {
+		super(delegate.getIngredients(), false);
+		this.delegate = delegate;
+		this.store = store;
+	}
+
+	/** Returns the undo that puts the given levels back */
+	private JournalStore.Undo restore(int[] levels) {
+		return () -> {
+			for (int i = 0; i < levels.length; i++) {
+				if (delegate.getUnits(i) != levels[i]) {
+					JournalStore.set(delegate, i, levels[i]);
+				}
+			}
+		};
+	}
+
+	private void set(int ingredient, int amount) throws InvalidValueException {
+		JournalStore.Pending change;
+		try {
+			synchronized (store.lock()) {
+				JournalStore.Undo undo = restore(delegate.getLevels());
+				JournalStore.set(delegate, ingredient, amount);
+				change = store.log(undo, JournalStore.inventoryRecord(JournalStore.SET, ingredient, amount));
+			}
+			store.commit(change);
+		} catch (IOException e) {
+			throw notJournaled(e);
+		}
+	}
+
+	private void add(int ingredient, int amount) throws InvalidValueException {
+		JournalStore.Pending change;
+		try {
+			synchronized (store.lock()) {
+				JournalStore.Undo undo = restore(delegate.getLevels());
+				JournalStore.add(delegate, ingredient, amount);
+				change = store.log(undo, JournalStore.inventoryRecord(JournalStore.ADD, ingredient, amount));
+			}
+			store.commit(change);
+		} catch (IOException e) {
+			throw notJournaled(e);
+		}
+	}
+
+	private static InvalidValueException notJournaled(IOException e) {
+		return new InvalidValueException("Inventory change could not be journaled: " + e.getMessage());
+	}
+
+	@Override
+	public int getUnits(int ingredient) {
+		return delegate.getUnits(ingredient);
+	}
+
+	@Override
+	public void setUnits(int ingredient, int amount) throws InvalidValueException {
+		set(ingredient, amount);
+	}
+
+	@Override
+	public void addUnits(int ingredient, int amount) throws InvalidValueException {
+		add(ingredient, amount);
+	}
+
+	@Override
+	public int[] getLevels() {
+		return delegate.getLevels();
+	}
+
+	@Override
+	public long getVersion() {
+		return delegate.getVersion();
+	}
+
+	@Override
+	protected boolean enoughIngredients(int[] amounts) {
+		return enough(delegate.getLevels(), amounts);
+	}
+
+	@Override
+	public boolean useIngredients(int[] amounts) {
+		JournalStore.Pending change;
+		try {
+			synchronized (store.lock()) {
+				JournalStore.Undo undo = restore(delegate.getLevels());
+				if (!delegate.useIngredients(amounts)) {
+					return false;
+				}
+				change = store.log(undo, JournalStore.useRecord(amounts));
+			}
+			store.commit(change);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Puts the units back in the wrapped inventory and logs what
+	 * went in as one add per ingredient. If that cannot be logged
+	 * nothing is put back and every unit is returned as not put
+	 * back.
+	 */
+	@Override
+	public int[] returnIngredients(int[] amounts) {
+		JournalStore.Pending change;
+		int[] left;
+		try {
+			synchronized (store.lock()) {
+				int[] before = delegate.getLevels();
+				JournalStore.Undo undo = restore(before);
+				left = delegate.returnIngredients(amounts);
+				int[] after = delegate.getLevels();
+				int changed = 0;
+				byte[][] records = new byte[after.length][];
+				for (int i = 0; i < after.length; i++) {
+					if (after[i] != before[i]) {
+						records[changed++] = JournalStore.inventoryRecord(JournalStore.ADD, i, after[i] - before[i]);
+					}
+				}
+				change = store.log(undo, Arrays.copyOf(records, changed));
+			}
+			store.commit(change);
+			return left;
+		} catch (IOException e) {
+			left = new int[amounts.length];
+			for (int i = 0; i < amounts.length; i++) {
+				left[i] = Math.max(0, amounts[i]);
+			}
+			return left;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package coffeemaker.journal;
+
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.RecipeException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Recipe book that logs every recipe added to or deleted from
+ * the wrapped recipe book to the journal of its {@link JournalStore}.
+ *
+ * A change whose record cannot be written is undone, so the book
+ * matches the journal, and fails with an UncheckedIOException:
+ * none of the recipe exceptions describes it.
+ */
+class JournaledRecipeBook extends RecipeBook {
+
+	private final RecipeBook delegate;
+	private final JournalStore store;
+
+	JournaledRecipeBook(RecipeBook delegate, JournalStore store) {
+		super(0);
+		this.delegate = delegate;
+		this.store = store;
+	}
+
+	@Override
+	public List<Recipe> getRecipes() {
+		return delegate.getRecipes();
+	}
+
+	@Override
+	public long getVersion() {
+		return delegate.getVersion();
+	}
+
+	@Override
+	public int getMaxRecipes() {
+		return delegate.getMaxRecipes();
+	}
+
+	@Override
+	public Recipe getRecipe(String recipeName) {
+		return delegate.getRecipe(recipeName);
+	}
+
+	@Override
+	public boolean addRecipe(Recipe r) throws DuplicatedRecipeException, AmountOfRecipeException {
+		JournalStore.Pending change;
+		try {
+			synchronized (store.lock()) {
+				delegate.addRecipe(r);
+				change = store.log(() -> delegate.deleteRecipe(r.getName()),
+						JournalStore.addRecipeRecord(delegate.getRecipe(r.getName())));
+			}
+			store.commit(change);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean addRecipes(List<Recipe> recipes) throws DuplicatedRecipeException, AmountOfRecipeException {
+		JournalStore.Pending change;
+		try {
+			synchronized (store.lock()) {
+				delegate.addRecipes(recipes);
+				byte[][] records = new byte[recipes.size()][];
+				for (int i = 0; i < records.length; i++) {
+					records[i] = JournalStore.addRecipeRecord(delegate.getRecipe(recipes.get(i).getName()));
+				}
+				change = store.log(() -> {
+					for (Recipe r : recipes) {
+						delegate.deleteRecipe(r.getName());
+					}
+				}, records);
+			}
+			store.commit(change);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean deleteRecipe(String recipeName) throws RecipeException {
+		JournalStore.Pending change;
+		try {
+			synchronized (store.lock()) {
+				Recipe deleted = delegate.getRecipe(recipeName);
+				delegate.deleteRecipe(recipeName);
+				change = store.log(() -> delegate.addRecipe(deleted), JournalStore.deleteRecipeRecord(recipeName));
+			}
+			store.commit(change);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return true;
+	}
+}
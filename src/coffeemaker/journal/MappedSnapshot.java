@@ -0,0 +1,313 @@
+package coffeemaker.journal;
+
+import coffeemaker.IngredientRegistry;
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.InvalidValueException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Fixed layout binary snapshot of the inventory and the recipes,
+ * written and read through a memory-mapped file. A snapshot is
+ * written to a temporary file that is renamed over the previous
+ * one, and the directory is synced before write returns.
+ *
+ * <pre>
+ * 0   int   magic
+ * 4   int   version
+ * 8   long  CRC32 of every byte from offset 16 on
+ * 16  long  first journal segment to replay
+ * 24  int   number of ingredients n
+ * 28  int   number of recipes
+ * 32  int   length of the name area
+ * 36  int   units of each ingredient, n of them
+ *           one 12 + 4n byte record per recipe: price, name
+ *           offset, name length, units of each ingredient
+ *           name area, UTF-8 names back to back
+ * </pre>
+ *
+ * Reading maps the file and reads the fields in place; only the
+ * recipe names are copied, when a recipe is materialized.
+ */
+public class MappedSnapshot {
+
+	private static final int MAGIC = 0x434d534e;
+	private static final int VERSION = 3;
+	private static final int HEADER = 36;
+	private static final int CHECKSUMMED = 16;
+
+	/** Offsets of the name offset and of the amounts within a record */
+	private static final int NAME_AT = 4;
+	private static final int AMOUNTS_AT = 12;
+
+	private final ByteBuffer buffer;
+	private final int ingredients;
+	private final int recipeCount;
+	private final int recordsStart;
+	private final int record;
+	private final int namesStart;
+
+	private MappedSnapshot(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.ingredients = buffer.getInt(24);
+		this.recipeCount = buffer.getInt(28);
+		this.recordsStart = HEADER + 4 * ingredients;
+		this.record = AMOUNTS_AT + 4 * ingredients;
+		this.namesStart = recordsStart + recipeCount * record;
+	}
+
+	/**
+	 * Writes a snapshot of the inventory and recipes to the file,
+	 * atomically replacing any previous snapshot.
+	 * @param file
+	 * @param nextSegment
+	 * @param inventory
+	 * @param recipes
+	 * @throws IOException
+	 */
+	public static void write(Path file, long nextSegment, Inventory inventory, List<Recipe> recipes) throws IOException {
+		int[] levels = inventory.getLevels();
+		int ingredients = levels.length;
+		byte[][] names = new byte[recipes.size()][];
+		int nameBytes = 0;
+		for (int i = 0; i < names.length; i++) {
+			names[i] = recipes.get(i).getName().getBytes(StandardCharsets.UTF_8);
+			nameBytes += names[i].length;
+			ingredients = Math.max(ingredients, recipes.get(i).getAmounts().length);
+		}
+		int size = HEADER + 4 * ingredients + recipes.size() * (12 + 4 * ingredients) + nameBytes;
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			out.putInt(MAGIC).putInt(VERSION).putLong(0).putLong(nextSegment)
+					.putInt(ingredients).putInt(recipes.size()).putInt(nameBytes);
+			putAmounts(out, levels, ingredients);
+			int nameOffset = 0;
+			for (int i = 0; i < names.length; i++) {
+				Recipe r = recipes.get(i);
+				out.putInt(r.getPrice()).putInt(nameOffset).putInt(names[i].length);
+				putAmounts(out, r.getAmounts(), ingredients);
+				nameOffset += names[i].length;
+			}
+			for (byte[] name : names) {
+				out.put(name);
+			}
+			out.putLong(8, checksum(out, size));
+			out.force();
+		}
+		Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		syncDirectory(file.toAbsolutePath().getParent());
+	}
+
+	/**
+	 * Forces the entries of the directory to disk, so that a file
+	 * renamed or created in it is still there after a crash.
+	 * @param directory
+	 * @throws IOException
+	 */
+	static void syncDirectory(Path directory) throws IOException {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (AccessDeniedException e) {
+			// Windows cannot open a directory to sync it
+		}
+	}
+
+	private static void putAmounts(ByteBuffer out, int[] amounts, int ingredients) {
+		for (int i = 0; i < ingredients; i++) {
+			out.putInt(i < amounts.length ? amounts[i] : 0);
+		}
+	}
+
+	/**
+	 * Maps the snapshot file and checks its checksum.
+	 * @param file
+	 * @return MappedSnapshot
+	 * @throws IOException
+	 */
+	public static MappedSnapshot open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER || size > Integer.MAX_VALUE) {
+				throw new IOException("Not a coffee maker snapshot: " + file);
+			}
+			MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (in.getInt(0) != MAGIC || in.getInt(4) != VERSION) {
+				throw new IOException("Not a coffee maker snapshot: " + file);
+			}
+			if (in.getLong(8) != checksum(in, (int) size)) {
+				throw new IOException("Corrupt snapshot: " + file);
+			}
+			int ingredients = in.getInt(24);
+			int count = in.getInt(28);
+			int nameBytes = in.getInt(32);
+			long header = HEADER + 4L * ingredients;
+			long record = AMOUNTS_AT + 4L * ingredients;
+			if (ingredients < 0 || count < 0 || nameBytes < 0 || header + count * record + nameBytes != size) {
+				throw new IOException("Corrupt snapshot: " + file);
+			}
+			return new MappedSnapshot(in);
+		}
+	}
+
+	private static long checksum(ByteBuffer buffer, int size) {
+		CRC32 crc = new CRC32();
+		ByteBuffer body = buffer.duplicate();
+		body.limit(size).position(CHECKSUMMED);
+		crc.update(body);
+		return crc.getValue();
+	}
+
+	/**
+	 * @return   Returns the first journal segment to replay.
+	 */
+	public long getNextSegment() {
+		return buffer.getLong(16);
+	}
+
+	/**
+	 * @return   Returns the number of ingredients in the snapshot.
+	 */
+	public int getIngredientCount() {
+		return ingredients;
+	}
+
+	/**
+	 * Returns the units of the ingredient at the registry index.
+	 * @param ingredient
+	 * @return int
+	 */
+	public int getUnits(int ingredient) {
+		return ingredient < ingredients ? buffer.getInt(HEADER + ingredient * 4) : 0;
+	}
+
+	public int getCoffee() {
+		return getUnits(IngredientRegistry.COFFEE);
+	}
+
+	public int getMilk() {
+		return getUnits(IngredientRegistry.MILK);
+	}
+
+	public int getSugar() {
+		return getUnits(IngredientRegistry.SUGAR);
+	}
+
+	public int getChocolate() {
+		return getUnits(IngredientRegistry.CHOCOLATE);
+	}
+
+	/**
+	 * @return   Returns the number of recipes in the snapshot.
+	 */
+	public int getRecipeCount() {
+		return recipeCount;
+	}
+
+	private int field(int recipe, int offset) {
+		return buffer.getInt(recordsStart + recipe * record + offset);
+	}
+
+	public int getPrice(int recipe) {
+		return field(recipe, 0);
+	}
+
+	/**
+	 * Returns the units of the ingredient at the registry index
+	 * used by the given recipe.
+	 * @param recipe
+	 * @param ingredient
+	 * @return int
+	 */
+	public int getAmount(int recipe, int ingredient) {
+		return ingredient < ingredients ? field(recipe, AMOUNTS_AT + ingredient * 4) : 0;
+	}
+
+	public int getAmtCoffee(int recipe) {
+		return getAmount(recipe, IngredientRegistry.COFFEE);
+	}
+
+	public int getAmtMilk(int recipe) {
+		return getAmount(recipe, IngredientRegistry.MILK);
+	}
+
+	public int getAmtSugar(int recipe) {
+		return getAmount(recipe, IngredientRegistry.SUGAR);
+	}
+
+	public int getAmtChocolate(int recipe) {
+		return getAmount(recipe, IngredientRegistry.CHOCOLATE);
+	}
+
+	/**
+	 * Returns the name of the given recipe, decoded from the
+	 * mapped name area.
+	 * @param recipe
+	 * @return String
+	 */
+	public String getName(int recipe) {
+		byte[] name = new byte[field(recipe, NAME_AT + 4)];
+		ByteBuffer names = buffer.duplicate();
+		names.position(namesStart + field(recipe, NAME_AT));
+		names.get(name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the given recipe as a Recipe object.
+	 * @param recipe
+	 * @return Recipe
+	 * @throws InvalidValueException
+	 */
+	public Recipe getRecipe(int recipe) throws InvalidValueException {
+		int[] amounts = new int[ingredients];
+		for (int i = 0; i < ingredients; i++) {
+			amounts[i] = getAmount(recipe, i);
+		}
+		return new Recipe(getName(recipe), getPrice(recipe), amounts);
+	}
+
+	/**
+	 * Sets the inventory to the snapshot levels and adds every
+	 * recipe of the snapshot to the recipe book in one step.
+	 * @param recipeBook
+	 * @param inventory
+	 * @throws IOException
+	 */
+	public void restore(RecipeBook recipeBook, Inventory inventory) throws IOException {
+		try {
+			int held = inventory.getIngredients().size();
+			for (int i = 0; i < ingredients; i++) {
+				if (i < held) {
+					inventory.setUnits(i, getUnits(i));
+				} else if (getUnits(i) != 0) {
+					throw new IOException("Snapshot holds an ingredient the inventory does not");
+				}
+			}
+			List<Recipe> recipes = new ArrayList<Recipe>(recipeCount);
+			for (int i = 0; i < recipeCount; i++) {
+				recipes.add(getRecipe(i));
+			}
+			recipeBook.addRecipes(recipes);
+		} catch (InvalidValueException | AmountOfRecipeException | DuplicatedRecipeException e) {
+			throw new IOException("Snapshot does not fit the recipe book or inventory", e);
+		}
+	}
+}
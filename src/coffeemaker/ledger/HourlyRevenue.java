@@ -0,0 +1,116 @@
+package coffeemaker.ledger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Revenue of each recipe in each hour of a time range, as
+ * computed by {@link SalesLedger#revenuePerRecipePerHour}.
+ * Hours start on the hour, UTC.
+ */
+public class HourlyRevenue {
+
+	/** Milliseconds in an hour */
+	public static final long HOUR = 3_600_000L;
+
+	private final long firstHour;
+	private final int hours;
+	private final String[] recipes;
+	/** Revenue by recipe id, then hour */
+	private final long[] revenue;
+
+	HourlyRevenue(long firstHour, int hours, String[] recipes, long[] revenue) {
+		this.firstHour = firstHour;
+		this.hours = hours;
+		this.recipes = recipes;
+		this.revenue = revenue;
+	}
+
+	/**
+	 * Returns the number of hours covered.
+	 * @return int
+	 */
+	public int getHours() {
+		return hours;
+	}
+
+	/**
+	 * Returns the time the hour starts, in milliseconds since
+	 * the epoch.
+	 * @param hour from 0 to getHours() - 1
+	 * @return long
+	 */
+	public long getHourStart(int hour) {
+		return (firstHour + hour) * HOUR;
+	}
+
+	/**
+	 * Returns the names of the recipes sold in the range, in the
+	 * order they were first sold.
+	 * @return List
+	 */
+	public List<String> getRecipes() {
+		List<String> sold = new ArrayList<>();
+		for (int id = 0; id < recipes.length; id++) {
+			if (getTotal(id) > 0) {
+				sold.add(recipes[id]);
+			}
+		}
+		return Collections.unmodifiableList(sold);
+	}
+
+	/**
+	 * Returns the revenue of the recipe in the hour, in cents.
+	 * @param recipeName
+	 * @param hour
+	 * @return long
+	 */
+	public long getRevenue(String recipeName, int hour) {
+		if (hour < 0 || hour >= hours) {
+			throw new IndexOutOfBoundsException("Hour " + hour + " of " + hours);
+		}
+		int id = indexOf(recipeName);
+		return id < 0 ? 0 : revenue[id * hours + hour];
+	}
+
+	/**
+	 * Returns the revenue of every recipe in the hour, in cents.
+	 * @param hour
+	 * @return long
+	 */
+	public long getRevenue(int hour) {
+		long total = 0;
+		for (int id = 0; id < recipes.length; id++) {
+			total += revenue[id * hours + hour];
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the revenue of the recipe over the whole range.
+	 * @param recipeName
+	 * @return long
+	 */
+	public long getTotal(String recipeName) {
+		int id = indexOf(recipeName);
+		return id < 0 ? 0 : getTotal(id);
+	}
+
+	private long getTotal(int id) {
+		long total = 0;
+		for (int hour = 0; hour < hours; hour++) {
+			total += revenue[id * hours + hour];
+		}
+		return total;
+	}
+
+	private int indexOf(String recipeName) {
+		for (int id = 0; id < recipes.length; id++) {
+			if (recipes[id].equals(recipeName)) {
+				return id;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,43 @@
+package coffeemaker.ledger;
+
+/**
+ * Number of sales and revenue of one recipe over a time range.
+ */
+public final class RecipeSales {
+
+	private final String recipeName;
+	private final long count;
+	private final long revenue;
+
+	RecipeSales(String recipeName, long count, long revenue) {
+		this.recipeName = recipeName;
+		this.count = count;
+		this.revenue = revenue;
+	}
+
+	/**
+	 * @return   Returns the name of the recipe.
+	 */
+	public String getRecipeName() {
+		return recipeName;
+	}
+
+	/**
+	 * @return   Returns the number of beverages sold.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return   Returns the sum of the prices, in cents.
+	 */
+	public long getRevenue() {
+		return revenue;
+	}
+
+	@Override
+	public String toString() {
+		return recipeName + ": " + count + " sold, " + revenue + " cents";
+	}
+}
@@ -0,0 +1,248 @@
+package coffeemaker.ledger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Up to a fixed number of sales stored column by column: one
+ * primitive column each for the time, recipe id, price, payment
+ * and change. A chunk also knows the earliest and latest time it
+ * holds, so scans skip chunks outside the range asked for.
+ *
+ * A {@link Heap} chunk takes appends; a full one is written to a
+ * file and mapped back as a {@link Mapped} chunk.
+ *
+ * <pre>
+ * 0   int   magic
+ * 4   int   version
+ * 8   int   number of sales n
+ * 12  int   unused
+ * 16  long  earliest time
+ * 24  long  latest time
+ * 32  long  time of each sale, n of them
+ *     int   recipe id of each sale, n of them
+ *     int   price, then payment, then change, n of each
+ * </pre>
+ *
+ * All values are little endian.
+ */
+abstract class SalesChunk {
+
+	static final int MAGIC = 0x434d5344;
+	static final int VERSION = 1;
+	static final int HEADER = 32;
+
+	/**
+	 * Returns the number of sales; read it before the time range,
+	 * which covers at least those sales.
+	 */
+	abstract int rows();
+
+	abstract long minTime();
+
+	abstract long maxTime();
+
+	abstract long time(int row);
+
+	abstract int recipe(int row);
+
+	abstract int price(int row);
+
+	abstract int paid(int row);
+
+	abstract int change(int row);
+
+	/**
+	 * Sales being appended, in heap arrays. Rows are written by one
+	 * thread at a time and published by the volatile row count.
+	 */
+	static final class Heap extends SalesChunk {
+		final long[] times;
+		final int[] recipes;
+		final int[] prices;
+		final int[] paid;
+		final int[] changes;
+		private long minTime = Long.MAX_VALUE;
+		private long maxTime = Long.MIN_VALUE;
+		private volatile int rows;
+
+		Heap(int capacity) {
+			times = new long[capacity];
+			recipes = new int[capacity];
+			prices = new int[capacity];
+			paid = new int[capacity];
+			changes = new int[capacity];
+		}
+
+		boolean isFull() {
+			return rows == times.length;
+		}
+
+		void append(long time, int recipe, int price, int amtPaid, int change) {
+			int row = rows;
+			times[row] = time;
+			recipes[row] = recipe;
+			prices[row] = price;
+			paid[row] = amtPaid;
+			changes[row] = change;
+			minTime = Math.min(minTime, time);
+			maxTime = Math.max(maxTime, time);
+			rows = row + 1;
+		}
+
+		@Override
+		int rows() {
+			return rows;
+		}
+
+		@Override
+		long minTime() {
+			return minTime;
+		}
+
+		@Override
+		long maxTime() {
+			return maxTime;
+		}
+
+		@Override
+		long time(int row) {
+			return times[row];
+		}
+
+		@Override
+		int recipe(int row) {
+			return recipes[row];
+		}
+
+		@Override
+		int price(int row) {
+			return prices[row];
+		}
+
+		@Override
+		int paid(int row) {
+			return paid[row];
+		}
+
+		@Override
+		int change(int row) {
+			return changes[row];
+		}
+
+		/**
+		 * Writes the sales to the file and maps it back.
+		 */
+		Mapped spill(Path file) throws IOException {
+			int n = rows;
+			long size = HEADER + 24L * n;
+			Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				out.order(ByteOrder.LITTLE_ENDIAN);
+				out.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(0).putLong(minTime).putLong(maxTime);
+				out.asLongBuffer().put(times, 0, n);
+				out.position(HEADER + 8 * n);
+				IntBuffer ints = out.asIntBuffer();
+				ints.put(recipes, 0, n).put(prices, 0, n).put(paid, 0, n).put(changes, 0, n);
+				out.force();
+			}
+			Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			return Mapped.open(file);
+		}
+	}
+
+	/**
+	 * Sales read in place from a memory-mapped chunk file.
+	 */
+	static final class Mapped extends SalesChunk {
+		private final int rows;
+		private final long minTime;
+		private final long maxTime;
+		private final LongBuffer times;
+		private final IntBuffer recipes;
+		private final IntBuffer prices;
+		private final IntBuffer paid;
+		private final IntBuffer changes;
+
+		private Mapped(ByteBuffer buffer) {
+			rows = buffer.getInt(8);
+			minTime = buffer.getLong(16);
+			maxTime = buffer.getLong(24);
+			times = buffer.position(HEADER).slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+			IntBuffer ints = buffer.position(HEADER + 8 * rows).slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			recipes = ints.position(0).slice();
+			prices = ints.position(rows).slice();
+			paid = ints.position(2 * rows).slice();
+			changes = ints.position(3 * rows).slice();
+		}
+
+		/**
+		 * Maps a chunk file and checks its header.
+		 */
+		static Mapped open(Path file) throws IOException {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				long size = channel.size();
+				if (size < HEADER || size > Integer.MAX_VALUE) {
+					throw new IOException("Not a sales chunk: " + file);
+				}
+				MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				in.order(ByteOrder.LITTLE_ENDIAN);
+				if (in.getInt(0) != MAGIC || in.getInt(4) != VERSION || size != HEADER + 24L * in.getInt(8)) {
+					throw new IOException("Not a sales chunk: " + file);
+				}
+				return new Mapped(in);
+			}
+		}
+
+		@Override
+		int rows() {
+			return rows;
+		}
+
+		@Override
+		long minTime() {
+			return minTime;
+		}
+
+		@Override
+		long maxTime() {
+			return maxTime;
+		}
+
+		@Override
+		long time(int row) {
+			return times.get(row);
+		}
+
+		@Override
+		int recipe(int row) {
+			return recipes.get(row);
+		}
+
+		@Override
+		int price(int row) {
+			return prices.get(row);
+		}
+
+		@Override
+		int paid(int row) {
+			return paid.get(row);
+		}
+
+		@Override
+		int change(int row) {
+			return changes.get(row);
+		}
+	}
+}
@@ -0,0 +1,421 @@
+package coffeemaker.ledger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Append-only record of the beverages sold, for revenue and
+ * per-recipe reporting.
+ *
+ * Each sale is a row of five primitive columns, time, recipe id,
+ * price, payment and change, kept in chunks of a fixed number of
+ * rows; recipe names are interned to ids once. New sales go to a
+ * chunk of heap arrays. When it is full it is written to a file in
+ * the ledger directory and mapped back, so older sales live in the
+ * page cache rather than the heap; a ledger without a directory
+ * keeps every chunk on the heap. Reopening the directory maps the
+ * chunks written before.
+ *
+ * Queries scan the columns of every chunk whose time range meets
+ * the range asked for and add into primitive arrays indexed by
+ * recipe id; no object is created per sale. Appends are
+ * serialized on the ledger monitor and never block a query, which
+ * sees the sales recorded before it started.
+ */
+public class SalesLedger implements AutoCloseable {
+
+	/** Default number of sales per chunk */
+	public static final int CHUNK_SALES = 65536;
+	/** Most cells, recipes times hours, a revenue query returns */
+	private static final long MAX_CELLS = 1L << 24;
+	private static final String RECIPES = "recipes.bin";
+
+	private final Path directory;
+	private final int chunkSales;
+	private final LongSupplier clock;
+	private final Map<String, Integer> ids = new HashMap<>();
+	/** Recipe name of each id, replaced when a name is added */
+	private volatile String[] names = new String[0];
+	private volatile State state;
+	/** Number of the next chunk file */
+	private int nextChunk;
+	/** Recipes already written to the directory */
+	private int savedNames;
+	private long spillFailures;
+
+	/**
+	 * Creates a ledger kept on the heap, timed by the system clock.
+	 */
+	public SalesLedger() {
+		this(null, CHUNK_SALES, System::currentTimeMillis);
+	}
+
+	/**
+	 * Creates a ledger kept on the heap with the given chunk size
+	 * and clock.
+	 * @param chunkSales sales per chunk
+	 * @param clock milliseconds since the epoch
+	 */
+	public SalesLedger(int chunkSales, LongSupplier clock) {
+		this(null, chunkSales, clock);
+	}
+
+	private SalesLedger(Path directory, int chunkSales, LongSupplier clock) {
+		if (chunkSales <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive");
+		}
+		this.directory = directory;
+		this.chunkSales = chunkSales;
+		this.clock = clock;
+		this.state = new State(new SalesChunk[0], new SalesChunk.Heap(chunkSales));
+	}
+
+	/**
+	 * Opens the ledger in the directory, creating it if needed,
+	 * timed by the system clock.
+	 * @param directory
+	 * @return SalesLedger
+	 * @throws IOException
+	 */
+	public static SalesLedger open(Path directory) throws IOException {
+		return open(directory, CHUNK_SALES, System::currentTimeMillis);
+	}
+
+	/**
+	 * Opens the ledger in the directory with the given chunk size
+	 * and clock.
+	 * @param directory
+	 * @param chunkSales sales per chunk
+	 * @param clock milliseconds since the epoch
+	 * @return SalesLedger
+	 * @throws IOException
+	 */
+	public static SalesLedger open(Path directory, int chunkSales, LongSupplier clock) throws IOException {
+		SalesLedger ledger = new SalesLedger(directory, chunkSales, clock);
+		ledger.load();
+		return ledger;
+	}
+
+	/**
+	 * Maps the chunks and reads the recipe names already in the
+	 * directory.
+	 */
+	private synchronized void load() throws IOException {
+		Files.createDirectories(directory);
+		Path recipes = directory.resolve(RECIPES);
+		if (Files.exists(recipes)) {
+			try (InputStream in = Files.newInputStream(recipes); DataInputStream data = new DataInputStream(in)) {
+				int count = data.readInt();
+				for (int id = 0; id < count; id++) {
+					intern(data.readUTF());
+				}
+			}
+			savedNames = names.length;
+		}
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "sales-*.col")) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		files.sort(Comparator.comparing(Path::toString));
+		SalesChunk[] sealed = new SalesChunk[files.size()];
+		for (int i = 0; i < sealed.length; i++) {
+			sealed[i] = SalesChunk.Mapped.open(files.get(i));
+			String name = files.get(i).getFileName().toString();
+			nextChunk = Math.max(nextChunk, Integer.parseInt(name.substring(6, name.length() - 4)) + 1);
+		}
+		state = new State(sealed, state.active);
+	}
+
+	/**
+	 * Records a sale at the current time.
+	 * @param recipeName
+	 * @param price
+	 * @param amtPaid
+	 * @param change
+	 */
+	public void record(String recipeName, int price, int amtPaid, int change) {
+		record(clock.getAsLong(), recipeName, price, amtPaid, change);
+	}
+
+	/**
+	 * Records a sale at the given time, in milliseconds since the
+	 * epoch. A full chunk is spilled to the directory; if that
+	 * fails the chunk stays on the heap and no sale is lost.
+	 * @param timeMillis
+	 * @param recipeName
+	 * @param price
+	 * @param amtPaid
+	 * @param change
+	 */
+	public synchronized void record(long timeMillis, String recipeName, int price, int amtPaid, int change) {
+		int id = intern(recipeName);
+		State current = state;
+		current.active.append(timeMillis, id, price, amtPaid, change);
+		if (current.active.isFull()) {
+			seal(current);
+		}
+	}
+
+	/**
+	 * Writes the sales not yet in a chunk file to one, so that
+	 * they survive a restart.
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		State current = state;
+		if (directory != null && current.active.rows() > 0) {
+			state = new State(append(current.sealed, spill(current.active)), new SalesChunk.Heap(chunkSales));
+		}
+	}
+
+	/**
+	 * Flushes the ledger.
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+	private void seal(State current) {
+		SalesChunk sealed = current.active;
+		if (directory != null) {
+			try {
+				sealed = spill(current.active);
+			} catch (IOException e) {
+				// keep the sales on the heap rather than lose them
+				spillFailures++;
+				e.printStackTrace();
+			}
+		}
+		state = new State(append(current.sealed, sealed), new SalesChunk.Heap(chunkSales));
+	}
+
+	private SalesChunk.Mapped spill(SalesChunk.Heap chunk) throws IOException {
+		if (savedNames < names.length) {
+			saveNames();
+		}
+		SalesChunk.Mapped mapped = chunk.spill(directory.resolve(String.format("sales-%08d.col", nextChunk)));
+		nextChunk++;
+		return mapped;
+	}
+
+	private void saveNames() throws IOException {
+		String[] all = names;
+		Path file = directory.resolve(RECIPES);
+		Path tmp = file.resolveSibling(RECIPES + ".tmp");
+		try (OutputStream out = Files.newOutputStream(tmp); DataOutputStream data = new DataOutputStream(out)) {
+			data.writeInt(all.length);
+			for (String name : all) {
+				data.writeUTF(name);
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		savedNames = all.length;
+	}
+
+	private static SalesChunk[] append(SalesChunk[] chunks, SalesChunk chunk) {
+		SalesChunk[] more = Arrays.copyOf(chunks, chunks.length + 1);
+		more[chunks.length] = chunk;
+		return more;
+	}
+
+	private int intern(String recipeName) {
+		Integer id = ids.get(recipeName);
+		if (id == null) {
+			String[] more = Arrays.copyOf(names, names.length + 1);
+			more[names.length] = recipeName;
+			id = names.length;
+			ids.put(recipeName, id);
+			// published before any sale of the id
+			names = more;
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the number of sales recorded.
+	 * @return long
+	 */
+	public long size() {
+		State current = state;
+		long size = current.active.rows();
+		for (SalesChunk chunk : current.sealed) {
+			size += chunk.rows();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of full chunks that could not be
+	 * written to the directory and stayed on the heap.
+	 * @return long
+	 */
+	public synchronized long getSpillFailures() {
+		return spillFailures;
+	}
+
+	/**
+	 * Returns the revenue of each recipe in each hour from
+	 * fromMillis, inclusive, to toMillis, exclusive.
+	 * @param fromMillis
+	 * @param toMillis
+	 * @return HourlyRevenue
+	 */
+	public HourlyRevenue revenuePerRecipePerHour(long fromMillis, long toMillis) {
+		if (toMillis <= fromMillis) {
+			throw new IllegalArgumentException("Empty time range");
+		}
+		SalesChunk[] chunks = state.chunks();
+		int[] counted = rows(chunks);
+		String[] recipes = names;
+		long firstHour = Math.floorDiv(fromMillis, HourlyRevenue.HOUR);
+		long hours = Math.floorDiv(toMillis - 1, HourlyRevenue.HOUR) - firstHour + 1;
+		if (hours * Math.max(1, recipes.length) > MAX_CELLS) {
+			throw new IllegalArgumentException("Time range too long for hourly revenue");
+		}
+		int h = (int) hours;
+		long[] revenue = new long[recipes.length * h];
+		for (int c = 0; c < chunks.length; c++) {
+			SalesChunk chunk = chunks[c];
+			int rows = counted[c];
+			if (rows == 0 || chunk.maxTime() < fromMillis || chunk.minTime() >= toMillis) {
+				continue;
+			}
+			for (int row = 0; row < rows; row++) {
+				long time = chunk.time(row);
+				if (time >= fromMillis && time < toMillis) {
+					int hour = (int) (Math.floorDiv(time, HourlyRevenue.HOUR) - firstHour);
+					revenue[chunk.recipe(row) * h + hour] += chunk.price(row);
+				}
+			}
+		}
+		return new HourlyRevenue(firstHour, h, recipes, revenue);
+	}
+
+	/**
+	 * Returns the recipes with the most sales from fromMillis,
+	 * inclusive, to toMillis, exclusive, most sold first.
+	 * @param limit most recipes to return
+	 * @param fromMillis
+	 * @param toMillis
+	 * @return List
+	 */
+	public List<RecipeSales> topSellers(int limit, long fromMillis, long toMillis) {
+		SalesChunk[] chunks = state.chunks();
+		int[] counted = rows(chunks);
+		String[] recipes = names;
+		long[] counts = new long[recipes.length];
+		long[] revenue = new long[recipes.length];
+		for (int c = 0; c < chunks.length; c++) {
+			SalesChunk chunk = chunks[c];
+			int rows = counted[c];
+			if (rows == 0 || chunk.maxTime() < fromMillis || chunk.minTime() >= toMillis) {
+				continue;
+			}
+			if (chunk.minTime() >= fromMillis && chunk.maxTime() < toMillis) {
+				// the whole chunk is in range: the time column is not read
+				for (int row = 0; row < rows; row++) {
+					int id = chunk.recipe(row);
+					counts[id]++;
+					revenue[id] += chunk.price(row);
+				}
+			} else {
+				for (int row = 0; row < rows; row++) {
+					long time = chunk.time(row);
+					if (time >= fromMillis && time < toMillis) {
+						int id = chunk.recipe(row);
+						counts[id]++;
+						revenue[id] += chunk.price(row);
+					}
+				}
+			}
+		}
+		List<RecipeSales> top = new ArrayList<>();
+		for (int id = 0; id < recipes.length; id++) {
+			if (counts[id] > 0) {
+				top.add(new RecipeSales(recipes[id], counts[id], revenue[id]));
+			}
+		}
+		top.sort(Comparator.comparingLong(RecipeSales::getCount).reversed()
+				.thenComparing(Comparator.comparingLong(RecipeSales::getRevenue).reversed()));
+		return top.subList(0, Math.min(limit, top.size()));
+	}
+
+	/**
+	 * Returns the number of rows of each chunk. Read before the
+	 * recipe names, so that the names cover every recipe id in
+	 * those rows even while a sale of a new recipe is recorded.
+	 */
+	private static int[] rows(SalesChunk[] chunks) {
+		int[] rows = new int[chunks.length];
+		for (int c = 0; c < chunks.length; c++) {
+			rows[c] = chunks[c].rows();
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns the recipes with the most sales in the given time
+	 * up to now, e.g. the last 7 days, most sold first.
+	 * @param limit
+	 * @param period
+	 * @param unit
+	 * @return List
+	 */
+	public List<RecipeSales> topSellers(int limit, long period, TimeUnit unit) {
+		long now = clock.getAsLong();
+		return topSellers(limit, now - unit.toMillis(period), now + 1);
+	}
+
+	/**
+	 * Returns the total price of the sales from fromMillis,
+	 * inclusive, to toMillis, exclusive, in cents.
+	 * @param fromMillis
+	 * @param toMillis
+	 * @return long
+	 */
+	public long getRevenue(long fromMillis, long toMillis) {
+		long total = 0;
+		for (RecipeSales sales : topSellers(Integer.MAX_VALUE, fromMillis, toMillis)) {
+			total += sales.getRevenue();
+		}
+		return total;
+	}
+
+	/**
+	 * The chunks of the ledger at one moment: those sealed, in
+	 * order, and the one taking appends. Replaced whenever a chunk
+	 * is sealed, so that a query sees every sale exactly once.
+	 */
+	private static final class State {
+		final SalesChunk[] sealed;
+		final SalesChunk.Heap active;
+
+		State(SalesChunk[] sealed, SalesChunk.Heap active) {
+			this.sealed = sealed;
+			this.active = active;
+		}
+
+		SalesChunk[] chunks() {
+			return append(sealed, active);
+		}
+	}
+}
@@ -0,0 +1,298 @@
+package coffeemaker.metrics;
+
+import coffeemaker.DispenseStatus;
+import coffeemaker.IngredientRegistry;
+import coffeemaker.Recipe;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of a coffee maker.
+ *
+ * Attach an instance with {@code CoffeeMaker.setMetrics}; the
+ * coffee maker then counts the outcome of every beverage per
+ * recipe, the units used of every ingredient of the registry the
+ * metrics are created for, and the latency of
+ * makeCoffee, addRecipe and the inventory deduction. The
+ * inventory reports the time spent waiting for its lock apart
+ * from the time spent holding it. Recording allocates nothing
+ * once a recipe name has been seen, so the metrics can stay on.
+ * Outcomes are kept per recipe name for the first
+ * {@link #MAX_RECIPES} names seen and summed under
+ * {@link #OTHER_RECIPES} for the rest, so a recipe book with
+ * recipes added and deleted all day does not grow the metrics.
+ *
+ * Counters are exact. Reading the clock costs more than the rest
+ * of the bookkeeping, so by default only one makeCoffee call and
+ * one inventory deduction in {@link #DEFAULT_SAMPLE_EVERY} is
+ * timed; their histograms count the sampled calls and their
+ * percentiles are estimates. Every addRecipe call is timed.
+ *
+ * Read the metrics with {@link #snapshot()} or through JMX
+ * after {@link #register(String)}.
+ */
+public class CoffeeMakerMetrics implements CoffeeMakerMetricsMXBean {
+
+	/** Key of the outcomes of orders for recipes that do not exist */
+	public static final String UNKNOWN_RECIPE = "(unknown)";
+
+	/** Key of the outcomes of recipes named after the first MAX_RECIPES */
+	public static final String OTHER_RECIPES = "(other)";
+
+	/** Most recipe names whose outcomes are counted apart */
+	public static final int MAX_RECIPES = 1024;
+
+	/** Default number of calls per timed call */
+	public static final int DEFAULT_SAMPLE_EVERY = 16;
+
+	private static final DispenseStatus[] STATUSES = DispenseStatus.values();
+
+	/** sampleEvery - 1; sampleEvery is a power of two */
+	private final int sampleMask;
+
+	/**
+	 * Outcome counters per recipe name. A recipe deleted and added
+	 * again counts under the same name.
+	 */
+	private final ConcurrentHashMap<String, LongAdder[]> outcomes = new ConcurrentHashMap<>();
+	private final LongAdder[] unknownOutcomes = newCounters();
+	private final LongAdder[] otherOutcomes = newCounters();
+	private final IngredientRegistry ingredients;
+	/** Units used of each ingredient, by registry index */
+	private final LongAdder[] unitsUsed;
+	private final LatencyHistogram makeCoffee = new LatencyHistogram();
+	private final LatencyHistogram addRecipe = new LatencyHistogram();
+	private final LatencyHistogram inventoryLockWait = new LatencyHistogram();
+	private final LatencyHistogram inventoryService = new LatencyHistogram();
+	private final long startNanos = System.nanoTime();
+
+	/**
+	 * Creates metrics for the standard ingredients that time one
+	 * call in {@link #DEFAULT_SAMPLE_EVERY}.
+	 */
+	public CoffeeMakerMetrics() {
+		this(DEFAULT_SAMPLE_EVERY);
+	}
+
+	/**
+	 * Creates metrics for the standard ingredients that time one
+	 * call in sampleEvery, rounded up to a power of two; 1 times
+	 * every call.
+	 * @param sampleEvery
+	 */
+	public CoffeeMakerMetrics(int sampleEvery) {
+		this(IngredientRegistry.STANDARD, sampleEvery);
+	}
+
+	/**
+	 * Creates metrics for a coffee maker with the given
+	 * ingredients, e.g. those of {@code CoffeeMaker.getIngredients},
+	 * that time one call in sampleEvery.
+	 * @param ingredients
+	 * @param sampleEvery
+	 */
+	public CoffeeMakerMetrics(IngredientRegistry ingredients, int sampleEvery) {
+		if (sampleEvery < 1 || sampleEvery > 1 << 30) {
+			throw new IllegalArgumentException("sampleEvery must be between 1 and 2^30");
+		}
+		this.sampleMask = Integer.highestOneBit(sampleEvery * 2 - 1) - 1;
+		this.ingredients = ingredients;
+		this.unitsUsed = new LongAdder[ingredients.size()];
+		for (int i = 0; i < unitsUsed.length; i++) {
+			unitsUsed[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Returns the ingredients whose units used are counted.
+	 * @return IngredientRegistry
+	 */
+	public IngredientRegistry getIngredients() {
+		return ingredients;
+	}
+
+	/**
+	 * Returns true if the caller should time the current call.
+	 * @return boolean
+	 */
+	public boolean sample() {
+		return sampleMask == 0 || (ThreadLocalRandom.current().nextInt() & sampleMask) == 0;
+	}
+
+	/**
+	 * Records the outcome and latency of one timed makeCoffee call.
+	 * @param recipe the recipe ordered, null if it does not exist
+	 * @param status
+	 * @param nanos
+	 */
+	public void recordMakeCoffee(Recipe recipe, DispenseStatus status, long nanos) {
+		recordOutcome(recipe, status);
+		makeCoffee.record(nanos);
+	}
+
+	/**
+	 * Records the outcome of one beverage; a beverage that was
+	 * made counts its ingredients as used.
+	 * @param recipe the recipe ordered, null if it does not exist
+	 * @param status
+	 */
+	public void recordOutcome(Recipe recipe, DispenseStatus status) {
+		if (recipe == null) {
+			unknownOutcomes[status.ordinal()].increment();
+			return;
+		}
+		LongAdder[] counters = outcomes.get(recipe.getName());
+		if (counters == null) {
+			counters = countersOf(recipe.getName());
+		}
+		counters[status.ordinal()].increment();
+		if (status == DispenseStatus.OK) {
+			for (int i = 0; i < unitsUsed.length; i++) {
+				addUnits(i, recipe.getAmount(i));
+			}
+		}
+	}
+
+	/** Returns the counters of a name not yet seen, or the shared ones once MAX_RECIPES names are */
+	private LongAdder[] countersOf(String name) {
+		// the bound is checked before the lock of the new entry, so a race may pass it by a few names
+		LongAdder[] counters = outcomes.size() < MAX_RECIPES
+				? outcomes.computeIfAbsent(name, n -> newCounters()) : outcomes.get(name);
+		return counters == null ? otherOutcomes : counters;
+	}
+
+	private void addUnits(int ingredient, int units) {
+		if (units != 0) {
+			unitsUsed[ingredient].add(units);
+		}
+	}
+
+	private static LongAdder[] newCounters() {
+		LongAdder[] counters = new LongAdder[STATUSES.length];
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = new LongAdder();
+		}
+		return counters;
+	}
+
+	/**
+	 * Records the latency of one timed addRecipe call.
+	 * @param nanos
+	 */
+	public void recordAddRecipe(long nanos) {
+		addRecipe.record(nanos);
+	}
+
+	/**
+	 * Records one timed inventory deduction: the time spent waiting for
+	 * the inventory lock, or retrying for a lock-free inventory,
+	 * and the time spent doing the deduction.
+	 * @param waitNanos
+	 * @param serviceNanos
+	 */
+	public void recordUseIngredients(long waitNanos, long serviceNanos) {
+		inventoryLockWait.record(waitNanos);
+		inventoryService.record(serviceNanos);
+	}
+
+	/**
+	 * Returns a copy of all counters and histograms.
+	 * @return MetricsSnapshot
+	 */
+	public MetricsSnapshot snapshot() {
+		Map<String, long[]> counts = new LinkedHashMap<>();
+		for (Map.Entry<String, LongAdder[]> e : outcomes.entrySet()) {
+			counts.put(e.getKey(), sums(e.getValue()));
+		}
+		long[] other = sums(otherOutcomes);
+		for (long count : other) {
+			if (count > 0) {
+				counts.put(OTHER_RECIPES, other);
+				break;
+			}
+		}
+		counts.put(UNKNOWN_RECIPE, sums(unknownOutcomes));
+		long[] units = sums(unitsUsed);
+		return new MetricsSnapshot(System.nanoTime() - startNanos, counts, ingredients, units,
+				makeCoffee.snapshot(), addRecipe.snapshot(),
+				inventoryLockWait.snapshot(), inventoryService.snapshot());
+	}
+
+	private static long[] sums(LongAdder[] counters) {
+		long[] sums = new long[counters.length];
+		for (int i = 0; i < sums.length; i++) {
+			sums[i] = counters[i].sum();
+		}
+		return sums;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server under
+	 * coffeemaker:type=CoffeeMakerMetrics,name=&lt;name&gt;.
+	 * @param name
+	 * @return ObjectName
+	 * @throws JMException
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = ObjectName.getInstance("coffeemaker:type=CoffeeMakerMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	@Override
+	public Map<String, Long> getOutcomeCounts() {
+		MetricsSnapshot snapshot = snapshot();
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for (DispenseStatus status : STATUSES) {
+			counts.put(status.name(), snapshot.getCount(status));
+		}
+		return counts;
+	}
+
+	@Override
+	public Map<String, Long> getRecipeOutcomeCounts() {
+		MetricsSnapshot snapshot = snapshot();
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for (String recipe : snapshot.getRecipes()) {
+			for (DispenseStatus status : STATUSES) {
+				long count = snapshot.getCount(recipe, status);
+				if (count > 0) {
+					counts.put(recipe + "/" + status.name(), count);
+				}
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public Map<String, Long> getUnitsUsed() {
+		return snapshot().getUnitsUsed();
+	}
+
+	@Override
+	public Map<String, Long> getLatencyNanos() {
+		MetricsSnapshot snapshot = snapshot();
+		Map<String, Long> latency = new LinkedHashMap<>();
+		putLatency(latency, "makeCoffee", snapshot.getMakeCoffee());
+		putLatency(latency, "addRecipe", snapshot.getAddRecipe());
+		putLatency(latency, "inventoryLockWait", snapshot.getInventoryLockWait());
+		putLatency(latency, "inventoryService", snapshot.getInventoryService());
+		return latency;
+	}
+
+	private static void putLatency(Map<String, Long> latency, String name, HistogramSnapshot histogram) {
+		latency.put(name + ".count", histogram.getCount());
+		latency.put(name + ".p50", histogram.getValueAtPercentile(50));
+		latency.put(name + ".p99", histogram.getValueAtPercentile(99));
+		latency.put(name + ".p999", histogram.getValueAtPercentile(99.9));
+		latency.put(name + ".max", histogram.getMax());
+	}
+}
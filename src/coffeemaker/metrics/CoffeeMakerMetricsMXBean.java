@@ -0,0 +1,30 @@
+package coffeemaker.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link CoffeeMakerMetrics}.
+ */
+public interface CoffeeMakerMetricsMXBean {
+
+	/**
+	 * @return   Returns the number of beverages ordered per outcome.
+	 */
+	Map<String, Long> getOutcomeCounts();
+
+	/**
+	 * @return   Returns the nonzero counts per "recipe/OUTCOME".
+	 */
+	Map<String, Long> getRecipeOutcomeCounts();
+
+	/**
+	 * @return   Returns the units of each ingredient used so far.
+	 */
+	Map<String, Long> getUnitsUsed();
+
+	/**
+	 * @return   Returns count, p50, p99, p999 and max in nanoseconds
+	 * per measured operation, e.g. "makeCoffee.p99".
+	 */
+	Map<String, Long> getLatencyNanos();
+}
@@ -0,0 +1,73 @@
+package coffeemaker.metrics;
+
+/**
+ * Point in time copy of a {@link LatencyHistogram}.
+ * All values are in nanoseconds.
+ */
+public class HistogramSnapshot {
+
+	private final long[] counts;
+	private final long count;
+	private final long total;
+	private final long max;
+
+	HistogramSnapshot(long[] counts, long total, long max) {
+		this.counts = counts;
+		long n = 0;
+		for (long c : counts) {
+			n += c;
+		}
+		this.count = n;
+		this.total = total;
+		this.max = max;
+	}
+
+	/**
+	 * @return   Returns the number of recorded values.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return   Returns the largest recorded value.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return   Returns the mean of the recorded values, 0 if there are none.
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	/**
+	 * Returns the value below or at which the given percentage of
+	 * the recorded values fall, e.g. 99.9, rounded up to the top of
+	 * its bucket. Returns 0 if nothing was recorded.
+	 * @param percentile
+	 * @return long
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(LatencyHistogram.highestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.0f p50=%d p99=%d p99.9=%d max=%d", count, getMean(),
+				getValueAtPercentile(50), getValueAtPercentile(99), getValueAtPercentile(99.9), max);
+	}
+}
@@ -0,0 +1,77 @@
+package coffeemaker.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds with
+ * log-linear buckets, in the style of HdrHistogram.
+ *
+ * Values below 128 ns get a bucket each; above that every power
+ * of two is split in 64 buckets, so a recorded value is known to
+ * within 1.6%. Values above about 73 minutes are counted in the
+ * last bucket. Recording is one array increment plus a LongAdder
+ * update and allocates nothing.
+ */
+public class LatencyHistogram {
+
+	/** Values below 2^LINEAR_BITS are counted exactly */
+	private static final int LINEAR_BITS = 7;
+	/** Number of buckets in each power of two above the linear range */
+	private static final int SUB_BUCKETS = 1 << (LINEAR_BITS - 1);
+	/** Largest value told apart from the ones above it, about 73 minutes */
+	static final long MAX_VALUE = (1L << 42) - 1;
+	static final int BUCKETS = bucket(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records one value in nanoseconds; negative values count as 0.
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+		counts.incrementAndGet(bucket(value));
+		total.add(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Returns a copy of the counts. Values recorded while the copy
+	 * is taken may or may not be in it.
+	 * @return HistogramSnapshot
+	 */
+	public HistogramSnapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+		}
+		return new HistogramSnapshot(copy, total.sum(), max.get());
+	}
+
+	static int bucket(long value) {
+		if (value < (1 << LINEAR_BITS)) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (LINEAR_BITS - 1);
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/**
+	 * Returns the largest value counted in the given bucket.
+	 */
+	static long highestValue(int bucket) {
+		if (bucket < (1 << LINEAR_BITS)) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,147 @@
+package coffeemaker.metrics;
+
+import coffeemaker.DispenseStatus;
+import coffeemaker.IngredientRegistry;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Point in time copy of the {@link CoffeeMakerMetrics} of a
+ * coffee maker. Comparing two snapshots gives rates, e.g. how
+ * fast an ingredient drains.
+ */
+public class MetricsSnapshot {
+
+	private final long uptimeNanos;
+	private final Map<String, long[]> outcomes;
+	private final IngredientRegistry ingredients;
+	private final long[] unitsUsed;
+	private final HistogramSnapshot makeCoffee;
+	private final HistogramSnapshot addRecipe;
+	private final HistogramSnapshot inventoryLockWait;
+	private final HistogramSnapshot inventoryService;
+
+	MetricsSnapshot(long uptimeNanos, Map<String, long[]> outcomes, IngredientRegistry ingredients, long[] unitsUsed,
+			HistogramSnapshot makeCoffee, HistogramSnapshot addRecipe,
+			HistogramSnapshot inventoryLockWait, HistogramSnapshot inventoryService) {
+		this.uptimeNanos = uptimeNanos;
+		this.outcomes = outcomes;
+		this.ingredients = ingredients;
+		this.unitsUsed = unitsUsed;
+		this.makeCoffee = makeCoffee;
+		this.addRecipe = addRecipe;
+		this.inventoryLockWait = inventoryLockWait;
+		this.inventoryService = inventoryService;
+	}
+
+	/**
+	 * @return   Returns the nanoseconds since the metrics were created.
+	 */
+	public long getUptimeNanos() {
+		return uptimeNanos;
+	}
+
+	/**
+	 * Returns the names of the recipes with recorded outcomes,
+	 * including {@link CoffeeMakerMetrics#UNKNOWN_RECIPE}.
+	 * @return Set
+	 */
+	public Set<String> getRecipes() {
+		return Collections.unmodifiableSet(outcomes.keySet());
+	}
+
+	/**
+	 * Returns the number of beverages of the recipe with the given outcome.
+	 * @param recipeName
+	 * @param status
+	 * @return long
+	 */
+	public long getCount(String recipeName, DispenseStatus status) {
+		long[] counts = outcomes.get(recipeName);
+		return counts == null ? 0 : counts[status.ordinal()];
+	}
+
+	/**
+	 * Returns the number of beverages of all recipes with the given outcome.
+	 * @param status
+	 * @return long
+	 */
+	public long getCount(DispenseStatus status) {
+		long total = 0;
+		for (long[] counts : outcomes.values()) {
+			total += counts[status.ordinal()];
+		}
+		return total;
+	}
+
+	public long getCoffeeUsed() {
+		return unitsUsed[0];
+	}
+
+	public long getMilkUsed() {
+		return unitsUsed[1];
+	}
+
+	public long getSugarUsed() {
+		return unitsUsed[2];
+	}
+
+	public long getChocolateUsed() {
+		return unitsUsed[3];
+	}
+
+	/**
+	 * Returns the units used of the named ingredient, 0 if the
+	 * metrics do not count it.
+	 * @param ingredient
+	 * @return long
+	 */
+	public long getUnitsUsed(String ingredient) {
+		int i = ingredients.indexOf(ingredient);
+		return i == IngredientRegistry.NO_INGREDIENT ? 0 : unitsUsed[i];
+	}
+
+	/**
+	 * Returns the units used of every ingredient by name, in
+	 * registry order.
+	 * @return Map
+	 */
+	public Map<String, Long> getUnitsUsed() {
+		Map<String, Long> units = new LinkedHashMap<>();
+		for (int i = 0; i < unitsUsed.length; i++) {
+			units.put(ingredients.getName(i), unitsUsed[i]);
+		}
+		return units;
+	}
+
+	/**
+	 * @return   Returns the latency of makeCoffee calls.
+	 */
+	public HistogramSnapshot getMakeCoffee() {
+		return makeCoffee;
+	}
+
+	/**
+	 * @return   Returns the latency of addRecipe calls.
+	 */
+	public HistogramSnapshot getAddRecipe() {
+		return addRecipe;
+	}
+
+	/**
+	 * @return   Returns the time inventory deductions waited for the inventory.
+	 */
+	public HistogramSnapshot getInventoryLockWait() {
+		return inventoryLockWait;
+	}
+
+	/**
+	 * @return   Returns the time inventory deductions took once they had the inventory.
+	 */
+	public HistogramSnapshot getInventoryService() {
+		return inventoryService;
+	}
+}
@@ -0,0 +1,543 @@
+package coffeemaker.registry;
+
+import coffeemaker.CoffeeMaker;
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.exceptions.InvalidValueException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Coffee makers of many logical machines, keyed by machine id,
+ * of which only the recently used ones are kept in memory.
+ *
+ * A machine is loaded from the {@link MachineStore} the first time
+ * it is acquired and stays resident while its estimated heap fits
+ * in the budget. Beyond that, idle machines are evicted with the
+ * W-TinyLFU policy: new machines enter a small LRU window, and a
+ * machine leaving the window only displaces one of the main
+ * segmented LRU if it has been used more often recently, as
+ * counted by a {@link FrequencySketch}. A machine whose inventory
+ * levels or recipes changed since it was loaded is written back
+ * to the store before it leaves memory.
+ *
+ * A machine is used through a {@link MachineHandle}; it cannot be
+ * evicted while a handle is open, so every holder of a handle of
+ * the same id sees the same CoffeeMaker instance. A machine being
+ * loaded or written back is waited for, never loaded twice. The
+ * bookkeeping is done under one registry lock; loads and
+ * write-backs run outside it.
+ */
+public class CoffeeMakerRegistry implements AutoCloseable {
+
+	/** Estimated heap of a resident machine with no recipes */
+	public static final long MACHINE_BYTES = 1024;
+	/** Estimated heap of each recipe of a resident machine */
+	public static final long RECIPE_BYTES = 320;
+
+	private enum Region { WINDOW, PROBATION, PROTECTED }
+
+	private enum State { LOADING, READY, EVICTING }
+
+	private final MachineStore store;
+	private final int maxRecipes;
+	private final long budget;
+	private final long windowBudget;
+	private final long protectedBudget;
+	private final Object lock = new Object();
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private final Queue window = new Queue();
+	private final Queue probation = new Queue();
+	private final Queue protectedQueue = new Queue();
+	private final FrequencySketch sketch;
+	private long windowWeight;
+	private long protectedWeight;
+	private long totalWeight;
+	private long loads;
+	private long evictions;
+	private long writeBacks;
+	private long failedWriteBacks;
+	private boolean closed;
+
+	/**
+	 * Creates a registry of machines with the default number
+	 * of recipes.
+	 * @param store
+	 * @param budgetBytes estimated heap the resident machines may take
+	 */
+	public CoffeeMakerRegistry(MachineStore store, long budgetBytes) {
+		this(store, budgetBytes, RecipeBook.NUM_RECIPES);
+	}
+
+	/**
+	 * Creates a registry of machines holding up to maxRecipes recipes.
+	 * @param store
+	 * @param budgetBytes estimated heap the resident machines may take
+	 * @param maxRecipes
+	 */
+	public CoffeeMakerRegistry(MachineStore store, long budgetBytes, int maxRecipes) {
+		if (budgetBytes <= 0) {
+			throw new IllegalArgumentException("Budget must be positive");
+		}
+		this.store = store;
+		this.maxRecipes = maxRecipes;
+		this.budget = budgetBytes;
+		this.windowBudget = Math.max(budgetBytes / 100, 1);
+		this.protectedBudget = (budgetBytes - windowBudget) * 4 / 5;
+		this.sketch = new FrequencySketch((int) Math.min(budgetBytes / MACHINE_BYTES, 1 << 20));
+	}
+
+	/**
+	 * Returns a handle on the machine, loading it if it is not
+	 * resident. The machine stays resident until the handle is closed.
+	 * @param machineId
+	 * @return MachineHandle
+	 * @throws IOException if the machine cannot be loaded
+	 */
+	public MachineHandle acquire(String machineId) throws IOException {
+		while (true) {
+			Entry entry;
+			CompletableFuture<Void> wait;
+			synchronized (lock) {
+				if (closed) {
+					throw new IllegalStateException("Registry is closed");
+				}
+				entry = entries.get(machineId);
+				if (entry == null) {
+					sketch.increment(machineId);
+					entry = new Entry(machineId);
+					entry.pins = 1;
+					entries.put(machineId, entry);
+					wait = null;
+				} else if (entry.state == State.EVICTING) {
+					wait = entry.evicted;
+				} else {
+					sketch.increment(machineId);
+					entry.pins++;
+					if (entry.state == State.READY) {
+						onAccess(entry);
+						return new MachineHandle(this, entry);
+					}
+					wait = entry.loaded;
+				}
+			}
+			if (wait == null) {
+				return load(entry);
+			}
+			try {
+				wait.join();
+			} catch (CompletionException e) {
+				// only a load fails; the loader already dropped the entry
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw new IOException("Loading machine " + machineId + " failed", cause);
+				}
+				throw e;
+			}
+			if (wait == entry.loaded) {
+				return new MachineHandle(this, entry);
+			}
+		}
+	}
+
+	private MachineHandle load(Entry entry) throws IOException {
+		RecipeBook recipeBook = new RecipeBook(maxRecipes);
+		Inventory inventory;
+		try {
+			inventory = new Inventory();
+		} catch (InvalidValueException e) {
+			throw new IllegalStateException(e);
+		}
+		try {
+			store.load(entry.id, recipeBook, inventory);
+		} catch (IOException | RuntimeException e) {
+			synchronized (lock) {
+				entries.remove(entry.id);
+			}
+			entry.loaded.completeExceptionally(e);
+			throw e;
+		}
+		List<Entry> victims;
+		synchronized (lock) {
+			entry.recipeBook = recipeBook;
+			entry.inventory = inventory;
+			entry.coffeeMaker = new CoffeeMaker(recipeBook, inventory);
+			entry.markClean();
+			entry.state = State.READY;
+			entry.weight = weigh(entry);
+			entry.region = Region.WINDOW;
+			window.addLast(entry);
+			windowWeight += entry.weight;
+			totalWeight += entry.weight;
+			loads++;
+			victims = evict();
+		}
+		entry.loaded.complete(null);
+		writeBack(victims);
+		return new MachineHandle(this, entry);
+	}
+
+	/**
+	 * Unpins the machine of a closed handle and evicts machines
+	 * if the budget is exceeded.
+	 */
+	void release(Entry entry) {
+		List<Entry> victims;
+		synchronized (lock) {
+			entry.pins--;
+			long weight = weigh(entry);
+			long delta = weight - entry.weight;
+			entry.weight = weight;
+			totalWeight += delta;
+			if (entry.region == Region.WINDOW) {
+				windowWeight += delta;
+			} else if (entry.region == Region.PROTECTED) {
+				protectedWeight += delta;
+			}
+			victims = closed ? drain() : evict();
+		}
+		writeBack(victims);
+	}
+
+	private long weigh(Entry entry) {
+		return MACHINE_BYTES + RECIPE_BYTES * entry.recipeBook.getRecipes().size();
+	}
+
+	/**
+	 * Moves an accessed machine up its queue, promoting it from
+	 * probation to the protected segment. Caller holds the lock.
+	 */
+	private void onAccess(Entry entry) {
+		switch (entry.region) {
+			case WINDOW:
+				window.moveToEnd(entry);
+				break;
+			case PROBATION:
+				probation.remove(entry);
+				entry.region = Region.PROTECTED;
+				protectedQueue.addLast(entry);
+				protectedWeight += entry.weight;
+				while (protectedWeight > protectedBudget) {
+					Entry demoted = protectedQueue.removeFirst();
+					protectedWeight -= demoted.weight;
+					demoted.region = Region.PROBATION;
+					probation.addLast(demoted);
+				}
+				break;
+			default:
+				protectedQueue.moveToEnd(entry);
+				break;
+		}
+	}
+
+	/**
+	 * Moves machines past the window budget to probation, then
+	 * picks machines to evict until the resident machines fit in
+	 * the budget. Caller holds the lock.
+	 */
+	private List<Entry> evict() {
+		while (windowWeight > windowBudget && !window.isEmpty()) {
+			Entry entry = window.removeFirst();
+			windowWeight -= entry.weight;
+			entry.region = Region.PROBATION;
+			probation.addLast(entry);
+		}
+		List<Entry> victims = new ArrayList<Entry>();
+		while (totalWeight > budget) {
+			Entry victim = chooseVictim();
+			if (victim == null) {
+				// every resident machine is in use
+				break;
+			}
+			startEviction(victim);
+			victims.add(victim);
+		}
+		return victims;
+	}
+
+	/**
+	 * Returns the machine to evict, or null if all are pinned.
+	 * The newest machine on probation, the candidate, is kept only
+	 * if it was used more often than the oldest one, the victim.
+	 */
+	private Entry chooseVictim() {
+		Entry victim = probation.firstUnpinned();
+		Entry candidate = probation.lastUnpinned();
+		if (victim != null && candidate != victim) {
+			return sketch.frequency(candidate.id) > sketch.frequency(victim.id) ? victim : candidate;
+		} else if (victim != null) {
+			return victim;
+		}
+		victim = protectedQueue.firstUnpinned();
+		return victim != null ? victim : window.firstUnpinned();
+	}
+
+	private void startEviction(Entry entry) {
+		switch (entry.region) {
+			case WINDOW:
+				window.remove(entry);
+				windowWeight -= entry.weight;
+				break;
+			case PROBATION:
+				probation.remove(entry);
+				break;
+			default:
+				protectedQueue.remove(entry);
+				protectedWeight -= entry.weight;
+				break;
+		}
+		totalWeight -= entry.weight;
+		entry.state = State.EVICTING;
+		entry.evicted = new CompletableFuture<Void>();
+	}
+
+	/**
+	 * Starts evicting every machine not in use. Caller holds the lock.
+	 */
+	private List<Entry> drain() {
+		List<Entry> victims = new ArrayList<Entry>();
+		for (Entry entry : entries.values()) {
+			if (entry.state == State.READY && entry.pins == 0) {
+				victims.add(entry);
+			}
+		}
+		for (Entry entry : victims) {
+			startEviction(entry);
+		}
+		return victims;
+	}
+
+	/**
+	 * Writes the dirty machines being evicted to the store and
+	 * drops them. A machine that cannot be written stays resident
+	 * so its changes are not lost. Returns the first failure.
+	 */
+	private IOException writeBack(List<Entry> victims) {
+		IOException failure = null;
+		for (Entry entry : victims) {
+			boolean dirty = entry.isDirty();
+			boolean written = true;
+			if (dirty) {
+				try {
+					store.store(entry.id, entry.inventory, entry.recipeBook.getRecipes());
+				} catch (IOException e) {
+					written = false;
+					failure = failure != null ? failure : e;
+				} catch (RuntimeException e) {
+					written = false;
+					failure = failure != null ? failure : new IOException(e);
+				}
+			}
+			synchronized (lock) {
+				if (written) {
+					entries.remove(entry.id);
+					evictions++;
+					if (dirty) {
+						writeBacks++;
+					}
+				} else {
+					failedWriteBacks++;
+					entry.state = State.READY;
+					entry.region = Region.PROBATION;
+					probation.addLast(entry);
+					totalWeight += entry.weight;
+				}
+			}
+			entry.evicted.complete(null);
+		}
+		return failure;
+	}
+
+	/**
+	 * Returns the number of machines in memory.
+	 * @return int
+	 */
+	public int getResidentMachines() {
+		synchronized (lock) {
+			return window.size + probation.size + protectedQueue.size;
+		}
+	}
+
+	/**
+	 * Returns the estimated heap of the machines in memory.
+	 * @return long
+	 */
+	public long getResidentBytes() {
+		synchronized (lock) {
+			return totalWeight;
+		}
+	}
+
+	/**
+	 * Returns true if the machine is in memory.
+	 * @param machineId
+	 * @return boolean
+	 */
+	public boolean isResident(String machineId) {
+		synchronized (lock) {
+			Entry entry = entries.get(machineId);
+			return entry != null && entry.state == State.READY;
+		}
+	}
+
+	/**
+	 * @return   Returns the number of machines loaded from the store.
+	 */
+	public long getLoads() {
+		synchronized (lock) {
+			return loads;
+		}
+	}
+
+	/**
+	 * @return   Returns the number of machines evicted.
+	 */
+	public long getEvictions() {
+		synchronized (lock) {
+			return evictions;
+		}
+	}
+
+	/**
+	 * @return   Returns the number of evicted machines written to the store.
+	 */
+	public long getWriteBacks() {
+		synchronized (lock) {
+			return writeBacks;
+		}
+	}
+
+	/**
+	 * @return   Returns the number of write-backs that failed.
+	 */
+	public long getFailedWriteBacks() {
+		synchronized (lock) {
+			return failedWriteBacks;
+		}
+	}
+
+	/**
+	 * Stops handing out machines and evicts every machine not in
+	 * use, writing the dirty ones back. Machines still in use are
+	 * written back when their last handle is closed.
+	 * @throws IOException if a machine could not be written back
+	 */
+	@Override
+	public void close() throws IOException {
+		List<Entry> victims;
+		synchronized (lock) {
+			closed = true;
+			victims = drain();
+		}
+		IOException failure = writeBack(victims);
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * A machine known to the registry and its place in the
+	 * eviction queues. Fields are guarded by the registry lock.
+	 */
+	static final class Entry {
+		final String id;
+		final CompletableFuture<Void> loaded = new CompletableFuture<Void>();
+		CompletableFuture<Void> evicted;
+		State state = State.LOADING;
+		Region region;
+		RecipeBook recipeBook;
+		Inventory inventory;
+		CoffeeMaker coffeeMaker;
+		int pins;
+		long weight;
+		/** State last loaded from or written to the store */
+		int[] storedLevels;
+		List<Recipe> storedRecipes;
+		Entry prev;
+		Entry next;
+
+		Entry(String id) {
+			this.id = id;
+		}
+
+		void markClean() {
+			storedLevels = inventory.getLevels();
+			storedRecipes = recipeBook.getRecipes();
+		}
+
+		/** The recipe list is replaced on every change, so identity tells if it changed */
+		boolean isDirty() {
+			return recipeBook.getRecipes() != storedRecipes || !Arrays.equals(inventory.getLevels(), storedLevels);
+		}
+	}
+
+	/**
+	 * Doubly linked list of entries, least recently used first.
+	 */
+	private static final class Queue {
+		private final Entry head = new Entry(null);
+		int size;
+
+		Queue() {
+			head.prev = head;
+			head.next = head;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void addLast(Entry entry) {
+			entry.prev = head.prev;
+			entry.next = head;
+			head.prev.next = entry;
+			head.prev = entry;
+			size++;
+		}
+
+		void remove(Entry entry) {
+			entry.prev.next = entry.next;
+			entry.next.prev = entry.prev;
+			entry.prev = null;
+			entry.next = null;
+			size--;
+		}
+
+		Entry removeFirst() {
+			Entry first = head.next;
+			remove(first);
+			return first;
+		}
+
+		void moveToEnd(Entry entry) {
+			remove(entry);
+			addLast(entry);
+		}
+
+		Entry firstUnpinned() {
+			for (Entry e = head.next; e != head; e = e.next) {
+				if (e.pins == 0) {
+					return e;
+				}
+			}
+			return null;
+		}
+
+		Entry lastUnpinned() {
+			for (Entry e = head.prev; e != head; e = e.prev) {
+				if (e.pins == 0) {
+					return e;
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package coffeemaker.registry;
+
+/**
+ * Approximate count of recent accesses per machine id, a
+ * count-min sketch of 4 bit counters as used by TinyLFU.
+ *
+ * Each id has one counter in each of four rows; its frequency is
+ * the smallest of them. After ten accesses per counter of a row
+ * every counter is halved, so the counts follow recent traffic.
+ * Not thread safe; the registry calls it under its lock.
+ */
+final class FrequencySketch {
+
+	private static final int MAX_COUNT = 15;
+	private static final int[] SEEDS = { 0x97cb3127, 0xb3c4ed8b, 0x1b873593, 0xcc9e2d51 };
+
+	private final byte[][] rows = new byte[SEEDS.length][];
+	private final int mask;
+	private final int sampleSize;
+	private int additions;
+
+	/**
+	 * @param expectedEntries number of ids expected to be tracked
+	 */
+	FrequencySketch(int expectedEntries) {
+		int width = Integer.highestOneBit(Math.max(16, expectedEntries) * 2 - 1);
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new byte[width];
+		}
+		mask = width - 1;
+		sampleSize = width * 10;
+	}
+
+	void increment(Object key) {
+		int hash = spread(key.hashCode());
+		for (int i = 0; i < rows.length; i++) {
+			int index = index(hash, i);
+			if (rows[i][index] < MAX_COUNT) {
+				rows[i][index]++;
+			}
+		}
+		if (++additions >= sampleSize) {
+			reset();
+		}
+	}
+
+	int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < rows.length; i++) {
+			frequency = Math.min(frequency, rows[i][index(hash, i)]);
+		}
+		return frequency;
+	}
+
+	private int index(int hash, int row) {
+		int h = (hash ^ SEEDS[row]) * SEEDS[row];
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private void reset() {
+		for (byte[] row : rows) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] >>= 1;
+			}
+		}
+		additions /= 2;
+	}
+
+	private static int spread(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
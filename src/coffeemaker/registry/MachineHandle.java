@@ -0,0 +1,47 @@
+package coffeemaker.registry;
+
+import coffeemaker.CoffeeMaker;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Use of one machine of a {@link CoffeeMakerRegistry}. The machine
+ * stays in memory until the handle is closed; the CoffeeMaker must
+ * not be used after that.
+ */
+public final class MachineHandle implements AutoCloseable {
+
+	private final CoffeeMakerRegistry registry;
+	private final CoffeeMakerRegistry.Entry entry;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	MachineHandle(CoffeeMakerRegistry registry, CoffeeMakerRegistry.Entry entry) {
+		this.registry = registry;
+		this.entry = entry;
+	}
+
+	public String getMachineId() {
+		return entry.id;
+	}
+
+	/**
+	 * Returns the coffee maker of the machine.
+	 * @return CoffeeMaker
+	 */
+	public CoffeeMaker getCoffeeMaker() {
+		if (closed.get()) {
+			throw new IllegalStateException("Machine handle is closed");
+		}
+		return entry.coffeeMaker;
+	}
+
+	/**
+	 * Releases the machine; closing a handle twice has no effect.
+	 */
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			registry.release(entry);
+		}
+	}
+}
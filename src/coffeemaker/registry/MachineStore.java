@@ -0,0 +1,39 @@
+package coffeemaker.registry;
+
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where a {@link CoffeeMakerRegistry} keeps the state of the
+ * machines that are not resident. Calls for different machines
+ * may come from several threads at once; calls for the same
+ * machine never overlap.
+ */
+public interface MachineStore {
+
+	/**
+	 * Restores the stored state of the machine into an empty
+	 * recipe book and a full inventory. Returns false, leaving
+	 * both unchanged, if the machine was never stored.
+	 * @param machineId
+	 * @param recipeBook
+	 * @param inventory
+	 * @return boolean
+	 * @throws IOException
+	 */
+	boolean load(String machineId, RecipeBook recipeBook, Inventory inventory) throws IOException;
+
+	/**
+	 * Stores the inventory levels and recipes of the machine,
+	 * replacing what was stored before.
+	 * @param machineId
+	 * @param inventory
+	 * @param recipes
+	 * @throws IOException
+	 */
+	void store(String machineId, Inventory inventory, List<Recipe> recipes) throws IOException;
+}
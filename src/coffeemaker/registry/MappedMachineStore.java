@@ -0,0 +1,54 @@
+package coffeemaker.registry;
+
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.journal.MappedSnapshot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Machine store keeping one {@link MappedSnapshot} file per
+ * machine in a directory. File names are the URL safe Base64 of
+ * the machine id, so any id maps to a valid, distinct file name.
+ */
+public class MappedMachineStore implements MachineStore {
+
+	private static final String SUFFIX = ".snapshot";
+
+	private final Path directory;
+
+	/**
+	 * Creates a store in the given directory, creating it if needed.
+	 * @param directory
+	 * @throws IOException
+	 */
+	public MappedMachineStore(Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+	}
+
+	private Path file(String machineId) {
+		return directory.resolve(Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(machineId.getBytes(StandardCharsets.UTF_8)) + SUFFIX);
+	}
+
+	@Override
+	public boolean load(String machineId, RecipeBook recipeBook, Inventory inventory) throws IOException {
+		Path file = file(machineId);
+		if (!Files.exists(file)) {
+			return false;
+		}
+		MappedSnapshot.open(file).restore(recipeBook, inventory);
+		return true;
+	}
+
+	@Override
+	public void store(String machineId, Inventory inventory, List<Recipe> recipes) throws IOException {
+		MappedSnapshot.write(file(machineId), 0, inventory, recipes);
+	}
+}
@@ -0,0 +1,334 @@
+package coffeemaker.replay;
+
+import coffeemaker.BatchMode;
+import coffeemaker.DispenseResult;
+import coffeemaker.Recipe;
+
+import java.util.Arrays;
+
+/**
+ * One command given to a coffee maker, with the time it was
+ * given and its outcome.
+ *
+ * A batch order is a BATCH command followed by one BATCH_LINE per
+ * line of the order, in order and with the time of the batch.
+ *
+ * The outcome of a MAKE_COFFEE, BATCH_LINE or SETTLE command is the
+ * status and change encoded as by
+ * {@link coffeemaker.CoffeeMaker#tryMakeCoffee(String, int)}, that
+ * of RETURN_INGREDIENTS the number of units that did not fit;
+ * every other command is either {@link #ACCEPTED} or
+ * {@link #REJECTED}. The change of a SETTLE command is the change
+ * that was to be paid, whatever its status.
+ */
+public final class CommandEvent {
+
+	/** Commands that are recorded */
+	public enum Type {
+		ADD_RECIPE,
+		DELETE_RECIPE,
+		ADD_INVENTORY,
+		MAKE_COFFEE,
+		BATCH,
+		BATCH_LINE,
+		HOLD_INGREDIENTS,
+		RETURN_INGREDIENTS,
+		SET_CASH_BOX,
+		ADD_COINS,
+		REMOVE_COINS,
+		SETTLE
+	}
+
+	/** Outcome of a command other than MAKE_COFFEE, BATCH_LINE or SETTLE that succeeded */
+	public static final long ACCEPTED = 1;
+	/** Outcome of a command other than MAKE_COFFEE, BATCH_LINE or SETTLE that failed */
+	public static final long REJECTED = 0;
+
+	private final Type type;
+	private final long timeNanos;
+	private final String recipeName;
+	private final Recipe recipe;
+	private final int ingredient;
+	private final int amount;
+	private final BatchMode mode;
+	private final int[] amounts;
+	private final int[] denominations;
+	private final long outcome;
+
+	private CommandEvent(Type type, long timeNanos, String recipeName, Recipe recipe, int ingredient,
+			int amount, long outcome) {
+		this(type, timeNanos, recipeName, recipe, ingredient, amount, null, null, outcome);
+	}
+
+	private CommandEvent(Type type, long timeNanos, String recipeName, Recipe recipe, int ingredient,
+			int amount, BatchMode mode, int[] amounts, long outcome) {
+		this(type, timeNanos, recipeName, recipe, ingredient, amount, mode, amounts, null, outcome);
+	}
+
+	private CommandEvent(Type type, long timeNanos, String recipeName, Recipe recipe, int ingredient,
+			int amount, BatchMode mode, int[] amounts, int[] denominations, long outcome) {
+		this.type = type;
+		this.timeNanos = timeNanos;
+		this.recipeName = recipeName;
+		this.recipe = recipe;
+		this.ingredient = ingredient;
+		this.amount = amount;
+		this.mode = mode;
+		this.amounts = amounts;
+		this.denominations = denominations;
+		this.outcome = outcome;
+	}
+
+	/**
+	 * @param timeNanos time since the start of the recording
+	 * @param recipe
+	 * @param added
+	 * @return CommandEvent
+	 */
+	public static CommandEvent addRecipe(long timeNanos, Recipe recipe, boolean added) {
+		return new CommandEvent(Type.ADD_RECIPE, timeNanos, recipe.getName(), recipe, -1, 0, added ? ACCEPTED : REJECTED);
+	}
+
+	/**
+	 * @param timeNanos time since the start of the recording
+	 * @param recipeName
+	 * @param deleted
+	 * @return CommandEvent
+	 */
+	public static CommandEvent deleteRecipe(long timeNanos, String recipeName, boolean deleted) {
+		return new CommandEvent(Type.DELETE_RECIPE, timeNanos, recipeName, null, -1, 0, deleted ? ACCEPTED : REJECTED);
+	}
+
+	/**
+	 * @param timeNanos time since the start of the recording
+	 * @param ingredient registry index
+	 * @param units
+	 * @param added
+	 * @return CommandEvent
+	 */
+	public static CommandEvent addInventory(long timeNanos, int ingredient, int units, boolean added) {
+		return new CommandEvent(Type.ADD_INVENTORY, timeNanos, null, null, ingredient, units, added ? ACCEPTED : REJECTED);
+	}
+
+	/**
+	 * @param timeNanos time since the start of the recording
+	 * @param recipeName null if the recipe was looked up and not found
+	 * @param amtPaid
+	 * @param result encoded status and change, see {@link DispenseResult}
+	 * @return CommandEvent
+	 */
+	public static CommandEvent makeCoffee(long timeNanos, String recipeName, int amtPaid, long result) {
+		return new CommandEvent(Type.MAKE_COFFEE, timeNanos, recipeName, null, -1, amtPaid, result);
+	}
+
+	/**
+	 * @param timeNanos time since the start of the recording
+	 * @param mode
+	 * @param lines number of BATCH_LINE commands that follow
+	 * @return CommandEvent
+	 */
+	public static CommandEvent batch(long timeNanos, BatchMode mode, int lines) {
+		return new CommandEvent(Type.BATCH, timeNanos, null, null, -1, lines, mode, null, ACCEPTED);
+	}
+
+	/**
+	 * @param timeNanos time of the batch
+	 * @param recipeName
+	 * @param amtPaid
+	 * @param result encoded status and change of the line, see {@link DispenseResult}
+	 * @return CommandEvent
+	 */
+	public static CommandEvent batchLine(long timeNanos, String recipeName, int amtPaid, long result) {
+		return new CommandEvent(Type.BATCH_LINE, timeNanos, recipeName, null, -1, amtPaid, result);
+	}
+
+	/**
+	 * @param timeNanos time since the start of the recording
+	 * @param amounts units taken, by registry index
+	 * @param taken
+	 * @return CommandEvent
+	 */
+	public static CommandEvent holdIngredients(long timeNanos, int[] amounts, boolean taken) {
+		return new CommandEvent(Type.HOLD_INGREDIENTS, timeNanos, null, null, -1, 0, null, amounts.clone(),
+				taken ? ACCEPTED : REJECTED);
+	}
+
+	/**
+	 * @param timeNanos time since the start of the recording
+	 * @param amounts units given back, by registry index
+	 * @param left units that did not fit
+	 * @return CommandEvent
+	 */
+	public static CommandEvent returnIngredients(long timeNanos, int[] amounts, long left) {
+		return new CommandEvent(Type.RETURN_INGREDIENTS, timeNanos, null, null, -1, 0, null, amounts.clone(), left);
+	}
+
+	/**
+	 * @param timeNanos time since the start of the recording
+	 * @param denominations of the cash box, null if it was removed
+	 * @param counts coins of each denomination the cash box held
+	 * @return CommandEvent
+	 */
+	public static CommandEvent setCashBox(long timeNanos, int[] denominations, int[] counts) {
+		return new CommandEvent(Type.SET_CASH_BOX, timeNanos, null, null, -1, 0, null,
+				counts == null ? null : counts.clone(), denominations == null ? null : denominations.clone(), ACCEPTED);
+	}
+
+	/**
+	 * @param timeNanos time since the start of the recording
+	 * @param denomination
+	 * @param count
+	 * @param added
+	 * @return CommandEvent
+	 */
+	public static CommandEvent addCoins(long timeNanos, int denomination, int count, boolean added) {
+		return new CommandEvent(Type.ADD_COINS, timeNanos, null, null, -1, count, null, null,
+				new int[] {denomination}, added ? ACCEPTED : REJECTED);
+	}
+
+	/**
+	 * @param timeNanos time since the start of the recording
+	 * @param denomination
+	 * @param count
+	 * @param removed
+	 * @return CommandEvent
+	 */
+	public static CommandEvent removeCoins(long timeNanos, int denomination, int count, boolean removed) {
+		return new CommandEvent(Type.REMOVE_COINS, timeNanos, null, null, -1, count, null, null,
+				new int[] {denomination}, removed ? ACCEPTED : REJECTED);
+	}
+
+	/**
+	 * @param timeNanos time since the start of the recording
+	 * @param amtPaid
+	 * @param result status and change to be paid, see {@link DispenseResult}
+	 * @return CommandEvent
+	 */
+	public static CommandEvent settle(long timeNanos, int amtPaid, long result) {
+		return new CommandEvent(Type.SETTLE, timeNanos, null, null, -1, amtPaid, result);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the time of the command since the start of the
+	 * recording in nanoseconds.
+	 * @return long
+	 */
+	public long getTimeNanos() {
+		return timeNanos;
+	}
+
+	/**
+	 * Returns the recipe name of ADD_RECIPE, DELETE_RECIPE,
+	 * MAKE_COFFEE and BATCH_LINE.
+	 * @return String
+	 */
+	public String getRecipeName() {
+		return recipeName;
+	}
+
+	/**
+	 * Returns the recipe of an ADD_RECIPE command.
+	 * @return Recipe
+	 */
+	public Recipe getRecipe() {
+		return recipe;
+	}
+
+	/**
+	 * Returns the registry index of the ingredient of an
+	 * ADD_INVENTORY command, -1 for other commands.
+	 * @return int
+	 */
+	public int getIngredient() {
+		return ingredient;
+	}
+
+	/**
+	 * Returns the units added by ADD_INVENTORY, the payment of
+	 * MAKE_COFFEE, BATCH_LINE and SETTLE, the number of lines of
+	 * BATCH or the coins of ADD_COINS and REMOVE_COINS.
+	 * @return int
+	 */
+	public int getAmount() {
+		return amount;
+	}
+
+	/**
+	 * Returns the units of a HOLD_INGREDIENTS or
+	 * RETURN_INGREDIENTS command, by registry index, or the coins
+	 * of each denomination of SET_CASH_BOX.
+	 * @return int[]
+	 */
+	public int[] getAmounts() {
+		return amounts == null ? null : amounts.clone();
+	}
+
+	/**
+	 * Returns the denominations of SET_CASH_BOX, null if the cash
+	 * box was removed, or the one denomination of ADD_COINS and
+	 * REMOVE_COINS.
+	 * @return int[]
+	 */
+	public int[] getDenominations() {
+		return denominations == null ? null : denominations.clone();
+	}
+
+	/**
+	 * Returns the mode of a BATCH command.
+	 * @return BatchMode
+	 */
+	public BatchMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Returns the outcome of the command.
+	 * @return long
+	 */
+	public long getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * Returns a readable form of an outcome of this command.
+	 * @param outcome
+	 * @return String
+	 */
+	public String describeOutcome(long outcome) {
+		if (type == Type.MAKE_COFFEE || type == Type.BATCH_LINE || type == Type.SETTLE) {
+			return DispenseResult.status(outcome) + " change " + DispenseResult.change(outcome);
+		} else if (type == Type.RETURN_INGREDIENTS) {
+			return outcome + " units left";
+		}
+		return outcome == ACCEPTED ? "accepted" : "rejected";
+	}
+
+	@Override
+	public String toString() {
+		switch (type) {
+			case ADD_INVENTORY:
+				return type + " " + ingredient + " " + amount;
+			case MAKE_COFFEE:
+			case BATCH_LINE:
+				return type + " " + recipeName + " " + amount;
+			case BATCH:
+				return type + " " + mode + " " + amount;
+			case HOLD_INGREDIENTS:
+			case RETURN_INGREDIENTS:
+				return type + " " + Arrays.toString(amounts);
+			case SET_CASH_BOX:
+				return type + " " + Arrays.toString(denominations) + " " + Arrays.toString(amounts);
+			case ADD_COINS:
+			case REMOVE_COINS:
+				return type + " " + denominations[0] + " " + amount;
+			case SETTLE:
+				return type + " " + amount;
+			default:
+				return type + " " + recipeName;
+		}
+	}
+}
@@ -0,0 +1,548 @@
+package coffeemaker.replay;
+
+import coffeemaker.BatchMode;
+import coffeemaker.DispenseResult;
+import coffeemaker.DispenseStatus;
+import coffeemaker.Recipe;
+import coffeemaker.exceptions.InvalidValueException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary log of the commands given to a coffee maker.
+ *
+ * The file starts with the state the recording started from:
+ * the number of ingredients and their levels, then the recipes. Each command follows as
+ * its type, the nanoseconds since the previous command and its
+ * arguments and outcome, all integers as variable length
+ * (zigzag) varints. Recipe names are written once and then
+ * referred to by number, so a typical MAKE_COFFEE takes about
+ * six bytes.
+ *
+ * Commands are buffered and written when the buffer fills or the
+ * log is closed; a log cut short by a crash is read up to its
+ * last complete command, leaving out a batch order whose lines
+ * are not all there.
+ */
+public class CommandLog implements Closeable {
+
+	private static final int MAGIC = 0x434D4556;
+	private static final int VERSION = 4;
+	/** Most recipe names numbered; later names are always written out */
+	private static final int MAX_NAMES = 4096;
+	private static final int NULL_NAME = 0;
+	private static final int NEW_NAME = 1;
+	/** Most ingredients of an inventory or amounts of a recipe */
+	private static final int MAX_INGREDIENTS = 255;
+	private static final DispenseStatus[] STATUSES = DispenseStatus.values();
+	private static final CommandEvent.Type[] TYPES = CommandEvent.Type.values();
+	private static final BatchMode[] MODES = BatchMode.values();
+
+	private final DataOutputStream out;
+	private final Names names = new Names();
+	private long lastTime;
+
+	private CommandLog(DataOutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Creates the log file, replacing any existing one, and writes
+	 * the state the recording starts from.
+	 * @param file
+	 * @param startMillis wall clock time the recording starts
+	 * @param maxRecipes
+	 * @param levels units of every ingredient, in registry order
+	 * @param recipes
+	 * @return CommandLog
+	 * @throws IOException
+	 */
+	public static CommandLog create(Path file, long startMillis, int maxRecipes, int[] levels,
+			List<Recipe> recipes) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(startMillis);
+			writeVarint(out, maxRecipes);
+			writeVarint(out, levels.length);
+			for (int level : levels) {
+				writeVarint(out, level);
+			}
+			writeVarint(out, recipes.size());
+			for (Recipe r : recipes) {
+				writeString(out, r.getName());
+				writeRecipe(out, r);
+			}
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+		return new CommandLog(out);
+	}
+
+	/**
+	 * Appends a command. Commands must be appended in time order.
+	 * @param event
+	 * @throws IOException
+	 */
+	public void append(CommandEvent event) throws IOException {
+		CommandEvent.Type type = event.getType();
+		out.writeByte(type.ordinal());
+		writeVarLong(out, event.getTimeNanos() - lastTime);
+		lastTime = event.getTimeNanos();
+		switch (type) {
+			case ADD_RECIPE:
+				writeName(event.getRecipeName());
+				writeRecipe(out, event.getRecipe());
+				out.writeByte((int) event.getOutcome());
+				break;
+			case DELETE_RECIPE:
+				writeName(event.getRecipeName());
+				out.writeByte((int) event.getOutcome());
+				break;
+			case ADD_INVENTORY:
+				out.writeByte(event.getIngredient());
+				writeVarint(out, zigzag(event.getAmount()));
+				out.writeByte((int) event.getOutcome());
+				break;
+			case BATCH:
+				out.writeByte(event.getMode().ordinal());
+				writeVarint(out, event.getAmount());
+				break;
+			case HOLD_INGREDIENTS:
+				writeAmounts(out, event.getAmounts());
+				out.writeByte((int) event.getOutcome());
+				break;
+			case RETURN_INGREDIENTS:
+				writeAmounts(out, event.getAmounts());
+				writeVarLong(out, event.getOutcome());
+				break;
+			case SET_CASH_BOX:
+				if (event.getDenominations() == null) {
+					out.writeByte(0);
+				} else {
+					out.writeByte(1);
+					writeAmounts(out, event.getDenominations());
+					writeAmounts(out, event.getAmounts());
+				}
+				break;
+			case ADD_COINS:
+			case REMOVE_COINS:
+				writeVarint(out, event.getDenominations()[0]);
+				writeVarint(out, zigzag(event.getAmount()));
+				out.writeByte((int) event.getOutcome());
+				break;
+			case SETTLE:
+				writeVarint(out, zigzag(event.getAmount()));
+				writeResult(out, event.getOutcome());
+				break;
+			default:
+				writeName(event.getRecipeName());
+				writeVarint(out, zigzag(event.getAmount()));
+				writeResult(out, event.getOutcome());
+				break;
+		}
+	}
+
+	private static void writeResult(DataOutputStream out, long result) throws IOException {
+		out.writeByte(DispenseResult.status(result).ordinal());
+		writeVarint(out, zigzag(DispenseResult.change(result)));
+	}
+
+	private static long readResult(DataInputStream in) throws IOException {
+		int status = in.readUnsignedByte();
+		if (status >= STATUSES.length) {
+			throw new IOException("Corrupt command log, unknown status " + status);
+		}
+		return DispenseResult.encode(STATUSES[status], unzigzag(readVarint(in)));
+	}
+
+	private void writeName(String name) throws IOException {
+		if (name == null) {
+			writeVarint(out, NULL_NAME);
+			return;
+		}
+		int number = names.numberOf(name);
+		if (number >= 0) {
+			writeVarint(out, number + 2);
+		} else {
+			writeVarint(out, NEW_NAME);
+			writeString(out, name);
+			names.add(name);
+		}
+	}
+
+	/**
+	 * Writes the buffered commands and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Reads a whole log.
+	 * @param file
+	 * @return Recording
+	 * @throws IOException if the file is not a command log
+	 */
+	public static Recording read(Path file) throws IOException {
+		try (InputStream stream = Files.newInputStream(file)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+			if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+				throw new IOException("Not a command log: " + file);
+			}
+			long startMillis = in.readLong();
+			int maxRecipes = readVarint(in);
+			int ingredients = readVarint(in);
+			if (ingredients < 0 || ingredients > MAX_INGREDIENTS) {
+				throw new IOException("Corrupt command log, " + ingredients + " ingredients");
+			}
+			int[] levels = new int[ingredients];
+			for (int i = 0; i < levels.length; i++) {
+				levels[i] = readVarint(in);
+			}
+			int count = readVarint(in);
+			List<Recipe> recipes = new ArrayList<Recipe>(count);
+			for (int i = 0; i < count; i++) {
+				recipes.add(readRecipe(in, readString(in)));
+			}
+			List<CommandEvent> events = new ArrayList<CommandEvent>();
+			Names names = new Names();
+			long time = 0;
+			// start of the last batch and how many of its lines are still to come
+			int batch = 0;
+			int lines = 0;
+			while (true) {
+				int type = in.read();
+				if (type < 0) {
+					break;
+				}
+				CommandEvent event;
+				try {
+					time += readVarLong(in);
+					event = readEvent(in, names, type, time);
+				} catch (EOFException e) {
+					// the last command was cut short
+					break;
+				}
+				if ((event.getType() == CommandEvent.Type.BATCH_LINE) != (lines > 0)) {
+					throw new IOException("Corrupt command log, batch line out of place at command " + events.size());
+				}
+				if (event.getType() == CommandEvent.Type.BATCH) {
+					batch = events.size();
+					lines = event.getAmount();
+				} else if (lines > 0) {
+					lines--;
+				}
+				events.add(event);
+			}
+			if (lines > 0) {
+				// the last batch was cut short
+				events.subList(batch, events.size()).clear();
+			}
+			return new Recording(startMillis, maxRecipes, levels, recipes, events);
+		}
+	}
+
+	private static CommandEvent readEvent(DataInputStream in, Names names, int type, long time) throws IOException {
+		if (type >= TYPES.length) {
+			throw new IOException("Corrupt command log, unknown command " + type);
+		}
+		switch (TYPES[type]) {
+			case ADD_RECIPE: {
+				String name = readName(in, names);
+				Recipe recipe = readRecipe(in, name);
+				return CommandEvent.addRecipe(time, recipe, in.readUnsignedByte() == CommandEvent.ACCEPTED);
+			}
+			case DELETE_RECIPE: {
+				String name = readName(in, names);
+				return CommandEvent.deleteRecipe(time, name, in.readUnsignedByte() == CommandEvent.ACCEPTED);
+			}
+			case ADD_INVENTORY: {
+				int ingredient = in.readUnsignedByte();
+				if (ingredient >= MAX_INGREDIENTS) {
+					throw new IOException("Corrupt command log, unknown ingredient " + ingredient);
+				}
+				int units = unzigzag(readVarint(in));
+				return CommandEvent.addInventory(time, ingredient, units,
+						in.readUnsignedByte() == CommandEvent.ACCEPTED);
+			}
+			case BATCH: {
+				int mode = in.readUnsignedByte();
+				if (mode >= MODES.length) {
+					throw new IOException("Corrupt command log, unknown batch mode " + mode);
+				}
+				int lines = readVarint(in);
+				if (lines < 0) {
+					throw new IOException("Corrupt command log, " + lines + " batch lines");
+				}
+				return CommandEvent.batch(time, MODES[mode], lines);
+			}
+			case HOLD_INGREDIENTS: {
+				int[] amounts = readAmounts(in);
+				return CommandEvent.holdIngredients(time, amounts, in.readUnsignedByte() == CommandEvent.ACCEPTED);
+			}
+			case RETURN_INGREDIENTS: {
+				int[] amounts = readAmounts(in);
+				return CommandEvent.returnIngredients(time, amounts, readVarLong(in));
+			}
+			case SET_CASH_BOX: {
+				if (in.readUnsignedByte() == 0) {
+					return CommandEvent.setCashBox(time, null, null);
+				}
+				int[] denominations = readAmounts(in);
+				int[] counts = readAmounts(in);
+				if (counts.length != denominations.length) {
+					throw new IOException("Corrupt command log, " + counts.length + " counts of "
+							+ denominations.length + " denominations");
+				}
+				return CommandEvent.setCashBox(time, denominations, counts);
+			}
+			case ADD_COINS:
+			case REMOVE_COINS: {
+				int denomination = readVarint(in);
+				int count = unzigzag(readVarint(in));
+				boolean accepted = in.readUnsignedByte() == CommandEvent.ACCEPTED;
+				return TYPES[type] == CommandEvent.Type.ADD_COINS
+						? CommandEvent.addCoins(time, denomination, count, accepted)
+						: CommandEvent.removeCoins(time, denomination, count, accepted);
+			}
+			case SETTLE: {
+				int amtPaid = unzigzag(readVarint(in));
+				return CommandEvent.settle(time, amtPaid, readResult(in));
+			}
+			default: {
+				String name = readName(in, names);
+				int amtPaid = unzigzag(readVarint(in));
+				long result = readResult(in);
+				return TYPES[type] == CommandEvent.Type.BATCH_LINE ? CommandEvent.batchLine(time, name, amtPaid, result)
+						: CommandEvent.makeCoffee(time, name, amtPaid, result);
+			}
+		}
+	}
+
+	private static String readName(DataInputStream in, Names names) throws IOException {
+		int ref = readVarint(in);
+		if (ref == NULL_NAME) {
+			return null;
+		} else if (ref == NEW_NAME) {
+			String name = readString(in);
+			names.add(name);
+			return name;
+		} else if (ref - 2 < names.size()) {
+			return names.get(ref - 2);
+		}
+		throw new IOException("Corrupt command log, unknown name " + ref);
+	}
+
+	/**
+	 * Writes the price and the amounts of the four standard
+	 * ingredients, then the number of further amounts and those.
+	 */
+	private static void writeRecipe(DataOutputStream out, Recipe r) throws IOException {
+		int[] amounts = r.getAmounts();
+		writeVarint(out, zigzag(r.getPrice()));
+		for (int i = 0; i < 4; i++) {
+			writeVarint(out, zigzag(amounts[i]));
+		}
+		writeVarint(out, amounts.length - 4);
+		for (int i = 4; i < amounts.length; i++) {
+			writeVarint(out, zigzag(amounts[i]));
+		}
+	}
+
+	private static Recipe readRecipe(DataInputStream in, String name) throws IOException {
+		int price = unzigzag(readVarint(in));
+		int[] amounts = new int[4];
+		for (int i = 0; i < 4; i++) {
+			amounts[i] = unzigzag(readVarint(in));
+		}
+		int more = readVarint(in);
+		if (more < 0 || more > MAX_INGREDIENTS - 4) {
+			throw new IOException("Corrupt command log, invalid recipe " + name);
+		}
+		amounts = Arrays.copyOf(amounts, 4 + more);
+		for (int i = 4; i < amounts.length; i++) {
+			amounts[i] = unzigzag(readVarint(in));
+		}
+		try {
+			return new Recipe(name, price, amounts);
+		} catch (InvalidValueException e) {
+			throw new IOException("Corrupt command log, invalid recipe " + name, e);
+		}
+	}
+
+	private static void writeAmounts(DataOutputStream out, int[] amounts) throws IOException {
+		writeVarint(out, amounts.length);
+		for (int amount : amounts) {
+			writeVarint(out, zigzag(amount));
+		}
+	}
+
+	private static int[] readAmounts(DataInputStream in) throws IOException {
+		int n = readVarint(in);
+		if (n < 0 || n > MAX_INGREDIENTS) {
+			throw new IOException("Corrupt command log, " + n + " amounts");
+		}
+		int[] amounts = new int[n];
+		for (int i = 0; i < n; i++) {
+			amounts[i] = unzigzag(readVarint(in));
+		}
+		return amounts;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[readVarint(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		writeVarLong(out, value & 0xFFFFFFFFL);
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		long value = readVarLong(in);
+		if (value >>> 32 != 0) {
+			throw new IOException("Corrupt command log, value out of range");
+		}
+		return (int) value;
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt command log, varint too long");
+	}
+
+	/**
+	 * Numbers given to recipe names, the same on the writing
+	 * and the reading side.
+	 */
+	private static final class Names {
+		private final List<String> list = new ArrayList<String>();
+		private final Map<String, Integer> numbers = new HashMap<String, Integer>();
+
+		int numberOf(String name) {
+			Integer number = numbers.get(name);
+			return number == null ? -1 : number;
+		}
+
+		void add(String name) {
+			if (list.size() < MAX_NAMES) {
+				numbers.put(name, list.size());
+				list.add(name);
+			}
+		}
+
+		int size() {
+			return list.size();
+		}
+
+		String get(int number) {
+			return list.get(number);
+		}
+	}
+
+	/**
+	 * Contents of a command log: the state the recording started
+	 * from and the commands in order.
+	 */
+	public static final class Recording {
+		private final long startMillis;
+		private final int maxRecipes;
+		private final int[] levels;
+		private final List<Recipe> recipes;
+		private final List<CommandEvent> events;
+
+		Recording(long startMillis, int maxRecipes, int[] levels, List<Recipe> recipes, List<CommandEvent> events) {
+			this.startMillis = startMillis;
+			this.maxRecipes = maxRecipes;
+			this.levels = levels;
+			this.recipes = Collections.unmodifiableList(recipes);
+			this.events = Collections.unmodifiableList(events);
+		}
+
+		/**
+		 * @return Returns the wall clock time the recording started.
+		 */
+		public long getStartMillis() {
+			return startMillis;
+		}
+
+		public int getMaxRecipes() {
+			return maxRecipes;
+		}
+
+		/**
+		 * Returns the units of every ingredient, in registry
+		 * order, the recording started with.
+		 * @return int[]
+		 */
+		public int[] getLevels() {
+			return levels.clone();
+		}
+
+		/**
+		 * Returns the recipes the recording started with.
+		 * @return List
+		 */
+		public List<Recipe> getRecipes() {
+			return recipes;
+		}
+
+		/**
+		 * Returns the commands in the order they were given.
+		 * @return List
+		 */
+		public List<CommandEvent> getEvents() {
+			return events;
+		}
+	}
+}
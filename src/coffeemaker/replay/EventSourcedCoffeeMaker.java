@@ -0,0 +1,253 @@
+package coffeemaker.replay;
+
+import coffeemaker.BatchMode;
+import coffeemaker.BatchResult;
+import coffeemaker.CashBox;
+import coffeemaker.CoffeeMaker;
+import coffeemaker.DispenseResult;
+import coffeemaker.DispenseStatus;
+import coffeemaker.Inventory;
+import coffeemaker.OrderLine;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.exceptions.RecipeException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Coffee maker that records every command it is given, with its
+ * time and outcome, in a {@link CommandLog} that a
+ * {@link ReplayEngine} can feed back later.
+ *
+ * Commands are run and recorded under one lock, so the log order
+ * is the order in which they took effect and replaying the log
+ * one command at a time gives the same outcomes. Beverages made
+ * through an {@link coffeemaker.OrderPipeline} are recorded too,
+ * a batch order is recorded with the outcome of every line, and
+ * the ingredients a {@link coffeemaker.HoldManager} takes and
+ * gives back and the change its commits pay are recorded as such.
+ * The cash box is recorded with its coins when it is set, and
+ * coins added or removed through this coffee maker after that.
+ * Changes made to the recipe book, inventory or cash box other
+ * than through this coffee maker are not recorded. A log write failure is thrown as an UncheckedIOException
+ * after the command has taken effect.
+ */
+public class EventSourcedCoffeeMaker extends CoffeeMaker implements Closeable {
+
+	private final Object lock = new Object();
+	private final CommandLog log;
+	private final LongSupplier clock;
+	private final long start;
+
+	/**
+	 * Creates a coffee maker recording to the given file,
+	 * starting from the current recipes and inventory levels.
+	 * @param recipeBook
+	 * @param inventory
+	 * @param logFile
+	 * @throws IOException
+	 */
+	public EventSourcedCoffeeMaker(RecipeBook recipeBook, Inventory inventory, Path logFile) throws IOException {
+		this(recipeBook, inventory, logFile, System::nanoTime);
+	}
+
+	/**
+	 * Creates a coffee maker recording to the given file with
+	 * command times read from the clock, e.g. a
+	 * {@link coffeemaker.restock.SimulatedClock} for a recording
+	 * that is the same on every run.
+	 * @param recipeBook
+	 * @param inventory
+	 * @param logFile
+	 * @param clock time in nanoseconds
+	 * @throws IOException
+	 */
+	public EventSourcedCoffeeMaker(RecipeBook recipeBook, Inventory inventory, Path logFile, LongSupplier clock)
+			throws IOException {
+		super(recipeBook, inventory);
+		this.clock = clock;
+		this.log = CommandLog.create(logFile, System.currentTimeMillis(), recipeBook.getMaxRecipes(),
+				inventory.getLevels(), recipeBook.getRecipes());
+		this.start = clock.getAsLong();
+	}
+
+	private long now() {
+		return clock.getAsLong() - start;
+	}
+
+	private void record(CommandEvent event) {
+		try {
+			log.append(event);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public boolean addRecipe(Recipe r) throws AmountOfRecipeException, DuplicatedRecipeException {
+		synchronized (lock) {
+			boolean added = false;
+			try {
+				added = super.addRecipe(r);
+				return added;
+			} finally {
+				record(CommandEvent.addRecipe(now(), r, added));
+			}
+		}
+	}
+
+	@Override
+	public boolean deleteRecipe(String recipeName) throws RecipeException {
+		synchronized (lock) {
+			boolean deleted = false;
+			try {
+				deleted = super.deleteRecipe(recipeName);
+				return deleted;
+			} finally {
+				record(CommandEvent.deleteRecipe(now(), recipeName, deleted));
+			}
+		}
+	}
+
+	@Override
+	public void addInventory(int ingredient, int units) throws InvalidValueException {
+		synchronized (lock) {
+			boolean added = false;
+			try {
+				super.addInventory(ingredient, units);
+				added = true;
+			} finally {
+				record(CommandEvent.addInventory(now(), ingredient, units, added));
+			}
+		}
+	}
+
+	@Override
+	public long tryMakeCoffee(String recipeName, int amtPaid) {
+		synchronized (lock) {
+			long result = super.tryMakeCoffee(recipeName, amtPaid);
+			record(CommandEvent.makeCoffee(now(), recipeName, amtPaid, result));
+			return result;
+		}
+	}
+
+	@Override
+	protected long tryMakeCoffee(Recipe recipe, int amtPaid) {
+		synchronized (lock) {
+			long result = super.tryMakeCoffee(recipe, amtPaid);
+			record(CommandEvent.makeCoffee(now(), recipe == null ? null : recipe.getName(), amtPaid, result));
+			return result;
+		}
+	}
+
+	@Override
+	public BatchResult makeCoffeeBatch(List<OrderLine> order, BatchMode mode) {
+		synchronized (lock) {
+			BatchResult result = super.makeCoffeeBatch(order, mode);
+			long time = now();
+			record(CommandEvent.batch(time, mode, order.size()));
+			for (int i = 0; i < order.size(); i++) {
+				OrderLine line = order.get(i);
+				record(CommandEvent.batchLine(time, line.getRecipeName(), line.getAmtPaid(),
+						DispenseResult.encode(result.getStatus(i), result.getChange(i))));
+			}
+			return result;
+		}
+	}
+
+	@Override
+	public void setCashBox(CashBox cashBox) {
+		synchronized (lock) {
+			if (cashBox == null) {
+				super.setCashBox(null);
+				record(CommandEvent.setCashBox(now(), null, null));
+				return;
+			}
+			synchronized (cashBox) {
+				int[] denominations = cashBox.getDenominations();
+				int[] counts = new int[denominations.length];
+				for (int k = 0; k < counts.length; k++) {
+					counts[k] = cashBox.getCount(denominations[k]);
+				}
+				super.setCashBox(cashBox);
+				record(CommandEvent.setCashBox(now(), denominations, counts));
+			}
+		}
+	}
+
+	@Override
+	public void addCoins(int denomination, int count) throws InvalidValueException {
+		synchronized (lock) {
+			boolean added = false;
+			try {
+				super.addCoins(denomination, count);
+				added = true;
+			} finally {
+				record(CommandEvent.addCoins(now(), denomination, count, added));
+			}
+		}
+	}
+
+	@Override
+	public void removeCoins(int denomination, int count) throws InvalidValueException {
+		synchronized (lock) {
+			boolean removed = false;
+			try {
+				super.removeCoins(denomination, count);
+				removed = true;
+			} finally {
+				record(CommandEvent.removeCoins(now(), denomination, count, removed));
+			}
+		}
+	}
+
+	@Override
+	public DispenseStatus settle(int amtPaid, int change, Supplier<DispenseStatus> commit) {
+		synchronized (lock) {
+			DispenseStatus status = super.settle(amtPaid, change, commit);
+			record(CommandEvent.settle(now(), amtPaid, DispenseResult.encode(status, change)));
+			return status;
+		}
+	}
+
+	@Override
+	public boolean holdIngredients(int[] amounts) {
+		synchronized (lock) {
+			boolean taken = super.holdIngredients(amounts);
+			record(CommandEvent.holdIngredients(now(), amounts, taken));
+			return taken;
+		}
+	}
+
+	@Override
+	public int[] returnIngredients(int[] amounts) {
+		synchronized (lock) {
+			int[] left = super.returnIngredients(amounts);
+			long units = 0;
+			for (int u : left) {
+				units += u;
+			}
+			record(CommandEvent.returnIngredients(now(), amounts, units));
+			return left;
+		}
+	}
+
+	/**
+	 * Writes the buffered commands and closes the log.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			log.close();
+		}
+	}
+}
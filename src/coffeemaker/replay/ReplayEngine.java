@@ -0,0 +1,213 @@
+package coffeemaker.replay;
+
+import coffeemaker.BatchResult;
+import coffeemaker.CashBox;
+import coffeemaker.CoffeeMaker;
+import coffeemaker.DispenseResult;
+import coffeemaker.DispenseStatus;
+import coffeemaker.Inventory;
+import coffeemaker.OrderLine;
+import coffeemaker.RecipeBook;
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.exceptions.RecipeException;
+import coffeemaker.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds the commands of a {@link CommandLog.Recording} to a fresh
+ * coffee maker, one at a time on the calling thread, and reports
+ * the throughput, the latency of each command and every command
+ * whose outcome differs from the recorded one. A batch order is
+ * replayed as one order and timed as one command; each of its
+ * lines is compared with the recorded line.
+ *
+ * Each run starts from the recipes and inventory levels the
+ * recording started with, so replaying a log against the build
+ * that recorded it gives no divergence and a changed build shows
+ * exactly which commands behave differently.
+ */
+public class ReplayEngine {
+
+	/** Most divergences kept in a report; all of them are counted */
+	public static final int MAX_DIVERGENCES = 100;
+
+	private final CommandLog.Recording recording;
+
+	/**
+	 * @param recording
+	 */
+	public ReplayEngine(CommandLog.Recording recording) {
+		this.recording = recording;
+	}
+
+	/**
+	 * Replays the recording against a coffee maker using the given
+	 * inventory, whose levels are set to the recorded ones first.
+	 * @param inventory
+	 * @param mode
+	 * @return ReplayReport
+	 */
+	public ReplayReport run(Inventory inventory, ReplayMode mode) {
+		CoffeeMaker coffeeMaker = newCoffeeMaker(inventory);
+		List<CommandEvent> events = recording.getEvents();
+		LatencyHistogram latency = new LatencyHistogram();
+		List<ReplayReport.Divergence> divergences = new ArrayList<ReplayReport.Divergence>();
+		long divergenceCount = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < events.size(); i++) {
+			CommandEvent event = events.get(i);
+			if (mode == ReplayMode.REAL_TIME) {
+				long due = start + event.getTimeNanos();
+				long delay;
+				while ((delay = due - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(delay);
+				}
+			}
+			long before = System.nanoTime();
+			long[] actual;
+			if (event.getType() == CommandEvent.Type.BATCH) {
+				actual = batch(coffeeMaker, event, events.subList(i + 1, i + 1 + event.getAmount()));
+			} else {
+				actual = new long[] { apply(coffeeMaker, event) };
+			}
+			latency.record(System.nanoTime() - before);
+			for (int j = 0; j < actual.length; j++) {
+				if (actual[j] != events.get(i + j).getOutcome()) {
+					if (divergenceCount < MAX_DIVERGENCES) {
+						divergences.add(new ReplayReport.Divergence(i + j, events.get(i + j), actual[j]));
+					}
+					divergenceCount++;
+				}
+			}
+			i += actual.length - 1;
+		}
+		long elapsed = System.nanoTime() - start;
+		return new ReplayReport(events.size(), elapsed, latency.snapshot(), divergenceCount, divergences);
+	}
+
+	private CoffeeMaker newCoffeeMaker(Inventory inventory) {
+		int[] levels = recording.getLevels();
+		if (levels.length > inventory.getIngredients().size()) {
+			throw new IllegalArgumentException("Recording has " + levels.length + " ingredients, the inventory "
+					+ inventory.getIngredients().size());
+		}
+		RecipeBook recipeBook = new RecipeBook(recording.getMaxRecipes());
+		try {
+			for (int i = 0; i < levels.length; i++) {
+				inventory.setUnits(i, levels[i]);
+			}
+			recipeBook.addRecipes(recording.getRecipes());
+		} catch (InvalidValueException | AmountOfRecipeException | DuplicatedRecipeException e) {
+			throw new IllegalArgumentException("Recording starts from an invalid state", e);
+		}
+		return new CoffeeMaker(recipeBook, inventory);
+	}
+
+	/**
+	 * Returns a cash box like the one of a SET_CASH_BOX command,
+	 * or null if it removed the cash box.
+	 */
+	private static CashBox cashBox(CommandEvent event) {
+		int[] denominations = event.getDenominations();
+		if (denominations == null) {
+			return null;
+		}
+		int[] counts = event.getAmounts();
+		try {
+			CashBox box = new CashBox(denominations);
+			for (int k = 0; k < denominations.length; k++) {
+				box.addCoins(denominations[k], counts[k]);
+			}
+			return box;
+		} catch (InvalidValueException | IllegalArgumentException e) {
+			throw new IllegalArgumentException("Recording sets an invalid cash box", e);
+		}
+	}
+
+	/**
+	 * Runs a batch order and returns the outcome of the BATCH
+	 * command followed by that of each of its lines.
+	 */
+	private static long[] batch(CoffeeMaker coffeeMaker, CommandEvent event, List<CommandEvent> lines) {
+		List<OrderLine> order = new ArrayList<OrderLine>(lines.size());
+		for (CommandEvent line : lines) {
+			order.add(new OrderLine(line.getRecipeName(), line.getAmount()));
+		}
+		BatchResult result = coffeeMaker.makeCoffeeBatch(order, event.getMode());
+		long[] outcomes = new long[lines.size() + 1];
+		outcomes[0] = CommandEvent.ACCEPTED;
+		for (int j = 0; j < lines.size(); j++) {
+			outcomes[j + 1] = DispenseResult.encode(result.getStatus(j), result.getChange(j));
+		}
+		return outcomes;
+	}
+
+	/**
+	 * Runs one command and returns its outcome.
+	 */
+	private static long apply(CoffeeMaker coffeeMaker, CommandEvent event) {
+		switch (event.getType()) {
+			case ADD_RECIPE:
+				try {
+					return coffeeMaker.addRecipe(event.getRecipe()) ? CommandEvent.ACCEPTED : CommandEvent.REJECTED;
+				} catch (AmountOfRecipeException | DuplicatedRecipeException e) {
+					return CommandEvent.REJECTED;
+				}
+			case DELETE_RECIPE:
+				try {
+					return coffeeMaker.deleteRecipe(event.getRecipeName()) ? CommandEvent.ACCEPTED : CommandEvent.REJECTED;
+				} catch (RecipeException e) {
+					return CommandEvent.REJECTED;
+				}
+			case ADD_INVENTORY:
+				try {
+					coffeeMaker.addInventory(event.getIngredient(), event.getAmount());
+					return CommandEvent.ACCEPTED;
+				} catch (InvalidValueException e) {
+					return CommandEvent.REJECTED;
+				}
+			case HOLD_INGREDIENTS:
+				return coffeeMaker.holdIngredients(event.getAmounts()) ? CommandEvent.ACCEPTED : CommandEvent.REJECTED;
+			case RETURN_INGREDIENTS: {
+				long left = 0;
+				for (int units : coffeeMaker.returnIngredients(event.getAmounts())) {
+					left += units;
+				}
+				return left;
+			}
+			case SET_CASH_BOX:
+				coffeeMaker.setCashBox(cashBox(event));
+				return CommandEvent.ACCEPTED;
+			case ADD_COINS:
+				try {
+					coffeeMaker.addCoins(event.getDenominations()[0], event.getAmount());
+					return CommandEvent.ACCEPTED;
+				} catch (InvalidValueException e) {
+					return CommandEvent.REJECTED;
+				}
+			case REMOVE_COINS:
+				try {
+					coffeeMaker.removeCoins(event.getDenominations()[0], event.getAmount());
+					return CommandEvent.ACCEPTED;
+				} catch (InvalidValueException e) {
+					return CommandEvent.REJECTED;
+				}
+			case SETTLE: {
+				// the sale being paid, e.g. a hold, is not replayed: it commits as it did,
+				// or as it would have if its change had been there
+				DispenseStatus recorded = DispenseResult.status(event.getOutcome());
+				DispenseStatus committed = recorded == DispenseStatus.NO_CHANGE ? DispenseStatus.OK : recorded;
+				int change = DispenseResult.change(event.getOutcome());
+				DispenseStatus status = coffeeMaker.settle(event.getAmount(), change, () -> committed);
+				return DispenseResult.encode(status, change);
+			}
+			default:
+				return coffeeMaker.tryMakeCoffee(event.getRecipeName(), event.getAmount());
+		}
+	}
+}
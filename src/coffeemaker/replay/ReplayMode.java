@@ -0,0 +1,11 @@
+package coffeemaker.replay;
+
+/**
+ * How fast a {@link ReplayEngine} feeds the commands of a log.
+ */
+public enum ReplayMode {
+	/** Each command as soon as the previous one returns */
+	MAX_SPEED,
+	/** Each command at its recorded time since the start */
+	REAL_TIME
+}
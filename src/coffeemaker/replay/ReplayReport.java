@@ -0,0 +1,124 @@
+package coffeemaker.replay;
+
+import coffeemaker.metrics.HistogramSnapshot;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of replaying a command log: how long it took, the
+ * latency of each command and the commands whose outcome
+ * differed from the recorded one.
+ */
+public class ReplayReport {
+
+	private final int commands;
+	private final long elapsedNanos;
+	private final HistogramSnapshot latency;
+	private final long divergenceCount;
+	private final List<Divergence> divergences;
+
+	ReplayReport(int commands, long elapsedNanos, HistogramSnapshot latency, long divergenceCount,
+			List<Divergence> divergences) {
+		this.commands = commands;
+		this.elapsedNanos = elapsedNanos;
+		this.latency = latency;
+		this.divergenceCount = divergenceCount;
+		this.divergences = Collections.unmodifiableList(divergences);
+	}
+
+	/**
+	 * @return   Returns the number of commands replayed.
+	 */
+	public int getCommands() {
+		return commands;
+	}
+
+	/**
+	 * @return   Returns the time the replay took in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Returns the commands replayed per second.
+	 * @return double
+	 */
+	public double getThroughput() {
+		return elapsedNanos == 0 ? 0 : commands * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Returns the latency of the commands in nanoseconds.
+	 * @return HistogramSnapshot
+	 */
+	public HistogramSnapshot getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Returns the number of commands whose outcome differed.
+	 * @return long
+	 */
+	public long getDivergenceCount() {
+		return divergenceCount;
+	}
+
+	/**
+	 * Returns the first {@link ReplayEngine#MAX_DIVERGENCES}
+	 * commands whose outcome differed, in log order.
+	 * @return List
+	 */
+	public List<Divergence> getDivergences() {
+		return divergences;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d commands in %.1f ms, %.0f commands/s, latency %s, %d divergences", commands,
+				elapsedNanos / 1e6, getThroughput(), latency, divergenceCount);
+	}
+
+	/**
+	 * A replayed command whose outcome differed from the recorded one.
+	 */
+	public static final class Divergence {
+		private final int index;
+		private final CommandEvent event;
+		private final long actual;
+
+		Divergence(int index, CommandEvent event, long actual) {
+			this.index = index;
+			this.event = event;
+			this.actual = actual;
+		}
+
+		/**
+		 * @return   Returns the position of the command in the log.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return   Returns the recorded command and outcome.
+		 */
+		public CommandEvent getEvent() {
+			return event;
+		}
+
+		/**
+		 * @return   Returns the outcome of the replayed command.
+		 */
+		public long getActual() {
+			return actual;
+		}
+
+		@Override
+		public String toString() {
+			return "#" + index + " " + event + ": expected " + event.describeOutcome(event.getOutcome())
+					+ ", got " + event.describeOutcome(actual);
+		}
+	}
+}
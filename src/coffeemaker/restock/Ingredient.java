@@ -0,0 +1,24 @@
+package coffeemaker.restock;
+
+import coffeemaker.CoffeeMaker;
+import coffeemaker.exceptions.InvalidValueException;
+
+/**
+ * Ingredients of the coffee maker inventory.
+ */
+public enum Ingredient {
+	COFFEE,
+	MILK,
+	SUGAR,
+	CHOCOLATE;
+
+	/**
+	 * Adds units of this ingredient to the coffee maker.
+	 * @param coffeeMaker
+	 * @param units
+	 * @throws InvalidValueException
+	 */
+	public void add(CoffeeMaker coffeeMaker, int units) throws InvalidValueException {
+		coffeeMaker.addInventory(ordinal(), units);
+	}
+}
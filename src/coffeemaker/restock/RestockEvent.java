@@ -0,0 +1,100 @@
+package coffeemaker.restock;
+
+/**
+ * Forecast that an ingredient runs out soon, and what was
+ * done about it.
+ */
+public class RestockEvent {
+
+	private final int index;
+	private final String name;
+	private final Ingredient ingredient;
+	private final int level;
+	private final double unitsPerSecond;
+	private final double secondsToEmpty;
+	private final int requested;
+	private final int delivered;
+	private final int surplus;
+
+	RestockEvent(int index, String name, Ingredient ingredient, int level, double unitsPerSecond,
+			double secondsToEmpty, int requested, int delivered, int surplus) {
+		this.index = index;
+		this.name = name;
+		this.ingredient = ingredient;
+		this.level = level;
+		this.unitsPerSecond = unitsPerSecond;
+		this.secondsToEmpty = secondsToEmpty;
+		this.requested = requested;
+		this.delivered = delivered;
+		this.surplus = surplus;
+	}
+
+	/**
+	 * @return   Returns the standard ingredient, null for one added to the registry.
+	 */
+	public Ingredient getIngredient() {
+		return ingredient;
+	}
+
+	/**
+	 * @return   Returns the registry index of the ingredient.
+	 */
+	public int getIngredientIndex() {
+		return index;
+	}
+
+	/**
+	 * @return   Returns the registry name of the ingredient.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return   Returns the units in the inventory when the forecast was made.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return   Returns the smoothed consumption rate.
+	 */
+	public double getUnitsPerSecond() {
+		return unitsPerSecond;
+	}
+
+	/**
+	 * @return   Returns the forecast seconds until the ingredient runs out.
+	 */
+	public double getSecondsToEmpty() {
+		return secondsToEmpty;
+	}
+
+	/**
+	 * @return   Returns the units that fill the inventory up to its cap.
+	 */
+	public int getRequested() {
+		return requested;
+	}
+
+	/**
+	 * @return   Returns the units added to the inventory, 0 without a supplier.
+	 */
+	public int getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * @return   Returns the units the supplier delivered that did not fit in the inventory.
+	 */
+	public int getSurplus() {
+		return surplus;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s level=%d rate=%.3f/s empty in %.1fs requested=%d delivered=%d surplus=%d",
+				name, level, unitsPerSecond, secondsToEmpty, requested, delivered, surplus);
+	}
+}
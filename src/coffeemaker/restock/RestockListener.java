@@ -0,0 +1,14 @@
+package coffeemaker.restock;
+
+/**
+ * Receives the restock events of a {@link RestockScheduler}.
+ */
+public interface RestockListener {
+
+	/**
+	 * Called when an ingredient is forecast to run out within the
+	 * lead time of the scheduler, after any supplier delivery.
+	 * @param event
+	 */
+	void restockNeeded(RestockEvent event);
+}
@@ -0,0 +1,278 @@
+package coffeemaker.restock;
+
+import coffeemaker.CoffeeMaker;
+import coffeemaker.IngredientRegistry;
+import coffeemaker.exceptions.InvalidValueException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Restocks a coffee maker before an ingredient runs out.
+ *
+ * Every {@link #tick()} reads the levels of every ingredient of the
+ * inventory's registry, takes the drop
+ * since the previous tick as the units consumed, and folds the
+ * consumption rate into an exponentially weighted moving average
+ * with the given smoothing time. When the level divided by the
+ * rate, the forecast time to empty, falls within the lead time,
+ * the scheduler orders enough units from its supplier to fill the
+ * ingredient up to its registry capacity, adds them with
+ * {@link CoffeeMaker#addInventory(int, int)} and notifies the
+ * listeners. Units delivered that no longer fit, because of a
+ * refill made meanwhile or a supplier sending more than asked, are
+ * reported as the surplus of the event and counted. Without a
+ * supplier the listeners are notified once per shortage.
+ *
+ * A refill made by someone else shows up as a rise in the level,
+ * which counts as no consumption for that tick.
+ *
+ * The clock is pluggable: {@link SimulatedClock} with tick() called
+ * by hand gives deterministic runs, {@link #start(long, TimeUnit)}
+ * ticks on a background thread with the system clock.
+ */
+public class RestockScheduler implements AutoCloseable {
+
+	private static final Ingredient[] STANDARD = Ingredient.values();
+	private static final long NO_TICK = Long.MIN_VALUE;
+
+	private final CoffeeMaker coffeeMaker;
+	private final IngredientRegistry ingredients;
+	private final LongSupplier clock;
+	private final double smoothingNanos;
+	private final long leadTimeNanos;
+	private final List<RestockListener> listeners = new CopyOnWriteArrayList<>();
+	private volatile RestockSupplier supplier;
+
+	private final int[] lastLevel;
+	/** Smoothed consumption in units per second */
+	private final double[] rate;
+	/** Shortages already reported to the listeners without a supplier */
+	private final boolean[] reported;
+	/** Units delivered that did not fit */
+	private final long[] surplus;
+	private long lastTick = NO_TICK;
+	private ScheduledExecutorService timer;
+
+	/**
+	 * Creates a scheduler for the coffee maker on the system clock.
+	 * @param coffeeMaker
+	 * @param smoothing time over which older consumption fades out
+	 * @param leadTime how long before running out to restock
+	 * @param unit
+	 */
+	public RestockScheduler(CoffeeMaker coffeeMaker, long smoothing, long leadTime, TimeUnit unit) {
+		this(coffeeMaker, System::nanoTime, smoothing, leadTime, unit);
+	}
+
+	/**
+	 * Creates a scheduler for the coffee maker on the given
+	 * nanosecond clock, e.g. a {@link SimulatedClock}.
+	 * @param coffeeMaker
+	 * @param clock
+	 * @param smoothing time over which older consumption fades out
+	 * @param leadTime how long before running out to restock
+	 * @param unit
+	 */
+	public RestockScheduler(CoffeeMaker coffeeMaker, LongSupplier clock, long smoothing, long leadTime, TimeUnit unit) {
+		if (smoothing <= 0 || leadTime < 0) {
+			throw new IllegalArgumentException("Smoothing must be positive and lead time not negative");
+		}
+		this.coffeeMaker = coffeeMaker;
+		this.ingredients = coffeeMaker.getIngredients();
+		int n = ingredients.size();
+		this.lastLevel = new int[n];
+		this.rate = new double[n];
+		this.reported = new boolean[n];
+		this.surplus = new long[n];
+		this.clock = clock;
+		this.smoothingNanos = unit.toNanos(smoothing);
+		this.leadTimeNanos = unit.toNanos(leadTime);
+	}
+
+	/**
+	 * Sets the supplier restocks are ordered from; null only
+	 * notifies the listeners.
+	 * @param supplier
+	 */
+	public void setSupplier(RestockSupplier supplier) {
+		this.supplier = supplier;
+	}
+
+	public void addListener(RestockListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(RestockListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Samples the inventory, updates the consumption rates and
+	 * restocks the ingredients forecast to run out within the
+	 * lead time. The first tick only records the levels.
+	 */
+	public synchronized void tick() {
+		long now = clock.getAsLong();
+		if (lastTick == NO_TICK) {
+			for (int i = 0; i < lastLevel.length; i++) {
+				lastLevel[i] = coffeeMaker.checkInventory(i);
+			}
+			lastTick = now;
+			return;
+		}
+		long elapsed = now - lastTick;
+		if (elapsed <= 0) {
+			return;
+		}
+		double alpha = 1 - Math.exp(-elapsed / smoothingNanos);
+		for (int i = 0; i < lastLevel.length; i++) {
+			int level = coffeeMaker.checkInventory(i);
+			double used = Math.max(0, lastLevel[i] - level);
+			rate[i] += alpha * (used * TimeUnit.SECONDS.toNanos(1) / elapsed - rate[i]);
+			lastLevel[i] = level + restockIfNeeded(i, level);
+		}
+		lastTick = now;
+	}
+
+	/**
+	 * Restocks the ingredient if it runs out within the lead
+	 * time and returns the units added.
+	 */
+	private int restockIfNeeded(int i, int level) {
+		double secondsToEmpty = secondsToEmpty(level, rate[i]);
+		int requested = ingredients.getCapacity(i) - level;
+		if (secondsToEmpty * TimeUnit.SECONDS.toNanos(1) > leadTimeNanos || requested <= 0) {
+			reported[i] = false;
+			return 0;
+		}
+		RestockSupplier s = supplier;
+		int delivered = 0;
+		int extra = 0;
+		if (s != null) {
+			int units = Math.max(s.deliver(i, ingredients.getName(i), requested), 0);
+			delivered = add(i, units);
+			extra = units - delivered;
+			surplus[i] += extra;
+		} else if (reported[i]) {
+			return 0;
+		}
+		reported[i] = s == null;
+		RestockEvent event = new RestockEvent(i, ingredients.getName(i), i < STANDARD.length ? STANDARD[i] : null,
+				level, rate[i], secondsToEmpty, requested, delivered, extra);
+		for (RestockListener listener : listeners) {
+			listener.restockNeeded(event);
+		}
+		return delivered;
+	}
+
+	/**
+	 * Adds the delivered units, fewer if they do not all fit below
+	 * the capacity, and returns the units added.
+	 */
+	private int add(int i, int units) {
+		units = Math.min(units, ingredients.getCapacity(i) - coffeeMaker.checkInventory(i));
+		for (int attempt = 0; attempt < 2 && units > 0; attempt++) {
+			try {
+				coffeeMaker.addInventory(i, units);
+				return units;
+			} catch (InvalidValueException e) {
+				// refilled meanwhile
+				units = Math.min(units, ingredients.getCapacity(i) - coffeeMaker.checkInventory(i));
+			}
+		}
+		return 0;
+	}
+
+	private static double secondsToEmpty(int level, double unitsPerSecond) {
+		return unitsPerSecond > 0 ? level / unitsPerSecond : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Returns the smoothed consumption rate of the ingredient.
+	 * @param ingredient
+	 * @return double units per second
+	 */
+	public double getUnitsPerSecond(Ingredient ingredient) {
+		return getUnitsPerSecond(ingredient.ordinal());
+	}
+
+	/**
+	 * Returns the smoothed consumption rate of the ingredient at
+	 * the registry index.
+	 * @param ingredient
+	 * @return double units per second
+	 */
+	public synchronized double getUnitsPerSecond(int ingredient) {
+		return rate[ingredient];
+	}
+
+	/**
+	 * Returns the forecast seconds until the ingredient runs out
+	 * as of the last tick, infinite if it is not being used.
+	 * @param ingredient
+	 * @return double
+	 */
+	public double getSecondsToEmpty(Ingredient ingredient) {
+		return getSecondsToEmpty(ingredient.ordinal());
+	}
+
+	/**
+	 * Returns the forecast seconds until the ingredient at the
+	 * registry index runs out as of the last tick.
+	 * @param ingredient
+	 * @return double
+	 */
+	public synchronized double getSecondsToEmpty(int ingredient) {
+		return secondsToEmpty(lastLevel[ingredient], rate[ingredient]);
+	}
+
+	/**
+	 * Returns the units of the ingredient at the registry index
+	 * that the supplier delivered and that did not fit.
+	 * @param ingredient
+	 * @return long
+	 */
+	public synchronized long getSurplus(int ingredient) {
+		return surplus[ingredient];
+	}
+
+	/**
+	 * Ticks every period on a background thread.
+	 * @param period
+	 * @param unit
+	 */
+	public synchronized void start(long period, TimeUnit unit) {
+		if (timer != null) {
+			throw new IllegalStateException("Restock scheduler already started");
+		}
+		timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "restock-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.scheduleAtFixedRate(() -> {
+			try {
+				tick();
+			} catch (RuntimeException e) {
+				// a failing supplier or listener must not stop later ticks
+				e.printStackTrace();
+			}
+		}, 0, period, unit);
+	}
+
+	/**
+	 * Stops the background ticks.
+	 */
+	@Override
+	public synchronized void close() {
+		if (timer != null) {
+			timer.shutdownNow();
+			timer = null;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package coffeemaker.restock;
+
+/**
+ * Source of ingredients the {@link RestockScheduler} orders from.
+ */
+public interface RestockSupplier {
+
+	/**
+	 * Delivers up to the requested units of the ingredient and
+	 * returns how many were delivered.
+	 * @param ingredient
+	 * @param requested
+	 * @return int
+	 */
+	int deliver(Ingredient ingredient, int requested);
+
+	/**
+	 * Delivers up to the requested units of the ingredient at the
+	 * registry index and returns how many were delivered. By
+	 * default the four standard ingredients are delivered by
+	 * {@link #deliver(Ingredient, int)} and no others.
+	 * @param ingredient registry index
+	 * @param name registry name of the ingredient
+	 * @param requested
+	 * @return int
+	 */
+	default int deliver(int ingredient, String name, int requested) {
+		return ingredient < Ingredient.values().length ? deliver(Ingredient.values()[ingredient], requested) : 0;
+	}
+}
@@ -0,0 +1,32 @@
+package coffeemaker.restock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Nanosecond clock that only moves when told to, for driving a
+ * {@link RestockScheduler} deterministically in tests and
+ * simulations.
+ */
+public class SimulatedClock implements LongSupplier {
+
+	private final AtomicLong nanos = new AtomicLong();
+
+	/**
+	 * Moves the clock forward.
+	 * @param amount
+	 * @param unit
+	 */
+	public void advance(long amount, TimeUnit unit) {
+		if (amount < 0) {
+			throw new IllegalArgumentException("The clock cannot go back");
+		}
+		nanos.addAndGet(unit.toNanos(amount));
+	}
+
+	@Override
+	public long getAsLong() {
+		return nanos.get();
+	}
+}
@@ -0,0 +1,116 @@
+package coffeemaker.server;
+
+import coffeemaker.CoffeeMaker;
+import coffeemaker.DispenseResult;
+import coffeemaker.Recipe;
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.exceptions.RecipeException;
+
+/**
+ * Line based order protocol of the {@link OrderServer}.
+ *
+ * Every request is one line and gets one response line, either
+ * "OK ..." or "ERR ...". Recipe names may contain spaces, so they
+ * always come last on the line.
+ *
+ * <pre>
+ * MAKE_COFFEE amtPaid name        OK change | ERR status change
+ * ADD_RECIPE price coffee milk sugar chocolate name
+ * DELETE_RECIPE name
+ * ADD_INVENTORY coffee|milk|sugar|chocolate amount
+ * INVENTORY                       OK coffee milk sugar chocolate
+ * RECIPES                         OK name;name;...
+ * QUIT
+ * </pre>
+ */
+public class OrderProtocol {
+
+	/** Response to QUIT, after which the connection is closed */
+	public static final String BYE = "BYE";
+
+	private final CoffeeMaker coffeeMaker;
+
+	public OrderProtocol(CoffeeMaker coffeeMaker) {
+		this.coffeeMaker = coffeeMaker;
+	}
+
+	/**
+	 * Executes one request line and returns the response line.
+	 * @param line
+	 * @return String
+	 */
+	public String handle(String line) {
+		String[] parts = line.trim().split(" ", 2);
+		String args = parts.length > 1 ? parts[1].trim() : "";
+		try {
+			switch (parts[0]) {
+				case "MAKE_COFFEE":
+					return makeCoffee(args);
+				case "ADD_RECIPE":
+					return addRecipe(args);
+				case "DELETE_RECIPE":
+					coffeeMaker.deleteRecipe(args);
+					return "OK";
+				case "ADD_INVENTORY":
+					return addInventory(args);
+				case "INVENTORY":
+					return "OK " + coffeeMaker.checkCoffeeInventory() + " " + coffeeMaker.checkMilkInventory()
+							+ " " + coffeeMaker.checkSugarInventory() + " " + coffeeMaker.checkChocolateInventory();
+				case "RECIPES":
+					StringBuilder names = new StringBuilder("OK ");
+					for (Recipe r : coffeeMaker.getRecipes()) {
+						names.append(r.getName()).append(';');
+					}
+					return names.toString();
+				case "QUIT":
+					return BYE;
+				default:
+					return "ERR Unknown command";
+			}
+		} catch (NumberFormatException e) {
+			return "ERR Invalid number";
+		} catch (InvalidValueException | AmountOfRecipeException | DuplicatedRecipeException | RecipeException e) {
+			return "ERR " + e.getMessage();
+		}
+	}
+
+	private String makeCoffee(String args) {
+		String[] fields = args.split(" ", 2);
+		if (fields.length < 2) {
+			return "ERR Usage: MAKE_COFFEE amtPaid name";
+		}
+		long result = coffeeMaker.tryMakeCoffee(fields[1], Integer.parseInt(fields[0]));
+		if (DispenseResult.isOk(result)) {
+			return "OK " + DispenseResult.change(result);
+		}
+		return "ERR " + DispenseResult.status(result) + " " + DispenseResult.change(result);
+	}
+
+	private String addRecipe(String args) throws InvalidValueException, AmountOfRecipeException, DuplicatedRecipeException {
+		String[] fields = args.split(" ", 6);
+		if (fields.length < 6) {
+			return "ERR Usage: ADD_RECIPE price coffee milk sugar chocolate name";
+		}
+		coffeeMaker.addRecipe(new Recipe(fields[5], Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+				Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+		return "OK";
+	}
+
+	private String addInventory(String args) throws InvalidValueException {
+		String[] fields = args.split(" ");
+		if (fields.length != 2) {
+			return "ERR Usage: ADD_INVENTORY ingredient amount";
+		}
+		int amount = Integer.parseInt(fields[1]);
+		switch (fields[0]) {
+			case "coffee": coffeeMaker.addCoffeeInventory(amount); break;
+			case "milk": coffeeMaker.addMilkInventory(amount); break;
+			case "sugar": coffeeMaker.addSugarInventory(amount); break;
+			case "chocolate": coffeeMaker.addChocolateInventory(amount); break;
+			default: return "ERR Unknown ingredient";
+		}
+		return "OK";
+	}
+}
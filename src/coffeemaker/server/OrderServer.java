@@ -0,0 +1,363 @@
+package coffeemaker.server;
+
+import coffeemaker.CoffeeMaker;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP order intake server in front of a {@link CoffeeMaker}.
+ *
+ * All connections are served by one thread multiplexing them on a
+ * NIO selector and speaking the {@link OrderProtocol}, so an idle
+ * connection costs a socket and a few dozen bytes of heap rather
+ * than a thread. Reads go through one buffer shared by all
+ * connections; a connection only keeps the bytes of a line not yet
+ * complete and the response not yet written. Requests are handled
+ * on the selector thread in the order they arrive, so a coffee
+ * maker that blocks, e.g. on a journal fsync, slows every
+ * connection and is better put behind an OrderPipeline.
+ *
+ * A request line longer than {@link #MAX_LINE} bytes is answered
+ * with an error and the connection closed. A request the coffee
+ * maker fails with an unchecked exception, e.g. a journal that
+ * cannot be written, is answered with an error and logged, and
+ * the connection goes on. When accept fails, e.g.
+ * because the process is out of file descriptors, the server stops
+ * accepting for a while, doubling the pause on every failure up to
+ * a second, instead of retrying at once.
+ *
+ * Usage: OrderServer [port]
+ */
+public class OrderServer implements AutoCloseable {
+
+	/** Most bytes of a request line, without the line feed */
+	public static final int MAX_LINE = 1024;
+	/** Response to a request line longer than MAX_LINE */
+	static final String LINE_TOO_LONG = "ERR Line too long";
+	/** Size of the read buffer shared by all connections */
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+	/** First and longest pause of accepting after a failure */
+	private static final long MIN_ACCEPT_PAUSE_MILLIS = 10;
+	private static final long MAX_ACCEPT_PAUSE_MILLIS = 1000;
+
+	private final CoffeeMaker coffeeMaker;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong acceptFailures = new AtomicLong();
+	private final Thread loop;
+	private volatile int openConnections;
+	private volatile boolean running = true;
+	/** Pause of accepting after the last failure, 0 after a success; selector thread only */
+	private long acceptPause;
+	/** Time accepting resumes, 0 if accepting */
+	private long acceptResume;
+
+	/**
+	 * Starts a server for the coffee maker on the given port of
+	 * the loopback address; port 0 picks a free port.
+	 * @param coffeeMaker
+	 * @param port
+	 * @throws IOException
+	 */
+	public OrderServer(CoffeeMaker coffeeMaker, int port) throws IOException {
+		this.coffeeMaker = coffeeMaker;
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			serverChannel.close();
+			selector.close();
+			throw e;
+		}
+		this.loop = new Thread(this::selectLoop, "order-server");
+		loop.start();
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 * @return int
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Returns the number of connections currently open.
+	 * @return int
+	 */
+	public int getOpenConnections() {
+		return openConnections;
+	}
+
+	/**
+	 * Returns the number of connections accepted so far.
+	 * @return long
+	 */
+	public long getAcceptedConnections() {
+		return accepted.get();
+	}
+
+	/**
+	 * Returns the number of times accepting a connection failed.
+	 * @return long
+	 */
+	public long getAcceptFailures() {
+		return acceptFailures.get();
+	}
+
+	private void selectLoop() {
+		try {
+			while (running) {
+				long timeout = 0;
+				if (acceptResume > 0) {
+					timeout = acceptResume - System.currentTimeMillis();
+					if (timeout <= 0) {
+						serverChannel.keyFor(selector).interestOps(SelectionKey.OP_ACCEPT);
+						acceptResume = 0;
+						timeout = 0;
+					}
+				}
+				selector.select(timeout);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept(key);
+					} else {
+						serve(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			// the selector itself failed, nothing more can be served
+			e.printStackTrace();
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				closeQuietly(key);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void accept(SelectionKey key) {
+		while (true) {
+			SocketChannel channel;
+			try {
+				channel = serverChannel.accept();
+			} catch (IOException e) {
+				pauseAccepting(key, e);
+				return;
+			}
+			if (channel == null) {
+				acceptPause = 0;
+				return;
+			}
+			try {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				channel.register(selector, SelectionKey.OP_READ, new Connection(new OrderProtocol(coffeeMaker)));
+				accepted.incrementAndGet();
+				openConnections++;
+			} catch (IOException e) {
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+					// already failed
+				}
+			}
+		}
+	}
+
+	private void pauseAccepting(SelectionKey key, IOException e) {
+		if (acceptFailures.incrementAndGet() == 1 || acceptPause == MAX_ACCEPT_PAUSE_MILLIS) {
+			e.printStackTrace();
+		}
+		acceptPause = acceptPause == 0 ? MIN_ACCEPT_PAUSE_MILLIS : Math.min(2 * acceptPause, MAX_ACCEPT_PAUSE_MILLIS);
+		acceptResume = System.currentTimeMillis() + acceptPause;
+		key.interestOps(0);
+	}
+
+	private void serve(SelectionKey key) {
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+		try {
+			if (key.isWritable() && !connection.flush(channel)) {
+				return;
+			}
+			if (connection.closing) {
+				closeQuietly(key);
+				return;
+			}
+			if (key.isReadable()) {
+				readBuffer.clear();
+				int n = channel.read(readBuffer);
+				if (n < 0) {
+					closeQuietly(key);
+					return;
+				}
+				readBuffer.flip();
+				connection.read(readBuffer);
+				if (!connection.flush(channel)) {
+					// stop reading until the client takes the responses
+					key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+				if (connection.closing) {
+					closeQuietly(key);
+					return;
+				}
+			}
+			key.interestOps(SelectionKey.OP_READ);
+		} catch (IOException e) {
+			// client went away
+			closeQuietly(key);
+		}
+	}
+
+	private void closeQuietly(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// nothing left to do with it
+		}
+		if (key.attachment() instanceof Connection) {
+			key.attach(null);
+			openConnections--;
+		}
+	}
+
+	/**
+	 * Stops accepting connections, closes the open ones and waits
+	 * for the selector thread to finish.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		try {
+			loop.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		serverChannel.close();
+	}
+
+	/**
+	 * State of one connection: the start of a request line not yet
+	 * complete and the responses not yet written.
+	 */
+	private static final class Connection {
+		private final OrderProtocol protocol;
+		private byte[] partial;
+		private int partialLength;
+		private ByteBuffer pending;
+		/** True once BYE or a line too long was answered */
+		private boolean closing;
+
+		Connection(OrderProtocol protocol) {
+			this.protocol = protocol;
+		}
+
+		/** Handles the complete lines in the bytes read, keeping the rest */
+		void read(ByteBuffer bytes) {
+			while (bytes.hasRemaining() && !closing) {
+				int start = bytes.position();
+				int end = start;
+				while (end < bytes.limit() && bytes.get(end) != '\n') {
+					end++;
+				}
+				int length = end - start;
+				if (partialLength + length > MAX_LINE) {
+					respond(LINE_TOO_LONG);
+					closing = true;
+					return;
+				}
+				if (end == bytes.limit()) {
+					append(bytes, length);
+					return;
+				}
+				append(bytes, length);
+				bytes.get();
+				String line = new String(partial, 0, partialLength, StandardCharsets.UTF_8);
+				partialLength = 0;
+				partial = null;
+				String response;
+				try {
+					response = protocol.handle(line);
+				} catch (RuntimeException e) {
+					// the coffee maker failed this request, not the connection
+					e.printStackTrace();
+					response = "ERR " + e.getMessage();
+				}
+				respond(response);
+				closing = OrderProtocol.BYE.equals(response);
+			}
+		}
+
+		private void append(ByteBuffer bytes, int length) {
+			if (partial == null) {
+				partial = new byte[Math.min(MAX_LINE, Math.max(64, length))];
+			} else if (partialLength + length > partial.length) {
+				partial = Arrays.copyOf(partial, Math.min(MAX_LINE, Math.max(2 * partial.length, partialLength + length)));
+			}
+			bytes.get(partial, partialLength, length);
+			partialLength += length;
+		}
+
+		private void respond(String response) {
+			byte[] line = (response + "\n").getBytes(StandardCharsets.UTF_8);
+			if (pending == null || !pending.hasRemaining()) {
+				pending = ByteBuffer.wrap(line);
+			} else {
+				ByteBuffer more = ByteBuffer.allocate(pending.remaining() + line.length);
+				more.put(pending).put(line).flip();
+				pending = more;
+			}
+		}
+
+		/** Writes the pending responses, returns false if some are left */
+		boolean flush(SocketChannel channel) throws IOException {
+			if (pending == null) {
+				return true;
+			}
+			channel.write(pending);
+			if (pending.hasRemaining()) {
+				return false;
+			}
+			pending = null;
+			return true;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8777;
+		OrderServer server = new OrderServer(new CoffeeMaker(), port);
+		System.out.println("Order server listening on port " + server.getPort());
+		server.loop.join();
+	}
+}
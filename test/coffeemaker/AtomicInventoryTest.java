@@ -0,0 +1,89 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.InvalidValueException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AtomicInventoryTest {
+
+    private AtomicInventory inventory;
+    private Recipe coffee;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        inventory = new AtomicInventory();
+        coffee = new Recipe("Coffee", 50, 4, 0, 1, 0);
+    }
+
+    @Test
+    public void testInitialInventory() {
+        assertEquals(20, inventory.getCoffee());
+        assertEquals(20, inventory.getMilk());
+        assertEquals(20, inventory.getSugar());
+        assertEquals(20, inventory.getChocolate());
+    }
+
+    @Test
+    public void testAddUpToLimit() throws InvalidValueException {
+        inventory.addMilk(80);
+        assertEquals(100, inventory.getMilk());
+        assertEquals(20, inventory.getCoffee());
+        assertThrows(InvalidValueException.class, () -> inventory.addMilk(1));
+    }
+
+    @Test
+    public void testAddNegativeOrHugeValue() {
+        assertThrows(InvalidValueException.class, () -> inventory.addSugar(-1));
+        assertThrows(InvalidValueException.class, () -> inventory.addSugar(Integer.MAX_VALUE));
+        assertEquals(20, inventory.getSugar());
+    }
+
+    @Test
+    public void testSetOutOfRange() throws InvalidValueException {
+        inventory.setChocolate(0);
+        assertEquals(0, inventory.getChocolate());
+        assertThrows(InvalidValueException.class, () -> inventory.setChocolate(101));
+        assertThrows(InvalidValueException.class, () -> inventory.setChocolate(-1));
+    }
+
+    @Test
+    public void testUseIngredientsUntilEmpty() {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(inventory.useIngredients(coffee));
+        }
+        assertFalse(inventory.useIngredients(coffee));
+        assertEquals(0, inventory.getCoffee());
+        assertEquals(15, inventory.getSugar());
+    }
+
+    @Test
+    public void testConcurrentUseNeverGoesNegative() throws Exception {
+        inventory.setCoffee(100);
+        inventory.setSugar(100);
+        List<Thread> threads = new ArrayList<>();
+        int[] made = new int[4];
+        for (int t = 0; t < made.length; t++) {
+            final int id = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (inventory.useIngredients(coffee)) {
+                        made[id]++;
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(25, made[0] + made[1] + made[2] + made[3]);
+        assertEquals(0, inventory.getCoffee());
+        assertEquals(75, inventory.getSugar());
+    }
+}
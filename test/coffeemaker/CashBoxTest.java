@@ -0,0 +1,209 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.exceptions.NoChangeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CashBoxTest {
+
+    private CashBox box;
+    private CoffeeMaker CM;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        box = new CashBox(5, 10, 25, 50, 100);
+        CM = new CoffeeMaker();
+        CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        CM.addRecipe(new Recipe("Latte", 65, 3, 2, 1, 0));
+        CM.setCashBox(box);
+    }
+
+    /** Fewest coins making the amount, by trying every combination */
+    private static int bruteForce(int[] values, int[] counts, int k, int amount) {
+        if (amount == 0) {
+            return 0;
+        }
+        if (k == values.length) {
+            return CashBox.NO_CHANGE;
+        }
+        int best = CashBox.NO_CHANGE;
+        for (int c = 0; c <= counts[k] && c * values[k] <= amount; c++) {
+            int rest = bruteForce(values, counts, k + 1, amount - c * values[k]);
+            if (rest != CashBox.NO_CHANGE && (best == CashBox.NO_CHANGE || rest + c < best)) {
+                best = rest + c;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void testFewestCoinsWithinCounts() throws Exception {
+        box.addCoins(25, 3);
+        box.addCoins(10, 3);
+        // greedy would take 25 and be stuck with 5
+        assertEquals(3, box.minCoins(30));
+        int[] coins = box.makeChange(30);
+        assertArrayEquals(new int[] {0, 0, 0, 3, 0}, coins);
+        assertEquals(0, box.getCount(10));
+        assertEquals(3, box.getCount(25));
+        assertEquals(CashBox.NO_CHANGE, box.minCoins(30));
+        assertNull(box.makeChange(30));
+        assertEquals(75, box.getTotal());
+        assertEquals(0, box.minCoins(0));
+    }
+
+    @Test
+    public void testMatchesBruteForce() throws Exception {
+        int[] values = {7, 5, 3, 2};
+        CashBox odd = new CashBox(2, 3, 5, 7);
+        Random random = new Random(23);
+        int[] counts = new int[values.length];
+        for (int round = 0; round < 50; round++) {
+            int k = random.nextInt(values.length);
+            int delta = random.nextInt(5);
+            if (random.nextBoolean() && counts[k] >= delta) {
+                odd.removeCoins(values[k], delta);
+                counts[k] -= delta;
+            } else {
+                odd.addCoins(values[k], delta);
+                counts[k] += delta;
+            }
+            for (int amount = 0; amount <= 60; amount++) {
+                assertEquals(bruteForce(values, counts, 0, amount), odd.minCoins(amount), "amount " + amount);
+            }
+            int amount = random.nextInt(40);
+            int[] coins = odd.makeChange(amount);
+            if (coins != null) {
+                int paid = 0;
+                for (int i = 0; i < values.length; i++) {
+                    paid += coins[i] * values[i];
+                    counts[i] -= coins[i];
+                    assertTrue(counts[i] >= 0);
+                    assertEquals(counts[i], odd.getCount(values[i]));
+                }
+                assertEquals(amount, paid);
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidDenominationsAndCounts() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> new CashBox(5, 5));
+        assertThrows(IllegalArgumentException.class, () -> new CashBox(0, 5));
+        assertThrows(IllegalArgumentException.class, () -> box.addCoins(3, 1));
+        assertThrows(InvalidValueException.class, () -> box.addCoins(5, -1));
+        assertThrows(InvalidValueException.class, () -> box.removeCoins(5, 1));
+        assertEquals(CashBox.NO_CHANGE, box.minCoins(CashBox.MAX_CHANGE + 5));
+        assertArrayEquals(new int[] {100, 50, 25, 10, 5}, box.getDenominations());
+    }
+
+    @Test
+    public void testSaleWithoutChangeUsesNothing() throws Exception {
+        NoChangeException exception = assertThrows(NoChangeException.class, () -> CM.makeCoffee("Coffee", 75));
+        assertEquals("Cannot give change, please pay the exact amount", exception.getMessage());
+        assertEquals(20, CM.checkCoffeeInventory());
+        // exact payment needs no change
+        assertEquals(0, CM.makeCoffee("Coffee", 50));
+        assertEquals(16, CM.checkCoffeeInventory());
+
+        box.addCoins(25, 1);
+        assertEquals(25, CM.makeCoffee("Coffee", 75));
+        // the 25 went out as change, the payment brought a 50 and a 25
+        assertEquals(1, box.getCount(25));
+        assertEquals(2, box.getCount(50));
+        assertEquals(12, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testOutOfStockKeepsTheCoins() throws Exception {
+        box.addCoins(10, 5);
+        for (int i = 0; i < 6; i++) {
+            CM.makeCoffee("Latte", 65);
+        }
+        assertEquals(2, CM.checkCoffeeInventory());
+        long total = box.getTotal();
+        long result = CM.tryMakeCoffee("Latte", 75);
+        assertEquals(DispenseStatus.OUT_OF_STOCK, DispenseResult.status(result));
+        assertEquals(75, DispenseResult.change(result));
+        assertEquals(total, box.getTotal());
+    }
+
+    @Test
+    public void testAllOrNothingBatchNeedsEveryChange() throws Exception {
+        box.addCoins(25, 1);
+        BatchResult result = CM.makeCoffeeBatch(Arrays.asList(new OrderLine("Coffee", 75), new OrderLine("Coffee", 75)));
+        assertEquals(DispenseStatus.NO_CHANGE, result.getStatus(0));
+        assertEquals(DispenseStatus.NO_CHANGE, result.getStatus(1));
+        assertEquals(75, result.getChange(1));
+        assertEquals(1, box.getCount(25));
+        assertEquals(20, CM.checkCoffeeInventory());
+
+        box.addCoins(25, 1);
+        result = CM.makeCoffeeBatch(Arrays.asList(new OrderLine("Coffee", 75), new OrderLine("Coffee", 75)));
+        assertEquals(DispenseStatus.OK, result.getStatus(1));
+        assertEquals(25, result.getChange(0));
+        // both 25s went out as change, the payments brought two more
+        assertEquals(2, box.getCount(25));
+        assertEquals(12, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testBestEffortBatchDropsLinesWithoutChange() throws Exception {
+        box.addCoins(25, 1);
+        BatchResult result = CM.makeCoffeeBatch(Arrays.asList(new OrderLine("Coffee", 75),
+                new OrderLine("Coffee", 75), new OrderLine("Coffee", 50)), BatchMode.BEST_EFFORT);
+        assertEquals(DispenseStatus.OK, result.getStatus(0));
+        assertEquals(DispenseStatus.NO_CHANGE, result.getStatus(1));
+        assertEquals(75, result.getChange(1));
+        assertEquals(DispenseStatus.OK, result.getStatus(2));
+        assertEquals(12, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testHoldCommitPaysChange() throws Exception {
+        try (HoldManager holds = new HoldManager(CM, 30, TimeUnit.SECONDS)) {
+            Hold hold = holds.reserve("Coffee");
+            assertEquals(DispenseStatus.NO_CHANGE, DispenseResult.status(holds.commit(hold, 60)));
+            assertTrue(hold.isOpen());
+            box.addCoins(10, 1);
+            long result = holds.commit(hold, 60);
+            assertTrue(DispenseResult.isOk(result));
+            assertEquals(10, DispenseResult.change(result));
+            // the 10 went out as change, the payment brought a 50 and a 10
+            assertEquals(1, box.getCount(10));
+            assertEquals(60, box.getTotal());
+        }
+    }
+
+    @Test
+    public void testPaymentsPayLaterChange() throws Exception {
+        box.addCoins(25, 1);
+        // each payment of 75 brings back the 25 its change took
+        for (int i = 0; i < 5; i++) {
+            assertEquals(25, CM.makeCoffee("Coffee", 75));
+        }
+        assertEquals(1, box.getCount(25));
+        assertEquals(5, box.getCount(50));
+        assertEquals(275, box.getTotal());
+        assertEquals(0, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testPaymentValidation() throws Exception {
+        // no coins of the box make 52
+        assertEquals(DispenseStatus.INVALID_PAYMENT, DispenseResult.status(CM.tryMakeCoffee("Coffee", 52)));
+        assertEquals(DispenseStatus.INVALID_PAYMENT,
+                CM.makeCoffeeBatch(Arrays.asList(new OrderLine("Coffee", 52))).getStatus(0));
+        CM.setCashBox(null);
+        assertEquals(DispenseStatus.INVALID_PAYMENT, DispenseResult.status(CM.tryMakeCoffee("Coffee", -1)));
+        assertEquals(DispenseStatus.INVALID_PAYMENT, DispenseResult.status(CM.tryMakeCoffee("Coffee", CoffeeMaker.MAX_PAYMENT + 1)));
+        assertEquals(CoffeeMaker.MAX_PAYMENT - 50, CM.makeCoffee("Coffee", CoffeeMaker.MAX_PAYMENT));
+    }
+}
@@ -0,0 +1,116 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.RecipeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CatalogueRecipeBookTest {
+
+    private RecipeCatalogue catalogue;
+    private CatalogueRecipeBook first;
+    private CatalogueRecipeBook second;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        catalogue = new RecipeCatalogue();
+        first = new CatalogueRecipeBook(catalogue);
+        second = new CatalogueRecipeBook(catalogue);
+        first.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        second.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+    }
+
+    @Test
+    public void testIdenticalRecipesAreShared() throws Exception {
+        assertEquals(1, catalogue.size());
+        assertSame(first.getRecipe("Coffee"), second.getRecipe("Coffee"));
+        assertTrue(first.getRecipe("Coffee").isFrozen());
+        assertNull(first.getRecipe("Latte"));
+    }
+
+    @Test
+    public void testDifferentValuesBecomeAnOverride() throws Exception {
+        first.addRecipe(new Recipe("Latte", 75, 3, 1, 1, 0));
+        second.addRecipe(new Recipe("Latte", 80, 3, 1, 1, 0));
+        assertEquals(2, catalogue.size());
+        assertEquals(75, first.getRecipe("Latte").getPrice());
+        assertEquals(80, second.getRecipe("Latte").getPrice());
+        assertTrue(second.isOverridden("Latte"));
+        second.overrideRecipe(new Recipe("Latte", 75, 3, 1, 1, 0));
+        assertFalse(second.isOverridden("Latte"));
+        assertSame(first.getRecipe("Latte"), second.getRecipe("Latte"));
+    }
+
+    @Test
+    public void testCatalogueRepriceIsSeenByEveryMachine() throws Exception {
+        first.addRecipe(new Recipe("Mocha", 80, 3, 1, 1, 2));
+        second.addRecipe(new Recipe("Mocha", 90, 3, 1, 1, 2));
+        List<Recipe> before = first.getRecipes();
+        assertSame(before, first.getRecipes());
+        catalogue.reprice(p -> p + 10);
+        assertEquals(60, first.getRecipe("Coffee").getPrice());
+        assertEquals(60, second.getRecipe("Coffee").getPrice());
+        assertEquals(90, first.getRecipe("Mocha").getPrice());
+        // the override keeps its own price
+        assertEquals(90, second.getRecipe("Mocha").getPrice());
+        assertNotSame(before, first.getRecipes());
+        assertEquals(60, first.getRecipes().get(0).getPrice());
+
+        catalogue.update(Arrays.asList(new Recipe("Coffee", 55, 5, 0, 1, 0)));
+        assertEquals(5, second.getRecipe("Coffee").getAmtCoffee());
+        assertThrows(RecipeException.class, () -> catalogue.update(Arrays.asList(new Recipe("Tea", 40, 0, 0, 1, 0))));
+    }
+
+    @Test
+    public void testDeleteOnlyAffectsOneMachine() throws Exception {
+        first.deleteRecipe("Coffee");
+        assertNull(first.getRecipe("Coffee"));
+        assertNotNull(second.getRecipe("Coffee"));
+        assertEquals(0, first.getRecipes().size());
+        assertThrows(RecipeException.class, () -> first.deleteRecipe("Coffee"));
+        first.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        assertSame(first.getRecipe("Coffee"), second.getRecipe("Coffee"));
+    }
+
+    @Test
+    public void testDuplicatesAndLimit() throws Exception {
+        assertThrows(DuplicatedRecipeException.class, () -> first.addRecipe(new Recipe("Coffee", 60, 1, 0, 0, 0)));
+        assertThrows(DuplicatedRecipeException.class, () -> first.addRecipe(new Recipe("Espresso", 60, 4, 0, 1, 0)));
+        first.addRecipe(new Recipe("Latte", 75, 3, 1, 1, 0));
+        first.addRecipe(new Recipe("Mocha", 80, 3, 1, 1, 2));
+        assertThrows(AmountOfRecipeException.class, () -> first.addRecipe(new Recipe("Tea", 40, 0, 0, 1, 0)));
+        assertThrows(DuplicatedRecipeException.class, () -> first.overrideRecipe(new Recipe("Latte", 75, 3, 1, 1, 2)));
+    }
+
+    @Test
+    public void testUpdateKeepsAmountsUniquePerMachine() throws Exception {
+        first.addRecipe(new Recipe("Latte", 75, 3, 1, 1, 0));
+        second.addRecipe(new Recipe("Mocha", 80, 3, 1, 1, 2));
+        // the first machine has Coffee and Latte
+        assertThrows(DuplicatedRecipeException.class,
+                () -> catalogue.update(Arrays.asList(new Recipe("Coffee", 50, 3, 1, 1, 0))));
+        assertEquals(4, first.getRecipe("Coffee").getAmtCoffee());
+        assertEquals(4, second.getRecipe("Coffee").getAmtCoffee());
+        // the second machine has Coffee and Mocha, no machine has Latte and Mocha
+        catalogue.update(Arrays.asList(new Recipe("Latte", 75, 3, 1, 1, 2)));
+        assertEquals(2, first.getRecipe("Latte").getAmtChocolate());
+        // an override that would match the update blocks it too
+        second.addRecipe(new Recipe("Latte", 70, 2, 2, 1, 0));
+        assertThrows(DuplicatedRecipeException.class,
+                () -> catalogue.update(Arrays.asList(new Recipe("Coffee", 50, 2, 2, 1, 0))));
+    }
+
+    @Test
+    public void testCoffeeMakerUsesCatalogue() throws Exception {
+        CoffeeMaker CM = new CoffeeMaker(first, new Inventory());
+        assertEquals(25, CM.makeCoffee("Coffee", 75));
+        catalogue.reprice(p -> p * 2);
+        assertEquals(0, CM.makeCoffee("Coffee", 100));
+    }
+}
@@ -0,0 +1,77 @@
+package coffeemaker;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CoffeeMakerBatchTest {
+
+    private CoffeeMaker CM;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        CM = new CoffeeMaker();
+        CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        CM.addRecipe(new Recipe("Hot Chocolate", 75, 0, 3, 1, 3));
+    }
+
+    @Test
+    public void testAllOrNothingMakesWholeOrder() {
+        BatchResult result = CM.makeCoffeeBatch(Arrays.asList(
+                new OrderLine("Coffee", 60), new OrderLine("Hot Chocolate", 75), new OrderLine("Coffee", 50)));
+        assertEquals(3, result.getMadeCount());
+        assertEquals(10, result.getChange(0));
+        assertEquals(0, result.getChange(1));
+        assertEquals(10, result.getTotalChange());
+        assertEquals(12, CM.checkCoffeeInventory());
+        assertEquals(17, CM.checkMilkInventory());
+        assertEquals(17, CM.checkSugarInventory());
+    }
+
+    @Test
+    public void testAllOrNothingRejectsWholeOrder() {
+        BatchResult result = CM.makeCoffeeBatch(Arrays.asList(
+                new OrderLine("Coffee", 50), new OrderLine("Top", 50), new OrderLine("Coffee", 40)));
+        assertEquals(DispenseStatus.ORDER_REJECTED, result.getStatus(0));
+        assertEquals(DispenseStatus.UNKNOWN_RECIPE, result.getStatus(1));
+        assertEquals(DispenseStatus.INSUFFICIENT_MONEY, result.getStatus(2));
+        assertEquals(140, result.getTotalChange());
+        assertEquals(20, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testAllOrNothingOutOfStock() {
+        List<OrderLine> order = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            order.add(new OrderLine("Coffee", 50));
+        }
+        BatchResult result = CM.makeCoffeeBatch(order);
+        assertEquals(0, result.getMadeCount());
+        assertEquals(DispenseStatus.OUT_OF_STOCK, result.getStatus(5));
+        assertEquals(300, result.getTotalChange());
+        assertEquals(20, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testBestEffortMakesWhatFits() {
+        List<OrderLine> order = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            order.add(new OrderLine("Coffee", 50));
+        }
+        order.add(new OrderLine("Hot Chocolate", 80));
+        order.add(new OrderLine("Top", 80));
+        BatchResult result = CM.makeCoffeeBatch(order, BatchMode.BEST_EFFORT);
+        assertEquals(6, result.getMadeCount());
+        assertEquals(DispenseStatus.OUT_OF_STOCK, result.getStatus(5));
+        assertEquals(DispenseStatus.OK, result.getStatus(6));
+        assertEquals(DispenseStatus.UNKNOWN_RECIPE, result.getStatus(7));
+        assertEquals(50 + 5 + 80, result.getTotalChange());
+        assertEquals(0, CM.checkCoffeeInventory());
+        assertEquals(14, CM.checkSugarInventory());
+    }
+}
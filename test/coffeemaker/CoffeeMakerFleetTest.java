@@ -0,0 +1,96 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.RecipeException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CoffeeMakerFleetTest {
+
+    private CoffeeMakerFleet fleet;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        fleet = new CoffeeMakerFleet(3);
+        fleet.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        fleet.close();
+    }
+
+    @Test
+    public void testRecipeAddedToEveryMachine() throws Exception {
+        for (int i = 0; i < fleet.size(); i++) {
+            assertNotNull(fleet.getMachine(i).getRecipe("Coffee"));
+        }
+        fleet.deleteRecipe("Coffee");
+        assertNull(fleet.getMachine(2).getRecipe("Coffee"));
+    }
+
+    @Test
+    public void testRecipeChangesRejectedByTheLastMachineAreUndone() throws Exception {
+        CoffeeMaker last = fleet.getMachine(fleet.size() - 1);
+        last.addRecipe(new Recipe("Latte", 65, 3, 2, 1, 0));
+        assertThrows(DuplicatedRecipeException.class, () -> fleet.addRecipe(new Recipe("Latte", 75, 3, 3, 1, 0)));
+        for (int i = 0; i < fleet.size() - 1; i++) {
+            assertNull(fleet.getMachine(i).getRecipe("Latte"));
+        }
+        assertEquals(65, last.getRecipe("Latte").getPrice());
+
+        assertThrows(RecipeException.class, () -> fleet.deleteRecipe("Latte"));
+        assertNotNull(last.getRecipe("Latte"));
+        last.deleteRecipe("Coffee");
+        assertThrows(RecipeException.class, () -> fleet.deleteRecipe("Coffee"));
+        for (int i = 0; i < fleet.size() - 1; i++) {
+            assertEquals(50, fleet.getMachine(i).getRecipe("Coffee").getPrice());
+        }
+    }
+
+    @Test
+    public void testOrdersUseTheStockOfTheWholeFleet() {
+        List<CompletableFuture<Long>> orders = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            orders.add(fleet.makeCoffee("Coffee", 60));
+        }
+        int made = 0;
+        for (CompletableFuture<Long> order : orders) {
+            long result = order.join();
+            if (DispenseResult.isOk(result)) {
+                assertEquals(10, DispenseResult.change(result));
+                made++;
+            } else {
+                assertEquals(DispenseStatus.OUT_OF_STOCK, DispenseResult.status(result));
+            }
+        }
+        assertEquals(15, made);
+        for (int i = 0; i < fleet.size(); i++) {
+            assertEquals(0, fleet.getMachine(i).checkCoffeeInventory());
+        }
+    }
+
+    @Test
+    public void testRouteSkipsEmptyMachines() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(DispenseResult.isOk(fleet.getMachine(0).tryMakeCoffee("Coffee", 50)));
+            assertTrue(DispenseResult.isOk(fleet.getMachine(1).tryMakeCoffee("Coffee", 50)));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(2, fleet.route("Coffee"));
+        }
+    }
+
+    @Test
+    public void testUnknownRecipe() {
+        long result = fleet.makeCoffee("Top", 50).join();
+        assertEquals(DispenseStatus.UNKNOWN_RECIPE, DispenseResult.status(result));
+    }
+}
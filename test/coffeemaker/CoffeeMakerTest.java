@@ -5,7 +5,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import javax.naming.InsufficientResourcesException;
-import java.util.Vector;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -143,7 +143,7 @@ public class CoffeeMakerTest {
     //Get recipes
     @Test
     public void testGetZeroRecipes() {
-        Vector<Recipe> recipes = CM.getRecipes();
+        List<Recipe> recipes = CM.getRecipes();
         assertEquals(0, recipes.size());
     }
 
@@ -151,7 +151,7 @@ public class CoffeeMakerTest {
     public void testGetOneRecipe() throws AmountOfRecipeException, DuplicatedRecipeException {
         boolean ok = CM.addRecipe(r1);
         assertTrue(ok);
-        Vector<Recipe> recipes = CM.getRecipes();
+        List<Recipe> recipes = CM.getRecipes();
         assertEquals(1, recipes.size());
     }
 
@@ -163,7 +163,7 @@ public class CoffeeMakerTest {
         assertTrue(ok);
         ok = CM.addRecipe(r3);
         assertTrue(ok);
-        Vector<Recipe> recipes = CM.getRecipes();
+        List<Recipe> recipes = CM.getRecipes();
         assertEquals(3, recipes.size());
     }
 
@@ -176,7 +176,7 @@ public class CoffeeMakerTest {
         ok = CM.addRecipe(r3);
         assertTrue(ok);
         assertThrows(AmountOfRecipeException.class, () -> CM.addRecipe(r4));
-        Vector<Recipe> recipes = CM.getRecipes();
+        List<Recipe> recipes = CM.getRecipes();
         assertEquals(3, recipes.size());
     }
 
@@ -184,7 +184,7 @@ public class CoffeeMakerTest {
     public void testGetZeroRecipesAfterRemovingOneRecipe() throws AmountOfRecipeException, DuplicatedRecipeException, RecipeException {
         boolean ok = CM.addRecipe(r1);
         assertTrue(ok);
-        Vector<Recipe> recipes = CM.getRecipes();
+        List<Recipe> recipes = CM.getRecipes();
         assertEquals(1, recipes.size());
         ok = CM.deleteRecipe("Coffee");
         assertTrue(ok);
@@ -446,4 +446,34 @@ public class CoffeeMakerTest {
         assertTrue(ok);
         assertThrows(InvalidValueException.class, () -> CM.makeCoffee("Coffee", Integer.MAX_VALUE)); //cannot get change and its above its capacity
     }
+
+    //Try make recipe
+    @Test
+    public void testTryMakeCoffeeWithCorrectAmount() throws AmountOfRecipeException, DuplicatedRecipeException {
+        boolean ok = CM.addRecipe(r1);
+        assertTrue(ok);
+        long result = CM.tryMakeCoffee("Coffee", 60);
+        assertTrue(DispenseResult.isOk(result));
+        assertEquals(DispenseStatus.OK, DispenseResult.status(result));
+        assertEquals(10, DispenseResult.change(result));
+        assertEquals(16, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testTryMakeCoffeeFailuresReturnPayment() throws AmountOfRecipeException, DuplicatedRecipeException {
+        boolean ok = CM.addRecipe(r1);
+        assertTrue(ok);
+        long result = CM.tryMakeCoffee("Top", 50);
+        assertEquals(DispenseStatus.UNKNOWN_RECIPE, DispenseResult.status(result));
+        assertEquals(50, DispenseResult.change(result));
+        result = CM.tryMakeCoffee("Coffee", 40);
+        assertEquals(DispenseStatus.INSUFFICIENT_MONEY, DispenseResult.status(result));
+        assertEquals(40, DispenseResult.change(result));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(DispenseResult.isOk(CM.tryMakeCoffee("Coffee", 50)));
+        }
+        result = CM.tryMakeCoffee("Coffee", 50);
+        assertEquals(DispenseStatus.OUT_OF_STOCK, DispenseResult.status(result));
+        assertEquals(50, DispenseResult.change(result));
+    }
 }
@@ -0,0 +1,224 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.InventoryException;
+import coffeemaker.exceptions.RecipeException;
+import coffeemaker.restock.SimulatedClock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HoldManagerTest {
+
+    private CoffeeMaker CM;
+    private SimulatedClock clock;
+    private HoldManager holds;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        CM = new CoffeeMaker();
+        CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        CM.addRecipe(new Recipe("Mocha", 100, 3, 1, 1, 2));
+        clock = new SimulatedClock();
+        holds = new HoldManager(CM, clock, 30, 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testCommitMakesTheHeldBeverage() throws Exception {
+        Hold hold = holds.reserve("Coffee");
+        assertTrue(hold.isOpen());
+        assertEquals(16, CM.checkCoffeeInventory());
+        assertEquals(1, holds.getOpenHolds());
+
+        long result = holds.commit(hold, 75);
+        assertTrue(DispenseResult.isOk(result));
+        assertEquals(25, DispenseResult.change(result));
+        assertFalse(hold.isOpen());
+        assertEquals(16, CM.checkCoffeeInventory());
+        assertEquals(19, CM.checkSugarInventory());
+        assertEquals(0, holds.getOpenHolds());
+
+        result = holds.commit(hold, 75);
+        assertEquals(DispenseStatus.NO_HOLD, DispenseResult.status(result));
+        assertEquals(75, DispenseResult.change(result));
+        assertFalse(holds.release(hold));
+        assertEquals(16, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testReleaseGivesIngredientsBack() throws Exception {
+        Hold hold = holds.reserve("Mocha");
+        assertEquals(18, CM.checkChocolateInventory());
+        assertTrue(holds.release(hold));
+        assertFalse(holds.release(hold));
+        assertEquals(20, CM.checkChocolateInventory());
+        assertEquals(20, CM.checkCoffeeInventory());
+        assertEquals(DispenseStatus.NO_HOLD, DispenseResult.status(holds.commit(hold, 100)));
+        assertEquals(0, holds.getOpenHolds());
+    }
+
+    @Test
+    public void testInsufficientPaymentKeepsTheHold() throws Exception {
+        Hold hold = holds.reserve("Coffee");
+        assertEquals(DispenseStatus.INSUFFICIENT_MONEY, DispenseResult.status(holds.commit(hold, 40)));
+        assertTrue(hold.isOpen());
+        assertTrue(DispenseResult.isOk(holds.commit(hold, 50)));
+    }
+
+    @Test
+    public void testExpiredHoldIsReclaimedByTick() throws Exception {
+        Hold first = holds.reserve("Coffee");
+        clock.advance(10, TimeUnit.SECONDS);
+        Hold second = holds.reserve("Coffee");
+        assertEquals(12, CM.checkCoffeeInventory());
+
+        clock.advance(19, TimeUnit.SECONDS);
+        assertEquals(0, holds.tick());
+        clock.advance(1, TimeUnit.SECONDS);
+        assertEquals(1, holds.tick());
+        assertFalse(first.isOpen());
+        assertTrue(second.isOpen());
+        assertEquals(16, CM.checkCoffeeInventory());
+
+        clock.advance(10, TimeUnit.SECONDS);
+        assertEquals(1, holds.tick());
+        assertEquals(20, CM.checkCoffeeInventory());
+        assertEquals(2, holds.getExpiredHolds());
+        assertEquals(DispenseStatus.NO_HOLD, DispenseResult.status(holds.commit(second, 50)));
+    }
+
+    @Test
+    public void testCommitPastDeadlineFailsBeforeTick() throws Exception {
+        Hold hold = holds.reserve("Coffee");
+        clock.advance(30, TimeUnit.SECONDS);
+        long result = holds.commit(hold, 50);
+        assertEquals(DispenseStatus.NO_HOLD, DispenseResult.status(result));
+        assertEquals(50, DispenseResult.change(result));
+        assertEquals(20, CM.checkCoffeeInventory());
+        assertEquals(1, holds.getExpiredHolds());
+        assertEquals(0, holds.tick());
+    }
+
+    @Test
+    public void testHoldLongerThanTheWheel() throws Exception {
+        Hold hold = holds.reserve("Coffee", 2000, TimeUnit.SECONDS);
+        for (int t = 0; t < 1999; t++) {
+            clock.advance(1, TimeUnit.SECONDS);
+            holds.tick();
+        }
+        assertTrue(hold.isOpen());
+        clock.advance(1, TimeUnit.SECONDS);
+        assertEquals(1, holds.tick());
+        assertEquals(20, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testLongPauseExpiresEveryHold() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            holds.reserve("Coffee", 10 + i * 100, TimeUnit.SECONDS);
+        }
+        clock.advance(1, TimeUnit.HOURS);
+        assertEquals(4, holds.tick());
+        assertEquals(20, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testFailedReserveTakesNothing() throws Exception {
+        assertThrows(RecipeException.class, () -> holds.reserve("Latte"));
+        for (int i = 0; i < 5; i++) {
+            holds.reserve("Coffee");
+        }
+        assertThrows(InventoryException.class, () -> holds.reserve("Coffee"));
+        assertEquals(0, CM.checkCoffeeInventory());
+        assertEquals(15, CM.checkSugarInventory());
+        assertEquals(5, holds.getOpenHolds());
+    }
+
+    @Test
+    public void testUnitsThatNoLongerFitAreKeptAsSurplus() throws Exception {
+        Hold hold = holds.reserve("Coffee");
+        CM.addCoffeeInventory(82);
+        assertTrue(holds.release(hold));
+        assertEquals(100, CM.checkCoffeeInventory());
+        assertEquals(20, CM.checkSugarInventory());
+        assertEquals(2, holds.getSurplusUnits(0));
+        assertEquals(0, holds.getSurplusUnits(2));
+
+        holds.tick();
+        assertEquals(2, holds.getSurplusUnits(0));
+        CM.makeCoffee("Coffee", 50);
+        holds.tick();
+        assertEquals(98, CM.checkCoffeeInventory());
+        assertEquals(0, holds.getSurplusUnits(0));
+    }
+
+    @Test
+    public void testHoldOfAnotherManager() throws Exception {
+        Hold hold = holds.reserve("Coffee");
+        HoldManager other = new HoldManager(CM, 30, TimeUnit.SECONDS);
+        assertThrows(IllegalArgumentException.class, () -> other.release(hold));
+        assertTrue(hold.isOpen());
+    }
+
+    @Test
+    public void testCloseReleasesOpenHolds() throws Exception {
+        Hold committed = holds.reserve("Coffee");
+        holds.reserve("Mocha");
+        holds.commit(committed, 50);
+        holds.close();
+        assertEquals(0, holds.getOpenHolds());
+        assertEquals(16, CM.checkCoffeeInventory());
+        assertEquals(20, CM.checkChocolateInventory());
+        assertThrows(IllegalStateException.class, () -> holds.reserve("Coffee"));
+        assertEquals(16, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testConcurrentHoldsConserveIngredients() throws Exception {
+        CM.addCoffeeInventory(80);
+        CM.addSugarInventory(80);
+        HoldManager timed = new HoldManager(CM, 1, TimeUnit.MILLISECONDS);
+        timed.start(1, TimeUnit.MILLISECONDS);
+        AtomicInteger made = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int w = 0; w < 4; w++) {
+                int worker = w;
+                workers.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        Hold hold;
+                        try {
+                            hold = timed.reserve("Coffee");
+                        } catch (InventoryException e) {
+                            continue;
+                        }
+                        if ((i + worker) % 3 == 0) {
+                            timed.release(hold);
+                        } else if (DispenseResult.isOk(timed.commit(hold, 50))) {
+                            made.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdown();
+            timed.close();
+        }
+        assertEquals(0, timed.getOpenHolds());
+        assertEquals(100 - 4 * made.get(), CM.checkCoffeeInventory());
+        assertEquals(100 - made.get(), CM.checkSugarInventory());
+    }
+}
@@ -0,0 +1,105 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.InvalidValueException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InventoryTest {
+
+    private IngredientRegistry ingredients;
+    private int oatMilk;
+    private int vanilla;
+
+    @BeforeEach
+    public void setUp() {
+        ingredients = IngredientRegistry.STANDARD.with("oat milk", 50).with("vanilla syrup", 10);
+        oatMilk = ingredients.indexOf("oat milk");
+        vanilla = ingredients.indexOf("vanilla syrup");
+    }
+
+    private Recipe vanillaLatte() throws InvalidValueException {
+        Recipe r = new Recipe("Vanilla Latte", 90, 2, 0, 0, 0);
+        r.setAmount(oatMilk, 3);
+        r.setAmount(vanilla, 1);
+        return r;
+    }
+
+    @Test
+    public void testRegistry() {
+        assertEquals(6, ingredients.size());
+        assertEquals(IngredientRegistry.MILK, ingredients.indexOf("milk"));
+        assertEquals(4, oatMilk);
+        assertEquals(10, ingredients.getCapacity(vanilla));
+        assertEquals(IngredientRegistry.NO_INGREDIENT, ingredients.indexOf("cream"));
+        assertEquals(4, IngredientRegistry.STANDARD.size());
+        assertThrows(IllegalArgumentException.class, () -> ingredients.with("milk", 10));
+        assertThrows(IllegalArgumentException.class, () -> ingredients.with("lids", 0));
+    }
+
+    @Test
+    public void testRecipeAmountsAreDense() throws InvalidValueException {
+        Recipe r = vanillaLatte();
+        assertArrayEquals(new int[] {2, 0, 0, 0, 3, 1}, r.getAmounts());
+        assertEquals(0, r.getAmount(9));
+        r.setAmount(vanilla, 0);
+        r.setAmount(oatMilk, 0);
+        r.setAmtMilk(3);
+        assertArrayEquals(new int[] {2, 3, 0, 0}, r.getAmounts());
+        assertTrue(r.hasSameAmounts(new Recipe("Latte", 75, new int[] {2, 3, 0, 0, 0, 0})));
+        assertThrows(InvalidValueException.class, () -> r.setAmount(oatMilk, -1));
+        assertThrows(InvalidValueException.class, () -> new Recipe("Water", 10, new int[6]));
+    }
+
+    @Test
+    public void testCapacityPerIngredient() throws InvalidValueException {
+        Inventory inventory = new Inventory(ingredients);
+        assertEquals(20, inventory.getUnits(oatMilk));
+        assertEquals(10, inventory.getUnits(vanilla));
+        inventory.addUnits(oatMilk, 30);
+        InvalidValueException thrown = assertThrows(InvalidValueException.class, () -> inventory.addUnits(oatMilk, 1));
+        assertEquals("Units of oat milk must be a positive integer and less equal than 50", thrown.getMessage());
+        assertThrows(InvalidValueException.class, () -> inventory.setUnits(vanilla, 11));
+        inventory.setCoffee(100);
+        assertArrayEquals(new int[] {100, 20, 20, 20, 50, 10}, inventory.getLevels());
+    }
+
+    @Test
+    public void testUseIngredientsOfExtendedRecipe() throws InvalidValueException {
+        Recipe r = vanillaLatte();
+        for (Inventory inventory : new Inventory[] {new Inventory(ingredients), new StripedInventory(ingredients)}) {
+            inventory.setUnits(vanilla, 2);
+            assertTrue(inventory.enoughIngredients(r));
+            assertTrue(inventory.useIngredients(r));
+            assertTrue(inventory.useIngredients(r));
+            assertFalse(inventory.useIngredients(r));
+            assertArrayEquals(new int[] {16, 20, 20, 20, 14, 0}, inventory.getLevels());
+        }
+    }
+
+    @Test
+    public void testStandardInventoryCannotMakeExtendedRecipe() throws InvalidValueException {
+        Recipe r = vanillaLatte();
+        for (Inventory inventory : new Inventory[] {new Inventory(), new AtomicInventory(), new StripedInventory()}) {
+            assertFalse(inventory.enoughIngredients(r));
+            assertFalse(inventory.useIngredients(r));
+            assertEquals(20, inventory.getCoffee());
+        }
+    }
+
+    @Test
+    public void testCoffeeMakerWithExtendedIngredients() throws Exception {
+        Inventory inventory = new Inventory(ingredients);
+        inventory.setUnits(vanilla, 2);
+        CoffeeMaker CM = new CoffeeMaker(new RecipeBook(), inventory);
+        CM.addRecipe(vanillaLatte());
+        Recipe plain = new Recipe("Oat Latte", 80, 2, 0, 0, 0);
+        plain.setAmount(oatMilk, 3);
+        CM.addRecipe(plain);
+        assertEquals(10, CM.makeCoffee("Vanilla Latte", 100));
+        assertEquals(1, CM.availableRecipes().getCups("Vanilla Latte"));
+        assertEquals(5, CM.availableRecipes().getCups("Oat Latte"));
+        assertEquals(18, CM.checkCoffeeInventory());
+    }
+}
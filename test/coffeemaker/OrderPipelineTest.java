@@ -0,0 +1,165 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.InvalidValueException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OrderPipelineTest {
+
+    /** Inventory whose deductions wait until released, to hold up the consumer */
+    private static class GatedInventory extends Inventory {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        GatedInventory() throws InvalidValueException {
+            super();
+        }
+
+        @Override
+        public boolean useIngredients(int[] amounts) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.useIngredients(amounts);
+        }
+    }
+
+    /** Inventory that throws an error on its first deduction */
+    private static class FailingInventory extends Inventory {
+        boolean failed;
+
+        FailingInventory() throws InvalidValueException {
+            super();
+        }
+
+        @Override
+        public boolean useIngredients(int[] amounts) {
+            if (!failed) {
+                failed = true;
+                throw new StackOverflowError();
+            }
+            return super.useIngredients(amounts);
+        }
+    }
+
+    private static CoffeeMaker coffeeMaker(Inventory inventory) throws Exception {
+        CoffeeMaker CM = new CoffeeMaker(inventory);
+        CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        CM.addRecipe(new Recipe("Hot Chocolate", 75, 0, 3, 1, 3));
+        return CM;
+    }
+
+    private static void assertRejected(CompletableFuture<Long> order) {
+        ExecutionException e = assertThrows(ExecutionException.class, order::get);
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void testMakesOrdersInBatches() throws Exception {
+        CoffeeMaker CM = coffeeMaker(new Inventory());
+        List<CompletableFuture<Long>> orders = new ArrayList<>();
+        try (OrderPipeline pipeline = new OrderPipeline(CM, 64, Backpressure.BLOCK, 8)) {
+            for (int i = 0; i < 10; i++) {
+                orders.add(pipeline.submit(i % 2 == 0 ? "Coffee" : "Hot Chocolate", 100));
+            }
+            orders.add(pipeline.submit("Tea", 100));
+        }
+        int made = 0;
+        for (int i = 0; i < 10; i++) {
+            long result = orders.get(i).get();
+            if (DispenseResult.isOk(result)) {
+                made++;
+                assertEquals(i % 2 == 0 ? 50 : 25, DispenseResult.change(result));
+            } else {
+                assertEquals(DispenseStatus.OUT_OF_STOCK, DispenseResult.status(result));
+            }
+        }
+        // 20 units of coffee make 5 coffees, 20 units of chocolate make 5 hot chocolates
+        assertEquals(10, made);
+        assertEquals(DispenseStatus.UNKNOWN_RECIPE, DispenseResult.status(orders.get(10).get()));
+        assertEquals(0, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testRejectWhenFull() throws Exception {
+        GatedInventory inventory = new GatedInventory();
+        OrderPipeline pipeline = new OrderPipeline(coffeeMaker(inventory), 2, Backpressure.REJECT, 1);
+        CompletableFuture<Long> first = pipeline.submit("Coffee", 50);
+        inventory.entered.await();
+        CompletableFuture<Long> second = pipeline.submit("Coffee", 50);
+        CompletableFuture<Long> third = pipeline.submit("Coffee", 50);
+        CompletableFuture<Long> fourth = pipeline.submit("Coffee", 50);
+        assertRejected(fourth);
+        assertEquals(1, pipeline.getRejectedOrders());
+        inventory.release.countDown();
+        pipeline.close();
+        assertTrue(DispenseResult.isOk(first.get()));
+        assertTrue(DispenseResult.isOk(second.get()));
+        assertTrue(DispenseResult.isOk(third.get()));
+    }
+
+    @Test
+    public void testDropOldestWhenFull() throws Exception {
+        GatedInventory inventory = new GatedInventory();
+        OrderPipeline pipeline = new OrderPipeline(coffeeMaker(inventory), 2, Backpressure.DROP_OLDEST, 1);
+        CompletableFuture<Long> first = pipeline.submit("Coffee", 50);
+        inventory.entered.await();
+        CompletableFuture<Long> second = pipeline.submit("Coffee", 50);
+        CompletableFuture<Long> third = pipeline.submit("Coffee", 50);
+        CompletableFuture<Long> fourth = pipeline.submit("Coffee", 50);
+        assertRejected(second);
+        assertEquals(1, pipeline.getDroppedOrders());
+        inventory.release.countDown();
+        pipeline.close();
+        assertTrue(DispenseResult.isOk(first.get()));
+        assertTrue(DispenseResult.isOk(third.get()));
+        assertTrue(DispenseResult.isOk(fourth.get()));
+    }
+
+    @Test
+    public void testBlockWhenFull() throws Exception {
+        GatedInventory inventory = new GatedInventory();
+        OrderPipeline pipeline = new OrderPipeline(coffeeMaker(inventory), 1, Backpressure.BLOCK, 1);
+        pipeline.submit("Coffee", 50);
+        inventory.entered.await();
+        pipeline.submit("Coffee", 50);
+        CompletableFuture<CompletableFuture<Long>> blocked = CompletableFuture.supplyAsync(() -> pipeline.submit("Coffee", 50));
+        Thread.sleep(100);
+        assertFalse(blocked.isDone());
+        inventory.release.countDown();
+        assertTrue(DispenseResult.isOk(blocked.get().get()));
+        pipeline.close();
+    }
+
+    @Test
+    public void testSubmitAfterClose() throws Exception {
+        OrderPipeline pipeline = new OrderPipeline(coffeeMaker(new Inventory()), 4, Backpressure.REJECT);
+        pipeline.close();
+        assertRejected(pipeline.submit("Coffee", 50));
+    }
+
+    @Test
+    public void testErrorFailsOnlyItsOrder() throws Exception {
+        CoffeeMaker CM = coffeeMaker(new FailingInventory());
+        CompletableFuture<Long> first;
+        CompletableFuture<Long> second;
+        try (OrderPipeline pipeline = new OrderPipeline(CM, 8, Backpressure.BLOCK)) {
+            first = pipeline.submit("Coffee", 50);
+            second = pipeline.submit("Coffee", 50);
+        }
+        ExecutionException e = assertThrows(ExecutionException.class, first::get);
+        assertTrue(e.getCause() instanceof StackOverflowError);
+        assertEquals(DispenseStatus.OK, DispenseResult.status(second.get()));
+    }
+}
@@ -0,0 +1,131 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.RecipeException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackedRecipeBookTest {
+
+    private PackedRecipeBook book;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        book = new PackedRecipeBook(3);
+    }
+
+    @Test
+    public void testLookupByHandle() throws Exception {
+        book.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        assertTrue(book.addRecipe(new Recipe("Hot Chocolate", 75, 0, 3, 1, 3)));
+        int handle = book.getHandle("Hot Chocolate");
+        assertEquals(1, handle);
+        assertEquals("Hot Chocolate", book.getName(handle));
+        assertEquals(75, book.getPrice(handle));
+        assertEquals(3, book.getAmtChocolate(handle));
+        assertEquals(PackedRecipeBook.NO_RECIPE, book.getHandle("Tea"));
+        assertEquals(PackedRecipeBook.NO_RECIPE, book.getHandle(null));
+        assertTrue(book.getRecipe(handle).isFrozen());
+        assertEquals(75, book.getRecipe("Hot Chocolate").getPrice());
+        assertNull(book.getRecipe("Tea"));
+    }
+
+    @Test
+    public void testDuplicatesAndLimit() throws Exception {
+        book.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        assertThrows(DuplicatedRecipeException.class, () -> book.addRecipe(new Recipe("Coffee", 60, 1, 0, 0, 0)));
+        assertThrows(DuplicatedRecipeException.class, () -> book.addRecipe(new Recipe("Espresso", 60, 4, 0, 1, 0)));
+        book.addRecipe(new Recipe("Latte", 75, 3, 1, 1, 0));
+        book.addRecipe(new Recipe("Mocha", 80, 3, 1, 1, 2));
+        assertThrows(AmountOfRecipeException.class, () -> book.addRecipe(new Recipe("Tea", 40, 0, 0, 1, 0)));
+    }
+
+    @Test
+    public void testDeleteFreesHandle() throws Exception {
+        book.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        book.addRecipe(new Recipe("Latte", 75, 3, 1, 1, 0));
+        int coffee = book.getHandle("Coffee");
+        book.deleteRecipe("Coffee");
+        assertTrue(book.isDeleted(coffee));
+        assertEquals(PackedRecipeBook.NO_RECIPE, book.getHandle("Coffee"));
+        assertThrows(IllegalArgumentException.class, () -> book.getAmtCoffee(coffee));
+        assertThrows(IllegalArgumentException.class, () -> book.getRecipe(coffee));
+        assertThrows(IllegalArgumentException.class, () -> new Inventory().useIngredients(book, coffee));
+        assertThrows(RecipeException.class, () -> book.deleteRecipe("Coffee"));
+        // the amounts of a deleted recipe are free again
+        book.addRecipe(new Recipe("Espresso", 55, 4, 0, 1, 0));
+        assertEquals(coffee, book.getHandle("Espresso"));
+        assertFalse(book.isDeleted(coffee));
+        assertEquals(55, book.getPrice(coffee));
+        assertEquals(2, book.getRecipeCount());
+    }
+
+    @Test
+    public void testChurnReusesHandles() throws Exception {
+        PackedRecipeBook churn = new PackedRecipeBook(10);
+        for (int i = 0; i < 10000; i++) {
+            churn.addRecipe(new Recipe("Recipe" + i, 50, i % 100, i / 100, 1, 0));
+            if (i >= 5) {
+                churn.deleteRecipe("Recipe" + (i - 5));
+            }
+        }
+        assertEquals(5, churn.getRecipeCount());
+        for (int i = 9995; i < 10000; i++) {
+            int handle = churn.getHandle("Recipe" + i);
+            assertTrue(handle >= 0 && handle < 6);
+            assertEquals(i / 100, churn.getAmtMilk(handle));
+        }
+        assertEquals(PackedRecipeBook.NO_RECIPE, churn.getHandle("Recipe9994"));
+        assertEquals(5, churn.getRecipes().size());
+    }
+
+    @Test
+    public void testAddRecipesIsAllOrNothing() throws Exception {
+        book.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        assertThrows(DuplicatedRecipeException.class, () -> book.addRecipes(Arrays.asList(
+                new Recipe("Latte", 75, 3, 1, 1, 0), new Recipe("Espresso", 60, 4, 0, 1, 0))));
+        assertEquals(PackedRecipeBook.NO_RECIPE, book.getHandle("Latte"));
+        assertEquals(1, book.getRecipeCount());
+        book.addRecipes(Arrays.asList(new Recipe("Latte", 75, 3, 1, 1, 0), new Recipe("Mocha", 80, 3, 1, 1, 2)));
+        assertEquals(3, book.getRecipes().size());
+    }
+
+    @Test
+    public void testServesCoffeeMaker() throws Exception {
+        CoffeeMaker CM = new CoffeeMaker(book, new Inventory());
+        CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        assertEquals(10, CM.makeCoffee("Coffee", 60));
+        assertEquals(16, CM.checkCoffeeInventory());
+        CM.deleteRecipe("Coffee");
+        assertEquals(DispenseStatus.UNKNOWN_RECIPE, DispenseResult.status(CM.tryMakeCoffee("Coffee", 60)));
+    }
+
+    @Test
+    public void testGrowsPastInitialCapacity() throws Exception {
+        PackedRecipeBook large = new PackedRecipeBook(5000);
+        for (int i = 0; i < 5000; i++) {
+            large.addRecipe(new Recipe("Recipe" + i, 50, i % 100, i / 100, 1, 0));
+        }
+        for (int i = 0; i < 5000; i += 7) {
+            int handle = large.getHandle("Recipe" + i);
+            assertEquals(i, handle);
+            assertEquals(i / 100, large.getAmtMilk(handle));
+        }
+    }
+
+    @Test
+    public void testInventoryUsesHandle() throws Exception {
+        book.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        int handle = book.getHandle("Coffee");
+        Inventory inventory = new Inventory();
+        assertTrue(inventory.useIngredients(book, handle));
+        assertEquals(16, inventory.getCoffee());
+        assertEquals(19, inventory.getSugar());
+        assertThrows(IllegalArgumentException.class, () -> inventory.useIngredients(book, 7));
+    }
+}
@@ -0,0 +1,90 @@
+package coffeemaker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistentHashMapTest {
+
+    /** Key whose hash is chosen by the test, to force collisions */
+    private static final class Key {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    @Test
+    public void testMatchesHashMapUnderChurn() {
+        Random random = new Random(3);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            } else {
+                expected.put(key, i);
+                map = map.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (int key = 0; key < 3000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        Map<Integer, Integer> seen = new HashMap<>();
+        map.forEach(seen::put);
+        assertEquals(expected, seen);
+    }
+
+    @Test
+    public void testOldVersionsAreUnchanged() {
+        PersistentHashMap<String, Integer> one = PersistentHashMap.<String, Integer>empty().put("Coffee", 1);
+        PersistentHashMap<String, Integer> two = one.put("Latte", 2);
+        PersistentHashMap<String, Integer> none = two.remove("Coffee").remove("Latte");
+        assertEquals(1, one.size());
+        assertNull(one.get("Latte"));
+        assertEquals(2, two.get("Latte"));
+        assertEquals(0, none.size());
+        assertNull(none.get("Coffee"));
+        assertSame(two, two.remove("Mocha"));
+    }
+
+    @Test
+    public void testKeysWithEqualHashes() {
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 10; i++) {
+            map = map.put(new Key(i, i < 5 ? 42 : 42 + (1 << 30)), i);
+        }
+        assertEquals(10, map.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, map.get(new Key(i, i < 5 ? 42 : 42 + (1 << 30))));
+        }
+        assertNull(map.get(new Key(11, 42)));
+        for (int i = 0; i < 10; i += 2) {
+            map = map.remove(new Key(i, i < 5 ? 42 : 42 + (1 << 30)));
+        }
+        assertEquals(5, map.size());
+        assertNull(map.get(new Key(4, 42)));
+        assertEquals(3, map.get(new Key(3, 42)));
+        assertEquals(9, map.get(new Key(9, 42 + (1 << 30))));
+    }
+}
@@ -0,0 +1,184 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.metrics.HistogramSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrioritySchedulerTest {
+
+    /** Inventory whose deductions wait until released, to hold up the consumer */
+    private static class GatedInventory extends Inventory {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        GatedInventory() throws InvalidValueException {
+            super();
+        }
+
+        @Override
+        public boolean useIngredients(int[] amounts) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.useIngredients(amounts);
+        }
+    }
+
+    private static CoffeeMaker coffeeMaker(Inventory inventory) throws Exception {
+        CoffeeMaker CM = new CoffeeMaker(inventory);
+        CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        return CM;
+    }
+
+    /** Submits an order that records its name once made */
+    private static CompletableFuture<Long> submit(PriorityScheduler scheduler, OrderClass orderClass,
+            String name, List<String> made) {
+        CompletableFuture<Long> order = scheduler.submit(orderClass, "Coffee", 50);
+        order.thenRun(() -> made.add(name));
+        return order;
+    }
+
+    @Test
+    public void testWeightedShare() throws Exception {
+        OrderClass heavy = new OrderClass("heavy", 1, 3);
+        OrderClass light = new OrderClass("light", 1, 1);
+        GatedInventory inventory = new GatedInventory();
+        CoffeeMaker CM = coffeeMaker(inventory);
+        inventory.addCoffee(40);
+        inventory.addMilk(40);
+        List<String> made = Collections.synchronizedList(new ArrayList<>());
+        PriorityScheduler scheduler = new PriorityScheduler(CM, Arrays.asList(heavy, light), 16);
+        scheduler.submit(heavy, "Coffee", 50);
+        inventory.entered.await();
+        for (int i = 0; i < 4; i++) {
+            submit(scheduler, light, "light", made);
+        }
+        for (int i = 0; i < 4; i++) {
+            submit(scheduler, heavy, "heavy", made);
+        }
+        assertEquals(4, scheduler.getQueuedOrders(light));
+        inventory.release.countDown();
+        scheduler.close();
+        assertEquals(8, made.size());
+        // three heavy orders for each light one while both wait
+        assertEquals(3, Collections.frequency(made.subList(0, 4), "heavy"));
+        assertEquals(4, scheduler.getCompletedOrders(light));
+    }
+
+    @Test
+    public void testHigherPriorityGetsLastUnits() throws Exception {
+        OrderClass vip = new OrderClass("vip", 0, 1);
+        OrderClass crowd = new OrderClass("crowd", 1, 8);
+        GatedInventory inventory = new GatedInventory();
+        CoffeeMaker CM = coffeeMaker(inventory);
+        PriorityScheduler scheduler = new PriorityScheduler(CM, Arrays.asList(vip, crowd), 16);
+        scheduler.submit(vip, "Coffee", 50);
+        inventory.entered.await();
+        // 16 units of coffee left, wanted by the four waiting vip orders
+        CompletableFuture<Long> walkIn = scheduler.submit(crowd, "Coffee", 60);
+        List<CompletableFuture<Long>> vips = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            vips.add(scheduler.submit(vip, "Coffee", 50));
+        }
+        inventory.release.countDown();
+        scheduler.close();
+        assertEquals(DispenseStatus.OUT_OF_STOCK, DispenseResult.status(walkIn.get()));
+        assertEquals(60, DispenseResult.change(walkIn.get()));
+        for (CompletableFuture<Long> order : vips) {
+            assertTrue(DispenseResult.isOk(order.get()));
+        }
+        assertEquals(0, CM.checkCoffeeInventory());
+    }
+
+    @Test
+    public void testOrdersThatCannotBeMadeReserveNothing() throws Exception {
+        OrderClass hi = new OrderClass("hi", 0, 1);
+        OrderClass lo = new OrderClass("lo", 1, 8);
+        GatedInventory inventory = new GatedInventory();
+        CoffeeMaker CM = coffeeMaker(inventory);
+        CM.addRecipe(new Recipe("Hot Chocolate", 75, 0, 3, 1, 3));
+        CM.addRecipe(new Recipe("Big Mocha", 100, 0, 0, 0, 25));
+        PriorityScheduler scheduler = new PriorityScheduler(CM, Arrays.asList(hi, lo), 16);
+        scheduler.submit(hi, "Coffee", 50);
+        inventory.entered.await();
+        // 20 units of chocolate, the waiting hi order wants 25
+        CompletableFuture<Long> coffee = scheduler.submit(lo, "Coffee", 50);
+        CompletableFuture<Long> chocolate = scheduler.submit(lo, "Hot Chocolate", 75);
+        CompletableFuture<Long> mocha = scheduler.submit(hi, "Big Mocha", 100);
+        inventory.release.countDown();
+        scheduler.close();
+        assertTrue(DispenseResult.isOk(coffee.get()));
+        assertTrue(DispenseResult.isOk(chocolate.get()));
+        assertEquals(DispenseStatus.OUT_OF_STOCK, DispenseResult.status(mocha.get()));
+        assertEquals(17, CM.checkChocolateInventory());
+    }
+
+    @Test
+    public void testDeadlineGoesFirstAndLatencyPerClass() throws Exception {
+        OrderClass bulk = new OrderClass("bulk", 1, 8);
+        OrderClass rush = new OrderClass("rush", 1, 1, 10, TimeUnit.SECONDS);
+        AtomicLong now = new AtomicLong();
+        GatedInventory inventory = new GatedInventory();
+        CoffeeMaker CM = coffeeMaker(inventory);
+        List<String> made = Collections.synchronizedList(new ArrayList<>());
+        PriorityScheduler scheduler = new PriorityScheduler(CM, Arrays.asList(bulk, rush), 16, now::get);
+        scheduler.submit(bulk, "Coffee", 50);
+        inventory.entered.await();
+        submit(scheduler, rush, "rush", made);
+        for (int i = 0; i < 3; i++) {
+            submit(scheduler, bulk, "bulk", made);
+        }
+        now.set(TimeUnit.SECONDS.toNanos(11));
+        inventory.release.countDown();
+        scheduler.close();
+        // by its finish tag the rush order would have gone last
+        assertEquals(Arrays.asList("rush", "bulk", "bulk", "bulk"), made);
+        assertEquals(1, scheduler.getMissedDeadlines(rush));
+        assertEquals(0, scheduler.getMissedDeadlines(bulk));
+
+        HistogramSnapshot latency = scheduler.getLatency(rush);
+        assertEquals(1, latency.getCount());
+        assertTrue(latency.getMax() >= TimeUnit.SECONDS.toNanos(11));
+        assertEquals(4, scheduler.getLatency(bulk).getCount());
+        String report = scheduler.report();
+        assertTrue(report.contains("rush"));
+        assertTrue(report.contains("p99.9"));
+    }
+
+    @Test
+    public void testRejectsWhenFullOrClosed() throws Exception {
+        GatedInventory inventory = new GatedInventory();
+        PriorityScheduler scheduler = new PriorityScheduler(coffeeMaker(inventory),
+                Arrays.asList(OrderClass.STAFF, OrderClass.MOBILE, OrderClass.WALK_IN), 1);
+        CompletableFuture<Long> first = scheduler.submit(OrderClass.WALK_IN, "Coffee", 50);
+        inventory.entered.await();
+        CompletableFuture<Long> second = scheduler.submit(OrderClass.MOBILE, "Coffee", 50);
+        CompletableFuture<Long> third = scheduler.submit(OrderClass.STAFF, "Coffee", 50);
+        ExecutionException e = assertThrows(ExecutionException.class, third::get);
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+        assertEquals(1, scheduler.getRejectedOrders());
+        assertThrows(IllegalArgumentException.class,
+                () -> scheduler.submit(new OrderClass("other", 0, 1), "Coffee", 50));
+        inventory.release.countDown();
+        scheduler.close();
+        assertTrue(DispenseResult.isOk(first.get()));
+        assertTrue(DispenseResult.isOk(second.get()));
+        assertThrows(ExecutionException.class, scheduler.submit(OrderClass.STAFF, "Coffee", 50)::get);
+    }
+}
@@ -0,0 +1,107 @@
+package coffeemaker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecipeAvailabilityTest {
+
+    private static CoffeeMaker coffeeMaker(Inventory inventory) throws Exception {
+        CoffeeMaker CM = new CoffeeMaker(inventory);
+        CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        CM.addRecipe(new Recipe("Latte", 75, 3, 6, 1, 0));
+        CM.addRecipe(new Recipe("Hot Chocolate", 75, 0, 3, 1, 3));
+        return CM;
+    }
+
+    @Test
+    public void testCupsPerRecipe() throws Exception {
+        for (Inventory inventory : new Inventory[] { new Inventory(), new AtomicInventory(), new StripedInventory() }) {
+            CoffeeMaker CM = coffeeMaker(inventory);
+            inventory.setMilk(5);
+            RecipeAvailability availability = CM.availableRecipes();
+            // 20 coffee / 4, milk is not used
+            assertEquals(5, availability.getCups("Coffee"));
+            // 5 milk / 6
+            assertEquals(0, availability.getCups("Latte"));
+            assertFalse(availability.isAvailable("Latte"));
+            // 5 milk / 3
+            assertEquals(1, availability.getCups("Hot Chocolate"));
+            assertEquals(0, availability.getCups("Tea"));
+            List<Recipe> available = availability.getAvailableRecipes();
+            assertEquals(2, available.size());
+            assertEquals("Coffee", available.get(0).getName());
+            assertEquals("Hot Chocolate", available.get(1).getName());
+            assertEquals(3, availability.getRecipes().size());
+            assertEquals(1, availability.getCups(2));
+        }
+    }
+
+    @Test
+    public void testCachedUntilChange() throws Exception {
+        CoffeeMaker CM = coffeeMaker(new Inventory());
+        RecipeAvailability first = CM.availableRecipes();
+        assertSame(first, CM.availableRecipes());
+
+        CM.makeCoffee("Coffee", 50);
+        RecipeAvailability afterBrew = CM.availableRecipes();
+        assertNotSame(first, afterBrew);
+        assertEquals(4, afterBrew.getCups("Coffee"));
+        assertEquals(5, first.getCups("Coffee"));
+
+        CM.deleteRecipe("Latte");
+        RecipeAvailability afterDelete = CM.availableRecipes();
+        assertNotSame(afterBrew, afterDelete);
+        assertEquals(2, afterDelete.getRecipes().size());
+        assertEquals(0, afterDelete.getCups("Latte"));
+    }
+
+    @Test
+    public void testVersionsInvalidateTheCache() throws Exception {
+        RecipeBook[] books = { new RecipeBook(), new PackedRecipeBook(), new CatalogueRecipeBook(new RecipeCatalogue()) };
+        Inventory[] inventories = { new Inventory(), new AtomicInventory(), new StripedInventory() };
+        for (int k = 0; k < books.length; k++) {
+            CoffeeMaker CM = new CoffeeMaker(books[k], inventories[k]);
+            CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+            CM.addRecipe(new Recipe("Latte", 75, 3, 6, 1, 0));
+            RecipeAvailability first = CM.availableRecipes();
+            assertSame(first, CM.availableRecipes());
+
+            CM.addSugarInventory(1);
+            RecipeAvailability afterSet = CM.availableRecipes();
+            assertNotSame(first, afterSet);
+            assertSame(afterSet, CM.availableRecipes());
+
+            CM.addRecipe(new Recipe("Mocha", 75, 3, 1, 1, 3));
+            RecipeAvailability afterAdd = CM.availableRecipes();
+            assertNotSame(afterSet, afterAdd);
+            assertEquals(6, afterAdd.getCups("Mocha"));
+
+            CM.makeCoffee("Coffee", 50);
+            assertEquals(4, CM.availableRecipes().getCups("Coffee"));
+            // back to the same levels
+            CM.addCoffeeInventory(4);
+            CM.addSugarInventory(1);
+            RecipeAvailability afterRefill = CM.availableRecipes();
+            assertArrayEquals(afterAdd.getLevels(), afterRefill.getLevels());
+            assertEquals(5, afterRefill.getCups("Coffee"));
+
+            CM.deleteRecipe("Latte");
+            assertEquals(0, CM.availableRecipes().getCups("Latte"));
+            assertEquals(2, CM.availableRecipes().getRecipes().size());
+        }
+    }
+
+    @Test
+    public void testLevelsMatchInventory() throws Exception {
+        Inventory inventory = new AtomicInventory();
+        CoffeeMaker CM = coffeeMaker(inventory);
+        inventory.setSugar(2);
+        assertArrayEquals(new int[] { 20, 20, 2, 20 }, CM.availableRecipes().getLevels());
+        assertArrayEquals(new int[] { 20, 20, 2, 20 }, inventory.getLevels());
+        // sugar limits every recipe
+        assertEquals(2, CM.availableRecipes().getCups("Coffee"));
+    }
+}
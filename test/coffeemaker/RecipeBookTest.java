@@ -0,0 +1,90 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecipeBookTest {
+
+    private RecipeBook book;
+
+    @BeforeEach
+    public void setUp() {
+        book = new RecipeBook(5000);
+    }
+
+    @Test
+    public void testDefaultCapacity() throws Exception {
+        RecipeBook small = new RecipeBook();
+        small.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        small.addRecipe(new Recipe("Hot Chocolate", 75, 0, 3, 1, 3));
+        small.addRecipe(new Recipe("Latte", 75, 3, 1, 1, 0));
+        assertThrows(AmountOfRecipeException.class, () -> small.addRecipe(new Recipe("Mix", 100, 1, 2, 1, 2)));
+    }
+
+    @Test
+    public void testAddThousandsOfRecipes() throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(book.addRecipe(new Recipe("Recipe" + i, 50, i % 100, i / 100, 1, 0)));
+        }
+        assertEquals(5000, book.getRecipes().size());
+        assertEquals(42, book.getRecipe("Recipe4242").getAmtCoffee());
+        assertThrows(AmountOfRecipeException.class, () -> book.addRecipe(new Recipe("One more", 50, 0, 0, 0, 7)));
+    }
+
+    @Test
+    public void testDuplicatedName() throws Exception {
+        book.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        assertThrows(DuplicatedRecipeException.class, () -> book.addRecipe(new Recipe("Coffee", 60, 5, 0, 1, 0)));
+    }
+
+    @Test
+    public void testDuplicatedIngredients() throws Exception {
+        book.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        assertThrows(DuplicatedRecipeException.class, () -> book.addRecipe(new Recipe("Coffee2", 60, 4, 0, 1, 0)));
+    }
+
+    @Test
+    public void testDeleteFreesNameAndIngredients() throws Exception {
+        book.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        assertTrue(book.deleteRecipe("Coffee"));
+        assertNull(book.getRecipe("Coffee"));
+        assertTrue(book.addRecipe(new Recipe("Coffee2", 60, 4, 0, 1, 0)));
+        assertTrue(book.addRecipe(new Recipe("Coffee", 60, 5, 0, 1, 0)));
+    }
+
+    @Test
+    public void testRecipesKeepInsertionOrder() throws Exception {
+        book.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        book.addRecipe(new Recipe("Latte", 75, 3, 1, 1, 0));
+        book.addRecipe(new Recipe("Mocha", 80, 3, 1, 1, 2));
+        book.deleteRecipe("Latte");
+        assertEquals("Coffee", book.getRecipes().get(0).getName());
+        assertEquals("Mocha", book.getRecipes().get(1).getName());
+    }
+
+    @Test
+    public void testRecipesListIsStableSnapshot() throws Exception {
+        book.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        List<Recipe> before = book.getRecipes();
+        book.deleteRecipe("Coffee");
+        assertEquals(1, before.size());
+        assertEquals(0, book.getRecipes().size());
+        assertThrows(UnsupportedOperationException.class, () -> before.remove(0));
+    }
+
+    @Test
+    public void testRegisteredRecipeCannotBeChanged() throws Exception {
+        Recipe coffee = new Recipe("Coffee", 50, 4, 0, 1, 0);
+        book.addRecipe(coffee);
+        coffee.setPrice(10);
+        Recipe registered = book.getRecipe("Coffee");
+        assertEquals(50, registered.getPrice());
+        assertTrue(registered.isFrozen());
+        assertThrows(IllegalStateException.class, () -> registered.setPrice(10));
+    }
+}
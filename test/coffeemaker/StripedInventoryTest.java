@@ -0,0 +1,88 @@
+package coffeemaker;
+
+import coffeemaker.exceptions.InvalidValueException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StripedInventoryTest {
+
+    private StripedInventory inventory;
+    private Recipe coffee;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        inventory = new StripedInventory();
+        coffee = new Recipe("Coffee", 50, 4, 0, 1, 0);
+    }
+
+    @Test
+    public void testAddAndSet() throws InvalidValueException {
+        inventory.addChocolate(80);
+        assertEquals(100, inventory.getChocolate());
+        assertThrows(InvalidValueException.class, () -> inventory.addChocolate(1));
+        assertThrows(InvalidValueException.class, () -> inventory.addCoffee(-1));
+        inventory.setMilk(0);
+        assertEquals(0, inventory.getMilk());
+        assertThrows(InvalidValueException.class, () -> inventory.setMilk(101));
+    }
+
+    @Test
+    public void testUseIngredientsUntilEmpty() throws InvalidValueException {
+        inventory.setMilk(0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(inventory.useIngredients(coffee));
+        }
+        assertFalse(inventory.useIngredients(coffee));
+        assertEquals(0, inventory.getCoffee());
+        assertEquals(15, inventory.getSugar());
+    }
+
+    @Test
+    public void testFailedUseRemovesNothing() {
+        assertFalse(inventory.useIngredients(10, 10, 10, 21));
+        assertEquals(20, inventory.getCoffee());
+        assertEquals(20, inventory.getMilk());
+        assertEquals(20, inventory.getSugar());
+        assertEquals(20, inventory.getChocolate());
+    }
+
+    @Test
+    public void testAmountsPastTheLastIngredient() {
+        assertTrue(inventory.useIngredients(new int[] { 1, 1, 1, 1, 0 }));
+        assertEquals(19, inventory.getChocolate());
+        assertFalse(inventory.useIngredients(new int[] { 1, 1, 1, 1, 1 }));
+        assertEquals(19, inventory.getCoffee());
+    }
+
+    @Test
+    public void testConcurrentBrewAndRefill() throws Exception {
+        inventory.setCoffee(100);
+        inventory.setMilk(0);
+        int[] made = new int[1];
+        Thread brewer = new Thread(() -> {
+            for (int i = 0; i < 1000; i++) {
+                if (inventory.useIngredients(4, 0, 0, 0)) {
+                    made[0]++;
+                }
+            }
+        });
+        Thread refiller = new Thread(() -> {
+            for (int i = 0; i < 100; i++) {
+                try {
+                    inventory.addMilk(1);
+                } catch (InvalidValueException e) {
+                    fail(e);
+                }
+            }
+        });
+        brewer.start();
+        refiller.start();
+        brewer.join();
+        refiller.join();
+        assertEquals(25, made[0]);
+        assertEquals(0, inventory.getCoffee());
+        assertEquals(100, inventory.getMilk());
+    }
+}
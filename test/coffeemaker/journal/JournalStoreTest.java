@@ -0,0 +1,328 @@
+package coffeemaker.journal;
+
+import coffeemaker.CoffeeMaker;
+import coffeemaker.DispenseResult;
+import coffeemaker.DispenseStatus;
+import coffeemaker.IngredientRegistry;
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.exceptions.InvalidValueException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournalStoreTest {
+
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("coffee-maker-journal");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /** Channel whose fsyncs, once failing, wait for the release and then fail */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel delegate;
+        private final CountDownLatch release = new CountDownLatch(1);
+        private volatile boolean failing;
+
+        FailingChannel(FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failing) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("fsync failed");
+            }
+            delegate.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return delegate.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+
+    private JournalStore open(long checkpointBytes) throws Exception {
+        return JournalStore.open(directory, new RecipeBook(), new Inventory(), checkpointBytes);
+    }
+
+    @Test
+    public void testRecoversRecipesAndInventory() throws Exception {
+        try (JournalStore store = open(JournalStore.DEFAULT_CHECKPOINT_BYTES)) {
+            CoffeeMaker CM = store.getCoffeeMaker();
+            CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+            CM.addRecipe(new Recipe("Hot Chocolate", 75, 0, 3, 1, 3));
+            CM.deleteRecipe("Coffee");
+            CM.addMilkInventory(30);
+            store.getInventory().setSugar(7);
+            assertEquals(0, CM.makeCoffee("Hot Chocolate", 75));
+        }
+        try (JournalStore store = open(JournalStore.DEFAULT_CHECKPOINT_BYTES)) {
+            CoffeeMaker CM = store.getCoffeeMaker();
+            assertEquals(1, CM.getRecipes().size());
+            assertEquals("Hot Chocolate", CM.getRecipes().get(0).getName());
+            assertEquals(20, CM.checkCoffeeInventory());
+            assertEquals(47, CM.checkMilkInventory());
+            assertEquals(6, CM.checkSugarInventory());
+            assertEquals(17, CM.checkChocolateInventory());
+        }
+    }
+
+    @Test
+    public void testRecoversExtendedIngredients() throws Exception {
+        IngredientRegistry ingredients = IngredientRegistry.STANDARD.with("oat milk", 50);
+        Recipe oatLatte = new Recipe("Oat Latte", 80, new int[] {2, 0, 0, 0, 3});
+        try (JournalStore store = JournalStore.open(directory, new RecipeBook(), new Inventory(ingredients),
+                JournalStore.DEFAULT_CHECKPOINT_BYTES)) {
+            store.getCoffeeMaker().addRecipe(oatLatte);
+            store.getInventory().addUnits(4, 25);
+            assertEquals(0, store.getCoffeeMaker().makeCoffee("Oat Latte", 80));
+        }
+        try (JournalStore store = JournalStore.open(directory, new RecipeBook(), new Inventory(ingredients),
+                JournalStore.DEFAULT_CHECKPOINT_BYTES)) {
+            assertTrue(oatLatte.hasSameAmounts(store.getCoffeeMaker().getRecipe("Oat Latte")));
+            assertEquals(42, store.getInventory().getUnits(4));
+            assertEquals(18, store.getCoffeeMaker().checkCoffeeInventory());
+        }
+    }
+
+    @Test
+    public void testFailedChangesAreNotJournaled() throws Exception {
+        try (JournalStore store = open(JournalStore.DEFAULT_CHECKPOINT_BYTES)) {
+            CoffeeMaker CM = store.getCoffeeMaker();
+            CM.addRecipe(new Recipe("Coffee", 50, 25, 0, 1, 0));
+            assertThrows(Exception.class, () -> CM.addCoffeeInventory(90));
+            assertThrows(Exception.class, () -> CM.makeCoffee("Coffee", 50));
+        }
+        try (JournalStore store = open(JournalStore.DEFAULT_CHECKPOINT_BYTES)) {
+            assertEquals(20, store.getCoffeeMaker().checkCoffeeInventory());
+        }
+    }
+
+    @Test
+    public void testChangesThatCannotBeJournaledAreUndone() throws Exception {
+        JournalStore store = open(JournalStore.DEFAULT_CHECKPOINT_BYTES);
+        CoffeeMaker CM = store.getCoffeeMaker();
+        CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        store.close();
+
+        long result = CM.tryMakeCoffee("Coffee", 60);
+        assertEquals(DispenseStatus.OUT_OF_STOCK, DispenseResult.status(result));
+        assertEquals(60, DispenseResult.change(result));
+        assertEquals(20, CM.checkCoffeeInventory());
+        assertThrows(InvalidValueException.class, () -> CM.addMilkInventory(5));
+        assertEquals(20, CM.checkMilkInventory());
+        assertThrows(UncheckedIOException.class, () -> CM.addRecipe(new Recipe("Latte", 75, 3, 1, 1, 0)));
+        assertNull(CM.getRecipe("Latte"));
+        assertThrows(UncheckedIOException.class, () -> CM.deleteRecipe("Coffee"));
+        assertNotNull(CM.getRecipe("Coffee"));
+        assertNotNull(store.getFailure());
+
+        // a checkpoint starts a new journal
+        store.checkpoint();
+        assertNull(store.getFailure());
+        assertEquals(10, CM.makeCoffee("Coffee", 60));
+        store.close();
+        try (JournalStore reopened = open(JournalStore.DEFAULT_CHECKPOINT_BYTES)) {
+            assertEquals(16, reopened.getCoffeeMaker().checkCoffeeInventory());
+            assertNull(reopened.getCoffeeMaker().getRecipe("Latte"));
+        }
+    }
+
+    @Test
+    public void testChangesOfAFailedGroupCommitAllFail() throws Exception {
+        FailingChannel[] channel = new FailingChannel[1];
+        JournalStore store = new JournalStore(directory, new RecipeBook(), new Inventory(),
+                JournalStore.DEFAULT_CHECKPOINT_BYTES) {
+            @Override
+            Journal openJournal(Path file, long validLength) throws IOException {
+                channel[0] = new FailingChannel(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE));
+                return new Journal(channel[0], file.getFileName().toString(), validLength);
+            }
+        };
+        store.recover();
+        CoffeeMaker CM = store.getCoffeeMaker();
+        channel[0].failing = true;
+        AtomicReferenceArray<Throwable> thrown = new AtomicReferenceArray<>(2);
+        Thread coffee = new Thread(() -> {
+            try {
+                CM.addCoffeeInventory(5);
+            } catch (Throwable t) {
+                thrown.set(0, t);
+            }
+        });
+        Thread milk = new Thread(() -> {
+            try {
+                CM.addMilkInventory(5);
+            } catch (Throwable t) {
+                thrown.set(1, t);
+            }
+        });
+        coffee.start();
+        milk.start();
+        // both changes are applied and logged before the fsync fails
+        while (CM.checkCoffeeInventory() != 25 || CM.checkMilkInventory() != 25) {
+            Thread.sleep(1);
+        }
+        channel[0].release.countDown();
+        coffee.join();
+        milk.join();
+        assertTrue(thrown.get(0) instanceof InvalidValueException, String.valueOf(thrown.get(0)));
+        assertTrue(thrown.get(1) instanceof InvalidValueException, String.valueOf(thrown.get(1)));
+        assertEquals(20, CM.checkCoffeeInventory());
+        assertEquals(20, CM.checkMilkInventory());
+        assertNotNull(store.getFailure());
+        assertThrows(IOException.class, store::close);
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws Exception {
+        try (JournalStore store = open(JournalStore.DEFAULT_CHECKPOINT_BYTES)) {
+            store.getCoffeeMaker().addCoffeeInventory(10);
+            store.getCoffeeMaker().addCoffeeInventory(5);
+        }
+        Path journal = directory.resolve("journal-0.log");
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (JournalStore store = open(JournalStore.DEFAULT_CHECKPOINT_BYTES)) {
+            assertEquals(30, store.getCoffeeMaker().checkCoffeeInventory());
+            store.getCoffeeMaker().addCoffeeInventory(1);
+        }
+        try (JournalStore store = open(JournalStore.DEFAULT_CHECKPOINT_BYTES)) {
+            assertEquals(31, store.getCoffeeMaker().checkCoffeeInventory());
+        }
+    }
+
+    @Test
+    public void testCheckpointBoundsTheJournal() throws Exception {
+        try (JournalStore store = open(256)) {
+            Inventory inventory = store.getInventory();
+            for (int i = 0; i < 1000; i++) {
+                inventory.setCoffee(i % 100);
+            }
+        }
+        long journalBytes = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().startsWith("journal-")) {
+                    journalBytes += Files.size(file);
+                }
+            }
+        }
+        assertTrue(journalBytes <= 256 + 14, "journal has " + journalBytes + " bytes");
+        try (JournalStore store = open(256)) {
+            assertEquals(99, store.getInventory().getCoffee());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package coffeemaker.journal;
+
+import coffeemaker.IngredientRegistry;
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedSnapshotTest {
+
+    private Path directory;
+    private Path file;
+    private Inventory inventory;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("coffee-maker-snapshot");
+        file = directory.resolve("snapshot.bin");
+        inventory = new Inventory();
+        inventory.setMilk(7);
+        inventory.setChocolate(13);
+        MappedSnapshot.write(file, 42, inventory, Arrays.asList(
+                new Recipe("Coffee", 50, 4, 0, 1, 0),
+                new Recipe("Caf\u00e9 com leite", 60, 2, 2, 1, 0)));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testReadsFieldsInPlace() throws Exception {
+        MappedSnapshot snapshot = MappedSnapshot.open(file);
+        assertEquals(42, snapshot.getNextSegment());
+        assertEquals(20, snapshot.getCoffee());
+        assertEquals(7, snapshot.getMilk());
+        assertEquals(20, snapshot.getSugar());
+        assertEquals(13, snapshot.getChocolate());
+        assertEquals(2, snapshot.getRecipeCount());
+        assertEquals("Caf\u00e9 com leite", snapshot.getName(1));
+        assertEquals(60, snapshot.getPrice(1));
+        assertEquals(2, snapshot.getAmtMilk(1));
+        assertFalse(Files.exists(directory.resolve("snapshot.bin.tmp")));
+    }
+
+    @Test
+    public void testRestore() throws Exception {
+        RecipeBook recipeBook = new RecipeBook();
+        Inventory restored = new Inventory();
+        MappedSnapshot.open(file).restore(recipeBook, restored);
+        assertEquals(2, recipeBook.getRecipes().size());
+        assertEquals(4, recipeBook.getRecipe("Coffee").getAmtCoffee());
+        assertEquals(7, restored.getMilk());
+        assertEquals(13, restored.getChocolate());
+    }
+
+    @Test
+    public void testDetectsCorruption() throws Exception {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {99}), 50);
+        }
+        assertThrows(IOException.class, () -> MappedSnapshot.open(file));
+    }
+
+    @Test
+    public void testExtendedIngredients() throws Exception {
+        IngredientRegistry ingredients = IngredientRegistry.STANDARD.with("oat milk", 50);
+        Inventory extended = new Inventory(ingredients);
+        extended.setUnits(4, 33);
+        MappedSnapshot.write(file, 1, extended, Arrays.asList(new Recipe("Oat Latte", 80, new int[] {2, 0, 0, 0, 3})));
+        MappedSnapshot snapshot = MappedSnapshot.open(file);
+        assertEquals(5, snapshot.getIngredientCount());
+        assertEquals(33, snapshot.getUnits(4));
+        assertEquals(3, snapshot.getAmount(0, 4));
+
+        RecipeBook recipeBook = new RecipeBook();
+        Inventory restored = new Inventory(ingredients);
+        snapshot.restore(recipeBook, restored);
+        assertEquals(33, restored.getUnits(4));
+        assertEquals(3, recipeBook.getRecipe("Oat Latte").getAmount(4));
+        assertThrows(IOException.class, () -> snapshot.restore(new RecipeBook(), new Inventory()));
+    }
+
+    @Test
+    public void testRejectsVersion2() throws Exception {
+        byte[] name = "Coffee".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer v2 = ByteBuffer.allocate(48 + 28 + name.length);
+        v2.putInt(0x434d534e).putInt(2).putLong(0).putLong(9).putInt(11).putInt(12).putInt(13).putInt(14)
+                .putInt(1).putInt(name.length)
+                .putInt(50).putInt(4).putInt(0).putInt(1).putInt(0).putInt(0).putInt(name.length).put(name);
+        CRC32 crc = new CRC32();
+        crc.update(v2.array(), 16, v2.capacity() - 16);
+        v2.putLong(8, crc.getValue());
+        Files.write(file, v2.array());
+
+        assertThrows(IOException.class, () -> MappedSnapshot.open(file));
+    }
+}
@@ -0,0 +1,157 @@
+package coffeemaker.ledger;
+
+import coffeemaker.BatchMode;
+import coffeemaker.CoffeeMaker;
+import coffeemaker.DispenseResult;
+import coffeemaker.OrderLine;
+import coffeemaker.Recipe;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SalesLedgerTest {
+
+    private static final long HOUR = HourlyRevenue.HOUR;
+    private static final long DAY = 24 * HOUR;
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testRevenuePerRecipePerHour() {
+        SalesLedger ledger = new SalesLedger(4, () -> 0);
+        ledger.record(10 * HOUR + 5, "Coffee", 50, 50, 0);
+        ledger.record(10 * HOUR + 100, "Latte", 75, 100, 25);
+        ledger.record(11 * HOUR, "Coffee", 50, 60, 10);
+        ledger.record(11 * HOUR + 1, "Coffee", 50, 50, 0);
+        ledger.record(12 * HOUR, "Mocha", 100, 100, 0);
+        ledger.record(9 * HOUR, "Mocha", 100, 100, 0);
+
+        HourlyRevenue revenue = ledger.revenuePerRecipePerHour(10 * HOUR, 12 * HOUR);
+        assertEquals(2, revenue.getHours());
+        assertEquals(10 * HOUR, revenue.getHourStart(0));
+        assertEquals(50, revenue.getRevenue("Coffee", 0));
+        assertEquals(100, revenue.getRevenue("Coffee", 1));
+        assertEquals(75, revenue.getRevenue("Latte", 0));
+        assertEquals(0, revenue.getRevenue("Latte", 1));
+        assertEquals(125, revenue.getRevenue(0));
+        assertEquals(0, revenue.getTotal("Mocha"));
+        assertEquals(Arrays.asList("Coffee", "Latte"), revenue.getRecipes());
+        assertEquals(6, ledger.size());
+        assertEquals(425, ledger.getRevenue(0, 13 * HOUR));
+        assertThrows(IllegalArgumentException.class, () -> ledger.revenuePerRecipePerHour(HOUR, HOUR));
+    }
+
+    @Test
+    public void testTopSellersLastSevenDays() {
+        AtomicLong now = new AtomicLong(30 * DAY);
+        SalesLedger ledger = new SalesLedger(8, now::get);
+        for (int i = 0; i < 30; i++) {
+            // one mocha a day for a month, most of it too old
+            ledger.record(i * DAY, "Mocha", 100, 100, 0);
+        }
+        for (int i = 0; i < 5; i++) {
+            ledger.record(25 * DAY + i, "Coffee", 50, 50, 0);
+            ledger.record(26 * DAY + i, "Latte", 75, 75, 0);
+        }
+        ledger.record(27 * DAY, "Latte", 75, 75, 0);
+
+        List<RecipeSales> top = ledger.topSellers(2, 7, TimeUnit.DAYS);
+        assertEquals(2, top.size());
+        assertEquals("Mocha", top.get(0).getRecipeName());
+        assertEquals(7, top.get(0).getCount());
+        assertEquals("Latte", top.get(1).getRecipeName());
+        assertEquals(6, top.get(1).getCount());
+        assertEquals(450, top.get(1).getRevenue());
+        assertEquals(3, ledger.topSellers(10, 0, 31 * DAY).size());
+    }
+
+    @Test
+    public void testChunksSpillToMappedFilesAndReopen() throws Exception {
+        Path directory = Files.createTempDirectory("coffee-maker-ledger");
+        try {
+            try (SalesLedger ledger = SalesLedger.open(directory, 100, () -> 0)) {
+                for (int i = 0; i < 1050; i++) {
+                    ledger.record(i * 60_000L, i % 3 == 0 ? "Caf\u00e9" : "Latte", 50 + i % 3, 100, 50 - i % 3);
+                }
+                try (Stream<Path> files = Files.list(directory)) {
+                    assertEquals(10, files.filter(p -> p.toString().endsWith(".col")).count());
+                }
+                assertEquals(0, ledger.getSpillFailures());
+            }
+            try (SalesLedger ledger = SalesLedger.open(directory, 100, () -> 0)) {
+                assertEquals(1050, ledger.size());
+                ledger.record(1050 * 60_000L, "Mocha", 100, 100, 0);
+                HourlyRevenue revenue = ledger.revenuePerRecipePerHour(0, 1051 * 60_000L);
+                assertEquals(18, revenue.getHours());
+                // 20 of the first 60 minutes are the 50 cent one
+                assertEquals(20 * 50, revenue.getRevenue("Caf\u00e9", 0));
+                assertEquals(20 * 51 + 20 * 52, revenue.getRevenue("Latte", 0));
+                assertEquals(100, revenue.getTotal("Mocha"));
+                assertEquals(350 * 50, revenue.getTotal("Caf\u00e9"));
+            }
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void testQueriesDuringAppends() throws Exception {
+        SalesLedger ledger = new SalesLedger(64, () -> 0);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    ledger.record(i, "Coffee", 50, 50, 0);
+                }
+            });
+            long last = 0;
+            while (!writer.isDone()) {
+                long revenue = ledger.getRevenue(0, Long.MAX_VALUE);
+                assertEquals(0, revenue % 50);
+                assertTrue(revenue >= last);
+                last = revenue;
+            }
+            writer.get();
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(20000 * 50L, ledger.getRevenue(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testCoffeeMakerRecordsSales() throws Exception {
+        AtomicLong now = new AtomicLong(5 * HOUR);
+        SalesLedger ledger = new SalesLedger(16, now::get);
+        CoffeeMaker CM = new CoffeeMaker();
+        CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        CM.setSalesLedger(ledger);
+        CM.makeCoffee("Coffee", 75);
+        assertEquals(75, DispenseResult.change(CM.tryMakeCoffee("Latte", 75)));
+        CM.tryMakeCoffee("Coffee", 10);
+        now.addAndGet(HOUR);
+        CM.makeCoffeeBatch(Arrays.asList(new OrderLine("Coffee", 50), new OrderLine("Latte", 50)),
+                BatchMode.BEST_EFFORT);
+
+        assertEquals(2, ledger.size());
+        HourlyRevenue revenue = ledger.revenuePerRecipePerHour(5 * HOUR, 7 * HOUR);
+        assertEquals(50, revenue.getRevenue("Coffee", 0));
+        assertEquals(50, revenue.getRevenue("Coffee", 1));
+    }
+}
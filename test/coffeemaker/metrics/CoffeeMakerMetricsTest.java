@@ -0,0 +1,184 @@
+package coffeemaker.metrics;
+
+import coffeemaker.AtomicInventory;
+import coffeemaker.CoffeeMaker;
+import coffeemaker.DispenseStatus;
+import coffeemaker.IngredientRegistry;
+import coffeemaker.Inventory;
+import coffeemaker.OrderLine;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.StripedInventory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CoffeeMakerMetricsTest {
+
+    private CoffeeMaker CM;
+    private CoffeeMakerMetrics metrics;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        CM = new CoffeeMaker();
+        CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        metrics = new CoffeeMakerMetrics(1);
+        CM.setMetrics(metrics);
+    }
+
+    @Test
+    public void testCountsOutcomesPerRecipe() throws Exception {
+        CM.tryMakeCoffee("Coffee", 50);
+        CM.tryMakeCoffee("Coffee", 60);
+        CM.tryMakeCoffee("Coffee", 10);
+        CM.tryMakeCoffee("Tea", 50);
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getCount("Coffee", DispenseStatus.OK));
+        assertEquals(1, snapshot.getCount("Coffee", DispenseStatus.INSUFFICIENT_MONEY));
+        assertEquals(1, snapshot.getCount(CoffeeMakerMetrics.UNKNOWN_RECIPE, DispenseStatus.UNKNOWN_RECIPE));
+        assertEquals(2, snapshot.getCount(DispenseStatus.OK));
+        assertEquals(8, snapshot.getCoffeeUsed());
+        assertEquals(2, snapshot.getSugarUsed());
+        assertEquals(4, snapshot.getMakeCoffee().getCount());
+        assertEquals(2, snapshot.getInventoryLockWait().getCount());
+        assertEquals(2, snapshot.getInventoryService().getCount());
+    }
+
+    @Test
+    public void testCountsUnitsOfRegistryIngredients() throws Exception {
+        IngredientRegistry ingredients = IngredientRegistry.STANDARD.with("caramel", 50);
+        CoffeeMaker caramel = new CoffeeMaker(new RecipeBook(), new Inventory(ingredients));
+        caramel.addRecipe(new Recipe("Caramel Latte", 70, new int[] {2, 1, 0, 0, 3}));
+        assertThrows(IllegalArgumentException.class, () -> caramel.setMetrics(new CoffeeMakerMetrics(1)));
+        CoffeeMakerMetrics m = new CoffeeMakerMetrics(caramel.getIngredients(), 1);
+        caramel.setMetrics(m);
+        caramel.tryMakeCoffee("Caramel Latte", 70);
+        caramel.tryMakeCoffee("Caramel Latte", 70);
+        MetricsSnapshot snapshot = m.snapshot();
+        assertEquals(6, snapshot.getUnitsUsed("caramel"));
+        assertEquals(4, snapshot.getCoffeeUsed());
+        assertEquals(0, snapshot.getUnitsUsed("vanilla"));
+        assertEquals(Arrays.asList("coffee", "milk", "sugar", "chocolate", "caramel"),
+                Arrays.asList(m.getUnitsUsed().keySet().toArray()));
+        assertEquals(6L, m.getUnitsUsed().get("caramel"));
+    }
+
+    @Test
+    public void testCountsBatchLinesAndOutOfStock() throws Exception {
+        CM.makeCoffeeBatch(Arrays.asList(new OrderLine("Coffee", 50), new OrderLine("Coffee", 50)));
+        for (int i = 0; i < 5; i++) {
+            CM.tryMakeCoffee("Coffee", 50);
+        }
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(5, snapshot.getCount("Coffee", DispenseStatus.OK));
+        assertEquals(2, snapshot.getCount("Coffee", DispenseStatus.OUT_OF_STOCK));
+        assertEquals(20, snapshot.getCoffeeUsed());
+        assertEquals(5, snapshot.getMakeCoffee().getCount());
+    }
+
+    @Test
+    public void testOutcomesAreKeptPerNameAndBounded() throws Exception {
+        CM.deleteRecipe("Coffee");
+        CM.addRecipe(new Recipe("Coffee", 50, 2, 0, 0, 0));
+        CM.tryMakeCoffee("Coffee", 50);
+        for (int i = 0; i < CoffeeMakerMetrics.MAX_RECIPES + 10; i++) {
+            metrics.recordOutcome(new Recipe("Special " + i, 50, 1, 0, 0, 0), DispenseStatus.OK);
+        }
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getCount("Coffee", DispenseStatus.OK));
+        assertEquals(11, snapshot.getCount(CoffeeMakerMetrics.OTHER_RECIPES, DispenseStatus.OK));
+        // Coffee, the recipes that fit and the other and unknown keys
+        assertEquals(CoffeeMakerMetrics.MAX_RECIPES + 2, snapshot.getRecipes().size());
+        assertEquals(2 + CoffeeMakerMetrics.MAX_RECIPES + 10, snapshot.getCoffeeUsed());
+    }
+
+    @Test
+    public void testAddRecipeLatency() throws Exception {
+        CM.addRecipe(new Recipe("Latte", 75, 3, 1, 1, 0));
+        assertEquals(1, metrics.snapshot().getAddRecipe().getCount());
+    }
+
+    @Test
+    public void testEveryInventoryReportsDeductions() throws Exception {
+        Inventory[] inventories = {new AtomicInventory(), new StripedInventory()};
+        for (Inventory inventory : inventories) {
+            CoffeeMaker maker = new CoffeeMaker(new RecipeBook(), inventory);
+            maker.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+            CoffeeMakerMetrics m = new CoffeeMakerMetrics(1);
+            maker.setMetrics(m);
+            maker.tryMakeCoffee("Coffee", 50);
+            assertEquals(1, m.snapshot().getInventoryService().getCount());
+        }
+    }
+
+    @Test
+    public void testSampledTimingKeepsExactCounts() throws Exception {
+        CoffeeMakerMetrics sampled = new CoffeeMakerMetrics(4);
+        CM.setMetrics(sampled);
+        for (int i = 0; i < 1000; i++) {
+            CM.tryMakeCoffee("Tea", 50);
+        }
+        MetricsSnapshot snapshot = sampled.snapshot();
+        assertEquals(1000, snapshot.getCount(CoffeeMakerMetrics.UNKNOWN_RECIPE, DispenseStatus.UNKNOWN_RECIPE));
+        assertTrue(snapshot.getMakeCoffee().getCount() > 100 && snapshot.getMakeCoffee().getCount() < 500);
+    }
+
+    @Test
+    public void testMetricsOff() throws Exception {
+        CM.setMetrics(null);
+        CM.tryMakeCoffee("Coffee", 50);
+        assertEquals(0, metrics.snapshot().getMakeCoffee().getCount());
+        assertNull(CM.getMetrics());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1_000_000, snapshot.getMax());
+        assertEquals(500_500, snapshot.getMean(), 1);
+        long p50 = snapshot.getValueAtPercentile(50);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 1.016, "p50 " + p50);
+        long p99 = snapshot.getValueAtPercentile(99);
+        assertTrue(p99 >= 990_000 && p99 <= 990_000 * 1.016, "p99 " + p99);
+        assertEquals(1_000_000, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long value : new long[] {0, 1, 127, 128, 129, 255, 256, 1_000_000, LatencyHistogram.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(LatencyHistogram.highestValue(bucket) >= value);
+            assertTrue(bucket == 0 || LatencyHistogram.highestValue(bucket - 1) < value);
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(LatencyHistogram.MAX_VALUE));
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        CM.tryMakeCoffee("Coffee", 50);
+        ObjectName name = metrics.register("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertNotNull(server.getAttribute(name, "OutcomeCounts"));
+            Map<String, Long> latency = metrics.getLatencyNanos();
+            assertEquals(1L, latency.get("makeCoffee.count"));
+            assertEquals(1L, metrics.getRecipeOutcomeCounts().get("Coffee/OK"));
+            assertEquals(4L, metrics.getUnitsUsed().get("coffee"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package coffeemaker.registry;
+
+import coffeemaker.CoffeeMaker;
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.InvalidValueException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CoffeeMakerRegistryTest {
+
+    private static final long MACHINE = CoffeeMakerRegistry.MACHINE_BYTES;
+
+    /** Store keeping the levels and recipes of each machine in memory */
+    private static class MemoryStore implements MachineStore {
+        final Map<String, int[]> levels = new ConcurrentHashMap<>();
+        final Map<String, List<Recipe>> recipes = new ConcurrentHashMap<>();
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicInteger stores = new AtomicInteger();
+        volatile long loadMillis;
+
+        @Override
+        public boolean load(String machineId, RecipeBook recipeBook, Inventory inventory) throws IOException {
+            loads.incrementAndGet();
+            try {
+                Thread.sleep(loadMillis);
+                int[] stored = levels.get(machineId);
+                if (stored == null) {
+                    return false;
+                }
+                inventory.setCoffee(stored[0]);
+                inventory.setMilk(stored[1]);
+                inventory.setSugar(stored[2]);
+                inventory.setChocolate(stored[3]);
+                recipeBook.addRecipes(recipes.get(machineId));
+                return true;
+            } catch (InterruptedException | InvalidValueException | AmountOfRecipeException | DuplicatedRecipeException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void store(String machineId, Inventory inventory, List<Recipe> recipes) {
+            stores.incrementAndGet();
+            levels.put(machineId, inventory.getLevels());
+            this.recipes.put(machineId, recipes);
+        }
+    }
+
+    private static void use(CoffeeMakerRegistry registry, String machineId) throws IOException {
+        registry.acquire(machineId).close();
+    }
+
+    @Test
+    public void testEvictedMachineIsWrittenBackAndReloaded() throws Exception {
+        MemoryStore store = new MemoryStore();
+        CoffeeMakerRegistry registry = new CoffeeMakerRegistry(store, 3 * MACHINE + 3 * CoffeeMakerRegistry.RECIPE_BYTES);
+        try (MachineHandle handle = registry.acquire("m0")) {
+            CoffeeMaker CM = handle.getCoffeeMaker();
+            CM.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+            assertEquals(0, CM.makeCoffee("Coffee", 50));
+        }
+        // machines used more often than m0 displace it
+        for (int i = 1; i < 6; i++) {
+            use(registry, "m" + i);
+            use(registry, "m" + i);
+        }
+        assertFalse(registry.isResident("m0"));
+        assertTrue(registry.getResidentBytes() <= 3 * MACHINE + 3 * CoffeeMakerRegistry.RECIPE_BYTES);
+        // only m0 was changed
+        assertEquals(1, store.stores.get());
+        assertEquals(1, registry.getWriteBacks());
+        assertEquals(16, store.levels.get("m0")[0]);
+
+        try (MachineHandle handle = registry.acquire("m0")) {
+            assertEquals(16, handle.getCoffeeMaker().checkCoffeeInventory());
+            assertNotNull(handle.getCoffeeMaker().getRecipe("Coffee"));
+        }
+        assertEquals(7, registry.getLoads());
+    }
+
+    @Test
+    public void testConcurrentAcquireLoadsOnce() throws Exception {
+        MemoryStore store = new MemoryStore();
+        store.loadMillis = 50;
+        CoffeeMakerRegistry registry = new CoffeeMakerRegistry(store, 10 * MACHINE);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<MachineHandle>> handles = new ArrayList<>();
+        try {
+            for (int i = 0; i < 8; i++) {
+                handles.add(executor.submit(() -> {
+                    start.await();
+                    return registry.acquire("shared");
+                }));
+            }
+            start.countDown();
+            CoffeeMaker first = handles.get(0).get().getCoffeeMaker();
+            for (Future<MachineHandle> handle : handles) {
+                assertSame(first, handle.get().getCoffeeMaker());
+                handle.get().close();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, store.loads.get());
+    }
+
+    @Test
+    public void testMachineInUseIsNotEvicted() throws Exception {
+        CoffeeMakerRegistry registry = new CoffeeMakerRegistry(new MemoryStore(), MACHINE);
+        MachineHandle a = registry.acquire("a");
+        MachineHandle b = registry.acquire("b");
+        assertEquals(2, registry.getResidentMachines());
+        a.getCoffeeMaker().addCoffeeInventory(5);
+        a.close();
+        a.close();
+        assertEquals(1, registry.getResidentMachines());
+        assertTrue(registry.isResident("b"));
+        assertThrows(IllegalStateException.class, a::getCoffeeMaker);
+        b.close();
+    }
+
+    @Test
+    public void testFrequentMachineSurvivesScan() throws Exception {
+        CoffeeMakerRegistry registry = new CoffeeMakerRegistry(new MemoryStore(), 10 * MACHINE);
+        for (int i = 0; i < 20; i++) {
+            use(registry, "hot");
+            use(registry, "warm" + i % 3);
+        }
+        for (int i = 0; i < 200; i++) {
+            use(registry, "scan" + i);
+        }
+        assertTrue(registry.isResident("hot"));
+        assertTrue(registry.getResidentMachines() <= 10);
+    }
+
+    @Test
+    public void testCloseWritesBackDirtyMachines() throws Exception {
+        MemoryStore store = new MemoryStore();
+        CoffeeMakerRegistry registry = new CoffeeMakerRegistry(store, 10 * MACHINE);
+        try (MachineHandle handle = registry.acquire("a")) {
+            handle.getCoffeeMaker().addMilkInventory(30);
+        }
+        use(registry, "b");
+        MachineHandle c = registry.acquire("c");
+        c.getCoffeeMaker().addSugarInventory(1);
+        registry.close();
+        assertEquals(1, store.stores.get());
+        assertThrows(IllegalStateException.class, () -> registry.acquire("a"));
+        c.close();
+        assertEquals(2, store.stores.get());
+        assertEquals(50, store.levels.get("a")[1]);
+        assertEquals(21, store.levels.get("c")[2]);
+    }
+
+    @Test
+    public void testMappedMachineStore() throws Exception {
+        Path directory = Files.createTempDirectory("coffee-maker-registry");
+        try {
+            MappedMachineStore store = new MappedMachineStore(directory);
+            try (CoffeeMakerRegistry registry = new CoffeeMakerRegistry(store, 10 * MACHINE);
+                    MachineHandle handle = registry.acquire("caf\u00e9/1")) {
+                handle.getCoffeeMaker().addRecipe(new Recipe("Latte", 75, 3, 1, 1, 0));
+                handle.getCoffeeMaker().makeCoffee("Latte", 75);
+            }
+            RecipeBook recipeBook = new RecipeBook();
+            Inventory inventory = new Inventory();
+            assertTrue(store.load("caf\u00e9/1", recipeBook, inventory));
+            assertEquals(17, inventory.getCoffee());
+            assertEquals(75, recipeBook.getRecipe("Latte").getPrice());
+            assertFalse(store.load("other", new RecipeBook(), new Inventory()));
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+}
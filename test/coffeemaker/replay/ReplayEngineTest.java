@@ -0,0 +1,291 @@
+package coffeemaker.replay;
+
+import coffeemaker.BatchMode;
+import coffeemaker.BatchResult;
+import coffeemaker.CashBox;
+import coffeemaker.DispenseResult;
+import coffeemaker.DispenseStatus;
+import coffeemaker.Hold;
+import coffeemaker.HoldManager;
+import coffeemaker.IngredientRegistry;
+import coffeemaker.Inventory;
+import coffeemaker.OrderLine;
+import coffeemaker.Recipe;
+import coffeemaker.RecipeBook;
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.restock.SimulatedClock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplayEngineTest {
+
+    /** Inventory of a build that uses one more unit of coffee per beverage */
+    private static class GreedyInventory extends Inventory {
+        GreedyInventory() throws InvalidValueException {
+            super();
+        }
+
+        @Override
+        public boolean useIngredients(int[] amounts) {
+            int[] greedy = amounts.clone();
+            greedy[0]++;
+            return super.useIngredients(greedy);
+        }
+    }
+
+    private Path file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = Files.createTempFile("coffee-maker-commands", ".log");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /** Records a short session, one command per millisecond */
+    private void record() throws Exception {
+        RecipeBook recipeBook = new RecipeBook();
+        recipeBook.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        SimulatedClock clock = new SimulatedClock();
+        try (EventSourcedCoffeeMaker CM = new EventSourcedCoffeeMaker(recipeBook, new Inventory(), file, clock)) {
+            clock.advance(1, TimeUnit.MILLISECONDS);
+            CM.addRecipe(new Recipe("Hot Chocolate", 75, 0, 3, 1, 3));
+            for (int i = 0; i < 6; i++) {
+                clock.advance(1, TimeUnit.MILLISECONDS);
+                CM.tryMakeCoffee("Coffee", 60);
+            }
+            clock.advance(1, TimeUnit.MILLISECONDS);
+            assertThrows(InvalidValueException.class, () -> CM.addCoffeeInventory(-1));
+            clock.advance(1, TimeUnit.MILLISECONDS);
+            CM.addCoffeeInventory(10);
+            clock.advance(1, TimeUnit.MILLISECONDS);
+            CM.makeCoffee("Hot Chocolate", 75);
+            clock.advance(1, TimeUnit.MILLISECONDS);
+            CM.deleteRecipe("Hot Chocolate");
+            clock.advance(1, TimeUnit.MILLISECONDS);
+            CM.tryMakeCoffee("Hot Chocolate", 75);
+        }
+    }
+
+    @Test
+    public void testRecordsCommandsAndStartingState() throws Exception {
+        record();
+        CommandLog.Recording recording = CommandLog.read(file);
+        assertArrayEquals(new int[] { 20, 20, 20, 20 }, recording.getLevels());
+        assertEquals(1, recording.getRecipes().size());
+        assertEquals(3, recording.getMaxRecipes());
+        List<CommandEvent> events = recording.getEvents();
+        assertEquals(12, events.size());
+        assertEquals(CommandEvent.Type.ADD_RECIPE, events.get(0).getType());
+        assertEquals(3, events.get(0).getRecipe().getAmtChocolate());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), events.get(0).getTimeNanos());
+        // 20 units of coffee make 5 coffees
+        assertEquals(10, DispenseResult.change(events.get(1).getOutcome()));
+        assertEquals(DispenseStatus.OUT_OF_STOCK, DispenseResult.status(events.get(6).getOutcome()));
+        assertEquals(CommandEvent.REJECTED, events.get(7).getOutcome());
+        assertEquals(IngredientRegistry.COFFEE, events.get(8).getIngredient());
+        assertEquals(CommandEvent.ACCEPTED, events.get(8).getOutcome());
+        assertEquals(CommandEvent.ACCEPTED, events.get(10).getOutcome());
+        assertEquals(DispenseStatus.UNKNOWN_RECIPE, DispenseResult.status(events.get(11).getOutcome()));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(12), events.get(11).getTimeNanos());
+    }
+
+    @Test
+    public void testReplayHasNoDivergence() throws Exception {
+        record();
+        ReplayEngine engine = new ReplayEngine(CommandLog.read(file));
+        ReplayReport report = engine.run(new Inventory(), ReplayMode.MAX_SPEED);
+        assertEquals(12, report.getCommands());
+        assertEquals(0, report.getDivergenceCount());
+        assertEquals(12, report.getLatency().getCount());
+        assertTrue(report.getThroughput() > 0);
+    }
+
+    @Test
+    public void testReplayInRealTime() throws Exception {
+        record();
+        ReplayReport report = new ReplayEngine(CommandLog.read(file)).run(new Inventory(), ReplayMode.REAL_TIME);
+        assertEquals(0, report.getDivergenceCount());
+        assertTrue(report.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(12));
+    }
+
+    @Test
+    public void testReplayFindsDivergence() throws Exception {
+        record();
+        ReplayReport report = new ReplayEngine(CommandLog.read(file)).run(new GreedyInventory(), ReplayMode.MAX_SPEED);
+        // 20 units make 4 coffees instead of 5
+        assertTrue(report.getDivergenceCount() > 0);
+        ReplayReport.Divergence first = report.getDivergences().get(0);
+        assertEquals(5, first.getIndex());
+        assertEquals(DispenseStatus.OUT_OF_STOCK, DispenseResult.status(first.getActual()));
+        assertTrue(first.toString().contains("expected OK change 10"));
+    }
+
+    @Test
+    public void testTornTailIsDropped() throws Exception {
+        record();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+        assertEquals(11, CommandLog.read(file).getEvents().size());
+    }
+
+    @Test
+    public void testRoundTripWithExtendedRegistry() throws Exception {
+        IngredientRegistry ingredients = IngredientRegistry.STANDARD.with("oat milk", 50);
+        RecipeBook recipeBook = new RecipeBook();
+        recipeBook.addRecipe(new Recipe("Oat Latte", 60, new int[] { 3, 0, 1, 0, 4 }));
+        Inventory inventory = new Inventory(ingredients);
+        inventory.setUnits(4, 9);
+        try (EventSourcedCoffeeMaker CM = new EventSourcedCoffeeMaker(recipeBook, inventory, file)) {
+            CM.tryMakeCoffee("Oat Latte", 60);
+            CM.tryMakeCoffee("Oat Latte", 60);
+            CM.tryMakeCoffee("Oat Latte", 60);
+            CM.addInventory(4, 30);
+            CM.tryMakeCoffee("Oat Latte", 60);
+        }
+        CommandLog.Recording recording = CommandLog.read(file);
+        assertArrayEquals(new int[] { 20, 20, 20, 20, 9 }, recording.getLevels());
+        assertEquals(5, recording.getEvents().size());
+        // 9 units of oat milk make 2 oat lattes
+        assertEquals(DispenseStatus.OUT_OF_STOCK, DispenseResult.status(recording.getEvents().get(2).getOutcome()));
+        assertEquals(4, recording.getEvents().get(3).getIngredient());
+        assertEquals(30, recording.getEvents().get(3).getAmount());
+
+        Inventory replayed = new Inventory(ingredients);
+        ReplayReport report = new ReplayEngine(recording).run(replayed, ReplayMode.MAX_SPEED);
+        assertEquals(0, report.getDivergenceCount());
+        assertEquals(27, replayed.getUnits(4));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ReplayEngine(recording).run(new Inventory(), ReplayMode.MAX_SPEED));
+    }
+
+    @Test
+    public void testRecordsAndReplaysBatchOrders() throws Exception {
+        RecipeBook recipeBook = new RecipeBook();
+        recipeBook.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        List<OrderLine> order = Arrays.asList(new OrderLine("Coffee", 60), new OrderLine("Coffee", 50),
+                new OrderLine("Tea", 50), new OrderLine("Coffee", 60), new OrderLine("Coffee", 50),
+                new OrderLine("Coffee", 50));
+        SimulatedClock clock = new SimulatedClock();
+        try (EventSourcedCoffeeMaker CM = new EventSourcedCoffeeMaker(recipeBook, new Inventory(), file, clock)) {
+            BatchResult rejected = CM.makeCoffeeBatch(order, BatchMode.ALL_OR_NOTHING);
+            assertEquals(0, rejected.getMadeCount());
+            BatchResult made = CM.makeCoffeeBatch(order, BatchMode.BEST_EFFORT);
+            assertEquals(5, made.getMadeCount());
+            CM.tryMakeCoffee("Coffee", 50);
+        }
+        CommandLog.Recording recording = CommandLog.read(file);
+        List<CommandEvent> events = recording.getEvents();
+        assertEquals(15, events.size());
+        assertEquals(CommandEvent.Type.BATCH, events.get(7).getType());
+        assertEquals(BatchMode.BEST_EFFORT, events.get(7).getMode());
+        assertEquals(6, events.get(7).getAmount());
+        assertEquals(CommandEvent.Type.BATCH_LINE, events.get(8).getType());
+        assertEquals(10, DispenseResult.change(events.get(8).getOutcome()));
+        assertEquals(DispenseStatus.UNKNOWN_RECIPE, DispenseResult.status(events.get(10).getOutcome()));
+        // the batch used all 20 units of coffee
+        assertEquals(DispenseStatus.OUT_OF_STOCK, DispenseResult.status(events.get(14).getOutcome()));
+
+        Inventory replayed = new Inventory();
+        ReplayReport report = new ReplayEngine(recording).run(replayed, ReplayMode.MAX_SPEED);
+        assertEquals(15, report.getCommands());
+        // each batch is timed as one command
+        assertEquals(3, report.getLatency().getCount());
+        assertEquals(0, report.getDivergenceCount());
+        assertEquals(0, replayed.getCoffee());
+
+        // each command takes 6 bytes; a batch cut short is left out whole
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 7);
+        }
+        assertEquals(7, CommandLog.read(file).getEvents().size());
+    }
+
+    @Test
+    public void testRecordsIngredientsOfHolds() throws Exception {
+        RecipeBook recipeBook = new RecipeBook();
+        recipeBook.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        SimulatedClock clock = new SimulatedClock();
+        try (EventSourcedCoffeeMaker CM = new EventSourcedCoffeeMaker(recipeBook, new Inventory(), file, clock)) {
+            HoldManager holds = new HoldManager(CM, clock, 30, 1, TimeUnit.SECONDS);
+            Hold released = holds.reserve("Coffee");
+            Hold committed = holds.reserve("Coffee");
+            CM.addCoffeeInventory(86);
+            holds.release(released);
+            holds.commit(committed, 50);
+            CM.tryMakeCoffee("Coffee", 50);
+            holds.tick();
+        }
+        CommandLog.Recording recording = CommandLog.read(file);
+        List<CommandEvent> events = recording.getEvents();
+        assertEquals(7, events.size());
+        assertEquals(CommandEvent.Type.HOLD_INGREDIENTS, events.get(0).getType());
+        assertArrayEquals(new int[] { 4, 0, 1, 0 }, events.get(0).getAmounts());
+        assertEquals(CommandEvent.Type.RETURN_INGREDIENTS, events.get(3).getType());
+        // 12 units of coffee were left, 86 added: 2 of the 4 given back did not fit
+        assertEquals(2, events.get(3).getOutcome());
+        assertEquals(CommandEvent.Type.SETTLE, events.get(4).getType());
+        assertEquals(CommandEvent.Type.RETURN_INGREDIENTS, events.get(6).getType());
+        assertArrayEquals(new int[] { 2, 0, 0, 0 }, events.get(6).getAmounts());
+        assertEquals(0, events.get(6).getOutcome());
+
+        Inventory replayed = new Inventory();
+        ReplayReport report = new ReplayEngine(recording).run(replayed, ReplayMode.MAX_SPEED);
+        assertEquals(0, report.getDivergenceCount());
+        assertEquals(98, replayed.getCoffee());
+        assertEquals(18, replayed.getSugar());
+    }
+
+    @Test
+    public void testRecordsAndReplaysTheCashBox() throws Exception {
+        RecipeBook recipeBook = new RecipeBook();
+        recipeBook.addRecipe(new Recipe("Coffee", 50, 4, 0, 1, 0));
+        SimulatedClock clock = new SimulatedClock();
+        try (EventSourcedCoffeeMaker CM = new EventSourcedCoffeeMaker(recipeBook, new Inventory(), file, clock)) {
+            CashBox box = new CashBox(5, 10, 25, 50, 100);
+            box.addCoins(10, 1);
+            CM.setCashBox(box);
+            assertEquals(DispenseStatus.NO_CHANGE, DispenseResult.status(CM.tryMakeCoffee("Coffee", 75)));
+            CM.addCoins(25, 1);
+            assertThrows(InvalidValueException.class, () -> CM.removeCoins(5, 1));
+            assertEquals(25, CM.makeCoffee("Coffee", 75));
+            HoldManager holds = new HoldManager(CM, clock, 30, 1, TimeUnit.SECONDS);
+            Hold hold = holds.reserve("Coffee");
+            // pays the 10, then no 15 is left for the next one
+            assertTrue(DispenseResult.isOk(holds.commit(hold, 60)));
+            assertEquals(DispenseStatus.NO_CHANGE, DispenseResult.status(CM.tryMakeCoffee("Coffee", 65)));
+            CM.setCashBox(null);
+            assertEquals(15, CM.makeCoffee("Coffee", 65));
+        }
+        CommandLog.Recording recording = CommandLog.read(file);
+        List<CommandEvent> events = recording.getEvents();
+        assertEquals(CommandEvent.Type.SET_CASH_BOX, events.get(0).getType());
+        assertArrayEquals(new int[] { 100, 50, 25, 10, 5 }, events.get(0).getDenominations());
+        assertArrayEquals(new int[] { 0, 0, 0, 1, 0 }, events.get(0).getAmounts());
+        assertEquals(CommandEvent.Type.ADD_COINS, events.get(2).getType());
+        assertEquals(25, events.get(2).getDenominations()[0]);
+        assertEquals(CommandEvent.REJECTED, events.get(3).getOutcome());
+        assertEquals(CommandEvent.Type.SETTLE, events.get(6).getType());
+        assertEquals(DispenseResult.encode(DispenseStatus.OK, 10), events.get(6).getOutcome());
+        assertNull(events.get(8).getDenominations());
+
+        ReplayReport report = new ReplayEngine(recording).run(new Inventory(), ReplayMode.MAX_SPEED);
+        assertEquals(0, report.getDivergenceCount());
+    }
+}
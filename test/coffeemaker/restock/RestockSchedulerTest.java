@@ -0,0 +1,135 @@
+package coffeemaker.restock;
+
+import coffeemaker.CoffeeMaker;
+import coffeemaker.IngredientRegistry;
+import coffeemaker.Inventory;
+import coffeemaker.Recipe;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RestockSchedulerTest {
+
+    private CoffeeMaker CM;
+    private SimulatedClock clock;
+    private RestockScheduler scheduler;
+    private List<RestockEvent> events;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        CM = new CoffeeMaker();
+        CM.addRecipe(new Recipe("Coffee", 50, 2, 0, 1, 0));
+        clock = new SimulatedClock();
+        scheduler = new RestockScheduler(CM, clock, 60, 30, TimeUnit.SECONDS);
+        events = new ArrayList<>();
+        scheduler.addListener(events::add);
+        scheduler.tick();
+    }
+
+    /** Sells one coffee every 10 seconds for the given seconds */
+    private void sell(int seconds) throws Exception {
+        for (int t = 0; t < seconds; t += 10) {
+            CM.makeCoffee("Coffee", 50);
+            clock.advance(10, TimeUnit.SECONDS);
+            scheduler.tick();
+        }
+    }
+
+    @Test
+    public void testTracksConsumptionRate() throws Exception {
+        scheduler.setSupplier((ingredient, requested) -> requested);
+        sell(600);
+        assertEquals(0.2, scheduler.getUnitsPerSecond(Ingredient.COFFEE), 0.01);
+        assertEquals(0.1, scheduler.getUnitsPerSecond(Ingredient.SUGAR), 0.01);
+        assertEquals(0, scheduler.getUnitsPerSecond(Ingredient.MILK));
+        assertEquals(Double.POSITIVE_INFINITY, scheduler.getSecondsToEmpty(Ingredient.MILK));
+    }
+
+    @Test
+    public void testRestocksBeforeRunningOut() throws Exception {
+        scheduler.setSupplier((ingredient, requested) -> requested);
+        sell(3000);
+        assertTrue(events.stream().anyMatch(e -> e.getIngredient() == Ingredient.COFFEE));
+        assertTrue(events.stream().anyMatch(e -> e.getIngredient() == Ingredient.SUGAR));
+        for (RestockEvent event : events) {
+            assertTrue(event.getLevel() > 0);
+            assertTrue(event.getSecondsToEmpty() <= 30);
+            assertEquals(100 - event.getLevel(), event.getDelivered());
+        }
+    }
+
+    @Test
+    public void testNotifiesOnceWithoutSupplier() throws Exception {
+        sell(80);
+        // 20 coffee units go at 0.2 per second; the forecast dips under 30 s well before the last sale
+        assertEquals(1, events.size());
+        assertEquals(0, events.get(0).getDelivered());
+        assertEquals(Ingredient.COFFEE, events.get(0).getIngredient());
+        CM.addCoffeeInventory(80);
+        clock.advance(10, TimeUnit.SECONDS);
+        scheduler.tick();
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void testPartialDeliveryRespectsCap() throws Exception {
+        scheduler.setSupplier((ingredient, requested) -> requested + 50);
+        sell(80);
+        assertTrue(CM.checkCoffeeInventory() <= 100);
+        assertEquals(events.get(0).getRequested(), events.get(0).getDelivered());
+        assertEquals(50, events.get(0).getSurplus());
+        assertEquals(50, scheduler.getSurplus(0));
+    }
+
+    @Test
+    public void testRestocksEveryIngredientUpToItsCapacity() throws Exception {
+        CM = new CoffeeMaker(new Inventory(IngredientRegistry.STANDARD.with("oat milk", 50)));
+        CM.addRecipe(new Recipe("Oat Latte", 60, new int[] { 1, 0, 0, 0, 5 }));
+        scheduler = new RestockScheduler(CM, clock, 60, 30, TimeUnit.SECONDS);
+        scheduler.addListener(events::add);
+        List<String> ordered = new ArrayList<>();
+        scheduler.setSupplier(new RestockSupplier() {
+            @Override
+            public int deliver(Ingredient ingredient, int requested) {
+                return requested;
+            }
+
+            @Override
+            public int deliver(int ingredient, String name, int requested) {
+                ordered.add(name);
+                return requested;
+            }
+        });
+        scheduler.tick();
+        // 20 units of oat milk go five at a time, the third sale leaves 5
+        for (int t = 0; t < 30; t += 10) {
+            CM.makeCoffee("Oat Latte", 60);
+            clock.advance(10, TimeUnit.SECONDS);
+            scheduler.tick();
+        }
+        assertEquals(Arrays.asList("oat milk"), ordered);
+        assertEquals(1, events.size());
+        RestockEvent event = events.get(0);
+        assertNull(event.getIngredient());
+        assertEquals("oat milk", event.getName());
+        assertEquals(5, event.getLevel());
+        assertEquals(45, event.getDelivered());
+        assertEquals(50, CM.checkInventory(4));
+    }
+
+    @Test
+    public void testRefillIsNotConsumption() throws Exception {
+        sell(100);
+        double rate = scheduler.getUnitsPerSecond(Ingredient.COFFEE);
+        CM.addCoffeeInventory(50);
+        clock.advance(10, TimeUnit.SECONDS);
+        scheduler.tick();
+        assertTrue(scheduler.getUnitsPerSecond(Ingredient.COFFEE) < rate);
+    }
+}
@@ -0,0 +1,139 @@
+package coffeemaker.server;
+
+import coffeemaker.CoffeeMaker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OrderProtocolTest {
+
+    private CoffeeMaker CM;
+    private OrderProtocol protocol;
+
+    @BeforeEach
+    public void setUp() {
+        CM = new CoffeeMaker();
+        protocol = new OrderProtocol(CM);
+    }
+
+    @Test
+    public void testAddRecipeAndMakeCoffee() {
+        assertEquals("OK", protocol.handle("ADD_RECIPE 75 0 3 1 3 Hot Chocolate"));
+        assertEquals("OK Hot Chocolate;", protocol.handle("RECIPES"));
+        assertEquals("OK 5", protocol.handle("MAKE_COFFEE 80 Hot Chocolate"));
+        assertEquals("OK 20 17 19 17", protocol.handle("INVENTORY"));
+    }
+
+    @Test
+    public void testMakeCoffeeFailures() {
+        protocol.handle("ADD_RECIPE 50 4 0 1 0 Coffee");
+        assertEquals("ERR UNKNOWN_RECIPE 50", protocol.handle("MAKE_COFFEE 50 Top"));
+        assertEquals("ERR INSUFFICIENT_MONEY 40", protocol.handle("MAKE_COFFEE 40 Coffee"));
+        assertEquals("ERR Invalid number", protocol.handle("MAKE_COFFEE lots Coffee"));
+    }
+
+    @Test
+    public void testRecipeErrors() {
+        protocol.handle("ADD_RECIPE 50 4 0 1 0 Coffee");
+        assertEquals("ERR Recipe already exists", protocol.handle("ADD_RECIPE 60 4 0 1 0 Coffee"));
+        assertEquals("ERR Price must be a positive integer", protocol.handle("ADD_RECIPE 0 1 0 1 0 Free"));
+        assertEquals("OK", protocol.handle("DELETE_RECIPE Coffee"));
+        assertEquals("ERR Unkown Recipe", protocol.handle("DELETE_RECIPE Coffee"));
+    }
+
+    @Test
+    public void testAddInventory() {
+        assertEquals("OK", protocol.handle("ADD_INVENTORY milk 30"));
+        assertEquals(50, CM.checkMilkInventory());
+        assertTrue(protocol.handle("ADD_INVENTORY milk 60").startsWith("ERR"));
+        assertEquals("ERR Unknown ingredient", protocol.handle("ADD_INVENTORY cream 1"));
+        assertEquals("ERR Unknown command", protocol.handle("REFILL"));
+    }
+
+    @Test
+    public void testServerConnection() throws Exception {
+        try (OrderServer server = new OrderServer(CM, 0);
+             Socket socket = new Socket("127.0.0.1", server.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            OutputStream out = socket.getOutputStream();
+            out.write("ADD_RECIPE 50 4 0 1 0 Coffee\nMAKE_COFFEE 60 Coffee\nQUIT\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("OK", in.readLine());
+            assertEquals("OK 10", in.readLine());
+            assertEquals(OrderProtocol.BYE, in.readLine());
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void testServerJoinsLinesSplitAcrossWrites() throws Exception {
+        try (OrderServer server = new OrderServer(CM, 0);
+             Socket first = new Socket("127.0.0.1", server.getPort());
+             Socket second = new Socket("127.0.0.1", server.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(first.getInputStream(), StandardCharsets.UTF_8));
+             BufferedReader secondIn = new BufferedReader(new InputStreamReader(second.getInputStream(), StandardCharsets.UTF_8))) {
+            OutputStream out = first.getOutputStream();
+            out.write("ADD_RECIPE 50 4 0 1 0 Cof".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            Thread.sleep(50);
+            out.write("fee\r\nMAKE_COFFEE 50 Coffee\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("OK", in.readLine());
+            assertEquals("OK 0", in.readLine());
+            second.getOutputStream().write("RECIPES\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("OK Coffee;", secondIn.readLine());
+            while (server.getOpenConnections() < 2) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, server.getOpenConnections());
+            assertEquals(2, server.getAcceptedConnections());
+        }
+    }
+
+    @Test
+    public void testServerAnswersRequestsThatThrow() throws Exception {
+        CoffeeMaker failing = new CoffeeMaker() {
+            @Override
+            public long tryMakeCoffee(String recipeName, int amtPaid) {
+                throw new IllegalStateException("Journal failed");
+            }
+        };
+        try (OrderServer server = new OrderServer(failing, 0);
+             Socket socket = new Socket("127.0.0.1", server.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            OutputStream out = socket.getOutputStream();
+            out.write("MAKE_COFFEE 50 Coffee\nRECIPES\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("ERR Journal failed", in.readLine());
+            assertEquals("OK ", in.readLine());
+            try (Socket other = new Socket("127.0.0.1", server.getPort());
+                 BufferedReader otherIn = new BufferedReader(new InputStreamReader(other.getInputStream(), StandardCharsets.UTF_8))) {
+                other.getOutputStream().write("INVENTORY\n".getBytes(StandardCharsets.UTF_8));
+                assertEquals("OK 20 20 20 20", otherIn.readLine());
+            }
+        }
+    }
+
+    @Test
+    public void testServerClosesConnectionOnLineTooLong() throws Exception {
+        try (OrderServer server = new OrderServer(CM, 0);
+             Socket socket = new Socket("127.0.0.1", server.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            OutputStream out = socket.getOutputStream();
+            byte[] name = new byte[OrderServer.MAX_LINE];
+            Arrays.fill(name, (byte) 'x');
+            out.write("MAKE_COFFEE 50 ".getBytes(StandardCharsets.UTF_8));
+            out.write(name);
+            assertEquals(OrderServer.LINE_TOO_LONG, in.readLine());
+            assertNull(in.readLine());
+            while (server.getOpenConnections() > 0) {
+                Thread.sleep(10);
+            }
+        }
+    }
+}
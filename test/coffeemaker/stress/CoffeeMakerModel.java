@@ -0,0 +1,197 @@
+package coffeemaker.stress;
+
+import coffeemaker.DispenseResult;
+import coffeemaker.DispenseStatus;
+import coffeemaker.Recipe;
+import coffeemaker.exceptions.InvalidValueException;
+
+/**
+ * Sequential specification of a coffee maker with a fixed pool of
+ * recipes, against which concurrent histories are checked.
+ *
+ * The whole state fits in a long: seven bits for each of the four
+ * ingredient levels (0 to 100) and one bit per pool recipe telling
+ * whether the recipe book holds it. The model is a set of pure
+ * functions from a state and an operation to the next state, or
+ * to MISMATCH if the operation could not have returned what it
+ * did from that state.
+ *
+ * tryMakeCoffee looks the recipe up and then deducts the
+ * ingredients as two atomic steps, so a make is split the same
+ * way: {@link #lookup} and then {@link #dispense}.
+ */
+final class CoffeeMakerModel {
+
+    static final String[] INGREDIENTS = {"coffee", "milk", "sugar", "chocolate"};
+    /** Largest number of recipes in the recipe book */
+    static final int MAX_RECIPES = 3;
+    static final int MAX_LEVEL = 100;
+    /** Returned by the step functions for an outcome the state cannot produce */
+    static final long MISMATCH = -1;
+
+    /** lookup results */
+    static final int DONE = 0;
+    static final int DISPENSE = 1;
+
+    private static final Recipe[] RECIPES = {
+        newRecipe("Coffee", 50, 3, 0, 1, 0),
+        newRecipe("Latte", 75, 2, 3, 1, 0),
+        newRecipe("Mocha", 80, 2, 1, 1, 2),
+        newRecipe("Hot Chocolate", 60, 0, 2, 1, 3)
+    };
+    private static final int LEVEL_BITS = 7;
+    private static final int LEVEL_MASK = (1 << LEVEL_BITS) - 1;
+    private static final int RECIPE_SHIFT = 4 * LEVEL_BITS;
+    private static final long LEVELS = (1L << RECIPE_SHIFT) - 1;
+
+    private CoffeeMakerModel() {
+    }
+
+    private static Recipe newRecipe(String name, int price, int coffee, int milk, int sugar, int chocolate) {
+        try {
+            return new Recipe(name, price, coffee, milk, sugar, chocolate);
+        } catch (InvalidValueException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    static int recipes() {
+        return RECIPES.length;
+    }
+
+    static Recipe recipe(int index) {
+        return RECIPES[index];
+    }
+
+    static int[] amounts(Recipe r) {
+        return new int[] {r.getAmtCoffee(), r.getAmtMilk(), r.getAmtSugar(), r.getAmtChocolate()};
+    }
+
+    /**
+     * Packs ingredient levels and the set of pool recipes held,
+     * one bit per pool index, into a state.
+     */
+    static long pack(int[] levels, int recipeMask) {
+        long state = (long) recipeMask << RECIPE_SHIFT;
+        for (int i = 0; i < 4; i++) {
+            state |= (long) (levels[i] & LEVEL_MASK) << (i * LEVEL_BITS);
+        }
+        return state;
+    }
+
+    static int level(long state, int ingredient) {
+        return (int) (state >>> (ingredient * LEVEL_BITS)) & LEVEL_MASK;
+    }
+
+    static boolean hasRecipe(long state, int recipe) {
+        return (state >>> (RECIPE_SHIFT + recipe) & 1) != 0;
+    }
+
+    /**
+     * First step of a make: the recipe lookup and price check.
+     * Returns DONE if the make ends here with the recorded
+     * outcome, DISPENSE if it goes on to deduct ingredients, or
+     * MISMATCH.
+     */
+    static int lookup(long state, Operation op) {
+        Recipe r = RECIPES[op.arg];
+        DispenseStatus status;
+        if (!hasRecipe(state, op.arg)) {
+            status = DispenseStatus.UNKNOWN_RECIPE;
+        } else if (r.getPrice() > op.amount) {
+            status = DispenseStatus.INSUFFICIENT_MONEY;
+        } else {
+            DispenseStatus recorded = DispenseResult.status(op.outcome);
+            return recorded == DispenseStatus.OK || recorded == DispenseStatus.OUT_OF_STOCK ? DISPENSE : (int) MISMATCH;
+        }
+        return op.outcome == DispenseResult.encode(status, op.amount) ? DONE : (int) MISMATCH;
+    }
+
+    /**
+     * Second step of a make whose lookup found the recipe: the
+     * ingredient deduction. Returns the next state or MISMATCH.
+     */
+    static long dispense(long state, Operation op) {
+        Recipe r = RECIPES[op.arg];
+        int[] amounts = amounts(r);
+        boolean enough = true;
+        for (int i = 0; i < 4; i++) {
+            enough &= level(state, i) >= amounts[i];
+        }
+        if (!enough) {
+            return op.outcome == DispenseResult.encode(DispenseStatus.OUT_OF_STOCK, op.amount) ? state : MISMATCH;
+        }
+        if (op.outcome != DispenseResult.encode(DispenseStatus.OK, op.amount - r.getPrice())) {
+            return MISMATCH;
+        }
+        for (int i = 0; i < 4; i++) {
+            state -= (long) amounts[i] << (i * LEVEL_BITS);
+        }
+        return state;
+    }
+
+    /**
+     * Applies an operation other than a make in one step.
+     * Returns the next state or MISMATCH.
+     */
+    static long apply(long state, Operation op) {
+        switch (op.kind) {
+            case ADD_INVENTORY: {
+                int level = level(state, op.arg);
+                boolean accepted = op.amount >= 0 && level + op.amount <= MAX_LEVEL;
+                if (accepted != (op.outcome == Operation.ACCEPTED)) {
+                    return MISMATCH;
+                }
+                return accepted ? state + ((long) op.amount << (op.arg * LEVEL_BITS)) : state;
+            }
+            case DELETE_RECIPE: {
+                boolean accepted = hasRecipe(state, op.arg);
+                if (accepted != (op.outcome == Operation.ACCEPTED)) {
+                    return MISMATCH;
+                }
+                return accepted ? state & ~(1L << (RECIPE_SHIFT + op.arg)) : state;
+            }
+            case ADD_RECIPE: {
+                boolean accepted = !hasRecipe(state, op.arg) && Long.bitCount(state >>> RECIPE_SHIFT) < MAX_RECIPES;
+                if (accepted != (op.outcome == Operation.ACCEPTED)) {
+                    return MISMATCH;
+                }
+                return accepted ? state | 1L << (RECIPE_SHIFT + op.arg) : state;
+            }
+            case READ_LEVELS:
+                return (state & LEVELS) == op.outcome ? state : MISMATCH;
+            case READ_STATE:
+                return state == op.outcome ? state : MISMATCH;
+            default:
+                throw new IllegalArgumentException("A make is applied with lookup and dispense: " + op.kind);
+        }
+    }
+
+    static String describe(long state) {
+        StringBuilder b = new StringBuilder("{");
+        for (int i = 0; i < 4; i++) {
+            b.append(INGREDIENTS[i]).append('=').append(level(state, i)).append(", ");
+        }
+        b.append("recipes=[");
+        String sep = "";
+        for (int r = 0; r < RECIPES.length; r++) {
+            if (hasRecipe(state, r)) {
+                b.append(sep).append(RECIPES[r].getName());
+                sep = ", ";
+            }
+        }
+        return b.append("]}").toString();
+    }
+
+    static String describeOutcome(Operation op) {
+        switch (op.kind) {
+            case MAKE_COFFEE:
+                return DispenseResult.status(op.outcome) + " " + DispenseResult.change(op.outcome);
+            case READ_LEVELS:
+            case READ_STATE:
+                return describe(op.outcome);
+            default:
+                return op.outcome == Operation.ACCEPTED ? "accepted" : "rejected";
+        }
+    }
+}
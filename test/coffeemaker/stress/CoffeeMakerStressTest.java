@@ -0,0 +1,144 @@
+package coffeemaker.stress;
+
+import coffeemaker.AtomicInventory;
+import coffeemaker.DispenseResult;
+import coffeemaker.DispenseStatus;
+import coffeemaker.Inventory;
+import coffeemaker.StripedInventory;
+import coffeemaker.exceptions.InvalidValueException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CoffeeMakerStressTest {
+
+    /** Operations per run; CI sets it to a few million */
+    private static final long OPERATIONS = Long.getLong("coffeemaker.stress.operations", 100_000);
+
+    private static final int COFFEE = 0;
+    private static final int LATTE = 1;
+
+    /** Inventory that checks the levels and deducts them in separate steps */
+    private static class RacyInventory extends Inventory {
+        RacyInventory() throws InvalidValueException {
+            super();
+        }
+
+        @Override
+        public boolean useIngredients(int[] amounts) {
+            int[] levels = getLevels();
+            for (int i = 0; i < amounts.length; i++) {
+                if (levels[i] < amounts[i]) {
+                    return false;
+                }
+            }
+            Thread.yield();
+            try {
+                for (int i = 0; i < amounts.length; i++) {
+                    setUnits(i, levels[i] - amounts[i]);
+                }
+            } catch (InvalidValueException e) {
+                throw new IllegalStateException(e);
+            }
+            return true;
+        }
+    }
+
+    private static StressReport stress(StressHarness.InventoryFactory inventories) throws Exception {
+        return new StressHarness(inventories, 4, 6, 7).run(OPERATIONS);
+    }
+
+    @Test
+    public void testInventoryIsLinearizable() throws Exception {
+        StressReport report = stress(Inventory::new);
+        assertTrue(report.getOperations() >= OPERATIONS);
+        assertTrue(report.isClean(), String.join("\n", report.getFailures()));
+    }
+
+    @Test
+    public void testAtomicInventoryIsLinearizable() throws Exception {
+        StressReport report = stress(AtomicInventory::new);
+        assertTrue(report.isClean(), String.join("\n", report.getFailures()));
+    }
+
+    @Test
+    public void testStripedInventoryIsLinearizable() throws Exception {
+        StressReport report = stress(StripedInventory::new);
+        assertTrue(report.isClean(), String.join("\n", report.getFailures()));
+    }
+
+    @Test
+    public void testLostUpdateIsReported() throws Exception {
+        StressReport report = stress(RacyInventory::new);
+        assertEquals(StressHarness.MAX_FAILURES, report.getFailures().size());
+        assertTrue(report.getFailures().stream().anyMatch(f -> f.contains("lost update")), report.getFailures().get(0));
+    }
+
+    private static Operation op(Operation.Kind kind, int arg, int amount, long call, long ret, long outcome) {
+        Operation op = new Operation(0, kind, arg, amount);
+        op.call = call;
+        op.ret = ret;
+        op.outcome = outcome;
+        return op;
+    }
+
+    private static Operation make(int recipe, int paid, long call, long ret, DispenseStatus status) {
+        int change = status == DispenseStatus.OK ? paid - CoffeeMakerModel.recipe(recipe).getPrice() : paid;
+        return op(Operation.Kind.MAKE_COFFEE, recipe, paid, call, ret, DispenseResult.encode(status, change));
+    }
+
+    private static Operation read(int coffee, int milk, int sugar, int chocolate, long call, long ret) {
+        return op(Operation.Kind.READ_LEVELS, 0, 0, call, ret, CoffeeMakerModel.pack(new int[] {coffee, milk, sugar, chocolate}, 0));
+    }
+
+    @Test
+    public void testOneOfTwoOverlappingMakesGetsTheLastUnits() {
+        long initial = CoffeeMakerModel.pack(new int[] {3, 0, 1, 0}, 1 << COFFEE);
+        assertTrue(LinearizabilityChecker.check(initial, new Operation[] {
+            make(COFFEE, 50, 1, 4, DispenseStatus.OUT_OF_STOCK),
+            make(COFFEE, 60, 2, 3, DispenseStatus.OK),
+            read(0, 0, 0, 0, 5, 6)
+        }));
+        assertFalse(LinearizabilityChecker.check(initial, new Operation[] {
+            make(COFFEE, 50, 1, 4, DispenseStatus.OK),
+            make(COFFEE, 60, 2, 3, DispenseStatus.OK)
+        }));
+    }
+
+    @Test
+    public void testStaleReadIsNotLinearizable() {
+        long initial = CoffeeMakerModel.pack(new int[] {3, 0, 1, 0}, 1 << COFFEE);
+        assertFalse(LinearizabilityChecker.check(initial, new Operation[] {
+            make(COFFEE, 50, 1, 2, DispenseStatus.OK),
+            read(3, 0, 1, 0, 3, 4)
+        }));
+        assertTrue(LinearizabilityChecker.check(initial, new Operation[] {
+            make(COFFEE, 50, 1, 4, DispenseStatus.OK),
+            read(3, 0, 1, 0, 2, 3)
+        }));
+    }
+
+    @Test
+    public void testMakeLooksUpRecipeBeforeDeducting() {
+        // the make found Latte before the delete and deducted after the read
+        long initial = CoffeeMakerModel.pack(new int[] {5, 5, 5, 0}, 1 << LATTE);
+        assertTrue(LinearizabilityChecker.check(initial, new Operation[] {
+            make(LATTE, 75, 1, 8, DispenseStatus.OK),
+            op(Operation.Kind.DELETE_RECIPE, LATTE, 0, 2, 3, Operation.ACCEPTED),
+            read(5, 5, 5, 0, 4, 5),
+            op(Operation.Kind.READ_STATE, 0, 0, 9, 10, CoffeeMakerModel.pack(new int[] {3, 2, 4, 0}, 0))
+        }));
+    }
+
+    @Test
+    public void testConservationReportsDoubleDeduction() {
+        long initial = CoffeeMakerModel.pack(new int[] {6, 0, 2, 0}, 1 << COFFEE);
+        String failure = StressHarness.check(initial, new Operation[] {
+            make(COFFEE, 50, 1, 2, DispenseStatus.OK),
+            op(Operation.Kind.READ_STATE, 0, 0, 3, 4, CoffeeMakerModel.pack(new int[] {0, 0, 0, 0}, 1 << COFFEE))
+        });
+        assertNotNull(failure);
+        assertTrue(failure.startsWith("double deduction of coffee: expected 3 units, found 0"), failure);
+        assertTrue(failure.contains("not linearizable"));
+    }
+}
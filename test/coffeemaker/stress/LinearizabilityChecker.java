@@ -0,0 +1,120 @@
+package coffeemaker.stress;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides whether a concurrent history of coffee maker operations
+ * is linearizable with respect to {@link CoffeeMakerModel}, i.e.
+ * whether its operations can be put in one order, consistent with
+ * real time, in which the model returns what each of them did.
+ *
+ * Depth-first search in the manner of Wing and Gong with Lowe's
+ * memoization: at each step any unlinearized operation invoked
+ * before the earliest pending response may go next, and a pair
+ * of linearized set and model state already explored is not
+ * explored again. Histories are short, at most 63 operations, so
+ * the sets are bit masks.
+ */
+final class LinearizabilityChecker {
+
+    static final int MAX_OPERATIONS = 63;
+
+    private final Operation[] ops;
+    private final long all;
+    /** Linearized sets and model states already explored */
+    private final Set<Key> visited = new HashSet<>();
+
+    private LinearizabilityChecker(Operation[] ops) {
+        this.ops = ops;
+        this.all = (1L << ops.length) - 1;
+    }
+
+    /**
+     * Returns true if the history is linearizable from the
+     * initial state.
+     * @param initial the model state before the first operation
+     * @param ops every operation of the history, completed
+     * @return boolean
+     */
+    static boolean check(long initial, Operation[] ops) {
+        if (ops.length > MAX_OPERATIONS) {
+            throw new IllegalArgumentException("At most " + MAX_OPERATIONS + " operations per history");
+        }
+        return new LinearizabilityChecker(ops).search(initial, 0, 0);
+    }
+
+    /**
+     * Searches on from a state with the operations in done
+     * linearized and the makes in dispensing looked up but not
+     * yet dispensed.
+     */
+    private boolean search(long state, long done, long dispensing) {
+        if (done == all) {
+            return true;
+        }
+        if (!visited.add(new Key(done, dispensing, state))) {
+            return false;
+        }
+        long minRet = Long.MAX_VALUE;
+        for (int i = 0; i < ops.length; i++) {
+            if ((done & 1L << i) == 0) {
+                minRet = Math.min(minRet, ops[i].ret);
+            }
+        }
+        for (int i = 0; i < ops.length; i++) {
+            long bit = 1L << i;
+            Operation op = ops[i];
+            if ((done & bit) != 0 || op.call > minRet) {
+                continue;
+            }
+            if (op.kind != Operation.Kind.MAKE_COFFEE) {
+                long next = CoffeeMakerModel.apply(state, op);
+                if (next != CoffeeMakerModel.MISMATCH && search(next, done | bit, dispensing)) {
+                    return true;
+                }
+            } else if ((dispensing & bit) != 0) {
+                long next = CoffeeMakerModel.dispense(state, op);
+                if (next != CoffeeMakerModel.MISMATCH && search(next, done | bit, dispensing & ~bit)) {
+                    return true;
+                }
+            } else {
+                int step = CoffeeMakerModel.lookup(state, op);
+                if (step == CoffeeMakerModel.DONE && search(state, done | bit, dispensing)) {
+                    return true;
+                }
+                if (step == CoffeeMakerModel.DISPENSE && search(state, done, dispensing | bit)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static final class Key {
+        final long done;
+        final long dispensing;
+        final long state;
+
+        Key(long done, long dispensing, long state) {
+            this.done = done;
+            this.dispensing = dispensing;
+            this.state = state;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return done == k.done && dispensing == k.dispensing && state == k.state;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = done * 0x9E3779B97F4A7C15L + dispensing * 0xC2B2AE3D27D4EB4FL + state;
+            return (int) (h ^ h >>> 32);
+        }
+    }
+}
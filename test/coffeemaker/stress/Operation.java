@@ -0,0 +1,58 @@
+package coffeemaker.stress;
+
+/**
+ * One call made by a stress thread: what was called, with which
+ * arguments, what it returned, and the logical times at which it
+ * was invoked and returned.
+ */
+final class Operation {
+
+    enum Kind {
+        /** tryMakeCoffee(recipe, amount); outcome is the encoded result */
+        MAKE_COFFEE,
+        /** add units of an ingredient; outcome is ACCEPTED or REJECTED */
+        ADD_INVENTORY,
+        /** deleteRecipe(recipe); outcome is ACCEPTED or REJECTED */
+        DELETE_RECIPE,
+        /** addRecipe(recipe); outcome is ACCEPTED or REJECTED */
+        ADD_RECIPE,
+        /** Inventory.getLevels(); outcome is the packed levels */
+        READ_LEVELS,
+        /** levels and recipes read once every thread is done; outcome is the packed state */
+        READ_STATE
+    }
+
+    static final long ACCEPTED = 1;
+    static final long REJECTED = 0;
+
+    final int thread;
+    final Kind kind;
+    /** Index of the recipe in the model pool, or of the ingredient */
+    final int arg;
+    /** Amount paid or units added */
+    final int amount;
+    long call;
+    long ret;
+    long outcome;
+
+    Operation(int thread, Kind kind, int arg, int amount) {
+        this.thread = thread;
+        this.kind = kind;
+        this.arg = arg;
+        this.amount = amount;
+    }
+
+    @Override
+    public String toString() {
+        String args;
+        switch (kind) {
+            case MAKE_COFFEE: args = CoffeeMakerModel.recipe(arg).getName() + ", " + amount; break;
+            case ADD_INVENTORY: args = CoffeeMakerModel.INGREDIENTS[arg] + ", " + amount; break;
+            case DELETE_RECIPE:
+            case ADD_RECIPE: args = CoffeeMakerModel.recipe(arg).getName(); break;
+            default: args = ""; break;
+        }
+        return String.format("t%d [%d, %d] %s(%s) -> %s", thread, call, ret, kind, args,
+                CoffeeMakerModel.describeOutcome(this));
+    }
+}
@@ -0,0 +1,361 @@
+package coffeemaker.stress;
+
+import coffeemaker.AtomicInventory;
+import coffeemaker.CoffeeMaker;
+import coffeemaker.DispenseResult;
+import coffeemaker.Inventory;
+import coffeemaker.RecipeBook;
+import coffeemaker.StripedInventory;
+import coffeemaker.exceptions.AmountOfRecipeException;
+import coffeemaker.exceptions.DuplicatedRecipeException;
+import coffeemaker.exceptions.InvalidValueException;
+import coffeemaker.exceptions.RecipeException;
+import coffeemaker.restock.Ingredient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs randomized concurrent histories against a coffee maker and
+ * checks each of them.
+ *
+ * Every history starts from a fresh coffee maker in a random
+ * state, with low levels so that makes compete for the last
+ * units. Each thread then runs a few random operations: makes,
+ * inventory adds, recipe adds and deletes, and level reads, all
+ * stamped with a shared logical clock on invocation and
+ * response. Once the threads are done the final state is read and
+ * the history is checked twice:
+ * <ul>
+ * <li>conservation: the final levels are the initial levels plus
+ * the accepted adds minus the ingredients of the beverages made.
+ * More left means a deduction or add was lost, less means
+ * something was deducted twice;</li>
+ * <li>linearizability against {@link CoffeeMakerModel}.</li>
+ * </ul>
+ * Histories are kept short so that checking costs about as much
+ * as running them, and a run is a long sequence of them.
+ *
+ * Usage: StressHarness [operations] [monitor|atomic|striped]
+ */
+public class StressHarness {
+
+    /** Creates the inventory of each history */
+    public interface InventoryFactory {
+        Inventory create() throws InvalidValueException;
+    }
+
+    /** Failed histories kept; a run stops after that many */
+    public static final int MAX_FAILURES = 10;
+
+    private final InventoryFactory inventories;
+    private final int threads;
+    private final int opsPerThread;
+    private final long seed;
+
+    /**
+     * @param inventories
+     * @param threads threads running each history
+     * @param opsPerThread operations of each thread in a history
+     * @param seed of the random operations
+     */
+    public StressHarness(InventoryFactory inventories, int threads, int opsPerThread, long seed) {
+        if (threads < 1 || opsPerThread < 1 || threads * opsPerThread + 1 > LinearizabilityChecker.MAX_OPERATIONS) {
+            throw new IllegalArgumentException("A history has at most " + (LinearizabilityChecker.MAX_OPERATIONS - 1)
+                    + " operations");
+        }
+        this.inventories = inventories;
+        this.threads = threads;
+        this.opsPerThread = opsPerThread;
+        this.seed = seed;
+    }
+
+    /**
+     * Runs histories until at least the given number of operations
+     * were checked or MAX_FAILURES histories failed.
+     * @param operations
+     * @return StressReport
+     * @throws InvalidValueException if the factory fails
+     * @throws InterruptedException
+     */
+    public StressReport run(long operations) throws InvalidValueException, InterruptedException {
+        Round round = new Round();
+        List<Worker> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Worker worker = new Worker(t, round);
+            workers.add(worker);
+            worker.start();
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        List<String> failures = new ArrayList<>();
+        long histories = 0;
+        long done = 0;
+        long start = System.nanoTime();
+        try {
+            while (done < operations && failures.size() < MAX_FAILURES) {
+                long initial = randomState(random);
+                Inventory inventory = inventories.create();
+                round.coffeeMaker = newCoffeeMaker(inventory, initial);
+                round.inventory = inventory;
+                for (int t = 0; t < threads; t++) {
+                    round.plan[t] = randomOperations(random, t);
+                }
+                round.await();
+                round.await();
+                if (round.error != null) {
+                    throw new IllegalStateException("Operation threw", round.error);
+                }
+                Operation[] history = history(round);
+                String failure = check(initial, history);
+                if (failure != null) {
+                    failures.add("history " + histories + ": " + failure);
+                }
+                histories++;
+                done += history.length;
+            }
+        } finally {
+            round.stopped = true;
+            round.await();
+            for (Worker worker : workers) {
+                worker.join();
+            }
+        }
+        return new StressReport(histories, done, System.nanoTime() - start, failures);
+    }
+
+    /** Operations of the current history, shared by the threads */
+    private final class Round {
+        final CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        /** Threads at the start line, so that they start together */
+        final AtomicInteger ready = new AtomicInteger();
+        final AtomicLong clock = new AtomicLong();
+        final Operation[][] plan = new Operation[threads][];
+        CoffeeMaker coffeeMaker;
+        Inventory inventory;
+        volatile boolean stopped;
+        volatile Throwable error;
+
+        void await() throws InterruptedException {
+            try {
+                barrier.await();
+            } catch (BrokenBarrierException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private final class Worker extends Thread {
+        private final int thread;
+        private final Round round;
+
+        Worker(int thread, Round round) {
+            super("stress-" + thread);
+            this.thread = thread;
+            this.round = round;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int generation = 1; ; generation++) {
+                    round.await();
+                    if (round.stopped) {
+                        return;
+                    }
+                    round.ready.incrementAndGet();
+                    while (round.ready.get() < generation * threads) {
+                        Thread.yield();
+                    }
+                    try {
+                        for (Operation op : round.plan[thread]) {
+                            op.call = round.clock.incrementAndGet();
+                            op.outcome = execute(round.coffeeMaker, round.inventory, op);
+                            op.ret = round.clock.incrementAndGet();
+                        }
+                    } catch (RuntimeException e) {
+                        round.error = e;
+                    }
+                    round.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static long execute(CoffeeMaker CM, Inventory inventory, Operation op) {
+        switch (op.kind) {
+            case MAKE_COFFEE:
+                return CM.tryMakeCoffee(CoffeeMakerModel.recipe(op.arg).getName(), op.amount);
+            case ADD_INVENTORY:
+                try {
+                    Ingredient.values()[op.arg].add(CM, op.amount);
+                    return Operation.ACCEPTED;
+                } catch (InvalidValueException e) {
+                    return Operation.REJECTED;
+                }
+            case DELETE_RECIPE:
+                try {
+                    CM.deleteRecipe(CoffeeMakerModel.recipe(op.arg).getName());
+                    return Operation.ACCEPTED;
+                } catch (RecipeException e) {
+                    return Operation.REJECTED;
+                }
+            case ADD_RECIPE:
+                try {
+                    CM.addRecipe(CoffeeMakerModel.recipe(op.arg));
+                    return Operation.ACCEPTED;
+                } catch (AmountOfRecipeException | DuplicatedRecipeException e) {
+                    return Operation.REJECTED;
+                }
+            case READ_LEVELS:
+                return CoffeeMakerModel.pack(inventory.getLevels(), 0);
+            default:
+                int recipes = 0;
+                for (int r = 0; r < CoffeeMakerModel.recipes(); r++) {
+                    if (CM.getRecipe(CoffeeMakerModel.recipe(r).getName()) != null) {
+                        recipes |= 1 << r;
+                    }
+                }
+                return CoffeeMakerModel.pack(inventory.getLevels(), recipes);
+        }
+    }
+
+    /**
+     * Returns the operations of the round and a final read of the
+     * state, which follows all of them in real time.
+     */
+    private Operation[] history(Round round) {
+        Operation[] history = new Operation[threads * opsPerThread + 1];
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(round.plan[t], 0, history, t * opsPerThread, opsPerThread);
+        }
+        Operation last = new Operation(threads, Operation.Kind.READ_STATE, 0, 0);
+        last.call = round.clock.incrementAndGet();
+        last.outcome = execute(round.coffeeMaker, round.inventory, last);
+        last.ret = round.clock.incrementAndGet();
+        history[history.length - 1] = last;
+        return history;
+    }
+
+    /**
+     * Checks a completed history; returns null if it passes or a
+     * description of the failure.
+     */
+    static String check(long initial, Operation[] history) {
+        StringBuilder failure = new StringBuilder();
+        long[] expected = new long[4];
+        for (int i = 0; i < 4; i++) {
+            expected[i] = CoffeeMakerModel.level(initial, i);
+        }
+        for (Operation op : history) {
+            if (op.kind == Operation.Kind.ADD_INVENTORY && op.outcome == Operation.ACCEPTED) {
+                expected[op.arg] += op.amount;
+            } else if (op.kind == Operation.Kind.MAKE_COFFEE && DispenseResult.isOk(op.outcome)) {
+                int[] amounts = CoffeeMakerModel.amounts(CoffeeMakerModel.recipe(op.arg));
+                for (int i = 0; i < 4; i++) {
+                    expected[i] -= amounts[i];
+                }
+            }
+        }
+        long last = history[history.length - 1].outcome;
+        for (int i = 0; i < 4; i++) {
+            long actual = CoffeeMakerModel.level(last, i);
+            if (actual != expected[i]) {
+                failure.append(actual > expected[i] ? "lost update" : "double deduction")
+                        .append(" of ").append(CoffeeMakerModel.INGREDIENTS[i])
+                        .append(": expected ").append(expected[i]).append(" units, found ").append(actual).append("; ");
+            }
+        }
+        if (!LinearizabilityChecker.check(initial, history)) {
+            failure.append("not linearizable; ");
+        }
+        if (failure.length() == 0) {
+            return null;
+        }
+        failure.append("initial ").append(CoffeeMakerModel.describe(initial));
+        Operation[] byCall = history.clone();
+        Arrays.sort(byCall, Comparator.comparingLong(op -> op.call));
+        for (Operation op : byCall) {
+            failure.append("\n    ").append(op);
+        }
+        return failure.toString();
+    }
+
+    private static long randomState(SplittableRandom random) {
+        int[] levels = new int[4];
+        for (int i = 0; i < 4; i++) {
+            // mostly scarce, sometimes close to full so that adds are rejected
+            levels[i] = random.nextInt(4) == 0 ? 85 + random.nextInt(16) : random.nextInt(12);
+        }
+        int recipes = random.nextInt(1 << CoffeeMakerModel.recipes());
+        while (Integer.bitCount(recipes) > CoffeeMakerModel.MAX_RECIPES) {
+            recipes &= recipes - 1;
+        }
+        return CoffeeMakerModel.pack(levels, recipes);
+    }
+
+    private static CoffeeMaker newCoffeeMaker(Inventory inventory, long state) throws InvalidValueException {
+        inventory.setCoffee(CoffeeMakerModel.level(state, 0));
+        inventory.setMilk(CoffeeMakerModel.level(state, 1));
+        inventory.setSugar(CoffeeMakerModel.level(state, 2));
+        inventory.setChocolate(CoffeeMakerModel.level(state, 3));
+        RecipeBook recipeBook = new RecipeBook(CoffeeMakerModel.MAX_RECIPES);
+        try {
+            for (int r = 0; r < CoffeeMakerModel.recipes(); r++) {
+                if (CoffeeMakerModel.hasRecipe(state, r)) {
+                    recipeBook.addRecipe(CoffeeMakerModel.recipe(r));
+                }
+            }
+        } catch (AmountOfRecipeException | DuplicatedRecipeException e) {
+            throw new IllegalStateException(e);
+        }
+        return new CoffeeMaker(recipeBook, inventory);
+    }
+
+    private Operation[] randomOperations(SplittableRandom random, int thread) {
+        Operation[] ops = new Operation[opsPerThread];
+        for (int i = 0; i < ops.length; i++) {
+            int p = random.nextInt(100);
+            int recipe = random.nextInt(CoffeeMakerModel.recipes());
+            if (p < 50) {
+                ops[i] = new Operation(thread, Operation.Kind.MAKE_COFFEE, recipe, 25 + random.nextInt(75));
+            } else if (p < 70) {
+                ops[i] = new Operation(thread, Operation.Kind.ADD_INVENTORY, random.nextInt(4), 1 + random.nextInt(20));
+            } else if (p < 85) {
+                ops[i] = new Operation(thread, Operation.Kind.READ_LEVELS, 0, 0);
+            } else if (p < 92) {
+                ops[i] = new Operation(thread, Operation.Kind.DELETE_RECIPE, recipe, 0);
+            } else {
+                ops[i] = new Operation(thread, Operation.Kind.ADD_RECIPE, recipe, 0);
+            }
+        }
+        return ops;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long operations = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        String[] kinds = args.length > 1 ? new String[] {args[1]} : new String[] {"monitor", "atomic", "striped"};
+        for (String kind : kinds) {
+            InventoryFactory factory;
+            switch (kind) {
+                case "atomic": factory = AtomicInventory::new; break;
+                case "striped": factory = StripedInventory::new; break;
+                default: factory = Inventory::new; break;
+            }
+            StressReport report = new StressHarness(factory, 4, 6, 42).run(operations);
+            System.out.printf("%-8s %s%n", kind, report);
+            for (String failure : report.getFailures()) {
+                System.out.println(failure);
+            }
+        }
+    }
+}
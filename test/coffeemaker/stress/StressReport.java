@@ -0,0 +1,64 @@
+package coffeemaker.stress;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a {@link StressHarness} run: how many histories and
+ * operations were run and checked, how fast, and a description of
+ * every history that failed a check.
+ */
+public final class StressReport {
+
+    private final long histories;
+    private final long operations;
+    private final long elapsedNanos;
+    private final List<String> failures;
+
+    StressReport(long histories, long operations, long elapsedNanos, List<String> failures) {
+        this.histories = histories;
+        this.operations = operations;
+        this.elapsedNanos = elapsedNanos;
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    public long getHistories() {
+        return histories;
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the operations run and checked per second.
+     * @return double
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : operations * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Returns the failed histories, each with the check it failed,
+     * its initial state and its operations; at most
+     * {@link StressHarness#MAX_FAILURES} of them.
+     * @return List
+     */
+    public List<String> getFailures() {
+        return failures;
+    }
+
+    public boolean isClean() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d operations in %,d histories, %.0f ops/s, %d failures",
+                operations, histories, getThroughput(), failures.size());
+    }
+}